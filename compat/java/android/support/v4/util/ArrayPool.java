@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe pool of the {@code int[]} and {@code Object[]} arrays that back
+ * {@link SimpleArrayMap}, {@link ArrayMap} and {@link ArraySet}. Those containers take their
+ * arrays from the pool returned by {@link #getDefault()} and give them back when they grow, shrink
+ * or are cleared, instead of leaving them to the garbage collector.
+ * <p>
+ * Arrays of containers up to a maximum capacity are pooled in size classes of powers of two: a
+ * request for an array is rounded up to the next power of two, so that an array released by one
+ * container can be reused by any other container of a similar size. {@code Object[]} arrays are
+ * pooled up to twice the length of {@code int[]} arrays, as {@link SimpleArrayMap} keeps its keys
+ * and values in an array twice as long as its hashes. Each thread first uses a small pool of its own,
+ * which needs no locking, then a pool shared by all threads.
+ * <p>
+ * {@link #getAllocatedCount()} and {@link #getReusedCount()} tell how many requests were
+ * served by new arrays and by pooled arrays, which can be used to tune the pool with
+ * {@link #setDefault(ArrayPool)}.
+ */
+public class ArrayPool {
+    private static final int TYPE_INT = 0;
+    private static final int TYPE_OBJECT = 1;
+
+    private static volatile ArrayPool sDefault = new ArrayPool(64, 10, 2);
+
+    // Maximum pooled length by type
+    private final int[] mMaxArrayLengths = new int[2];
+    private final int mMaxPooledArrays;
+    private final int mMaxThreadLocalArrays;
+
+    // Shared pools by type and size class. Each one is guarded by its own lock.
+    private final Bucket[][] mGlobalBuckets;
+
+    private final ThreadLocal<Bucket[][]> mThreadLocalBuckets = new ThreadLocal<Bucket[][]>() {
+        @Override
+        protected Bucket[][] initialValue() {
+            return createBuckets(mMaxThreadLocalArrays);
+        }
+    };
+
+    private final AtomicLong mAllocatedCount = new AtomicLong();
+    private final AtomicLong mReusedCount = new AtomicLong();
+
+    /**
+     * Creates a new ArrayPool.
+     *
+     * @param maxArrayLength The maximum length of the {@code int[]} arrays to pool, which is the
+     *                       maximum capacity of the containers using the pool. It is rounded
+     *                       down to a power of two. {@code Object[]} arrays are pooled up to
+     *                       twice this length.
+     * @param maxPooledArrays The maximum number of arrays of each type and size class that are
+     *                        shared by all threads.
+     * @param maxThreadLocalArrays The maximum number of arrays of each type and size class that
+     *                             each thread keeps for itself.
+     */
+    public ArrayPool(int maxArrayLength, int maxPooledArrays, int maxThreadLocalArrays) {
+        if (maxPooledArrays < 0 || maxThreadLocalArrays < 0) {
+            throw new IllegalArgumentException("pool sizes must not be negative");
+        }
+        final int maxIntArrayLength =
+                maxArrayLength <= 0 ? 0 : Integer.highestOneBit(maxArrayLength);
+        mMaxArrayLengths[TYPE_INT] = maxIntArrayLength;
+        mMaxArrayLengths[TYPE_OBJECT] = maxIntArrayLength <= Integer.MAX_VALUE / 2
+                ? maxIntArrayLength * 2 : maxIntArrayLength;
+        mMaxPooledArrays = maxPooledArrays;
+        mMaxThreadLocalArrays = maxThreadLocalArrays;
+        mGlobalBuckets = createBuckets(maxPooledArrays);
+    }
+
+    /**
+     * Returns the pool used by {@link SimpleArrayMap}, {@link ArrayMap} and {@link ArraySet}.
+     */
+    @NonNull
+    public static ArrayPool getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Sets the pool used by {@link SimpleArrayMap}, {@link ArrayMap} and {@link ArraySet}. Arrays
+     * taken from the previous pool are released to the new one.
+     */
+    public static void setDefault(@NonNull ArrayPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("pool must not be null");
+        }
+        sDefault = pool;
+    }
+
+    /**
+     * Returns an {@code int[]} of at least the given length. Its contents are undefined.
+     */
+    @NonNull
+    public int[] acquireIntArray(int minLength) {
+        final int length = roundLength(TYPE_INT, minLength);
+        final int[] array = (int[]) acquire(TYPE_INT, length);
+        return array != null ? array : new int[length];
+    }
+
+    /**
+     * Returns an {@code Object[]} of at least the given length, filled with {@code null}.
+     */
+    @NonNull
+    public Object[] acquireObjectArray(int minLength) {
+        final int length = roundLength(TYPE_OBJECT, minLength);
+        final Object[] array = (Object[]) acquire(TYPE_OBJECT, length);
+        return array != null ? array : new Object[length];
+    }
+
+    /**
+     * Gives an array back to the pool. The caller must not use it anymore.
+     */
+    public void release(@NonNull int[] array) {
+        release(TYPE_INT, array, array.length);
+    }
+
+    /**
+     * Gives an array back to the pool. The caller must not use it anymore. The pool clears the
+     * array, so that it does not keep its elements alive.
+     */
+    public void release(@NonNull Object[] array) {
+        if (isPooledLength(TYPE_OBJECT, array.length)) {
+            Arrays.fill(array, null);
+            release(TYPE_OBJECT, array, array.length);
+        }
+    }
+
+    /**
+     * Returns the number of arrays that had to be allocated because no pooled array was available.
+     */
+    public long getAllocatedCount() {
+        return mAllocatedCount.get();
+    }
+
+    /**
+     * Returns the number of arrays that were taken from the pool instead of being allocated.
+     */
+    public long getReusedCount() {
+        return mReusedCount.get();
+    }
+
+    /**
+     * Drops the arrays shared by all threads, and those kept by the calling thread.
+     */
+    public void clear() {
+        mThreadLocalBuckets.remove();
+        for (Bucket[] buckets : mGlobalBuckets) {
+            for (Bucket bucket : buckets) {
+                synchronized (bucket) {
+                    bucket.clear();
+                }
+            }
+        }
+    }
+
+    private Object acquire(int type, int length) {
+        if (isPooledLength(type, length)) {
+            final int sizeClass = sizeClass(length);
+            Object array = mThreadLocalBuckets.get()[type][sizeClass].pop();
+            if (array == null) {
+                final Bucket bucket = mGlobalBuckets[type][sizeClass];
+                synchronized (bucket) {
+                    array = bucket.pop();
+                }
+            }
+            if (array != null) {
+                mReusedCount.incrementAndGet();
+                return array;
+            }
+        }
+        mAllocatedCount.incrementAndGet();
+        return null;
+    }
+
+    private void release(int type, Object array, int length) {
+        if (!isPooledLength(type, length)) {
+            return;
+        }
+        final int sizeClass = sizeClass(length);
+        if (mThreadLocalBuckets.get()[type][sizeClass].push(array)) {
+            return;
+        }
+        final Bucket bucket = mGlobalBuckets[type][sizeClass];
+        synchronized (bucket) {
+            bucket.push(array);
+        }
+    }
+
+    private int roundLength(int type, int minLength) {
+        if (minLength <= 0 || minLength > mMaxArrayLengths[type]) {
+            return minLength;
+        }
+        return Integer.highestOneBit(minLength * 2 - 1);
+    }
+
+    private boolean isPooledLength(int type, int length) {
+        // Only arrays rounded by roundLength() are pooled. Empty arrays are usually shared
+        // constants and must never be handed out.
+        return length > 0 && length <= mMaxArrayLengths[type] && (length & (length - 1)) == 0;
+    }
+
+    private static int sizeClass(int length) {
+        return Integer.numberOfTrailingZeros(length);
+    }
+
+    private Bucket[][] createBuckets(int capacity) {
+        final Bucket[][] buckets = new Bucket[2][];
+        for (int type = 0; type < 2; type++) {
+            final int maxLength = mMaxArrayLengths[type];
+            final int sizeClasses = maxLength == 0 ? 0 : sizeClass(maxLength) + 1;
+            buckets[type] = new Bucket[sizeClasses];
+            for (int i = 0; i < sizeClasses; i++) {
+                buckets[type][i] = new Bucket(capacity);
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * A stack of arrays of the same type and length. Not thread safe.
+     */
+    private static final class Bucket {
+        private final Object[] mArrays;
+        private int mCount;
+
+        Bucket(int capacity) {
+            mArrays = new Object[capacity];
+        }
+
+        Object pop() {
+            if (mCount == 0) {
+                return null;
+            }
+            final Object array = mArrays[--mCount];
+            mArrays[mCount] = null;
+            return array;
+        }
+
+        boolean push(Object array) {
+            if (mCount == mArrays.length) {
+                return false;
+            }
+            mArrays[mCount++] = array;
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(mArrays, 0, mCount, null);
+            mCount = 0;
+        }
+    }
+}
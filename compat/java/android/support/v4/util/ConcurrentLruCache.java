@@ -0,0 +1,686 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache that holds strong references to a limited number of values, like {@link LruCache}, but
+ * which can be read and written from many threads without contention.
+ * <p>
+ * Lookups go through a {@link ConcurrentHashMap} and do not take any lock. The entries are split
+ * by key hash into segments, and each segment has its own lock and access ordered queue. Writes
+ * only lock the segment of their key, so writers of different segments do not wait for each
+ * other. Instead of moving an entry to the head of its
+ * queue on every access, reads are recorded in a small buffer of the segment, which is applied to
+ * the queue in batches by whichever thread holds the segment lock next. When the buffer is full,
+ * some reads are not recorded.
+ * <p>
+ * The maximum size applies to the whole cache, like in LruCache. When a write takes the cache past
+ * it, the least recently used entries of the written segment are evicted first, and the least
+ * recently used entries of the whole cache once that segment has nothing left to evict but the
+ * new entry. The eviction order is therefore an approximation of the least recently used order of
+ * the whole cache. {@link #trimToSize} and {@link #resize} evict in the least recently used order
+ * of the whole cache.
+ * <p>
+ * This class has the same API as {@link LruCache}, including {@link #sizeOf},
+ * {@link #create} and {@link #entryRemoved}. Like LruCache, it does not allow null keys or
+ * values.
+ */
+public class ConcurrentLruCache<K, V> {
+    // number of reads each segment can buffer before it needs to be drained
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    // drain the buffer once it is this full, before reads start being dropped
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+    private static final int MAX_SEGMENTS = 16;
+    // a cache is only split into segments which can each hold at least this much
+    private static final int MIN_SEGMENT_SIZE = 20;
+
+    private final ConcurrentHashMap<K, Node<K, V>> mMap;
+
+    private final Segment<K, V>[] mSegments;
+    private final int mSegmentShift;
+
+    // Stamps the entries when they are moved to the head of their queue, so that a snapshot can
+    // order the entries of all segments
+    private final AtomicLong mAccessOrder = new AtomicLong();
+
+    private volatile int mMaxSize;
+    // Sum of the sizes of the entries in all of the queues
+    private final AtomicLong mSize = new AtomicLong();
+
+    private final AtomicInteger mCreateCount = new AtomicInteger();
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public ConcurrentLruCache(int maxSize) {
+        this(maxSize, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     * @param concurrencyLevel the expected number of threads writing to the cache at the same
+     *     time. The cache is split into up to that many segments.
+     */
+    public ConcurrentLruCache(int maxSize, int concurrencyLevel) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        }
+        mMaxSize = maxSize;
+        mMap = new ConcurrentHashMap<>(16, 0.75f, concurrencyLevel);
+        int segmentCount = 1;
+        int segmentBits = 0;
+        while (segmentCount < concurrencyLevel && segmentCount < MAX_SEGMENTS
+                && segmentCount * 2 * MIN_SEGMENT_SIZE <= maxSize) {
+            segmentCount *= 2;
+            segmentBits++;
+        }
+        mSegmentShift = 32 - segmentBits;
+        @SuppressWarnings("unchecked")
+        final Segment<K, V>[] segments = new Segment[segmentCount];
+        mSegments = segments;
+        for (int i = 0; i < segmentCount; i++) {
+            mSegments[i] = new Segment<>();
+        }
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        if (mSegments.length == 1) {
+            return mSegments[0];
+        }
+        // the high bits of a multiplicative hash, which don't follow the bins of mMap
+        return mSegments[(key.hashCode() * 0x9E3779B9) >>> mSegmentShift];
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, its access is recorded
+     * so that it is less likely to be evicted. This returns null if a value is not
+     * cached and cannot be created.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        final Segment<K, V> segment = segmentFor(key);
+        final Node<K, V> node = mMap.get(key);
+        if (node != null) {
+            segment.mHitCount.incrementAndGet();
+            recordRead(segment, node);
+            return node.mValue;
+        }
+        segment.mMissCount.incrementAndGet();
+
+        /*
+         * Attempt to create a value. This may take a long time, and the map
+         * may be different when create() returns. If a conflicting value was
+         * added to the map while create() was working, we leave that value in
+         * the map and release the created value.
+         */
+
+        final V createdValue = create(key);
+        if (createdValue == null) {
+            return null;
+        }
+
+        mCreateCount.incrementAndGet();
+        final Node<K, V> createdNode = new Node<>(key, createdValue,
+                safeSizeOf(key, createdValue));
+        final Node<K, V> existing = mMap.putIfAbsent(key, createdNode);
+        if (existing != null) {
+            entryRemoved(false, key, createdValue, existing.mValue);
+            return existing.mValue;
+        }
+        afterWrite(segment, createdNode, null, false);
+        return createdValue;
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * the queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        final Node<K, V> node = new Node<>(key, value, safeSizeOf(key, value));
+        final Node<K, V> previous = mMap.put(key, node);
+        afterWrite(segmentFor(key), node, previous, true);
+        if (previous != null) {
+            entryRemoved(false, key, previous.mValue, value);
+            return previous.mValue;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        final Node<K, V> previous = mMap.remove(key);
+        if (previous == null) {
+            return null;
+        }
+        afterWrite(segmentFor(key), null, previous, false);
+        entryRemoved(false, key, previous.mValue, null);
+        return previous.mValue;
+    }
+
+    /**
+     * Remove the eldest entries until the total of remaining entries is at or
+     * below the requested size.
+     *
+     * @param maxSize the maximum size of the cache before returning. May be -1
+     *            to evict even 0-sized elements.
+     */
+    public void trimToSize(int maxSize) {
+        List<Node<K, V>> evicted = null;
+        lockAll();
+        try {
+            int size = 0;
+            for (Segment<K, V> segment : mSegments) {
+                drainReadBuffer(segment);
+                size += segment.mSize;
+            }
+            while (size > maxSize) {
+                // evict from the segment whose eldest entry was accessed first
+                Segment<K, V> eldestSegment = null;
+                for (Segment<K, V> segment : mSegments) {
+                    checkSizeLocked(segment);
+                    final Node<K, V> eldest = segment.mHead.mNext;
+                    if (eldest != segment.mHead && (eldestSegment == null
+                            || eldest.mOrder < eldestSegment.mHead.mNext.mOrder)) {
+                        eldestSegment = segment;
+                    }
+                }
+                if (eldestSegment == null) {
+                    break;
+                }
+                size -= eldestSegment.mHead.mNext.mSize;
+                evicted = evictEldestLocked(eldestSegment, evicted);
+            }
+        } finally {
+            unlockAll();
+        }
+        notifyEvicted(evicted);
+    }
+
+    private void lockAll() {
+        for (Segment<K, V> segment : mSegments) {
+            segment.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (Segment<K, V> segment : mSegments) {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Applies a write that already happened in the map to the queue of the key's segment and
+     * evicts entries if the cache grew too large.
+     *
+     * @param added The node that was added to the map, if any.
+     * @param removed The node that was replaced or removed from the map, if any.
+     * @param isPut True if the write is a call to {@link #put}.
+     */
+    private void afterWrite(Segment<K, V> segment, Node<K, V> added, Node<K, V> removed,
+            boolean isPut) {
+        List<Node<K, V>> evicted = null;
+        segment.lock();
+        try {
+            drainReadBuffer(segment);
+            if (isPut) {
+                segment.mPutCount++;
+            }
+            if (removed != null) {
+                if (removed.mPrev != null) {
+                    unlink(removed);
+                    segment.mSize -= removed.mSize;
+                    mSize.addAndGet(-removed.mSize);
+                } else {
+                    // a concurrent writer has not linked this node yet. Make sure it never is.
+                    removed.mRetired = true;
+                }
+            }
+            if (added != null && !added.mRetired) {
+                added.mOrder = mAccessOrder.incrementAndGet();
+                linkLast(segment, added);
+                segment.mSize += added.mSize;
+                mSize.addAndGet(added.mSize);
+            }
+            // Evict from this segment first, as it is already locked, but never the entry that
+            // was just written while other segments may still have entries to evict
+            while (true) {
+                checkSizeLocked(segment);
+                final Node<K, V> eldest = segment.mHead.mNext;
+                if (mSize.get() <= mMaxSize || eldest == segment.mHead || eldest == added) {
+                    break;
+                }
+                evicted = evictEldestLocked(segment, evicted);
+            }
+        } finally {
+            segment.unlock();
+        }
+        if (mSize.get() > mMaxSize) {
+            evicted = evictEldest(evicted);
+        }
+        notifyEvicted(evicted);
+    }
+
+    /**
+     * Evicts the least recently used entries of the whole cache until it fits in the maximum
+     * size, locking one segment at a time.
+     */
+    private List<Node<K, V>> evictEldest(List<Node<K, V>> evicted) {
+        while (mSize.get() > mMaxSize) {
+            Segment<K, V> eldestSegment = null;
+            long eldestOrder = Long.MAX_VALUE;
+            for (Segment<K, V> segment : mSegments) {
+                segment.lock();
+                try {
+                    drainReadBuffer(segment);
+                    final Node<K, V> eldest = segment.mHead.mNext;
+                    if (eldest != segment.mHead && eldest.mOrder < eldestOrder) {
+                        eldestSegment = segment;
+                        eldestOrder = eldest.mOrder;
+                    }
+                } finally {
+                    segment.unlock();
+                }
+            }
+            if (eldestSegment == null) {
+                break;
+            }
+            eldestSegment.lock();
+            try {
+                // another writer may have evicted or accessed entries in the meantime
+                if (mSize.get() > mMaxSize && eldestSegment.mHead.mNext != eldestSegment.mHead) {
+                    evicted = evictEldestLocked(eldestSegment, evicted);
+                }
+            } finally {
+                eldestSegment.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    private List<Node<K, V>> evictEldestLocked(Segment<K, V> segment,
+            List<Node<K, V>> evicted) {
+        final Node<K, V> eldest = segment.mHead.mNext;
+        unlink(eldest);
+        segment.mSize -= eldest.mSize;
+        mSize.addAndGet(-eldest.mSize);
+        // If the node was replaced concurrently, the writer that replaced it reports the
+        // removal instead.
+        if (mMap.remove(eldest.mKey, eldest)) {
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(eldest);
+            segment.mEvictionCount++;
+        }
+        return evicted;
+    }
+
+    private void checkSizeLocked(Segment<K, V> segment) {
+        if (segment.mSize < 0 || (segment.mHead.mNext == segment.mHead && segment.mSize != 0)) {
+            throw new IllegalStateException(getClass().getName()
+                    + ".sizeOf() is reporting inconsistent results!");
+        }
+    }
+
+    private void notifyEvicted(List<Node<K, V>> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        for (int i = 0; i < evicted.size(); i++) {
+            final Node<K, V> node = evicted.get(i);
+            entryRemoved(true, node.mKey, node.mValue, null);
+        }
+    }
+
+    private void recordRead(Segment<K, V> segment, Node<K, V> node) {
+        final int writeCount = segment.mWriteCount.get();
+        final int pending = writeCount - segment.mReadCount;
+        if (pending < READ_BUFFER_SIZE && segment.mWriteCount.compareAndSet(writeCount,
+                writeCount + 1)) {
+            segment.mBuffer.lazySet(writeCount & READ_BUFFER_MASK, node);
+        }
+        // otherwise the buffer is full or contended and this read is dropped
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD && segment.tryLock()) {
+            try {
+                drainReadBuffer(segment);
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer(Segment<K, V> segment) {
+        final int writeCount = segment.mWriteCount.get();
+        if (writeCount == segment.mReadCount) {
+            return;
+        }
+        // reserve the stamps of the whole batch at once
+        long order = mAccessOrder.getAndAdd(writeCount - segment.mReadCount) + 1;
+        for (int i = segment.mReadCount; i != writeCount; i++) {
+            final int index = i & READ_BUFFER_MASK;
+            @SuppressWarnings("unchecked")
+            final Node<K, V> node = (Node<K, V>) segment.mBuffer.get(index);
+            if (node == null) {
+                // the reader has not published the node yet, try again in the next drain
+                segment.mReadCount = i;
+                return;
+            }
+            segment.mBuffer.lazySet(index, null);
+            if (node.mPrev != null) {
+                unlink(node);
+                node.mOrder = order++;
+                linkLast(segment, node);
+            }
+            segment.mReadCount = i + 1;
+        }
+    }
+
+    private static <K, V> void linkLast(Segment<K, V> segment, Node<K, V> node) {
+        final Node<K, V> head = segment.mHead;
+        final Node<K, V> last = head.mPrev;
+        node.mPrev = last;
+        node.mNext = head;
+        last.mNext = node;
+        head.mPrev = node;
+    }
+
+    private static <K, V> void unlink(Node<K, V> node) {
+        node.mPrev.mNext = node.mNext;
+        node.mNext.mPrev = node.mPrev;
+        node.mPrev = null;
+        node.mNext = null;
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked when a value is evicted to make space, removed by a call to
+     * {@link #remove}, or replaced by a call to {@link #put}. The default
+     * implementation does nothing.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * @param evicted true if the entry is being removed to make space, false
+     *     if the removal was caused by a {@link #put} or {@link #remove}.
+     * @param newValue the new value for {@code key}, if it exists. If non-null,
+     *     this removal was caused by a {@link #put}. Otherwise it was caused by
+     *     an eviction or a {@link #remove}.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key.
+     * Returns the computed value or null if no value can be computed. The
+     * default implementation returns null.
+     *
+     * <p>The method is called without synchronization: other threads may
+     * access the cache while this method is executing.
+     *
+     * <p>If a value for {@code key} exists in the cache when this method
+     * returns, the created value will be released with {@link #entryRemoved}
+     * and discarded. This can occur when multiple threads request the same key
+     * at the same time (causing multiple values to be created), or when one
+     * thread calls {@link #put} while another is creating a value for the same
+     * key.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units.  The default implementation returns 1 so that size
+     * is the number of entries and max size is the maximum number of entries.
+     *
+     * <p>An entry's size must not change while it is in the cache.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        trimToSize(-1); // -1 will evict 0-sized elements
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public final int size() {
+        return (int) mSize.get();
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the maximum
+     * number of entries in the cache. For all other caches, this returns the
+     * maximum sum of the sizes of the entries in this cache.
+     */
+    public final int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned a value that was
+     * already present in the cache.
+     */
+    public final int hitCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.mHitCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #get} returned null or required a new
+     * value to be created.
+     */
+    public final int missCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.mMissCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times {@link #create(Object)} returned a value.
+     */
+    public final int createCount() {
+        return mCreateCount.get();
+    }
+
+    /**
+     * Returns the number of times {@link #put} was called.
+     */
+    public final int putCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.mPutCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of values that have been evicted.
+     */
+    public final int evictionCount() {
+        int count = 0;
+        for (Segment<K, V> segment : mSegments) {
+            count += segment.mEvictionCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed.
+     */
+    public final Map<K, V> snapshot() {
+        final List<Node<K, V>> nodes = new ArrayList<>();
+        lockAll();
+        try {
+            for (Segment<K, V> segment : mSegments) {
+                drainReadBuffer(segment);
+                for (Node<K, V> node = segment.mHead.mNext; node != segment.mHead;
+                        node = node.mNext) {
+                    nodes.add(node);
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+        if (mSegments.length > 1) {
+            Collections.sort(nodes, ACCESS_ORDER);
+        }
+        final Map<K, V> snapshot = new LinkedHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            final Node<K, V> node = nodes.get(i);
+            snapshot.put(node.mKey, node.mValue);
+        }
+        return snapshot;
+    }
+
+    @Override public final String toString() {
+        int hitCount = hitCount();
+        int accesses = hitCount + missCount();
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("ConcurrentLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                mMaxSize, hitCount, accesses - hitCount, hitPercent);
+    }
+
+    private static final Comparator<Node<?, ?>> ACCESS_ORDER = new Comparator<Node<?, ?>>() {
+        @Override
+        public int compare(Node<?, ?> lhs, Node<?, ?> rhs) {
+            return lhs.mOrder < rhs.mOrder ? -1 : (lhs.mOrder == rhs.mOrder ? 0 : 1);
+        }
+    };
+
+    private static class Node<K, V> {
+        final K mKey;
+        final V mValue;
+        final int mSize;
+
+        // Queue links, guarded by the segment lock. Both are null while the node is not in the
+        // queue.
+        Node<K, V> mPrev;
+        Node<K, V> mNext;
+        // When the node was last moved to the head of its queue. Guarded by the segment lock.
+        long mOrder;
+        // True if the node was replaced or removed before it could be added to the queue.
+        // Guarded by the segment lock.
+        boolean mRetired;
+
+        Node(K key, V value, int size) {
+            mKey = key;
+            mValue = value;
+            mSize = size;
+        }
+    }
+
+    /**
+     * The entries of a range of key hashes: an access ordered queue, a lossy ring buffer of reads that still need to be applied to the queue, and
+     * the statistics of the keys. The segment is its own lock.
+     */
+    @SuppressWarnings("serial")
+    private static class Segment<K, V> extends ReentrantLock {
+        // Sentinel of the access ordered queue. mHead.mNext is the least recently used entry.
+        // Guarded by the lock.
+        final Node<K, V> mHead = new Node<>(null, null, 0);
+
+        // Written while holding the lock, and read without it for the statistics.
+        volatile int mSize;
+        volatile int mPutCount;
+        volatile int mEvictionCount;
+
+        final AtomicReferenceArray<Object> mBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        final AtomicInteger mWriteCount = new AtomicInteger();
+        // Only written while holding the lock. Readers check it to see if the buffer is full.
+        volatile int mReadCount;
+
+        final AtomicInteger mHitCount = new AtomicInteger();
+        final AtomicInteger mMissCount = new AtomicInteger();
+
+        Segment() {
+            mHead.mPrev = mHead;
+            mHead.mNext = mHead;
+        }
+    }
+}
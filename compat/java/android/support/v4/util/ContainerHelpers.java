@@ -37,6 +37,28 @@ class ContainerHelpers {
         return need;
     }
 
+    // Spreads the bits of a key so that consecutive keys do not cluster in a hash table.
+    static int hash(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int hash(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Returns the number of slots of a hash table that holds up to need entries while staying
+    // at most half full. The result is always a power of two.
+    static int idealHashTableSize(int need) {
+        return need == 0 ? 0 : Integer.highestOneBit(need * 4 - 1);
+    }
+
+    // Returns the size to grow an array of the given size to.
+    static int growSize(int size) {
+        return size < 4 ? 8 : size * 2;
+    }
+
     public static boolean equal(Object a, Object b) {
         return a == b || (a != null && a.equals(b));
     }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+/**
+ * A compact, probabilistic estimate of how often keys were accessed recently, used by
+ * {@link LruCache} to decide whether a new entry is worth evicting an older one (TinyLFU).
+ * <p>
+ * This is a count-min sketch with four rows of 4-bit counters packed into longs. Once the number of
+ * recorded accesses reaches ten times the capacity, all counters are halved so that the estimates
+ * favor recent accesses.
+ * <p>
+ * This class is not thread safe.
+ */
+final class FrequencySketch {
+    // 4-bit counters, 16 per long
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_COUNT = 15;
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private long[] mTable;
+    private int mTableMask;
+    private int mSampleSize;
+    private int mSize;
+
+    FrequencySketch(int capacity) {
+        mTable = new long[0];
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Grows the sketch so that it can estimate the frequencies of {@code capacity} keys. Growing
+     * the sketch drops the recorded frequencies.
+     */
+    void ensureCapacity(int capacity) {
+        final int maximum = Math.max(Math.min(capacity, 1 << 30), 1);
+        if (mTable.length >= maximum) {
+            return;
+        }
+        mTable = new long[Integer.highestOneBit(maximum * 2 - 1)];
+        mTableMask = mTable.length - 1;
+        mSampleSize = maximum > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : 10 * maximum;
+        mSize = 0;
+    }
+
+    /**
+     * Returns the estimated number of recent accesses of the key, up to 15.
+     */
+    int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        // each row uses a different counter within the long it picks
+        final int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            final int index = indexOf(hash, i);
+            final int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access of the key.
+     */
+    void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++mSize >= mSampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        if ((mTable[index] & mask) != mask) {
+            mTable[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves all counters so that old accesses count less than new ones.
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < mTable.length; i++) {
+            odd += Long.bitCount(mTable[i] & ONE_MASK);
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize = (mSize >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return ((int) h) & mTableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v4.util;
+
+import java.util.Arrays;
+
+/**
+ * A hash table mapping longs to ints. It has the same methods as {@link LongSparseArray},
+ * but finds, inserts and removes keys in constant time instead of with a binary search and an
+ * array copy, which makes it a better fit for maps with many thousands of entries.
+ * <p>
+ * Keys and values are stored in primitive arrays without boxing and without an object per entry,
+ * next to an open-addressing index of those arrays. The entries are not sorted by key: the
+ * indices used by {@link #keyAt(int)} and {@link #valueAt(int)} range over
+ * <code>0...size()-1</code> in insertion order, except that removing an entry moves the last
+ * entry into its place.
+ */
+public class LongIntMap implements Cloneable {
+    private long[] mKeys;
+    private int[] mValues;
+    private int mSize;
+    // Indices of the entries plus one, by hash of their keys. Zero marks an empty slot.
+    private int[] mSlots;
+
+    /**
+     * Creates a new LongIntMap containing no mappings.
+     */
+    public LongIntMap() {
+        this(10);
+    }
+
+    /**
+     * Creates a new LongIntMap containing no mappings that will not
+     * require any additional memory allocation to store the specified
+     * number of mappings.  If you supply an initial capacity of 0, the
+     * map will be initialized with a light-weight representation
+     * not requiring any additional array allocations.
+     */
+    public LongIntMap(int initialCapacity) {
+        if (initialCapacity == 0) {
+            mKeys = ContainerHelpers.EMPTY_LONGS;
+            mValues = ContainerHelpers.EMPTY_INTS;
+            mSlots = ContainerHelpers.EMPTY_INTS;
+        } else {
+            mKeys = new long[initialCapacity];
+            mValues = new int[initialCapacity];
+            mSlots = new int[ContainerHelpers.idealHashTableSize(initialCapacity)];
+        }
+        mSize = 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public LongIntMap clone() {
+        LongIntMap clone = null;
+        try {
+            clone = (LongIntMap) super.clone();
+            clone.mKeys = mKeys.clone();
+            clone.mValues = mValues.clone();
+            clone.mSlots = mSlots.clone();
+        } catch (CloneNotSupportedException cnse) {
+            /* ignore */
+        }
+        return clone;
+    }
+
+    /**
+     * Gets the int mapped from the specified key, or <code>0</code>
+     * if no such mapping has been made.
+     */
+    public int get(long key) {
+        return get(key, 0);
+    }
+
+    /**
+     * Gets the int mapped from the specified key, or the specified int
+     * if no such mapping has been made.
+     */
+    public int get(long key, int valueIfKeyNotFound) {
+        int slot = findSlot(key);
+
+        if (slot < 0) {
+            return valueIfKeyNotFound;
+        } else {
+            return mValues[mSlots[slot] - 1];
+        }
+    }
+
+    /**
+     * Returns true if the specified key is mapped.
+     */
+    public boolean containsKey(long key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * Removes the mapping from the specified key, if there was any.
+     */
+    public void delete(long key) {
+        int slot = findSlot(key);
+
+        if (slot >= 0) {
+            removeEntry(slot, mSlots[slot] - 1);
+        }
+    }
+
+    /**
+     * Alias for {@link #delete(long)}.
+     */
+    public void remove(long key) {
+        delete(key);
+    }
+
+    /**
+     * Removes the mapping at the specified index. The last mapping is
+     * moved to this index.
+     */
+    public void removeAt(int index) {
+        removeEntry(findSlot(mKeys[index]), index);
+    }
+
+    /**
+     * Adds a mapping from the specified key to the specified value,
+     * replacing the previous mapping from the specified key if there
+     * was one.
+     */
+    public void put(long key, int value) {
+        int slot = findSlot(key);
+
+        if (slot >= 0) {
+            mValues[mSlots[slot] - 1] = value;
+            return;
+        }
+
+        if (mSize >= mKeys.length) {
+            int n = ContainerHelpers.growSize(mSize);
+
+            long[] nkeys = new long[n];
+            int[] nvalues = new int[n];
+
+            System.arraycopy(mKeys, 0, nkeys, 0, mSize);
+            System.arraycopy(mValues, 0, nvalues, 0, mSize);
+
+            mKeys = nkeys;
+            mValues = nvalues;
+            rehash();
+
+            // Search again because the slots have changed.
+            slot = findSlot(key);
+        }
+
+        mKeys[mSize] = key;
+        mValues[mSize] = value;
+        mSlots[~slot] = ++mSize;
+    }
+
+    /**
+     * Returns the number of key-value mappings that this LongIntMap
+     * currently stores.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns true if this LongIntMap contains no mappings.
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, returns
+     * the key from the <code>index</code>th key-value mapping that this
+     * LongIntMap stores.
+     */
+    public long keyAt(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, returns
+     * the value from the <code>index</code>th key-value mapping that this
+     * LongIntMap stores.
+     */
+    public int valueAt(int index) {
+        return mValues[index];
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, sets a new
+     * value for the <code>index</code>th key-value mapping that this
+     * LongIntMap stores.
+     */
+    public void setValueAt(int index, int value) {
+        mValues[index] = value;
+    }
+
+    /**
+     * Returns the index for which {@link #keyAt} would return the
+     * specified key, or a negative number if the specified
+     * key is not mapped.
+     */
+    public int indexOfKey(long key) {
+        int slot = findSlot(key);
+        return slot < 0 ? -1 : mSlots[slot] - 1;
+    }
+
+    /**
+     * Returns an index for which {@link #valueAt} would return the
+     * specified key, or a negative number if no keys map to the
+     * specified value.
+     * <p>Beware that this is a linear search, unlike lookups by key,
+     * and that multiple keys can map to the same value and this will
+     * find only one of them.
+     */
+    public int indexOfValue(int value) {
+        for (int i = 0; i < mSize; i++)
+            if (mValues[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * Removes all key-value mappings from this LongIntMap.
+     */
+    public void clear() {
+        Arrays.fill(mSlots, 0);
+        mSize = 0;
+    }
+
+    /**
+     * Returns the slot of the specified key, or the bitwise complement of
+     * the empty slot where it would be inserted.
+     */
+    private int findSlot(long key) {
+        final int[] slots = mSlots;
+        if (slots.length == 0) {
+            return ~0;
+        }
+        final int mask = slots.length - 1;
+        int slot = ContainerHelpers.hash(key) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (mKeys[entry - 1] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    private void removeEntry(int slot, int index) {
+        // Shift back the entries that follow in the probe sequence, so that
+        // no tombstones are needed.
+        final int[] slots = mSlots;
+        final int mask = slots.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            final int entry = slots[next];
+            if (entry == 0) {
+                break;
+            }
+            final int home = ContainerHelpers.hash(mKeys[entry - 1]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                slots[slot] = entry;
+                slot = next;
+            }
+        }
+        slots[slot] = 0;
+
+        // Move the last entry into the gap so that the entries stay dense.
+        final int last = mSize - 1;
+        if (index != last) {
+            slots[findSlot(mKeys[last])] = index + 1;
+            mKeys[index] = mKeys[last];
+            mValues[index] = mValues[last];
+        }
+        mSize = last;
+    }
+
+    private void rehash() {
+        final int[] slots = new int[ContainerHelpers.idealHashTableSize(mKeys.length)];
+        final int mask = slots.length - 1;
+        for (int i = 0; i < mSize; i++) {
+            int slot = ContainerHelpers.hash(mKeys[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+        mSlots = slots;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation composes a string by iterating over its mappings.
+     */
+    @Override
+    public String toString() {
+        if (size() <= 0) {
+            return "{}";
+        }
+
+        StringBuilder buffer = new StringBuilder(mSize * 28);
+        buffer.append('{');
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            long key = keyAt(i);
+            buffer.append(key);
+            buffer.append('=');
+            buffer.append(valueAt(i));
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+}
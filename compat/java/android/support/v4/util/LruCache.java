@@ -25,6 +25,14 @@ import java.util.Map;
  * this implementation is still used; it does not try to switch to the
  * framework's implementation. See the framework SDK documentation for a class
  * overview.
+ *
+ * <p>A cache created with {@link #LruCache(int, boolean)} can also use an
+ * admission filter: it keeps an estimate of how often each key was accessed
+ * recently and, when the cache is full, only lets a new entry evict the least
+ * recently used one if the new key was accessed more often. This keeps a single
+ * pass over many keys, such as flinging through a long list of thumbnails, from
+ * flushing out the entries that are used over and over. The effect on the hit
+ * rate can be measured with {@link #hitCount()} and {@link #missCount()}.
  */
 public class LruCache<K, V> {
     private final LinkedHashMap<K, V> map;
@@ -39,17 +47,35 @@ public class LruCache<K, V> {
     private int hitCount;
     private int missCount;
 
+    /** Recent access frequencies of keys, or null if there is no admission filter. */
+    private final FrequencySketch sketch;
+    /** The most recently added key, which may be evicted instead of the eldest entry. */
+    private K candidate;
+
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
      *     the maximum number of entries in the cache. For all other caches,
      *     this is the maximum sum of the sizes of the entries in this cache.
      */
     public LruCache(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     * @param admissionFilter true to track how often keys are accessed and
+     *     evict a newly added entry instead of the eldest one when the new key
+     *     was not accessed more often than the eldest key.
+     */
+    public LruCache(int maxSize, boolean admissionFilter) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
         this.map = new LinkedHashMap<K, V>(0, 0.75f, true);
+        this.sketch = admissionFilter ? new FrequencySketch(16) : null;
     }
 
     /**
@@ -81,6 +107,7 @@ public class LruCache<K, V> {
 
         V mapValue;
         synchronized (this) {
+            recordAccess(key);
             mapValue = map.get(key);
             if (mapValue != null) {
                 hitCount++;
@@ -110,6 +137,7 @@ public class LruCache<K, V> {
                 map.put(key, mapValue);
             } else {
                 size += safeSizeOf(key, createdValue);
+                onEntryAdded(key);
             }
         }
 
@@ -136,10 +164,13 @@ public class LruCache<K, V> {
         V previous;
         synchronized (this) {
             putCount++;
+            recordAccess(key);
             size += safeSizeOf(key, value);
             previous = map.put(key, value);
             if (previous != null) {
                 size -= safeSizeOf(key, previous);
+            } else {
+                onEntryAdded(key);
             }
         }
 
@@ -175,6 +206,20 @@ public class LruCache<K, V> {
                 Map.Entry<K, V> toEvict = map.entrySet().iterator().next();
                 key = toEvict.getKey();
                 value = toEvict.getValue();
+                if (candidate != null) {
+                    if (candidate.equals(key)) {
+                        candidate = null;
+                    } else if (sketch.frequency(candidate) <= sketch.frequency(key)) {
+                        // The new entry is not used more often than the eldest one,
+                        // so it is evicted instead.
+                        key = candidate;
+                        value = map.get(candidate);
+                        candidate = null;
+                        if (value == null) {
+                            continue; // removed in the meantime
+                        }
+                    }
+                }
                 map.remove(key);
                 size -= safeSizeOf(key, value);
                 evictionCount++;
@@ -184,6 +229,19 @@ public class LruCache<K, V> {
         }
     }
 
+    private void recordAccess(K key) {
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+    }
+
+    private void onEntryAdded(K key) {
+        if (sketch != null) {
+            sketch.ensureCapacity(map.size());
+            candidate = key;
+        }
+    }
+
     /**
      * Removes the entry for {@code key} if it exists.
      *
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ArrayPoolTest {
+    private ArrayPool mPreviousPool;
+
+    @Before
+    public void setUp() {
+        mPreviousPool = ArrayPool.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        ArrayPool.setDefault(mPreviousPool);
+    }
+
+    @Test
+    public void testRoundsLengthToSizeClass() {
+        ArrayPool pool = new ArrayPool(64, 4, 0);
+        assertEquals(8, pool.acquireIntArray(5).length);
+        assertEquals(64, pool.acquireObjectArray(64).length);
+        // too long to pool
+        assertEquals(65, pool.acquireIntArray(65).length);
+        assertEquals(0, pool.acquireObjectArray(0).length);
+    }
+
+    @Test
+    public void testPoolsObjectArraysOfFullMaps() {
+        ArrayPool pool = new ArrayPool(64, 4, 0);
+        // a map of 64 entries keeps its keys and values in 128 objects
+        assertEquals(128, pool.acquireObjectArray(65).length);
+        assertEquals(65, pool.acquireIntArray(65).length);
+        assertEquals(129, pool.acquireObjectArray(129).length);
+
+        ArrayPool.setDefault(pool);
+        SimpleArrayMap<Integer, Integer> map = new SimpleArrayMap<>(64);
+        map.put(0, 0);
+        map.clear();
+        long allocated = pool.getAllocatedCount();
+        new SimpleArrayMap<Integer, Integer>(64);
+        assertEquals(2, pool.getReusedCount());
+        assertEquals(allocated, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void testReusesReleasedArrays() {
+        ArrayPool pool = new ArrayPool(64, 1, 1);
+        Object[] first = pool.acquireObjectArray(12);
+        Object[] second = pool.acquireObjectArray(16);
+        first[3] = "a";
+        pool.release(first);
+        pool.release(second);
+        assertEquals(2, pool.getAllocatedCount());
+
+        // the thread local array is returned first, then the shared one
+        assertSame(first, pool.acquireObjectArray(9));
+        assertSame(second, pool.acquireObjectArray(16));
+        assertNull(first[3]);
+        assertNotSame(first, pool.acquireObjectArray(16));
+        assertEquals(2, pool.getReusedCount());
+        assertEquals(3, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void testDropsArraysBeyondDepth() {
+        ArrayPool pool = new ArrayPool(64, 1, 0);
+        pool.release(new int[4]);
+        pool.release(new int[4]);
+        pool.acquireIntArray(4);
+        pool.acquireIntArray(4);
+        assertEquals(1, pool.getReusedCount());
+        assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void testIgnoresForeignLengths() {
+        ArrayPool pool = new ArrayPool(64, 4, 4);
+        pool.release(new int[12]);
+        pool.release(new Object[0]);
+        pool.acquireIntArray(12);
+        pool.acquireObjectArray(0);
+        assertEquals(0, pool.getReusedCount());
+    }
+
+    @Test
+    public void testContainersShareThePool() {
+        ArrayPool pool = new ArrayPool(64, 4, 2);
+        ArrayPool.setDefault(pool);
+        SimpleArrayMap<Integer, Integer> map = new SimpleArrayMap<>();
+        for (int i = 0; i < 20; i++) {
+            map.put(i, i);
+        }
+        map.clear();
+        long allocated = pool.getAllocatedCount();
+        ArraySet<Integer> set = new ArraySet<>();
+        for (int i = 0; i < 20; i++) {
+            set.add(i);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertTrue(set.contains(i));
+        }
+        // the set reuses the hash arrays released by the map as it grows
+        assertTrue(pool.getReusedCount() > 0);
+        assertTrue(pool.getAllocatedCount() < allocated * 2);
+
+        ArrayMap<String, String> arrayMap = new ArrayMap<>();
+        arrayMap.put("a", "b");
+        arrayMap.remove("a");
+        arrayMap.put("c", "d");
+        assertEquals("d", arrayMap.get("c"));
+        assertEquals(1, arrayMap.size());
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ConcurrentLruCacheTest {
+    private static final String TAG = ConcurrentLruCache.class.getSimpleName();
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(3);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        assertEquals("A", cache.get("a"));
+        cache.put("d", "D");
+        assertNull(cache.get("b"));
+        assertEquals(Arrays.asList("c", "a", "d"), new ArrayList<>(cache.snapshot().keySet()));
+        assertEquals(1, cache.evictionCount());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testStatistics() {
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<String, String>(3) {
+            @Override
+            protected String create(String key) {
+                return key.startsWith("new") ? key.toUpperCase() : null;
+            }
+        };
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("NEWC", cache.get("newc"));
+        assertEquals("NEWC", cache.get("newc"));
+        assertEquals(2, cache.hitCount());
+        assertEquals(2, cache.missCount());
+        assertEquals(1, cache.createCount());
+        assertEquals(1, cache.putCount());
+    }
+
+    @Test
+    public void testSizeOfAndEntryRemoved() {
+        final List<String> removed = new ArrayList<>();
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<String, String>(10) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return value.length();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, String oldValue,
+                    String newValue) {
+                removed.add(key + "=" + oldValue + (evicted ? " evicted" : ""));
+            }
+        };
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals(8, cache.size());
+        cache.put("a", "aa");
+        assertEquals(6, cache.size());
+        cache.put("c", "cccccc");
+        assertEquals(8, cache.size());
+        cache.remove("c");
+        assertEquals(Arrays.asList("a=aaaa", "b=bbbb evicted", "c=cccccc"), removed);
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertEquals(4, removed.size());
+    }
+
+    @Test
+    public void testResize() {
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+        }
+        cache.resize(4);
+        assertEquals(4, cache.size());
+        assertEquals(4, cache.maxSize());
+        assertEquals(Arrays.asList(6, 7, 8, 9), new ArrayList<>(cache.snapshot().keySet()));
+    }
+
+    @Test
+    public void testSegmentsShareTheMaxSize() {
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(160, 4);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(160, cache.maxSize());
+        // the maximum size applies to the whole cache, not to each of the 4 segments
+        assertEquals(160, cache.size());
+        assertEquals(840, cache.evictionCount());
+        assertEquals(1000, cache.putCount());
+        assertEquals(Integer.valueOf(999), cache.get(999));
+    }
+
+    @Test
+    public void testKeepsEntryLargerThanSegmentShare() {
+        final List<Integer> evictedKeys = new ArrayList<>();
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<Integer, Integer>(
+                160, 4) {
+            @Override
+            protected int sizeOf(Integer key, Integer value) {
+                return value;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key, Integer oldValue,
+                    Integer newValue) {
+                if (evicted) {
+                    evictedKeys.add(key);
+                }
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, 10);
+        }
+        // far more than the 40 of each segment, but it fits in the cache
+        cache.put(100, 100);
+        assertEquals(Integer.valueOf(100), cache.get(100));
+        assertEquals(160, cache.size());
+        // four of the small entries made room for it
+        assertEquals(4, evictedKeys.size());
+        assertTrue(evictedKeys.indexOf(100) < 0);
+
+        // an entry larger than the whole cache is not kept, like in LruCache
+        cache.put(200, 200);
+        assertNull(cache.get(200));
+        assertTrue(cache.size() <= 160);
+    }
+
+    @Test
+    public void testSmallCacheKeepsOneSegment() {
+        // too small to split, so the eviction order is exact
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(30, 16);
+        for (int i = 0; i < 30; i++) {
+            cache.put(i, i);
+        }
+        cache.get(0);
+        cache.put(30, 30);
+        assertNull(cache.get(1));
+        assertEquals(Integer.valueOf(0), cache.get(0));
+        assertEquals(30, cache.size());
+    }
+
+    @Test
+    public void testTrimToSizeAcrossSegments() {
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<>(1000, 8);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        for (int i = 0; i < 50; i++) {
+            cache.get(i);
+        }
+        assertEquals(100, cache.size());
+        // the snapshot and trimToSize follow the access order of the whole cache. Reads are
+        // ordered when they are applied, so only the order of the writes is exact.
+        List<Integer> keys = new ArrayList<>(cache.snapshot().keySet());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i + 50), keys.get(i));
+        }
+        cache.trimToSize(50);
+        List<Integer> remaining = new ArrayList<>(cache.snapshot().keySet());
+        Collections.sort(remaining);
+        assertEquals(keys.subList(50, 100).size(), remaining.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i), remaining.get(i));
+        }
+        assertEquals(50, cache.evictionCount());
+        cache.evictAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @LargeTest
+    public void testConcurrentAccessKeepsSizeConsistent() throws InterruptedException {
+        final ConcurrentLruCache<Integer, Integer> cache =
+                new ConcurrentLruCache<Integer, Integer>(500) {
+                    @Override
+                    protected int sizeOf(Integer key, Integer value) {
+                        return 1 + (key & 3);
+                    }
+                };
+        runConcurrently(8, 100000, new Operation() {
+            @Override
+            public void run(Random random) {
+                final Integer key = random.nextInt(1000);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        cache.put(key, key);
+                        break;
+                    case 1:
+                        cache.remove(key);
+                        break;
+                    default:
+                        Integer value = cache.get(key);
+                        assertTrue(value == null || value.equals(key));
+                }
+            }
+        });
+        int size = 0;
+        for (Integer key : cache.snapshot().keySet()) {
+            size += 1 + (key & 3);
+        }
+        assertEquals(size, cache.size());
+        assertTrue(cache.size() <= 500);
+    }
+
+    /**
+     * Compares the throughput of LruCache and ConcurrentLruCache when many threads read hot
+     * entries at the same time, with and without concurrent writes.
+     */
+    @Test
+    @LargeTest
+    public void testThroughputAgainstLruCache() throws InterruptedException {
+        final int threads = 8;
+        final int opsPerThread = 500000;
+        for (final int writePercent : new int[] {0, 25}) {
+            final LruCache<Integer, Integer> lruCache = new LruCache<>(1000);
+            final ConcurrentLruCache<Integer, Integer> concurrentCache =
+                    new ConcurrentLruCache<>(1000);
+            for (int i = 0; i < 1000; i++) {
+                lruCache.put(i, i);
+                concurrentCache.put(i, i);
+            }
+            for (int round = 0; round < 3; round++) {
+                long lruNs = runConcurrently(threads, opsPerThread, new Operation() {
+                    @Override
+                    public void run(Random random) {
+                        final Integer key = random.nextInt(1200);
+                        if (random.nextInt(100) < writePercent) {
+                            lruCache.put(key, key);
+                        } else {
+                            lruCache.get(key);
+                        }
+                    }
+                });
+                long concurrentNs = runConcurrently(threads, opsPerThread, new Operation() {
+                    @Override
+                    public void run(Random random) {
+                        final Integer key = random.nextInt(1200);
+                        if (random.nextInt(100) < writePercent) {
+                            concurrentCache.put(key, key);
+                        } else {
+                            concurrentCache.get(key);
+                        }
+                    }
+                });
+                Log.i(TAG, threads + " threads on " + Runtime.getRuntime().availableProcessors()
+                        + " cpus, " + writePercent + "% writes: LruCache "
+                        + (lruNs / 1000000) + " ms, ConcurrentLruCache "
+                        + (concurrentNs / 1000000) + " ms");
+            }
+        }
+    }
+
+    private interface Operation {
+        void run(Random random);
+    }
+
+    private static long runConcurrently(int threadCount, final int opsPerThread,
+            final Operation operation) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threadCount; i++) {
+            final long seed = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    final Random random = new Random(seed);
+                    try {
+                        start.await();
+                        for (int op = 0; op < opsPerThread; op++) {
+                            operation.run(random);
+                        }
+                    } catch (Throwable t) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        final long startNs = System.nanoTime();
+        start.countDown();
+        done.await();
+        assertEquals(0, failures.get());
+        return System.nanoTime() - startNs;
+    }
+}
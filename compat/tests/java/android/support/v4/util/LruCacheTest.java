@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LruCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWithoutAdmissionFilter() {
+        LruCache<String, String> cache = new LruCache<>(3);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        cache.get("a");
+        cache.put("d", "D");
+        assertEquals(Arrays.asList("c", "a", "d"), new ArrayList<>(cache.snapshot().keySet()));
+    }
+
+    @Test
+    public void testAdmissionFilterRejectsRarelyUsedEntry() {
+        final List<String> evicted = new ArrayList<>();
+        LruCache<String, String> cache = new LruCache<String, String>(3, true) {
+            @Override
+            protected void entryRemoved(boolean wasEvicted, String key, String oldValue,
+                    String newValue) {
+                if (wasEvicted) {
+                    evicted.add(key);
+                }
+            }
+        };
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        for (int i = 0; i < 3; i++) {
+            cache.get("a");
+            cache.get("b");
+            cache.get("c");
+        }
+        cache.put("d", "D");
+        assertNull(cache.get("d"));
+        assertEquals(Arrays.asList("d"), evicted);
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testAdmissionFilterAdmitsFrequentlyUsedEntry() {
+        LruCache<String, String> cache = new LruCache<>(3, true);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        for (int i = 0; i < 3; i++) {
+            cache.get("d");
+        }
+        cache.put("d", "D");
+        assertEquals("D", cache.get("d"));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testAdmissionFilterKeepsSizeWithinBounds() {
+        LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(50, true) {
+            @Override
+            protected int sizeOf(Integer key, Integer value) {
+                return 1 + (key & 3);
+            }
+        };
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            int key = random.nextInt(500);
+            if (random.nextInt(5) == 0) {
+                cache.remove(key);
+            } else if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+            assertTrue(cache.size() <= 50);
+        }
+        int size = 0;
+        for (Integer key : cache.snapshot().keySet()) {
+            size += 1 + (key & 3);
+        }
+        assertEquals(size, cache.size());
+    }
+
+    /**
+     * A scan over many keys that are used once should not flush out the keys that are used over
+     * and over.
+     */
+    @Test
+    public void testAdmissionFilterImprovesHitRateUnderScan() {
+        LruCache<Integer, Integer> lru = new LruCache<>(100);
+        LruCache<Integer, Integer> filtered = new LruCache<>(100, true);
+        runHotKeysWithScan(lru);
+        runHotKeysWithScan(filtered);
+        assertTrue("hits with filter " + filtered.hitCount() + " without " + lru.hitCount(),
+                filtered.hitCount() > lru.hitCount());
+    }
+
+    private static void runHotKeysWithScan(LruCache<Integer, Integer> cache) {
+        Random random = new Random(0);
+        int scanKey = 1000;
+        for (int i = 0; i < 20000; i++) {
+            // half of the accesses go to 80 hot keys, the other half scan keys never used again
+            int key = (i & 1) == 0 ? random.nextInt(80) : scanKey++;
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+        }
+    }
+}
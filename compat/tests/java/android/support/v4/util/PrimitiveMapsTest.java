@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.v4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for {@link IntObjectMap}, {@link LongObjectMap}, {@link IntIntMap} and
+ * {@link LongIntMap}.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class PrimitiveMapsTest {
+    private static final String TAG = PrimitiveMapsTest.class.getSimpleName();
+
+    @Test
+    public void testIntObjectMapBasics() {
+        IntObjectMap<String> map = new IntObjectMap<>(0);
+        assertNull(map.get(1));
+        assertEquals("x", map.get(1, "x"));
+        map.put(1, "a");
+        map.put(-5, "b");
+        map.put(1, "c");
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(1));
+        assertEquals("b", map.get(-5));
+        assertTrue(map.containsKey(-5));
+        assertEquals(1, map.indexOfKey(-5));
+        assertEquals(-1, map.indexOfKey(7));
+        assertEquals(0, map.indexOfValue(map.get(1)));
+
+        map.removeAt(0);
+        assertEquals(1, map.size());
+        assertEquals(-5, map.keyAt(0));
+        assertEquals("{-5=b}", map.toString());
+
+        IntObjectMap<String> clone = map.clone();
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(-5));
+        assertEquals("b", clone.get(-5));
+    }
+
+    @Test
+    public void testIntIntMapBasics() {
+        IntIntMap map = new IntIntMap();
+        map.put(3, 30);
+        map.put(4, 40);
+        assertEquals(30, map.get(3));
+        assertEquals(0, map.get(5));
+        assertEquals(-1, map.get(5, -1));
+        map.delete(3);
+        assertEquals(-1, map.get(3, -1));
+        assertEquals("{4=40}", map.toString());
+        map.setValueAt(0, 41);
+        assertEquals(41, map.get(4));
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        final Random random = new Random(42);
+        final IntObjectMap<Integer> intObjectMap = new IntObjectMap<>();
+        final LongObjectMap<Integer> longObjectMap = new LongObjectMap<>(0);
+        final IntIntMap intIntMap = new IntIntMap(3);
+        final LongIntMap longIntMap = new LongIntMap();
+        final Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 50000; i++) {
+            // keys that collide in their low bits stress the probing
+            final int key = random.nextInt(300) << 8;
+            final long longKey = ((long) key << 32) | key;
+            if (random.nextInt(3) == 0) {
+                intObjectMap.remove(key);
+                longObjectMap.remove(longKey);
+                intIntMap.delete(key);
+                longIntMap.delete(longKey);
+                expected.remove(longKey);
+            } else {
+                intObjectMap.put(key, i);
+                longObjectMap.put(longKey, i);
+                intIntMap.put(key, i);
+                longIntMap.put(longKey, i);
+                expected.put(longKey, i);
+            }
+        }
+        assertEquals(expected.size(), intObjectMap.size());
+        assertEquals(expected.size(), longObjectMap.size());
+        assertEquals(expected.size(), intIntMap.size());
+        assertEquals(expected.size(), longIntMap.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final long key = longObjectMap.keyAt(i);
+            assertEquals(expected.get(key), longObjectMap.valueAt(i));
+            assertEquals(i, longObjectMap.indexOfKey(key));
+        }
+        for (int key = 0; key < 300 << 8; key += 1 << 7) {
+            final long longKey = ((long) key << 32) | key;
+            final Integer value = expected.get(longKey);
+            assertEquals(value, intObjectMap.get(key));
+            assertEquals(value, longObjectMap.get(longKey));
+            assertEquals(value == null ? -1 : value, intIntMap.get(key, -1));
+            assertEquals(value == null ? -1 : value, longIntMap.get(longKey, -1));
+        }
+    }
+
+    /**
+     * Compares the time to put, get and remove many keys with the binary search based maps,
+     * checking that every map finds all the keys and ends up empty.
+     */
+    @Test
+    @LargeTest
+    public void testPerformanceAgainstSparseArrays() {
+        final int count = 50000;
+        final int[] keys = new int[count];
+        final Random random = new Random(0);
+        for (int i = 0; i < count; i++) {
+            keys[i] = random.nextInt();
+        }
+        final Integer value = 1;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            IntObjectMap<Integer> intObjectMap = new IntObjectMap<>();
+            for (int key : keys) intObjectMap.put(key, value);
+            int found = 0;
+            for (int key : keys) found += intObjectMap.get(key);
+            for (int key : keys) intObjectMap.remove(key);
+            final long intObjectMapNs = System.nanoTime() - start;
+            assertEquals(count, found);
+            assertEquals(0, intObjectMap.size());
+
+            start = System.nanoTime();
+            SparseArrayCompat<Integer> sparseArray = new SparseArrayCompat<>();
+            for (int key : keys) sparseArray.put(key, value);
+            found = 0;
+            for (int key : keys) found += sparseArray.get(key);
+            for (int key : keys) sparseArray.remove(key);
+            final long sparseArrayNs = System.nanoTime() - start;
+            assertEquals(count, found);
+            assertEquals(0, sparseArray.size());
+
+            start = System.nanoTime();
+            LongObjectMap<Integer> longObjectMap = new LongObjectMap<>();
+            for (int key : keys) longObjectMap.put(key, value);
+            found = 0;
+            for (int key : keys) found += longObjectMap.get(key);
+            for (int key : keys) longObjectMap.remove(key);
+            final long longObjectMapNs = System.nanoTime() - start;
+            assertEquals(count, found);
+            assertEquals(0, longObjectMap.size());
+
+            start = System.nanoTime();
+            LongSparseArray<Integer> longSparseArray = new LongSparseArray<>();
+            for (int key : keys) longSparseArray.put(key, value);
+            found = 0;
+            for (int key : keys) found += longSparseArray.get(key);
+            for (int key : keys) longSparseArray.remove(key);
+            final long longSparseArrayNs = System.nanoTime() - start;
+            assertEquals(count, found);
+            assertEquals(0, longSparseArray.size());
+
+            start = System.nanoTime();
+            SimpleArrayMap<Integer, Integer> simpleArrayMap = new SimpleArrayMap<>();
+            for (int key : keys) simpleArrayMap.put(key, value);
+            found = 0;
+            for (int key : keys) found += simpleArrayMap.get(key);
+            for (int key : keys) simpleArrayMap.remove(key);
+            final long simpleArrayMapNs = System.nanoTime() - start;
+            assertEquals(count, found);
+            assertEquals(0, simpleArrayMap.size());
+
+            Log.i(TAG, count + " keys: IntObjectMap " + (intObjectMapNs / 1000000)
+                    + " ms, SparseArrayCompat " + (sparseArrayNs / 1000000)
+                    + " ms, LongObjectMap " + (longObjectMapNs / 1000000)
+                    + " ms, LongSparseArray " + (longSparseArrayNs / 1000000)
+                    + " ms, SimpleArrayMap " + (simpleArrayMapNs / 1000000) + " ms");
+        }
+    }
+}
@@ -43,17 +43,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Stack;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * Provides basic implementation for creating, extracting and accessing
@@ -81,14 +75,14 @@ public class DocumentArchive implements Closeable {
     private final String mDocumentId;
     private final char mIdDelimiter;
     private final Uri mNotificationUri;
-    private final ZipFile mZipFile;
+    private final Closeable mArchiveSource;
+    private final ZipArchiveIndex mIndex;
     private final ExecutorService mExecutor;
-    private final Map<String, ZipEntry> mEntries;
-    private final Map<String, List<ZipEntry>> mTree;
 
     private DocumentArchive(
             Context context,
-            File file,
+            Closeable archiveSource,
+            FileChannel channel,
             String documentId,
             char idDelimiter,
             @Nullable Uri notificationUri)
@@ -97,65 +91,10 @@ public class DocumentArchive implements Closeable {
         mDocumentId = documentId;
         mIdDelimiter = idDelimiter;
         mNotificationUri = notificationUri;
-        mZipFile = new ZipFile(file);
+        mArchiveSource = archiveSource;
+        // Only the central directory is read here. Child listings are built lazily.
+        mIndex = new ZipArchiveIndex(channel);
         mExecutor = Executors.newSingleThreadExecutor();
-
-        // Build the tree structure in memory.
-        mTree = new HashMap<String, List<ZipEntry>>();
-        mTree.put("/", new ArrayList<ZipEntry>());
-
-        mEntries = new HashMap<String, ZipEntry>();
-        ZipEntry entry;
-        final List<? extends ZipEntry> entries = Collections.list(mZipFile.entries());
-        final Stack<ZipEntry> stack = new Stack<>();
-        for (int i = entries.size() - 1; i >= 0; i--) {
-            entry = entries.get(i);
-            if (entry.isDirectory() != entry.getName().endsWith("/")) {
-                throw new IOException(
-                        "Directories must have a trailing slash, and files must not.");
-            }
-            if (mEntries.containsKey(entry.getName())) {
-                throw new IOException("Multiple entries with the same name are not supported.");
-            }
-            mEntries.put(entry.getName(), entry);
-            if (entry.isDirectory()) {
-                mTree.put(entry.getName(), new ArrayList<ZipEntry>());
-            }
-            stack.push(entry);
-        }
-
-        int delimiterIndex;
-        String parentPath;
-        ZipEntry parentEntry;
-        List<ZipEntry> parentList;
-
-        while (stack.size() > 0) {
-            entry = stack.pop();
-
-            delimiterIndex = entry.getName().lastIndexOf('/', entry.isDirectory()
-                    ? entry.getName().length() - 2 : entry.getName().length() - 1);
-            parentPath =
-                    delimiterIndex != -1 ? entry.getName().substring(0, delimiterIndex) + "/" : "/";
-            parentList = mTree.get(parentPath);
-
-            if (parentList == null) {
-                parentEntry = mEntries.get(parentPath);
-                if (parentEntry == null) {
-                    // The ZIP file doesn't contain all directories leading to the entry.
-                    // It's rare, but can happen in a valid ZIP archive. In such case create a
-                    // fake ZipEntry and add it on top of the stack to process it next.
-                    parentEntry = new ZipEntry(parentPath);
-                    parentEntry.setSize(0);
-                    parentEntry.setTime(entry.getTime());
-                    mEntries.put(parentPath, parentEntry);
-                    stack.push(parentEntry);
-                }
-                parentList = new ArrayList<ZipEntry>();
-                mTree.put(parentPath, parentList);
-            }
-
-            parentList.add(entry);
-        }
     }
 
     /**
@@ -175,7 +114,14 @@ public class DocumentArchive implements Closeable {
             Context context, File file, String documentId, char idDelimiter,
             @Nullable Uri notificationUri)
             throws IOException {
-        return new DocumentArchive(context, file, documentId, idDelimiter, notificationUri);
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return new DocumentArchive(context, randomAccessFile, randomAccessFile.getChannel(),
+                    documentId, idDelimiter, notificationUri);
+        } catch (IOException e) {
+            IoUtils.closeQuietly(randomAccessFile);
+            throw e;
+        }
     }
 
     /**
@@ -183,8 +129,10 @@ public class DocumentArchive implements Closeable {
      * documents within the archive passed as a file descriptor.
      *
      * <p>Note, that this method should be used only if the document does not exist
-     * on the local storage. A snapshot file will be created, which may be slower
-     * and consume significant resources, in contrast to using
+     * on the local storage. If the descriptor is seekable, the archive is read directly
+     * through it and the descriptor is closed together with the archive. Otherwise, such
+     * as for pipes, a snapshot file will be created, which may be slower and consume
+     * significant resources, in contrast to using
      * {@see createForLocalFile(Context, File, String, char, Uri}.
      *
      * @param context Context of the provider.
@@ -199,6 +147,19 @@ public class DocumentArchive implements Closeable {
             Context context, ParcelFileDescriptor descriptor, String documentId,
             char idDelimiter, @Nullable Uri notificationUri)
             throws IOException {
+        final ParcelFileDescriptor.AutoCloseInputStream descriptorStream =
+                new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        final FileChannel channel = descriptorStream.getChannel();
+        if (isSeekable(channel)) {
+            try {
+                return new DocumentArchive(context, descriptorStream, channel, documentId,
+                        idDelimiter, notificationUri);
+            } catch (IOException e) {
+                IoUtils.closeQuietly(descriptorStream);
+                throw e;
+            }
+        }
+
         File snapshotFile = null;
         try {
             // Create a copy of the archive, as ZipFile doesn't operate on streams.
@@ -212,8 +173,7 @@ public class DocumentArchive implements Closeable {
                         new ParcelFileDescriptor.AutoCloseOutputStream(
                                 ParcelFileDescriptor.open(
                                         snapshotFile, ParcelFileDescriptor.MODE_WRITE_ONLY));
-                final ParcelFileDescriptor.AutoCloseInputStream inputStream =
-                        new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+                final ParcelFileDescriptor.AutoCloseInputStream inputStream = descriptorStream;
             ) {
                 final byte[] buffer = new byte[32 * 1024];
                 int bytes;
@@ -221,7 +181,7 @@ public class DocumentArchive implements Closeable {
                     outputStream.write(buffer, 0, bytes);
                 }
                 outputStream.flush();
-                return new DocumentArchive(context, snapshotFile, documentId, idDelimiter,
+                return createForLocalFile(context, snapshotFile, documentId, idDelimiter,
                         notificationUri);
             }
         } finally {
@@ -254,11 +214,7 @@ public class DocumentArchive implements Closeable {
             result.setNotificationUri(mContext.getContentResolver(), mNotificationUri);
         }
 
-        final List<ZipEntry> parentList = mTree.get(parentPath);
-        if (parentList == null) {
-            throw new FileNotFoundException();
-        }
-        for (final ZipEntry entry : parentList) {
+        for (final int entry : mIndex.getChildren(parentPath)) {
             addCursorRow(result, entry);
         }
         return result;
@@ -276,8 +232,8 @@ public class DocumentArchive implements Closeable {
                 "Mismatching document ID. Expected: %s, actual: %s.");
         Preconditions.checkArgumentNotNull(parsedId.mPath, "Not a document within an archive.");
 
-        final ZipEntry entry = mEntries.get(parsedId.mPath);
-        if (entry == null) {
+        final int entry = mIndex.indexOf(parsedId.mPath);
+        if (entry == ZipArchiveIndex.NO_ENTRY) {
             throw new FileNotFoundException();
         }
         return getMimeTypeForEntry(entry);
@@ -299,8 +255,8 @@ public class DocumentArchive implements Closeable {
         Preconditions.checkArgumentNotNull(parsedId.mPath,
                 "Not a document within an archive.");
 
-        final ZipEntry entry = mEntries.get(parsedId.mPath);
-        if (entry == null) {
+        final int entry = mIndex.indexOf(parsedId.mPath);
+        if (entry == ZipArchiveIndex.NO_ENTRY) {
             return false;
         }
 
@@ -310,16 +266,17 @@ public class DocumentArchive implements Closeable {
             return true;
         }
 
-        final ZipEntry parentEntry = mEntries.get(parsedParentId.mPath);
-        if (parentEntry == null || !parentEntry.isDirectory()) {
+        final int parentEntry = mIndex.indexOf(parsedParentId.mPath);
+        if (parentEntry == ZipArchiveIndex.NO_ENTRY || !mIndex.isDirectory(parentEntry)) {
             return false;
         }
 
-        final String parentPath = entry.getName();
+        final String parentPath = mIndex.getName(entry);
 
         // Add a trailing slash even if it's not a directory, so it's easy to check if the
         // entry is a descendant.
-        final String pathWithSlash = entry.isDirectory() ? entry.getName() : entry.getName() + "/";
+        final String pathWithSlash = mIndex.isDirectory(entry)
+                ? mIndex.getName(entry) : mIndex.getName(entry) + "/";
         return pathWithSlash.startsWith(parentPath) && !parentPath.equals(pathWithSlash);
     }
 
@@ -336,8 +293,8 @@ public class DocumentArchive implements Closeable {
                 "Mismatching document ID. Expected: %s, actual: %s.");
         Preconditions.checkArgumentNotNull(parsedId.mPath, "Not a document within an archive.");
 
-        final ZipEntry entry = mEntries.get(parsedId.mPath);
-        if (entry == null) {
+        final int entry = mIndex.indexOf(parsedId.mPath);
+        if (entry == ZipArchiveIndex.NO_ENTRY) {
             throw new FileNotFoundException();
         }
 
@@ -366,8 +323,8 @@ public class DocumentArchive implements Closeable {
                 "Mismatching document ID. Expected: %s, actual: %s.");
         Preconditions.checkArgumentNotNull(parsedId.mPath, "Not a document within an archive.");
 
-        final ZipEntry entry = mEntries.get(parsedId.mPath);
-        if (entry == null) {
+        final int entry = mIndex.indexOf(parsedId.mPath);
+        if (entry == ZipArchiveIndex.NO_ENTRY) {
             throw new FileNotFoundException();
         }
 
@@ -375,7 +332,7 @@ public class DocumentArchive implements Closeable {
         InputStream inputStream = null;
         try {
             pipe = ParcelFileDescriptor.createReliablePipe();
-            inputStream = mZipFile.getInputStream(entry);
+            inputStream = mIndex.getInputStream(entry);
         } catch (IOException e) {
             if (inputStream != null) {
                 IoUtils.closeQuietly(inputStream);
@@ -441,14 +398,14 @@ public class DocumentArchive implements Closeable {
         Preconditions.checkArgument(getDocumentType(documentId).startsWith("image/"),
                 "Thumbnails only supported for image/* MIME type.");
 
-        final ZipEntry entry = mEntries.get(parsedId.mPath);
-        if (entry == null) {
+        final int entry = mIndex.indexOf(parsedId.mPath);
+        if (entry == ZipArchiveIndex.NO_ENTRY) {
             throw new FileNotFoundException();
         }
 
         InputStream inputStream = null;
         try {
-            inputStream = mZipFile.getInputStream(entry);
+            inputStream = mIndex.getInputStream(entry);
             final ExifInterface exif = new ExifInterface(inputStream);
             if (exif.hasThumbnail()) {
                 Bundle extras = null;
@@ -478,7 +435,7 @@ public class DocumentArchive implements Closeable {
         }
 
         return new AssetFileDescriptor(
-                openDocument(documentId, "r", signal), 0, entry.getSize(), null);
+                openDocument(documentId, "r", signal), 0, mIndex.getSize(entry), null);
     }
 
     /**
@@ -492,20 +449,21 @@ public class DocumentArchive implements Closeable {
         mExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                IoUtils.closeQuietly(mZipFile);
+                IoUtils.closeQuietly(mArchiveSource);
             }
         });
         mExecutor.shutdown();
     }
 
-    private void addCursorRow(MatrixCursor cursor, ZipEntry entry) {
+    private void addCursorRow(MatrixCursor cursor, int entry) {
         final MatrixCursor.RowBuilder row = cursor.newRow();
-        final ParsedDocumentId parsedId = new ParsedDocumentId(mDocumentId, entry.getName());
+        final String name = mIndex.getName(entry);
+        final ParsedDocumentId parsedId = new ParsedDocumentId(mDocumentId, name);
         row.add(Document.COLUMN_DOCUMENT_ID, parsedId.toDocumentId(mIdDelimiter));
 
-        final File file = new File(entry.getName());
+        final File file = new File(name);
         row.add(Document.COLUMN_DISPLAY_NAME, file.getName());
-        row.add(Document.COLUMN_SIZE, entry.getSize());
+        row.add(Document.COLUMN_SIZE, mIndex.getSize(entry));
 
         final String mimeType = getMimeTypeForEntry(entry);
         row.add(Document.COLUMN_MIME_TYPE, mimeType);
@@ -514,14 +472,15 @@ public class DocumentArchive implements Closeable {
         row.add(Document.COLUMN_FLAGS, flags);
     }
 
-    private String getMimeTypeForEntry(ZipEntry entry) {
-        if (entry.isDirectory()) {
+    private String getMimeTypeForEntry(int entry) {
+        if (mIndex.isDirectory(entry)) {
             return Document.MIME_TYPE_DIR;
         }
 
-        final int lastDot = entry.getName().lastIndexOf('.');
+        final String name = mIndex.getName(entry);
+        final int lastDot = name.lastIndexOf('.');
         if (lastDot >= 0) {
-            final String extension = entry.getName().substring(lastDot + 1).toLowerCase(Locale.US);
+            final String extension = name.substring(lastDot + 1).toLowerCase(Locale.US);
             final String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
             if (mimeType != null) {
                 return mimeType;
@@ -530,4 +489,13 @@ public class DocumentArchive implements Closeable {
 
         return "application/octet-stream";
     }
+
+    private static boolean isSeekable(FileChannel channel) {
+        try {
+            channel.position();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 };
@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.support.provider;
+
+import static android.support.annotation.RestrictTo.Scope.LIBRARY_GROUP;
+
+import android.support.annotation.RestrictTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Index of the entries of a ZIP archive, read from its central directory with positional reads
+ * on a {@link FileChannel}, so that the archive does not need to be a local file.
+ *
+ * <p>The central directory is kept as a single byte array and entry names are decoded from it
+ * on demand. Names are looked up through an open addressing table of entry indices, and child
+ * listings are only built for directories which are listed.
+ *
+ * <p>Directories which are not stored in the archive, but are implied by the paths of its
+ * entries, are indexed after the stored entries.
+ *
+ * <p>This class is thread safe.
+ *
+ * @hide
+ */
+@RestrictTo(LIBRARY_GROUP)
+final class ZipArchiveIndex {
+    static final int NO_ENTRY = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    private final FileChannel mChannel;
+    private final byte[] mDirectory;
+    private final int mEntryCount;
+    // Offset of the central directory header of each stored entry in mDirectory.
+    private final int[] mHeaderOffsets;
+    private final long[] mSizes;
+    private final long[] mCompressedSizes;
+    private final long[] mLocalHeaderOffsets;
+    private final ArrayList<byte[]> mImpliedDirectories = new ArrayList<>();
+    // Open addressing table of entry indices plus one, keyed by name. Zero marks a free slot.
+    private int[] mTable;
+    private final Map<String, int[]> mChildren = new HashMap<>();
+
+    /**
+     * Reads the central directory of the archive. The channel is not closed by the index.
+     */
+    ZipArchiveIndex(FileChannel channel) throws IOException {
+        mChannel = channel;
+
+        // Find the end of central directory record, which is followed only by the comment.
+        final long fileSize = channel.size();
+        final int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+        final ByteBuffer tail = read(fileSize - tailSize, tailSize);
+        int eocdPosition = tailSize - EOCD_SIZE;
+        while (eocdPosition >= 0 && tail.getInt(eocdPosition) != EOCD_SIGNATURE) {
+            eocdPosition--;
+        }
+        if (eocdPosition < 0) {
+            throw new ZipException("End of central directory not found.");
+        }
+        long entryCount = tail.getShort(eocdPosition + 10) & 0xffff;
+        long directorySize = tail.getInt(eocdPosition + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(eocdPosition + 16) & ZIP64_MAGIC;
+
+        final long eocdOffset = fileSize - tailSize + eocdPosition;
+        if ((entryCount == 0xffff || directorySize == ZIP64_MAGIC
+                || directoryOffset == ZIP64_MAGIC) && eocdOffset >= ZIP64_EOCD_LOCATOR_SIZE) {
+            final ByteBuffer locator =
+                    read(eocdOffset - ZIP64_EOCD_LOCATOR_SIZE, ZIP64_EOCD_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                final ByteBuffer eocd64 = read(locator.getLong(8), ZIP64_EOCD_SIZE);
+                if (eocd64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new ZipException("Invalid ZIP64 end of central directory.");
+                }
+                entryCount = eocd64.getLong(32);
+                directorySize = eocd64.getLong(40);
+                directoryOffset = eocd64.getLong(48);
+            }
+        }
+        if (directorySize > Integer.MAX_VALUE || entryCount > directorySize / CENTRAL_HEADER_SIZE
+                || directoryOffset + directorySize > fileSize) {
+            throw new ZipException("Invalid central directory.");
+        }
+
+        mDirectory = read(directoryOffset, (int) directorySize).array();
+        mEntryCount = (int) entryCount;
+        mHeaderOffsets = new int[mEntryCount];
+        mSizes = new long[mEntryCount];
+        mCompressedSizes = new long[mEntryCount];
+        mLocalHeaderOffsets = new long[mEntryCount];
+        mTable = new int[tableSizeFor(mEntryCount)];
+
+        final ByteBuffer directory = ByteBuffer.wrap(mDirectory).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        for (int i = 0; i < mEntryCount; i++) {
+            if (offset + CENTRAL_HEADER_SIZE > mDirectory.length
+                    || directory.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header.");
+            }
+            final int nameLength = directory.getShort(offset + 28) & 0xffff;
+            final int extraLength = directory.getShort(offset + 30) & 0xffff;
+            final int commentLength = directory.getShort(offset + 32) & 0xffff;
+            final int headerSize = CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (offset + headerSize > mDirectory.length) {
+                throw new ZipException("Invalid central directory header.");
+            }
+            mHeaderOffsets[i] = offset;
+            mCompressedSizes[i] = directory.getInt(offset + 20) & ZIP64_MAGIC;
+            mSizes[i] = directory.getInt(offset + 24) & ZIP64_MAGIC;
+            mLocalHeaderOffsets[i] = directory.getInt(offset + 42) & ZIP64_MAGIC;
+            readZip64Extra(directory, i, offset + CENTRAL_HEADER_SIZE + nameLength, extraLength);
+
+            if (!insert(i)) {
+                throw new IOException("Multiple entries with the same name are not supported.");
+            }
+            offset += headerSize;
+        }
+
+        // Index the directories implied by the entry paths, which are not stored in the archive.
+        for (int i = 0; i < mEntryCount; i++) {
+            final int nameOffset = getNameOffset(i);
+            int end = getNameLength(i) - 1;
+            while ((end = lastIndexOfSlash(mDirectory, nameOffset, end)) > 0) {
+                final byte[] parent = Arrays.copyOfRange(mDirectory, nameOffset,
+                        nameOffset + end + 1);
+                if (indexOf(parent, 0, parent.length) != NO_ENTRY) {
+                    break;
+                }
+                mImpliedDirectories.add(parent);
+                insert(mEntryCount + mImpliedDirectories.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of indexed entries, including implied directories.
+     */
+    int size() {
+        return mEntryCount + mImpliedDirectories.size();
+    }
+
+    /**
+     * Returns the index of the entry with the given name, or {@link #NO_ENTRY}.
+     */
+    int indexOf(String name) {
+        final byte[] bytes = name.getBytes(UTF_8);
+        return indexOf(bytes, 0, bytes.length);
+    }
+
+    String getName(int index) {
+        return new String(getNameBytes(index), getNameOffset(index), getNameLength(index), UTF_8);
+    }
+
+    boolean isDirectory(int index) {
+        return getNameBytes(index)[getNameOffset(index) + getNameLength(index) - 1] == '/';
+    }
+
+    /**
+     * Returns the uncompressed size of the entry.
+     */
+    long getSize(int index) {
+        return index < mEntryCount ? mSizes[index] : 0;
+    }
+
+    /**
+     * Returns the indices of the children of the given directory, or of the root directory for
+     * "/". Listings are built on the first request by scanning the names of all stored entries.
+     *
+     * @throws FileNotFoundException if there is no such directory.
+     */
+    int[] getChildren(String directoryName) throws FileNotFoundException {
+        synchronized (mChildren) {
+            int[] children = mChildren.get(directoryName);
+            if (children == null) {
+                children = listChildren(directoryName);
+                mChildren.put(directoryName, children);
+            }
+            return children;
+        }
+    }
+
+    /**
+     * Opens the uncompressed contents of the entry.
+     */
+    InputStream getInputStream(int index) throws IOException {
+        if (index >= mEntryCount || isDirectory(index)) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        final ByteBuffer localHeader = read(mLocalHeaderOffsets[index], LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local file header.");
+        }
+        final long dataOffset = mLocalHeaderOffsets[index] + LOCAL_HEADER_SIZE
+                + (localHeader.getShort(26) & 0xffff) + (localHeader.getShort(28) & 0xffff);
+        final int method = ByteBuffer.wrap(mDirectory).order(ByteOrder.LITTLE_ENDIAN)
+                .getShort(mHeaderOffsets[index] + 10) & 0xffff;
+        switch (method) {
+            case METHOD_STORED:
+                return new ChannelInputStream(mChannel, dataOffset, mSizes[index]);
+            case METHOD_DEFLATED:
+                return new EntryInflaterInputStream(
+                        new ChannelInputStream(mChannel, dataOffset, mCompressedSizes[index]));
+            default:
+                throw new ZipException("Unsupported compression method: " + method);
+        }
+    }
+
+    private int[] listChildren(String directoryName) throws FileNotFoundException {
+        final byte[] prefix;
+        if ("/".equals(directoryName)) {
+            prefix = new byte[0];
+        } else {
+            final int index = indexOf(directoryName);
+            if (index == NO_ENTRY || !isDirectory(index)) {
+                throw new FileNotFoundException();
+            }
+            prefix = directoryName.getBytes(UTF_8);
+        }
+
+        // Children are listed in the order of the first stored entry within them.
+        final Set<Integer> added = new HashSet<>();
+        int[] children = new int[16];
+        int count = 0;
+        for (int i = 0; i < mEntryCount; i++) {
+            final int nameOffset = getNameOffset(i);
+            final int nameLength = getNameLength(i);
+            if (nameLength <= prefix.length || !startsWith(nameOffset, prefix)) {
+                continue;
+            }
+            final int slash = indexOfSlash(mDirectory, nameOffset + prefix.length,
+                    nameOffset + nameLength);
+            final int child;
+            if (slash == -1 || slash == nameOffset + nameLength - 1) {
+                child = i;
+            } else {
+                child = indexOf(mDirectory, nameOffset, slash - nameOffset + 1);
+            }
+            if (added.add(child)) {
+                if (count == children.length) {
+                    children = Arrays.copyOf(children, count * 2);
+                }
+                children[count++] = child;
+            }
+        }
+        return Arrays.copyOf(children, count);
+    }
+
+    private void readZip64Extra(ByteBuffer directory, int index, int offset, int length)
+            throws ZipException {
+        if (mSizes[index] != ZIP64_MAGIC && mCompressedSizes[index] != ZIP64_MAGIC
+                && mLocalHeaderOffsets[index] != ZIP64_MAGIC) {
+            return;
+        }
+        final int end = offset + length;
+        while (offset + 4 <= end) {
+            final int id = directory.getShort(offset) & 0xffff;
+            final int size = directory.getShort(offset + 2) & 0xffff;
+            int field = offset + 4;
+            if (id == ZIP64_EXTRA_ID) {
+                // Only the values which overflowed are present, in this order.
+                if (mSizes[index] == ZIP64_MAGIC && field + 8 <= end) {
+                    mSizes[index] = directory.getLong(field);
+                    field += 8;
+                }
+                if (mCompressedSizes[index] == ZIP64_MAGIC && field + 8 <= end) {
+                    mCompressedSizes[index] = directory.getLong(field);
+                    field += 8;
+                }
+                if (mLocalHeaderOffsets[index] == ZIP64_MAGIC && field + 8 <= end) {
+                    mLocalHeaderOffsets[index] = directory.getLong(field);
+                }
+                return;
+            }
+            offset += 4 + size;
+        }
+        throw new ZipException("Missing ZIP64 extended information.");
+    }
+
+    private int indexOf(byte[] name, int offset, int length) {
+        final int mask = mTable.length - 1;
+        for (int slot = hash(name, offset, length) & mask; ; slot = (slot + 1) & mask) {
+            final int index = mTable[slot] - 1;
+            if (index == NO_ENTRY) {
+                return NO_ENTRY;
+            }
+            if (nameEquals(index, name, offset, length)) {
+                return index;
+            }
+        }
+    }
+
+    // Adds the entry to the table, or returns false if an entry with the same name exists.
+    private boolean insert(int index) {
+        if (size() * 2 > mTable.length) {
+            final int[] oldTable = mTable;
+            mTable = new int[oldTable.length * 2];
+            for (int value : oldTable) {
+                if (value != 0) {
+                    insert(value - 1);
+                }
+            }
+        }
+        final byte[] bytes = getNameBytes(index);
+        final int offset = getNameOffset(index);
+        final int length = getNameLength(index);
+        final int mask = mTable.length - 1;
+        for (int slot = hash(bytes, offset, length) & mask; ; slot = (slot + 1) & mask) {
+            final int existing = mTable[slot] - 1;
+            if (existing == NO_ENTRY) {
+                mTable[slot] = index + 1;
+                return true;
+            }
+            if (nameEquals(existing, bytes, offset, length)) {
+                return false;
+            }
+        }
+    }
+
+    private boolean nameEquals(int index, byte[] name, int offset, int length) {
+        if (getNameLength(index) != length) {
+            return false;
+        }
+        final byte[] bytes = getNameBytes(index);
+        final int nameOffset = getNameOffset(index);
+        for (int i = 0; i < length; i++) {
+            if (bytes[nameOffset + i] != name[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(int offset, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (mDirectory[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] getNameBytes(int index) {
+        return index < mEntryCount ? mDirectory : mImpliedDirectories.get(index - mEntryCount);
+    }
+
+    private int getNameOffset(int index) {
+        return index < mEntryCount ? mHeaderOffsets[index] + CENTRAL_HEADER_SIZE : 0;
+    }
+
+    private int getNameLength(int index) {
+        if (index < mEntryCount) {
+            final int offset = mHeaderOffsets[index];
+            return (mDirectory[offset + 28] & 0xff) | ((mDirectory[offset + 29] & 0xff) << 8);
+        }
+        return mImpliedDirectories.get(index - mEntryCount).length;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[offset + i];
+        }
+        // Spread the bits, as the table size is a power of two.
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int tableSizeFor(int count) {
+        int size = 16;
+        while (size < count * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    // Returns the absolute position of the first slash in [start, end), or -1.
+    private static int indexOfSlash(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the position of the last slash before end, relative to offset, or -1.
+    private static int lastIndexOfSlash(byte[] bytes, int offset, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (bytes[offset + i] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a range of a channel with positional reads, so that streams of different entries
+     * can be read concurrently.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel mChannel;
+        private long mPosition;
+        private long mRemaining;
+
+        ChannelInputStream(FileChannel channel, long position, long length) {
+            mChannel = channel;
+            mPosition = position;
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (mRemaining == 0) {
+                return -1;
+            }
+            final int count = mChannel.read(ByteBuffer.wrap(buffer, offset,
+                    (int) Math.min(length, mRemaining)), mPosition);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            mPosition += count;
+            mRemaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long byteCount) {
+            final long skipped = Math.max(0, Math.min(byteCount, mRemaining));
+            mPosition += skipped;
+            mRemaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(mRemaining, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Inflates raw deflate data, which may need one extra byte of input past the compressed data
+     * to report the end of the stream.
+     */
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean mEof;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 32 * 1024);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (mEof) {
+                throw new EOFException("Unexpected end of ZIP input stream.");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                mEof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import android.test.AndroidTestCase;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -78,6 +79,38 @@ public class DocumentArchiveTest extends AndroidTestCase {
         }
     }
 
+    public void loadArchiveFromParcelFileDescriptor(int resource) {
+        // Extract the file from resources, then read the archive through a descriptor of it.
+        File file = null;
+        try {
+            file = File.createTempFile("android.support.provider.tests{",
+                    "}.zip", mContext.getCacheDir());
+            try (
+                final FileOutputStream outputStream = new FileOutputStream(file);
+                final InputStream inputStream =
+                        mContext.getResources().openRawResource(resource);
+            ) {
+                final byte[] buffer = new byte[32 * 1024];
+                int bytes;
+                while ((bytes = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, bytes);
+                }
+            }
+            mArchive = DocumentArchive.createForParcelFileDescriptor(
+                    mContext,
+                    ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY),
+                    DOCUMENT_ID,
+                    DELIMITER,
+                    Uri.parse(NOTIFICATION_URI));
+        } catch (IOException e) {
+            fail(String.valueOf(e));
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
     @Override
     public void tearDown() {
         if (mArchive != null) {
@@ -232,6 +265,35 @@ public class DocumentArchiveTest extends AndroidTestCase {
         assertFalse(childCursor3.moveToFirst());
     }
 
+    public void testParcelFileDescriptor() throws IOException {
+        loadArchiveFromParcelFileDescriptor(R.raw.no_dirs);
+        final Cursor cursor = mArchive.queryChildDocuments(DOCUMENT_ID, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("document-id:dir1/",
+                cursor.getString(cursor.getColumnIndexOrThrow(Document.COLUMN_DOCUMENT_ID)));
+        assertFalse(cursor.moveToNext());
+
+        assertEquals(Document.MIME_TYPE_DIR, mArchive.getDocumentType("document-id:dir1/dir2/"));
+        assertTrue(mArchive.isChildDocument(DOCUMENT_ID, "document-id:dir1/dir2/cherries.txt"));
+
+        final ParcelFileDescriptor descriptor = mArchive.openDocument(
+                "document-id:dir1/dir2/cherries.txt", "r", null /* signal */);
+        try (final ParcelFileDescriptor.AutoCloseInputStream inputStream =
+                new ParcelFileDescriptor.AutoCloseInputStream(descriptor)) {
+            assertEquals("I love cherries!", new Scanner(inputStream).nextLine());
+        }
+    }
+
+    public void testQueryChildDocument_NotADirectory() throws IOException {
+        loadArchive(R.raw.archive);
+        try {
+            mArchive.queryChildDocuments("document-id:file1.txt", null, null);
+            fail();
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
     public void testGetDocumentType() throws IOException {
         loadArchive(R.raw.archive);
         assertEquals(Document.MIME_TYPE_DIR, mArchive.getDocumentType("document-id:dir1/"));
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.support.media;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the Exif tags of many image files in parallel on a given {@link Executor}.
+ * <p>
+ * At most {@code parallelism} files are read at a time, and each {@link ExifInterface} is handed
+ * to the {@link Callback} as soon as it is read, so memory use does not grow with the number of
+ * files. Only the requested tags are read; see {@link ExifInterface#ExifInterface(String,
+ * String[])}.
+ * </p>
+ */
+public final class ExifBatchReader {
+    private final Executor mExecutor;
+    private final int mParallelism;
+    private final String[] mTags;
+
+    /**
+     * Callback that receives the result of each file. Methods are called on the threads of the
+     * executor, possibly concurrently.
+     */
+    public interface Callback {
+        /**
+         * Called when the Exif tags of a file have been read.
+         *
+         * @param filename the path of the image file.
+         * @param exifInterface the tags read from the file.
+         * @param readTimeNanos the time spent reading the file, in nanoseconds.
+         */
+        void onExifRead(@NonNull String filename, @NonNull ExifInterface exifInterface,
+                long readTimeNanos);
+
+        /**
+         * Called when a file could not be opened or read.
+         *
+         * @param filename the path of the image file.
+         * @param e the exception thrown while reading the file.
+         * @param readTimeNanos the time spent before the failure, in nanoseconds.
+         */
+        void onExifError(@NonNull String filename, @NonNull IOException e, long readTimeNanos);
+    }
+
+    /**
+     * Creates a reader that reads the given tags on the given executor.
+     *
+     * @param executor the executor to read files on.
+     * @param parallelism the maximum number of files read at the same time.
+     * @param tags the names of the tags to read, or {@code null} to read all tags.
+     */
+    public ExifBatchReader(@NonNull Executor executor, int parallelism, @Nullable String[] tags) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        mExecutor = executor;
+        mParallelism = parallelism;
+        mTags = tags != null ? tags.clone() : null;
+    }
+
+    /**
+     * Reads the given files and blocks until the callback has been called for all of them.
+     *
+     * @param filenames the paths of the image files to read.
+     * @param callback the callback that receives the result of each file.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public void read(@NonNull final List<String> filenames, @NonNull final Callback callback)
+            throws InterruptedException {
+        final int workerCount = Math.min(mParallelism, filenames.size());
+        if (workerCount == 0) {
+            return;
+        }
+        // Each worker claims the next file until none is left, so that no more than workerCount
+        // tasks are ever queued on the executor.
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(workerCount);
+        for (int i = 0; i < workerCount; ++i) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int index;
+                        while ((index = nextIndex.getAndIncrement()) < filenames.size()) {
+                            readFile(filenames.get(index), callback);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+    }
+
+    private void readFile(String filename, Callback callback) {
+        long start = System.nanoTime();
+        ExifInterface exifInterface;
+        try {
+            exifInterface = new ExifInterface(filename, mTags);
+        } catch (IOException e) {
+            callback.onExifError(filename, e, System.nanoTime() - start);
+            return;
+        }
+        callback.onExifRead(filename, exifInterface, System.nanoTime() - start);
+    }
+}
@@ -26,11 +26,13 @@ import android.util.Pair;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -38,10 +40,12 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
@@ -1191,6 +1195,17 @@ public class ExifInterface {
     private static final HashSet<String> sTagSetForCompatibility = new HashSet<>(Arrays.asList(
             TAG_F_NUMBER, TAG_DIGITAL_ZOOM_RATIO, TAG_EXPOSURE_TIME, TAG_SUBJECT_DISTANCE,
             TAG_GPS_TIMESTAMP));
+    // Tags that the parser needs to locate and validate image data and thumbnails. These are read
+    // even when only some tags are requested.
+    private static final HashSet<String> sTagSetForParsing = new HashSet<>(Arrays.asList(
+            TAG_IMAGE_LENGTH, TAG_IMAGE_WIDTH, TAG_COMPRESSION, TAG_BITS_PER_SAMPLE,
+            TAG_PHOTOMETRIC_INTERPRETATION, TAG_STRIP_OFFSETS, TAG_STRIP_BYTE_COUNTS,
+            TAG_JPEG_INTERCHANGE_FORMAT, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH,
+            TAG_PIXEL_X_DIMENSION, TAG_PIXEL_Y_DIMENSION, TAG_MAKE, TAG_MODEL, TAG_DNG_VERSION,
+            TAG_DEFAULT_CROP_SIZE, TAG_ORF_THUMBNAIL_IMAGE, TAG_ORF_PREVIEW_IMAGE_START,
+            TAG_ORF_PREVIEW_IMAGE_LENGTH, TAG_ORF_ASPECT_FRAME, TAG_RW2_SENSOR_TOP_BORDER,
+            TAG_RW2_SENSOR_LEFT_BORDER, TAG_RW2_SENSOR_BOTTOM_BORDER, TAG_RW2_SENSOR_RIGHT_BORDER,
+            TAG_RW2_ISO, TAG_RW2_JPG_FROM_RAW));
     // Mappings from tag number to IFD type for pointer tags.
     private static final HashMap sExifPointerTagMap = new HashMap();
 
@@ -1264,6 +1279,9 @@ public class ExifInterface {
 
     private final String mFilename;
     private final AssetManager.AssetInputStream mAssetInputStream;
+    private final FileDescriptor mSeekableFileDescriptor;
+    // The tags to read, or null to read all tags.
+    private final HashSet<String> mRequestedTags;
     private int mMimeType;
     private final HashMap[] mAttributes = new HashMap[EXIF_TAGS.length];
     private ByteOrder mExifByteOrder = ByteOrder.BIG_ENDIAN;
@@ -1290,20 +1308,71 @@ public class ExifInterface {
      * Reads Exif tags from the specified image file.
      */
     public ExifInterface(String filename) throws IOException {
+        this(filename, null);
+    }
+
+    /**
+     * Reads only the given Exif tags from the specified image file. Entries of other tags are
+     * skipped without reading their values, and the GPS and interoperability IFDs are not visited
+     * unless one of their tags is requested. Tags that are needed to locate the image data and
+     * the thumbnail may be read as well. Attribute mutation is not supported when only some tags
+     * are read.
+     *
+     * @param filename the path of the image file.
+     * @param tags the names of the tags to read, or {@code null} to read all tags.
+     */
+    public ExifInterface(String filename, String[] tags) throws IOException {
         if (filename == null) {
             throw new IllegalArgumentException("filename cannot be null");
         }
-        FileInputStream in = null;
+        SeekableFileInputStream in = null;
         mAssetInputStream = null;
+        mSeekableFileDescriptor = null;
         mFilename = filename;
+        if (tags != null) {
+            mRequestedTags = new HashSet<>(Arrays.asList(tags));
+            if (mRequestedTags.contains(TAG_DATETIME)) {
+                // DateTime is overridden by DateTimeOriginal in addDefaultValuesForCompatibility().
+                mRequestedTags.add(TAG_DATETIME_ORIGINAL);
+            }
+        } else {
+            mRequestedTags = null;
+        }
         try {
-            in = new FileInputStream(filename);
+            in = new SeekableFileInputStream(new RandomAccessFile(filename, "r").getChannel(),
+                    true);
             loadAttributes(in);
         } finally {
             closeQuietly(in);
         }
     }
 
+    /**
+     * Reads Exif tags from the specified image file descriptor. The image data is expected to
+     * start at the beginning of the file. Only the bytes of the image file directories are read,
+     * by seeking directly to their offsets, and the file offset of the descriptor is left
+     * untouched. Descriptors that cannot seek, such as pipes, are read sequentially instead.
+     * Attribute mutation is not supported for file descriptors. Developers should close the file
+     * descriptor after use.
+     */
+    public ExifInterface(FileDescriptor fileDescriptor) throws IOException {
+        if (fileDescriptor == null) {
+            throw new IllegalArgumentException("fileDescriptor cannot be null");
+        }
+        mAssetInputStream = null;
+        mFilename = null;
+        mRequestedTags = null;
+        FileInputStream in = new FileInputStream(fileDescriptor);
+        if (isSeekableChannel(in.getChannel())) {
+            mSeekableFileDescriptor = fileDescriptor;
+            // The descriptor is owned by the caller, so the stream must not close the channel.
+            loadAttributes(new SeekableFileInputStream(in.getChannel(), false));
+        } else {
+            mSeekableFileDescriptor = null;
+            loadAttributes(in);
+        }
+    }
+
     /**
      * Reads Exif tags from the specified image input stream. Attribute mutation is not supported
      * for input streams. The given input stream will proceed its current position. Developers
@@ -1315,6 +1384,8 @@ public class ExifInterface {
             throw new IllegalArgumentException("inputStream cannot be null");
         }
         mFilename = null;
+        mSeekableFileDescriptor = null;
+        mRequestedTags = null;
         if (inputStream instanceof AssetManager.AssetInputStream) {
             mAssetInputStream = (AssetManager.AssetInputStream) inputStream;
         } else {
@@ -1603,9 +1674,12 @@ public class ExifInterface {
                 mAttributes[i] = new HashMap();
             }
 
-            // Check file type
-            in = new BufferedInputStream(in, SIGNATURE_CHECK_SIZE);
-            mMimeType = getMimeType((BufferedInputStream) in);
+            // Check file type. Seekable streams support mark/reset without buffering the data
+            // that has been read, so only sequential streams need to be wrapped.
+            if (!(in instanceof SeekableFileInputStream)) {
+                in = new BufferedInputStream(in, SIGNATURE_CHECK_SIZE);
+            }
+            mMimeType = getMimeType(in);
 
             // Create byte-ordered input stream
             ByteOrderedDataInputStream inputStream = new ByteOrderedDataInputStream(in);
@@ -1676,10 +1750,12 @@ public class ExifInterface {
     }
 
     /**
-     * Save the tag data into the original image file. This is expensive because it involves
-     * copying all the data from one file to another and deleting the old file and renaming the
-     * other. It's best to use {@link #setAttribute(String,String)} to set all attributes to write
-     * and make a single call rather than multiple calls for each attribute.
+     * Save the tag data into the original image file. When the new EXIF data fits in the space
+     * taken by the existing EXIF data, only that part of the file is overwritten. Otherwise this
+     * is expensive because it involves copying all the data from one file to another and deleting
+     * the old file and renaming the other. It's best to use {@link #setAttribute(String,String)}
+     * to set all attributes to write and make a single call rather than multiple calls for each
+     * attribute.
      * <p>
      * This method is only supported for JPEG files.
      * </p>
@@ -1688,7 +1764,7 @@ public class ExifInterface {
         if (!mIsSupportedFile || mMimeType != IMAGE_TYPE_JPEG) {
             throw new IOException("ExifInterface only supports saving attributes on JPEG formats.");
         }
-        if (mFilename == null) {
+        if (mFilename == null || mRequestedTags != null) {
             throw new IOException(
                     "ExifInterface does not support saving attributes for the current input.");
         }
@@ -1696,6 +1772,12 @@ public class ExifInterface {
         // Keep the thumbnail in memory
         mThumbnailBytes = getThumbnail();
 
+        if (saveJpegAttributesInPlace()) {
+            // Discard the thumbnail in memory
+            mThumbnailBytes = null;
+            return;
+        }
+
         File tempFile = new File(mFilename + ".tmp");
         File originalFile = new File(mFilename);
         if (!originalFile.renameTo(tempFile)) {
@@ -1764,6 +1846,9 @@ public class ExifInterface {
                 }
             } else if (mFilename != null) {
                 in = new FileInputStream(mFilename);
+            } else if (mSeekableFileDescriptor != null) {
+                in = new SeekableFileInputStream(
+                        new FileInputStream(mSeekableFileDescriptor).getChannel(), false);
             }
             if (in == null) {
                 // Should not be reached this.
@@ -1787,6 +1872,45 @@ public class ExifInterface {
         return null;
     }
 
+    /**
+     * Returns a read-only buffer over the thumbnail bytes inside the image file, regardless of the
+     * compression type of the thumbnail image, or {@code null} if there is no thumbnail. When the
+     * image was read from a file name or a file descriptor, the buffer is mapped over the range
+     * returned by {@link #getThumbnailRange()} instead of copying the thumbnail onto the heap.
+     */
+    public ByteBuffer getThumbnailBuffer() {
+        if (!mHasThumbnail) {
+            return null;
+        }
+        if (mThumbnailBytes != null) {
+            return ByteBuffer.wrap(mThumbnailBytes, 0, mThumbnailLength).asReadOnlyBuffer();
+        }
+        if (mFilename != null || mSeekableFileDescriptor != null) {
+            RandomAccessFile file = null;
+            try {
+                FileChannel channel;
+                if (mFilename != null) {
+                    file = new RandomAccessFile(mFilename, "r");
+                    channel = file.getChannel();
+                } else {
+                    // The descriptor is owned by the caller, so the channel must not be closed.
+                    channel = new FileInputStream(mSeekableFileDescriptor).getChannel();
+                }
+                // The mapping stays valid after the file is closed.
+                return channel.map(FileChannel.MapMode.READ_ONLY, mThumbnailOffset,
+                        mThumbnailLength);
+            } catch (IOException e) {
+                // Couldn't map the thumbnail image.
+                Log.d(TAG, "Encountered exception while mapping thumbnail", e);
+                return null;
+            } finally {
+                closeQuietly(file);
+            }
+        }
+        byte[] thumbnailBytes = getThumbnailBytes();
+        return thumbnailBytes != null ? ByteBuffer.wrap(thumbnailBytes).asReadOnlyBuffer() : null;
+    }
+
     /**
      * Creates and returns a Bitmap object of the thumbnail image based on the byte array and the
      * thumbnail compression value, or {@code null} if the compression type is unsupported.
@@ -1794,6 +1918,13 @@ public class ExifInterface {
     public Bitmap getThumbnailBitmap() {
         if (!mHasThumbnail) {
             return null;
+        } else if (mThumbnailBytes == null && isThumbnailCompressed()) {
+            // Decode from the mapped thumbnail so that no copy of it is kept on the heap.
+            ByteBuffer thumbnailBuffer = getThumbnailBuffer();
+            if (thumbnailBuffer == null) {
+                return null;
+            }
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(thumbnailBuffer));
         } else if (mThumbnailBytes == null) {
             mThumbnailBytes = getThumbnailBytes();
         }
@@ -2036,7 +2167,7 @@ public class ExifInterface {
     }
 
     // Checks the type of image file
-    private int getMimeType(BufferedInputStream in) throws IOException {
+    private int getMimeType(InputStream in) throws IOException {
         in.mark(SIGNATURE_CHECK_SIZE);
         byte[] signatureCheckBytes = new byte[SIGNATURE_CHECK_SIZE];
         if (in.read(signatureCheckBytes) != SIGNATURE_CHECK_SIZE) {
@@ -2488,6 +2619,102 @@ public class ExifInterface {
         }
     }
 
+    // Overwrites the EXIF APP1 segment of the JPEG file when the new segment is not bigger than
+    // the existing one, leaving the rest of the file untouched. The unused tail of the existing
+    // segment is zero-filled, which readers skip since nothing points into it. Returns false when
+    // the whole file needs to be rewritten by saveJpegAttributes() instead.
+    private boolean saveJpegAttributesInPlace() throws IOException {
+        RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(mFilename, "rw");
+        } catch (FileNotFoundException e) {
+            // The file may still be replaced through its directory.
+            return false;
+        }
+        try {
+            FileChannel channel = file.getChannel();
+            int segmentOffset = findExifSegmentOffset(new SeekableFileInputStream(channel, false));
+            if (segmentOffset < 0) {
+                return false;
+            }
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(2);
+            while (lengthBuffer.hasRemaining()) {
+                if (channel.read(lengthBuffer, segmentOffset + 2 + lengthBuffer.position()) < 0) {
+                    return false;
+                }
+            }
+            int segmentLength = lengthBuffer.getShort(0) & 0xffff;
+
+            // Build the new segment in memory first so that nothing is written unless it fits.
+            ByteArrayOutputStream segment = new ByteArrayOutputStream(segmentLength);
+            writeExifSegment(new ByteOrderedDataOutputStream(segment, ByteOrder.BIG_ENDIAN),
+                    segmentOffset + 4 + IDENTIFIER_EXIF_APP1.length);
+            byte[] bytes = segment.toByteArray();
+            if (bytes.length > segmentLength) {
+                if (DEBUG) {
+                    Log.d(TAG, "EXIF segment grows from " + segmentLength + " to "
+                            + bytes.length + " bytes, rewriting the file");
+                }
+                return false;
+            }
+            if (bytes.length < segmentLength) {
+                bytes = Arrays.copyOf(bytes, segmentLength);
+                bytes[0] = (byte) (segmentLength >>> 8);
+                bytes[1] = (byte) segmentLength;
+            }
+
+            // Write the length field and the segment body with a single positional write.
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long position = segmentOffset + 2;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return true;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    // Returns the file offset of the marker of the only EXIF APP1 segment in the given JPEG
+    // stream, or -1 if there is none or more than one. Only segment headers are read.
+    private static int findExifSegmentOffset(InputStream inputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        if (dataInputStream.readByte() != MARKER || dataInputStream.readByte() != MARKER_SOI) {
+            return -1;
+        }
+        int position = 2;
+        int exifSegmentOffset = -1;
+        byte[] identifier = new byte[IDENTIFIER_EXIF_APP1.length];
+        while (true) {
+            if (dataInputStream.readByte() != MARKER) {
+                return -1;
+            }
+            byte marker = dataInputStream.readByte();
+            if (marker == MARKER_EOI || marker == MARKER_SOS) {
+                return exifSegmentOffset;
+            }
+            int length = dataInputStream.readUnsignedShort();
+            if (length < 2) {
+                return -1;
+            }
+            int skip = length - 2;
+            if (marker == MARKER_APP1 && skip >= identifier.length) {
+                dataInputStream.readFully(identifier);
+                skip -= identifier.length;
+                if (Arrays.equals(identifier, IDENTIFIER_EXIF_APP1)) {
+                    if (exifSegmentOffset >= 0) {
+                        return -1;
+                    }
+                    exifSegmentOffset = position;
+                }
+            }
+            if (dataInputStream.skipBytes(skip) != skip) {
+                return -1;
+            }
+            position += 2 + length;
+        }
+    }
+
     // Stores a new JPEG image with EXIF attributes into a given output stream.
     private void saveJpegAttributes(InputStream inputStream, OutputStream outputStream)
             throws IOException {
@@ -2511,7 +2738,8 @@ public class ExifInterface {
         // Write EXIF APP1 segment
         dataOutputStream.writeByte(MARKER);
         dataOutputStream.writeByte(MARKER_APP1);
-        writeExifSegment(dataOutputStream, 6);
+        // The TIFF header follows SOI, the APP1 marker, the length field and the EXIF identifier.
+        writeExifSegment(dataOutputStream, 2 + 4 + IDENTIFIER_EXIF_APP1.length);
 
         byte[] bytes = new byte[4096];
 
@@ -2598,6 +2826,32 @@ public class ExifInterface {
         readImageFileDirectory(dataInputStream, imageType);
     }
 
+    // Returns whether the value of the given tag needs to be read.
+    private boolean isTagRequested(String tagName) {
+        if (mRequestedTags == null || mRequestedTags.contains(tagName)
+                || sTagSetForParsing.contains(tagName)) {
+            return true;
+        }
+        // ORF and PEF files keep image information in their MakerNote.
+        return TAG_MAKER_NOTE.equals(tagName)
+                && (mMimeType == IMAGE_TYPE_ORF || mMimeType == IMAGE_TYPE_PEF);
+    }
+
+    // Returns whether the IFD of the given type needs to be visited. The GPS and interoperability
+    // IFDs hold no tags needed for parsing, so they are only visited for requested tags.
+    private boolean isIfdRequested(@IfdType int ifdType) {
+        if (mRequestedTags == null
+                || (ifdType != IFD_TYPE_GPS && ifdType != IFD_TYPE_INTEROPERABILITY)) {
+            return true;
+        }
+        for (String tagName : mRequestedTags) {
+            if (sExifTagMapsForWriting[ifdType].containsKey(tagName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void addDefaultValuesForCompatibility() {
         // The value of DATETIME tag has the same value of DATETIME_ORIGINAL tag.
         String valueOfDateTimeOriginal = getAttribute(TAG_DATETIME_ORIGINAL);
@@ -2721,7 +2975,8 @@ public class ExifInterface {
                     valid = true;
                 }
             }
-            if (!valid) {
+            if (!valid || (mRequestedTags != null && !sExifPointerTagMap.containsKey(tagNumber)
+                    && !isTagRequested(tag.name))) {
                 dataInputStream.seek(nextEntryOffset);
                 continue;
             }
@@ -2806,7 +3061,11 @@ public class ExifInterface {
                 if (DEBUG) {
                     Log.d(TAG, String.format("Offset: %d, tagName: %s", offset, tag.name));
                 }
-                if (offset > 0L && offset < dataInputStream.mLength) {
+                if (!isIfdRequested((int) nextIfdType)) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Skip jump into the IFD since none of its tags is requested");
+                    }
+                } else if (offset > 0L && offset < dataInputStream.mLength) {
                     dataInputStream.seek(offset);
                     readImageFileDirectory(dataInputStream, (int) nextIfdType);
                 } else {
@@ -2950,7 +3209,8 @@ public class ExifInterface {
                 mHasThumbnail = true;
                 mThumbnailOffset = thumbnailOffset;
                 mThumbnailLength = thumbnailLength;
-                if (mFilename == null && mAssetInputStream == null) {
+                if (mFilename == null && mAssetInputStream == null
+                        && mSeekableFileDescriptor == null) {
                     // Save the thumbnail in memory if the input doesn't support reading again.
                     byte[] thumbnailBytes = new byte[thumbnailLength];
                     in.seek(thumbnailOffset);
@@ -3185,7 +3445,8 @@ public class ExifInterface {
         }
     }
 
-    // Writes an Exif segment into the given output stream.
+    // Writes an Exif segment into the given output stream. exifOffsetFromBeginning is the file
+    // offset of the TIFF header, which the thumbnail offset is relative to.
     private int writeExifSegment(ByteOrderedDataOutputStream dataOutputStream,
             int exifOffsetFromBeginning) throws IOException {
         // The following variables are for calculating each IFD tag group size in bytes.
@@ -3676,6 +3937,193 @@ public class ExifInterface {
         }
     }
 
+    // An input stream over a file channel that reads with positional reads, so seeking to an IFD
+    // offset costs no I/O and only the bytes around the current position are ever read. Unlike
+    // BufferedInputStream, mark/reset does not retain the bytes read since the mark.
+    private static class SeekableFileInputStream extends InputStream {
+        private static final int BUFFER_SIZE = 4096;
+
+        private final FileChannel mChannel;
+        private final boolean mOwnsChannel;
+        private final long mLength;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        // File offset of the first byte in mBuffer.
+        private long mBufferStart;
+        private int mBufferLength;
+        private long mPosition;
+        private long mMark;
+
+        SeekableFileInputStream(FileChannel channel, boolean ownsChannel) throws IOException {
+            mChannel = channel;
+            mOwnsChannel = ownsChannel;
+            mLength = channel.size();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPosition >= mLength) {
+                return -1;
+            }
+            if (mPosition < mBufferStart || mPosition >= mBufferStart + mBufferLength) {
+                fill();
+                if (mBufferLength == 0) {
+                    return -1;
+                }
+            }
+            return mBuffer.get((int) (mPosition++ - mBufferStart)) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (mPosition >= mLength) {
+                return -1;
+            }
+            length = (int) Math.min(length, mLength - mPosition);
+            if (length >= BUFFER_SIZE) {
+                // Large reads such as thumbnails go straight into the caller's buffer.
+                ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+                int total = 0;
+                while (target.hasRemaining()) {
+                    int n = mChannel.read(target, mPosition + total);
+                    if (n < 0) {
+                        break;
+                    }
+                    total += n;
+                }
+                mPosition += total;
+                return total > 0 ? total : -1;
+            }
+            int total = 0;
+            while (total < length) {
+                if (mPosition < mBufferStart || mPosition >= mBufferStart + mBufferLength) {
+                    fill();
+                    if (mBufferLength == 0) {
+                        break;
+                    }
+                }
+                int start = (int) (mPosition - mBufferStart);
+                int count = Math.min(length - total, mBufferLength - start);
+                for (int i = 0; i < count; ++i) {
+                    buffer[offset + total + i] = mBuffer.get(start + i);
+                }
+                total += count;
+                mPosition += count;
+            }
+            return total > 0 ? total : -1;
+        }
+
+        @Override
+        public long skip(long byteCount) {
+            if (byteCount <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(byteCount, mLength - mPosition);
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(mLength - mPosition, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            mMark = mPosition;
+        }
+
+        @Override
+        public void reset() {
+            mPosition = mMark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mOwnsChannel) {
+                mChannel.close();
+            }
+        }
+
+        private void fill() throws IOException {
+            mBuffer.clear();
+            while (mBuffer.hasRemaining()) {
+                if (mChannel.read(mBuffer, mPosition + mBuffer.position()) < 0) {
+                    break;
+                }
+            }
+            mBufferStart = mPosition;
+            mBufferLength = mBuffer.position();
+        }
+    }
+
+    // An input stream over the remaining bytes of a ByteBuffer, which lets BitmapFactory decode a
+    // mapped buffer without copying it into a byte array first.
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+        private int mMark;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mMark = buffer.position();
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, mBuffer.remaining());
+            mBuffer.get(buffer, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long byteCount) {
+            if (byteCount <= 0) {
+                return 0;
+            }
+            int skipped = (int) Math.min(byteCount, mBuffer.remaining());
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            mMark = mBuffer.position();
+        }
+
+        @Override
+        public void reset() {
+            mBuffer.position(mMark);
+        }
+    }
+
     // An output stream to write EXIF data area, which can be written in either little or big endian
     // order.
     private static class ByteOrderedDataOutputStream extends FilterOutputStream {
@@ -3779,6 +4227,19 @@ public class ExifInterface {
         }
     }
 
+    /**
+     * Returns true if positional reads are supported by the given channel, which is not the case
+     * for pipes and sockets.
+     */
+    private static boolean isSeekableChannel(FileChannel channel) {
+        try {
+            channel.position();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     /**
      * Closes 'closeable', ignoring any checked exceptions. Does nothing if 'closeable' is null.
      */
@@ -21,6 +21,7 @@ import static android.support.test.InstrumentationRegistry.getContext;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 import android.content.res.TypedArray;
@@ -39,6 +40,7 @@ import org.junit.runner.RunWith;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -46,6 +48,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Test {@link ExifInterface}.
@@ -295,6 +307,216 @@ public class ExifInterfaceTest {
         }
     }
 
+    @Test
+    @LargeTest
+    public void testSaveAttributes_inPlace() throws IOException {
+        File imageFile = new File(Environment.getExternalStorageDirectory(),
+                EXIF_BYTE_ORDER_II_JPEG);
+        byte[] original = readFully(imageFile);
+        byte[] thumbnail = new ExifInterface(imageFile.getAbsolutePath()).getThumbnailBytes();
+
+        ExifInterface exifInterface = new ExifInterface(imageFile.getAbsolutePath());
+        exifInterface.setAttribute(ExifInterface.TAG_ORIENTATION,
+                String.valueOf(ExifInterface.ORIENTATION_ROTATE_180));
+        exifInterface.saveAttributes();
+        assertTrue(Arrays.equals(thumbnail, exifInterface.getThumbnailBytes()));
+
+        // Only the EXIF APP1 segment, which directly follows SOI, may have been rewritten.
+        byte[] saved = readFully(imageFile);
+        assertEquals(original.length, saved.length);
+        int segmentEnd = 4 + (((original[4] & 0xff) << 8) | (original[5] & 0xff));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(original, segmentEnd, original.length),
+                Arrays.copyOfRange(saved, segmentEnd, saved.length)));
+
+        exifInterface = new ExifInterface(imageFile.getAbsolutePath());
+        assertIntTag(exifInterface, ExifInterface.TAG_ORIENTATION,
+                ExifInterface.ORIENTATION_ROTATE_180);
+        assertTrue(Arrays.equals(thumbnail, exifInterface.getThumbnailBytes()));
+    }
+
+    @Test
+    @LargeTest
+    public void testSaveAttributes_growingExifSegment() throws IOException {
+        File imageFile = new File(Environment.getExternalStorageDirectory(),
+                EXIF_BYTE_ORDER_II_JPEG);
+        long originalLength = imageFile.length();
+        byte[] thumbnail = new ExifInterface(imageFile.getAbsolutePath()).getThumbnailBytes();
+
+        // A value that does not fit in the existing segment makes the whole file be rewritten.
+        char[] description = new char[8192];
+        Arrays.fill(description, 'a');
+        ExifInterface exifInterface = new ExifInterface(imageFile.getAbsolutePath());
+        exifInterface.setAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION, new String(description));
+        exifInterface.saveAttributes();
+        assertTrue(imageFile.length() > originalLength);
+
+        exifInterface = new ExifInterface(imageFile.getAbsolutePath());
+        assertStringTag(exifInterface, ExifInterface.TAG_IMAGE_DESCRIPTION,
+                new String(description));
+        assertTrue(Arrays.equals(thumbnail, exifInterface.getThumbnailBytes()));
+    }
+
+    @Test
+    @LargeTest
+    public void testSaveAttributesPerformance() throws IOException {
+        final int iterations = 20;
+        for (String fileName : IMAGE_FILENAMES) {
+            if (!fileName.endsWith(".jpg")) {
+                // Saving attributes is only supported for JPEG files.
+                continue;
+            }
+            File imageFile = new File(Environment.getExternalStorageDirectory(), fileName);
+            ExifInterface exifInterface = new ExifInterface(imageFile.getAbsolutePath());
+            // Make room for the orientation tag so that the following saves fit in place.
+            exifInterface.setAttribute(ExifInterface.TAG_ORIENTATION,
+                    String.valueOf(ExifInterface.ORIENTATION_NORMAL));
+            exifInterface.saveAttributes();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                exifInterface.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(
+                        i % 2 == 0 ? ExifInterface.ORIENTATION_ROTATE_90
+                                : ExifInterface.ORIENTATION_NORMAL));
+                exifInterface.saveAttributes();
+            }
+            long inPlaceTime = System.nanoTime() - start;
+
+            // A description that grows on every save never fits in the existing segment.
+            StringBuilder description = new StringBuilder();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                description.append("description");
+                exifInterface.setAttribute(ExifInterface.TAG_IMAGE_DESCRIPTION,
+                        description.toString());
+                exifInterface.saveAttributes();
+            }
+            long copyTime = System.nanoTime() - start;
+
+            Log.i(TAG, fileName + " (" + imageFile.length() + " bytes): in place "
+                    + inPlaceTime / iterations / 1000 + "us, copy "
+                    + copyTime / iterations / 1000 + "us per save");
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void testReadRequestedTagsOnly() throws IOException {
+        String[] tags = new String[] {ExifInterface.TAG_ORIENTATION, ExifInterface.TAG_DATETIME,
+                ExifInterface.TAG_GPS_LATITUDE, ExifInterface.TAG_GPS_LONGITUDE};
+        for (String fileName : IMAGE_FILENAMES) {
+            String path = new File(Environment.getExternalStorageDirectory(), fileName)
+                    .getAbsolutePath();
+            ExifInterface allTags = new ExifInterface(path);
+            ExifInterface requestedTags = new ExifInterface(path, tags);
+            for (String tag : tags) {
+                assertEquals(allTags.getAttribute(tag), requestedTags.getAttribute(tag));
+            }
+            assertEquals(allTags.getAttribute(ExifInterface.TAG_IMAGE_WIDTH),
+                    requestedTags.getAttribute(ExifInterface.TAG_IMAGE_WIDTH));
+            assertTrue(Arrays.equals(allTags.getThumbnailBytes(),
+                    requestedTags.getThumbnailBytes()));
+            assertNull(requestedTags.getAttribute(ExifInterface.TAG_ISO_SPEED_RATINGS));
+            assertNull(requestedTags.getAttribute(ExifInterface.TAG_MAKER_NOTE));
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void testSaveAttributes_withRequestedTags() throws IOException {
+        String path = new File(Environment.getExternalStorageDirectory(), EXIF_BYTE_ORDER_II_JPEG)
+                .getAbsolutePath();
+        ExifInterface exifInterface =
+                new ExifInterface(path, new String[] {ExifInterface.TAG_ORIENTATION});
+        try {
+            exifInterface.saveAttributes();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void testThumbnailBuffer() throws IOException {
+        for (String fileName : IMAGE_FILENAMES) {
+            String path = new File(Environment.getExternalStorageDirectory(), fileName)
+                    .getAbsolutePath();
+            ExifInterface exifInterface = new ExifInterface(path);
+            ByteBuffer thumbnailBuffer = exifInterface.getThumbnailBuffer();
+            if (!exifInterface.hasThumbnail()) {
+                assertNull(thumbnailBuffer);
+                continue;
+            }
+            assertTrue(thumbnailBuffer.isReadOnly());
+            byte[] bufferBytes = new byte[thumbnailBuffer.remaining()];
+            thumbnailBuffer.get(bufferBytes);
+
+            // Decoding from the mapped thumbnail gives the same bitmap as decoding the copy.
+            Bitmap mappedBitmap = exifInterface.getThumbnailBitmap();
+            assertTrue(Arrays.equals(exifInterface.getThumbnailBytes(), bufferBytes));
+            Bitmap copiedBitmap = exifInterface.getThumbnailBitmap();
+            if (copiedBitmap == null) {
+                assertNull(mappedBitmap);
+            } else {
+                assertEquals(copiedBitmap.getWidth(), mappedBitmap.getWidth());
+                assertEquals(copiedBitmap.getHeight(), mappedBitmap.getHeight());
+            }
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void testBatchReader() throws Exception {
+        final int copies = 50;
+        List<String> fileNames = new ArrayList<>();
+        for (int i = 0; i < copies; ++i) {
+            for (String fileName : IMAGE_FILENAMES) {
+                fileNames.add(new File(Environment.getExternalStorageDirectory(), fileName)
+                        .getAbsolutePath());
+            }
+        }
+        fileNames.add(new File(Environment.getExternalStorageDirectory(), "missing.jpg")
+                .getAbsolutePath());
+
+        final ConcurrentHashMap<String, String> orientations = new ConcurrentHashMap<>();
+        final AtomicInteger readCount = new AtomicInteger();
+        final AtomicInteger errorCount = new AtomicInteger();
+        final AtomicLong readTime = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            new ExifBatchReader(executor, 4, new String[] {ExifInterface.TAG_ORIENTATION})
+                    .read(fileNames, new ExifBatchReader.Callback() {
+                        @Override
+                        public void onExifRead(String filename, ExifInterface exifInterface,
+                                long readTimeNanos) {
+                            orientations.put(filename,
+                                    exifInterface.getAttribute(ExifInterface.TAG_ORIENTATION));
+                            readCount.incrementAndGet();
+                            readTime.addAndGet(readTimeNanos);
+                        }
+
+                        @Override
+                        public void onExifError(String filename, IOException e,
+                                long readTimeNanos) {
+                            errorCount.incrementAndGet();
+                        }
+                    });
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(copies * IMAGE_FILENAMES.length, readCount.get());
+        assertEquals(1, errorCount.get());
+        for (Map.Entry<String, String> entry : orientations.entrySet()) {
+            assertEquals(new ExifInterface(entry.getKey()).getAttribute(
+                    ExifInterface.TAG_ORIENTATION), entry.getValue());
+        }
+        if (VERBOSE) {
+            Log.v(TAG, "Read " + readCount.get() + " files, "
+                    + readTime.get() / readCount.get() / 1000 + "us per file");
+        }
+    }
+
     private void printExifTagsAndValues(String fileName, ExifInterface exifInterface) {
         // Prints thumbnail information.
         if (exifInterface.hasThumbnail()) {
@@ -433,6 +655,20 @@ public class ExifInterfaceTest {
         } finally {
             closeQuietly(in);
         }
+
+        // Creates via FileDescriptor.
+        FileInputStream fileInputStream = null;
+        try {
+            fileInputStream = new FileInputStream(imageFile);
+            exifInterface = new ExifInterface(fileInputStream.getFD());
+            compareWithExpectedValue(exifInterface, expectedValue, verboseTag);
+            // Seeking to the IFDs must not move the offset of the given file descriptor.
+            assertEquals(0, fileInputStream.getChannel().position());
+            assertTrue(Arrays.equals(new ExifInterface(imageFile.getAbsolutePath())
+                    .getThumbnailBytes(), exifInterface.getThumbnailBytes()));
+        } finally {
+            closeQuietly(fileInputStream);
+        }
     }
 
     private void testSaveAttributes_withFileName(String fileName, ExpectedValue expectedValue)
@@ -504,6 +740,18 @@ public class ExifInterfaceTest {
         return total;
     }
 
+    private byte[] readFully(File file) throws IOException {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(in, out);
+            return out.toByteArray();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
     private void assertLatLongValuesAreNotSet(ExifInterface exif) {
         assertNull(exif.getAttribute(ExifInterface.TAG_GPS_LATITUDE));
         assertNull(exif.getAttribute(ExifInterface.TAG_GPS_LATITUDE_REF));
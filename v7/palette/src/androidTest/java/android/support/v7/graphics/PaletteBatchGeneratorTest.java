@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.graphics;
+
+import static android.support.v7.graphics.TestUtils.assertCloseColors;
+import static android.support.v7.graphics.TestUtils.loadSampleBitmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.test.filters.MediumTest;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@RunWith(AndroidJUnit4.class)
+public class PaletteBatchGeneratorTest {
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    @SmallTest
+    public void testEmptyBatch() {
+        PaletteBatchGenerator generator = new PaletteBatchGenerator(mExecutor, 2);
+        assertTrue(generator.generate(Collections.<Palette.Builder>emptyList()).isEmpty());
+    }
+
+    @Test
+    @SmallTest
+    public void testPalettesAreInBuilderOrder() {
+        final int[] colors = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.CYAN};
+        List<Palette.Builder> builders = new ArrayList<>();
+        for (int color : colors) {
+            final Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+            new Canvas(bitmap).drawColor(color);
+            builders.add(Palette.from(bitmap));
+        }
+
+        List<Palette> palettes = new PaletteBatchGenerator(mExecutor, 2).generate(builders);
+
+        assertEquals(colors.length, palettes.size());
+        for (int i = 0; i < colors.length; i++) {
+            assertEquals(1, palettes.get(i).getSwatches().size());
+            assertCloseColors(colors[i], palettes.get(i).getSwatches().get(0).getRgb());
+        }
+    }
+
+    @Test
+    @MediumTest
+    public void testSameSwatchesAsSingleGeneration() {
+        final Bitmap sample = loadSampleBitmap();
+        final Palette expected = Palette.from(sample).generate();
+
+        // Disable resizing so that the histogram is built on several threads
+        List<Palette.Builder> builders = new ArrayList<>();
+        builders.add(Palette.from(sample));
+        builders.add(Palette.from(sample).resizeBitmapArea(0));
+        List<Palette> palettes = new PaletteBatchGenerator(mExecutor, 4).generate(builders);
+
+        assertEquals(expected.getSwatches(), palettes.get(0).getSwatches());
+        assertEquals(Palette.from(sample).resizeBitmapArea(0).generate().getSwatches(),
+                palettes.get(1).getSwatches());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.graphics;
+
+import static android.support.v7.graphics.TestUtils.loadSampleBitmap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class PaletteCacheTest {
+    private File mDirectory;
+    private PaletteCache mCache;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(InstrumentationRegistry.getContext().getCacheDir(), "palettes");
+        mCache = new PaletteCache(mDirectory, 64 * 1024);
+        mCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+    }
+
+    @Test
+    public void testHitRestoresSwatchesAndTargets() {
+        final Bitmap sample = loadSampleBitmap();
+        final Palette generated = Palette.from(sample).setCache(mCache).generate();
+        assertEquals(0, mCache.hitCount());
+        assertEquals(1, mCache.missCount());
+
+        final Palette cached = Palette.from(sample).setCache(mCache).generate();
+        assertEquals(1, mCache.hitCount());
+        assertNotSame(generated, cached);
+        assertEquals(generated.getSwatches(), cached.getSwatches());
+        for (Target target : generated.getTargets()) {
+            assertEquals(generated.getSwatchForTarget(target),
+                    cached.getSwatchForTarget(target));
+        }
+    }
+
+    @Test
+    public void testCacheOutlivesInstance() {
+        final Bitmap sample = loadSampleBitmap();
+        final Palette generated = Palette.from(sample).setCache(mCache).setCacheKey("photo")
+                .generate();
+
+        final PaletteCache cache = new PaletteCache(mDirectory, 64 * 1024);
+        final Palette cached = Palette.from(sample).setCache(cache).setCacheKey("photo")
+                .generate();
+        assertEquals(1, cache.hitCount());
+        assertEquals(generated.getVibrantColor(Color.BLACK), cached.getVibrantColor(Color.BLACK));
+    }
+
+    @Test
+    public void testOptionsArePartOfTheKey() {
+        final Bitmap bitmap = createBitmap(Color.BLUE);
+        Palette.from(bitmap).setCache(mCache).setCacheKey("blue").generate();
+        Palette.from(bitmap).setCache(mCache).setCacheKey("blue").maximumColorCount(4)
+                .generate();
+        Palette.from(bitmap).setCache(mCache).setCacheKey("blue").clearTargets().generate();
+        assertEquals(0, mCache.hitCount());
+        assertEquals(3, mCache.missCount());
+    }
+
+    @Test
+    public void testDifferentPixelsMiss() {
+        Palette.from(createBitmap(Color.BLUE)).setCache(mCache).generate();
+        final Palette red = Palette.from(createBitmap(Color.RED)).setCache(mCache).generate();
+        assertEquals(0, mCache.hitCount());
+        assertNotNull(red.getDominantSwatch());
+        TestUtils.assertCloseColors(Color.RED, red.getDominantSwatch().getRgb());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        final PaletteCache cache = new PaletteCache(mDirectory, 512);
+        for (int i = 0; i < 20; i++) {
+            Palette.from(createBitmap(Color.rgb(i * 10, 0, 0))).setCache(cache).generate();
+        }
+        assertTrue(cache.size() <= 512);
+        assertTrue(cache.size() > 0);
+    }
+
+    private static Bitmap createBitmap(int color) {
+        final Bitmap bitmap = Bitmap.createBitmap(50, 50, Bitmap.Config.ARGB_8888);
+        new Canvas(bitmap).drawColor(color);
+        return bitmap;
+    }
+}
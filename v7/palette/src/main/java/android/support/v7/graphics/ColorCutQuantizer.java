@@ -17,6 +17,7 @@
 package android.support.v7.graphics;
 
 import android.graphics.Color;
+import android.support.annotation.Nullable;
 import android.support.v4.graphics.ColorUtils;
 import android.support.v7.graphics.Palette.Swatch;
 import android.util.TimingLogger;
@@ -27,6 +28,9 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An color quantizer based on the Median-cut algorithm, but optimized for picking out distinct
@@ -53,6 +57,14 @@ final class ColorCutQuantizer {
     private static final int QUANTIZE_WORD_WIDTH = 5;
     private static final int QUANTIZE_WORD_MASK = (1 << QUANTIZE_WORD_WIDTH) - 1;
 
+    static final int HISTOGRAM_SIZE = 1 << (QUANTIZE_WORD_WIDTH * 3);
+
+    /**
+     * Minimum number of pixels for which it is worth building a part of the histogram on another
+     * thread.
+     */
+    private static final int MIN_PIXELS_PER_CHUNK = 32 * 1024;
+
     final int[] mColors;
     final int[] mHistogram;
     final List<Swatch> mQuantizedColors;
@@ -69,17 +81,33 @@ final class ColorCutQuantizer {
      * @param filters Set of filters to use in the quantization stage
      */
     ColorCutQuantizer(final int[] pixels, final int maxColors, final Palette.Filter[] filters) {
+        this(pixels, maxColors, filters, null, null, 1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pixels histogram representing an image's pixel data
+     * @param maxColors The maximum number of colors that should be in the result palette.
+     * @param filters Set of filters to use in the quantization stage
+     * @param scratch Arrays to use instead of allocating new ones, or null
+     * @param executor Executor to build parts of the histogram on, or null
+     * @param parallelism The maximum number of threads to build the histogram on
+     */
+    ColorCutQuantizer(final int[] pixels, final int maxColors, final Palette.Filter[] filters,
+            @Nullable final Scratch scratch, @Nullable final Executor executor,
+            final int parallelism) {
         mTimingLogger = LOG_TIMINGS ? new TimingLogger(LOG_TAG, "Creation") : null;
         mFilters = filters;
 
-        final int[] hist = mHistogram = new int[1 << (QUANTIZE_WORD_WIDTH * 3)];
-        for (int i = 0; i < pixels.length; i++) {
-            final int quantizedColor = quantizeFromRgb888(pixels[i]);
-            // Now update the pixel value to the quantized value
-            pixels[i] = quantizedColor;
-            // And update the histogram
-            hist[quantizedColor]++;
+        final int[] hist;
+        if (scratch != null) {
+            hist = mHistogram = scratch.mHistogram;
+            Arrays.fill(hist, 0);
+        } else {
+            hist = mHistogram = new int[HISTOGRAM_SIZE];
         }
+        buildHistogram(pixels, hist, executor, parallelism);
 
         if (LOG_TIMINGS) {
             mTimingLogger.addSplit("Histogram created");
@@ -103,7 +131,8 @@ final class ColorCutQuantizer {
         }
 
         // Now lets go through create an array consisting of only distinct colors
-        final int[] colors = mColors = new int[distinctColorCount];
+        final int[] colors = mColors = scratch != null
+                ? scratch.mColors : new int[distinctColorCount];
         int distinctColorIndex = 0;
         for (int color = 0; color < hist.length; color++) {
             if (hist[color] > 0) {
@@ -118,7 +147,8 @@ final class ColorCutQuantizer {
         if (distinctColorCount <= maxColors) {
             // The image has fewer colors than the maximum requested, so just return the colors
             mQuantizedColors = new ArrayList<>();
-            for (int color : colors) {
+            for (int i = 0; i < distinctColorCount; i++) {
+                final int color = colors[i];
                 mQuantizedColors.add(new Swatch(approximateToRgb888(color), hist[color]));
             }
 
@@ -128,7 +158,7 @@ final class ColorCutQuantizer {
             }
         } else {
             // We need use quantization to reduce the number of colors
-            mQuantizedColors = quantizePixels(maxColors);
+            mQuantizedColors = quantizePixels(maxColors, distinctColorCount);
 
             if (LOG_TIMINGS) {
                 mTimingLogger.addSplit("Quantized colors computed");
@@ -144,13 +174,13 @@ final class ColorCutQuantizer {
         return mQuantizedColors;
     }
 
-    private List<Swatch> quantizePixels(int maxColors) {
+    private List<Swatch> quantizePixels(int maxColors, int distinctColorCount) {
         // Create the priority queue which is sorted by volume descending. This means we always
         // split the largest box in the queue
         final PriorityQueue<Vbox> pq = new PriorityQueue<>(maxColors, VBOX_COMPARATOR_VOLUME);
 
         // To start, offer a box which contains all of the colors
-        pq.offer(new Vbox(0, mColors.length - 1));
+        pq.offer(new Vbox(0, distinctColorCount - 1));
 
         // Now go through the boxes, splitting them until we have reached maxColors or there are no
         // more boxes to split
@@ -160,6 +190,98 @@ final class ColorCutQuantizer {
         return generateAverageColors(pq);
     }
 
+    /**
+     * Counts the quantized colors of the pixels into the histogram. Large images are split into
+     * chunks which are counted on the executor in parallel, then merged.
+     */
+    private static void buildHistogram(final int[] pixels, final int[] hist,
+            @Nullable final Executor executor, final int parallelism) {
+        final int chunks = executor != null
+                ? Math.min(parallelism, pixels.length / MIN_PIXELS_PER_CHUNK) : 1;
+        if (chunks <= 1) {
+            addToHistogram(pixels, 0, pixels.length, hist);
+            return;
+        }
+
+        final HistogramTask task = new HistogramTask(pixels, hist, chunks);
+        for (int i = 1; i < chunks; i++) {
+            executor.execute(task);
+        }
+        // This thread counts chunks too, so that we never wait for the executor to start a task
+        task.run();
+        task.mergeInto(hist);
+    }
+
+    static void addToHistogram(final int[] pixels, final int start, final int end,
+            final int[] hist) {
+        for (int i = start; i < end; i++) {
+            hist[quantizeFromRgb888(pixels[i])]++;
+        }
+    }
+
+    /**
+     * Counts the chunks of the pixels which have not been claimed by another thread yet. The first
+     * chunk is counted into the final histogram, the others into their own histograms.
+     */
+    private static class HistogramTask implements Runnable {
+        private final int[] mPixels;
+        private final int[] mHistogram;
+        private final int[][] mChunkHistograms;
+        private final AtomicInteger mNextChunk = new AtomicInteger();
+        private final CountDownLatch mDoneSignal;
+
+        HistogramTask(int[] pixels, int[] histogram, int chunks) {
+            mPixels = pixels;
+            mHistogram = histogram;
+            mChunkHistograms = new int[chunks][];
+            mDoneSignal = new CountDownLatch(chunks);
+        }
+
+        @Override
+        public void run() {
+            final int chunks = mChunkHistograms.length;
+            int chunk;
+            while ((chunk = mNextChunk.getAndIncrement()) < chunks) {
+                final int[] hist = chunk == 0 ? mHistogram : new int[HISTOGRAM_SIZE];
+                final int start = (int) ((long) mPixels.length * chunk / chunks);
+                final int end = (int) ((long) mPixels.length * (chunk + 1) / chunks);
+                addToHistogram(mPixels, start, end, hist);
+                mChunkHistograms[chunk] = hist;
+                mDoneSignal.countDown();
+            }
+        }
+
+        void mergeInto(int[] hist) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mDoneSignal.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // The remaining chunks are being counted, so they will be done soon
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            for (int chunk = 1; chunk < mChunkHistograms.length; chunk++) {
+                final int[] chunkHist = mChunkHistograms[chunk];
+                for (int color = 0; color < HISTOGRAM_SIZE; color++) {
+                    hist[color] += chunkHist[color];
+                }
+            }
+        }
+    }
+
+    /**
+     * Arrays used while quantizing, which can be reused by one quantizer after another.
+     */
+    static final class Scratch {
+        final int[] mHistogram = new int[HISTOGRAM_SIZE];
+        final int[] mColors = new int[HISTOGRAM_SIZE];
+    }
+
     /**
      * Iterate through the {@link java.util.Queue}, popping
      * {@link ColorCutQuantizer.Vbox} objects from the queue
@@ -35,6 +35,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * A helper class to extract prominent colors from an image.
@@ -357,6 +358,17 @@ public final class Palette {
         mUsedColors.clear();
     }
 
+    /**
+     * Selects the swatches for the targets which were selected when this palette was first
+     * generated, given as indices of the swatches or -1 for none.
+     */
+    void restoreSelectedSwatches(int[] selectedSwatches) {
+        for (int i = 0, count = mTargets.size(); i < count; i++) {
+            final int index = selectedSwatches[i];
+            mSelectedSwatches.put(mTargets.get(i), index >= 0 ? mSwatches.get(index) : null);
+        }
+    }
+
     private Swatch generateScoredTarget(final Target target) {
         final Swatch maxScoreSwatch = getMaxScoredSwatchForTarget(target);
         if (maxScoreSwatch != null && target.isExclusive()) {
@@ -608,6 +620,9 @@ public final class Palette {
         private final List<Filter> mFilters = new ArrayList<>();
         private Rect mRegion;
 
+        private PaletteCache mCache;
+        private String mCacheKey;
+
         /**
          * Construct a new {@link Builder} using a source {@link Bitmap}
          */
@@ -777,18 +792,69 @@ public final class Palette {
             return this;
         }
 
+        /**
+         * Set a cache to look up the palette in before generating it, and to store the
+         * generated palette in.
+         * <p>This only works when the original input is a {@link Bitmap}.</p>
+         *
+         * @param cache the cache to use, or null to always generate the palette.
+         */
+        @NonNull
+        public Builder setCache(@Nullable PaletteCache cache) {
+            mCache = cache;
+            return this;
+        }
+
+        /**
+         * Set the key of the bitmap in the cache set with {@link #setCache(PaletteCache)}, such
+         * as the URL it was loaded from. If no key is set, the cache uses a hash of the pixels of
+         * the bitmap.
+         * <p>
+         * Keys must identify the content of the bitmap, as the cache returns the palette of
+         * a previous bitmap with the same key. The options of this builder are added to the key,
+         * so the same key can be used with different options.
+         *
+         * @param key the key of the bitmap, or null to use a hash of its pixels.
+         */
+        @NonNull
+        public Builder setCacheKey(@Nullable String key) {
+            mCacheKey = key;
+            return this;
+        }
+
         /**
          * Generate and return the {@link Palette} synchronously.
          */
         @NonNull
         public Palette generate() {
+            return generate(null, null, 1);
+        }
+
+        /**
+         * Generate the {@link Palette} synchronously, using the given scratch arrays and
+         * building the color histogram of large bitmaps on up to {@code parallelism} threads of
+         * the executor.
+         */
+        @NonNull
+        Palette generate(@Nullable ColorCutQuantizer.Scratch scratch,
+                @Nullable Executor executor, int parallelism) {
             final TimingLogger logger = LOG_TIMINGS
                     ? new TimingLogger(LOG_TAG, "Generation")
                     : null;
 
             List<Swatch> swatches;
+            String cacheKey = null;
 
             if (mBitmap != null) {
+                if (mCache != null && mCacheKey != null) {
+                    // With a key we can look up the palette before scaling down the bitmap
+                    cacheKey = getCacheKey("key:" + mCacheKey);
+                    final Palette cached = mCache.get(cacheKey, mTargets);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
+
                 // We have a Bitmap so we need to use quantization to reduce the number of colors
 
                 // First we'll scale down the bitmap if needed
@@ -811,11 +877,26 @@ public final class Palette {
                             bitmap.getHeight());
                 }
 
+                final int[] pixels = getPixelsFromBitmap(bitmap);
+
+                if (mCache != null && cacheKey == null) {
+                    cacheKey = getCacheKey(
+                            "pixels:" + Long.toHexString(PaletteCache.hashPixels(pixels)));
+                    final Palette cached = mCache.get(cacheKey, mTargets);
+                    if (cached != null) {
+                        if (bitmap != mBitmap) {
+                            bitmap.recycle();
+                        }
+                        return cached;
+                    }
+                }
+
                 // Now generate a quantizer from the Bitmap
                 final ColorCutQuantizer quantizer = new ColorCutQuantizer(
-                        getPixelsFromBitmap(bitmap),
+                        pixels,
                         mMaxColors,
-                        mFilters.isEmpty() ? null : mFilters.toArray(new Filter[mFilters.size()]));
+                        mFilters.isEmpty() ? null : mFilters.toArray(new Filter[mFilters.size()]),
+                        scratch, executor, parallelism);
 
                 // If created a new bitmap, recycle it
                 if (bitmap != mBitmap) {
@@ -837,6 +918,10 @@ public final class Palette {
             // And make it generate itself
             p.generate();
 
+            if (cacheKey != null) {
+                mCache.put(cacheKey, p);
+            }
+
             if (logger != null) {
                 logger.addSplit("Created Palette");
                 logger.dumpToLog();
@@ -875,6 +960,27 @@ public final class Palette {
                     }, mBitmap);
         }
 
+        /**
+         * Returns the key of the cache entry for the given bitmap key, which includes all of the
+         * options which change the generated palette.
+         */
+        private String getCacheKey(String bitmapKey) {
+            final StringBuilder key = new StringBuilder(bitmapKey);
+            key.append('|').append(mMaxColors);
+            key.append('|').append(mResizeArea).append(',').append(mResizeMaxDimension);
+            if (mRegion != null) {
+                key.append('|').append(mRegion.toShortString());
+            }
+            for (int i = 0, count = mFilters.size(); i < count; i++) {
+                // Filters can only be told apart by their class
+                key.append('|').append(mFilters.get(i).getClass().getName());
+            }
+            for (int i = 0, count = mTargets.size(); i < count; i++) {
+                key.append('|').append(Integer.toHexString(mTargets.get(i).getOptionsHash()));
+            }
+            return key.toString();
+        }
+
         private int[] getPixelsFromBitmap(Bitmap bitmap) {
             final int bitmapWidth = bitmap.getWidth();
             final int bitmapHeight = bitmap.getHeight();
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.graphics;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.support.v4.content.ParallelExecutorCompat;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the {@link Palette}s of many bitmaps at once, such as the artwork of a grid of items.
+ * <p>
+ * The palettes are generated on up to a given number of threads of an {@link Executor}, plus the
+ * calling thread. When there are fewer bitmaps than threads, the spare threads help building the
+ * color histograms of large bitmaps. Each thread reuses the arrays it quantizes colors with from
+ * one bitmap to the next, and from one batch to the next.
+ *
+ * <pre>
+ * PaletteBatchGenerator generator = new PaletteBatchGenerator();
+ *
+ * // On a background thread
+ * List&lt;Palette.Builder&gt; builders = new ArrayList&lt;&gt;();
+ * for (Bitmap bitmap : bitmaps) {
+ *     builders.add(Palette.from(bitmap).maximumColorCount(24));
+ * }
+ * List&lt;Palette&gt; palettes = generator.generate(builders);
+ * </pre>
+ */
+public final class PaletteBatchGenerator {
+    private final Executor mExecutor;
+    private final int mParallelism;
+
+    // Scratch arrays which are not used by any thread at the moment
+    private final ArrayDeque<ColorCutQuantizer.Scratch> mScratchPool = new ArrayDeque<>();
+
+    /**
+     * Creates a generator which uses a shared parallel executor, with as many threads as
+     * there are available processors.
+     */
+    public PaletteBatchGenerator() {
+        this(ParallelExecutorCompat.getParallelExecutor(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a generator.
+     *
+     * @param executor The executor to generate palettes on.
+     * @param parallelism The maximum number of tasks to run on the executor at the same time.
+     */
+    public PaletteBatchGenerator(@NonNull Executor executor, int parallelism) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor can not be null");
+        }
+        mExecutor = executor;
+        mParallelism = Math.max(parallelism, 1);
+    }
+
+    /**
+     * Generates the palettes of the given builders and waits until all of them are generated.
+     * <p>
+     * Builders are not thread safe, so they must not be modified while they are generated.
+     *
+     * @return The palettes in the order of the builders. If the generation of a palette fails,
+     * its palette is {@code null}.
+     */
+    @NonNull
+    @WorkerThread
+    public List<Palette> generate(@NonNull List<Palette.Builder> builders) {
+        final int count = builders.size();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        final BatchTask task = new BatchTask(builders.toArray(new Palette.Builder[count]),
+                Math.max(mParallelism / count, 1));
+        final int workers = Math.min(mParallelism, count - 1);
+        for (int i = 0; i < workers; i++) {
+            mExecutor.execute(task);
+        }
+        // This thread generates palettes too, so that we never wait for the executor to start
+        task.run();
+        task.await();
+        return Arrays.asList(task.mPalettes);
+    }
+
+    ColorCutQuantizer.Scratch acquireScratch() {
+        synchronized (mScratchPool) {
+            final ColorCutQuantizer.Scratch scratch = mScratchPool.poll();
+            if (scratch != null) {
+                return scratch;
+            }
+        }
+        return new ColorCutQuantizer.Scratch();
+    }
+
+    void releaseScratch(ColorCutQuantizer.Scratch scratch) {
+        synchronized (mScratchPool) {
+            if (mScratchPool.size() <= mParallelism) {
+                mScratchPool.push(scratch);
+            }
+        }
+    }
+
+    private class BatchTask implements Runnable {
+        final Palette.Builder[] mBuilders;
+        final Palette[] mPalettes;
+        private final int mHistogramParallelism;
+        private final AtomicInteger mNextIndex = new AtomicInteger();
+        private final CountDownLatch mDoneSignal;
+
+        BatchTask(Palette.Builder[] builders, int histogramParallelism) {
+            mBuilders = builders;
+            mPalettes = new Palette[builders.length];
+            mHistogramParallelism = histogramParallelism;
+            mDoneSignal = new CountDownLatch(builders.length);
+        }
+
+        @Override
+        public void run() {
+            if (mNextIndex.get() >= mBuilders.length) {
+                return; // every builder was claimed before this task started
+            }
+            final ColorCutQuantizer.Scratch scratch = acquireScratch();
+            try {
+                int index;
+                while ((index = mNextIndex.getAndIncrement()) < mBuilders.length) {
+                    try {
+                        mPalettes[index] = mBuilders[index].generate(scratch, mExecutor,
+                                mHistogramParallelism);
+                    } catch (Exception e) {
+                        Log.e(Palette.LOG_TAG, "Exception thrown during batch generate", e);
+                    } finally {
+                        mDoneSignal.countDown();
+                    }
+                }
+            } finally {
+                releaseScratch(scratch);
+            }
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mDoneSignal.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // The remaining palettes are being generated, so they will be done soon
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
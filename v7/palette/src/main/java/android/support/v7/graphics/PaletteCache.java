@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.graphics;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of generated {@link Palette}s, stored in a directory on disk so that it
+ * outlives the process.
+ * <p>
+ * A cache is used by setting it on a {@link Palette.Builder} with
+ * {@link Palette.Builder#setCache(PaletteCache)}. The builder then looks up its palette before
+ * quantizing the colors of the bitmap, and stores the palette it generates on a miss. Entries are
+ * keyed by the key given to {@link Palette.Builder#setCacheKey(String)}, or else by a hash of
+ * the pixels of the scaled down bitmap, combined with the options of the builder. Supplying a key
+ * also skips scaling down the bitmap on a hit.
+ * <p>
+ * Each entry stores the swatches of the palette and the swatches selected for its targets in a
+ * few bytes per swatch. When the entries take more than the maximum size, the least recently used
+ * ones are deleted.
+ * <p>
+ * This class is thread safe. Only one instance should use a given directory at a time.
+ */
+public final class PaletteCache {
+    private static final String LOG_TAG = "PaletteCache";
+
+    private static final int MAGIC = 0x50414c31; // "PAL1"
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    // Held while the entries are loaded from the directory, which only happens on first use.
+    private final Object mLoadLock = new Object();
+    private volatile boolean mLoaded;
+
+    // File names of the entries and their lengths, in access order. Guarded by this, which is
+    // never held while reading or writing files.
+    private LinkedHashMap<String, Long> mEntries;
+    private long mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Creates a cache.
+     *
+     * @param directory The directory to store the entries in. It is created if needed.
+     * @param maxSize The maximum number of bytes that the entries can take on disk.
+     */
+    public PaletteCache(@NonNull File directory, long maxSize) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory can not be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the number of bytes that the entries take on disk.
+     */
+    public long size() {
+        ensureLoaded();
+        synchronized (this) {
+            return mSize;
+        }
+    }
+
+    /**
+     * Returns the number of times a builder found its palette in this cache.
+     */
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of times a builder did not find its palette in this cache.
+     */
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Deletes all of the entries.
+     */
+    public void clear() {
+        ensureLoaded();
+        final List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(mEntries.keySet());
+            mEntries.clear();
+            mSize = 0;
+        }
+        deleteFiles(names);
+    }
+
+    /**
+     * Returns the palette stored with the given key, or null.
+     */
+    @Nullable
+    Palette get(@NonNull String key, @NonNull List<Target> targets) {
+        ensureLoaded();
+        final String name = fileNameForKey(key);
+        final boolean stored;
+        synchronized (this) {
+            // Also marks the entry as the most recently used one
+            stored = mEntries.get(name) != null;
+        }
+        Palette palette = null;
+        if (stored) {
+            final File file = new File(mDirectory, name);
+            try {
+                palette = read(file, key, targets);
+            } catch (FileNotFoundException e) {
+                // Deleted by a trim which ran after the lookup
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Could not read " + file, e);
+            }
+            if (palette != null) {
+                // Keep the recency of the entry for the next process
+                file.setLastModified(System.currentTimeMillis());
+            }
+        }
+        synchronized (this) {
+            if (palette != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+        return palette;
+    }
+
+    /**
+     * Stores the palette with the given key, then deletes the least recently used entries if
+     * needed.
+     */
+    void put(@NonNull String key, @NonNull Palette palette) {
+        ensureLoaded();
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Could not create " + mDirectory);
+            return;
+        }
+        final String name = fileNameForKey(key);
+        final File file = new File(mDirectory, name);
+        File tempFile = null;
+        final long length;
+        try {
+            // Each put writes its own temporary file, and the rename replaces the entry at once,
+            // so concurrent puts and gets never see a partially written entry.
+            tempFile = File.createTempFile(name + "-", TEMP_SUFFIX, mDirectory);
+            write(tempFile, key, palette);
+            length = tempFile.length();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not write " + file, e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            return;
+        }
+
+        final List<String> evicted;
+        synchronized (this) {
+            final Long previous = mEntries.put(name, length);
+            if (previous != null) {
+                mSize -= previous;
+            }
+            mSize += length;
+            evicted = trimToSizeLocked();
+        }
+        deleteFiles(evicted);
+    }
+
+    /**
+     * Removes the least recently used entries from the index until they fit in the maximum
+     * size, and returns the names of their files, which the caller deletes without holding
+     * the lock.
+     */
+    private List<String> trimToSizeLocked() {
+        List<String> evicted = null;
+        final Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            if (evicted == null) {
+                evicted = new ArrayList<>();
+            }
+            evicted.add(eldest.getKey());
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+        return evicted;
+    }
+
+    private void deleteFiles(@Nullable List<String> names) {
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            new File(mDirectory, name).delete();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        final List<String> evicted;
+        synchronized (mLoadLock) {
+            if (mLoaded) {
+                return;
+            }
+            final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(0, 0.75f, true);
+            long size = 0;
+            final File[] files = mDirectory.listFiles();
+            if (files != null) {
+                // Least recently used first
+                Arrays.sort(files, new Comparator<File>() {
+                    @Override
+                    public int compare(File lhs, File rhs) {
+                        final long lhsModified = lhs.lastModified();
+                        final long rhsModified = rhs.lastModified();
+                        return lhsModified < rhsModified
+                                ? -1 : (lhsModified == rhsModified ? 0 : 1);
+                    }
+                });
+                for (File file : files) {
+                    if (file.getName().endsWith(TEMP_SUFFIX)) {
+                        // Left over by a process which died while writing it. Puts in this
+                        // process only write after the entries are loaded.
+                        file.delete();
+                    } else if (file.isFile()) {
+                        entries.put(file.getName(), file.length());
+                        size += file.length();
+                    }
+                }
+            }
+            synchronized (this) {
+                mEntries = entries;
+                mSize = size;
+                evicted = trimToSizeLocked();
+            }
+            mLoaded = true;
+        }
+        deleteFiles(evicted);
+    }
+
+    private static Palette read(File file, String key, List<Target> targets) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || !key.equals(in.readUTF())) {
+                // Different format, or a different key with the same file name
+                return null;
+            }
+            final int swatchCount = in.readInt();
+            final List<Palette.Swatch> swatches = new ArrayList<>(swatchCount);
+            for (int i = 0; i < swatchCount; i++) {
+                final int rgb = in.readInt();
+                final int population = in.readInt();
+                swatches.add(new Palette.Swatch(rgb, population));
+            }
+            final int targetCount = in.readInt();
+            if (targetCount != targets.size()) {
+                return null;
+            }
+            final int[] selectedSwatches = new int[targetCount];
+            for (int i = 0; i < targetCount; i++) {
+                selectedSwatches[i] = in.readInt();
+                if (selectedSwatches[i] >= swatchCount) {
+                    return null;
+                }
+            }
+            final Palette palette = new Palette(swatches, targets);
+            palette.restoreSelectedSwatches(selectedSwatches);
+            return palette;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(File file, String key, Palette palette) throws IOException {
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(key);
+            final List<Palette.Swatch> swatches = palette.getSwatches();
+            out.writeInt(swatches.size());
+            for (Palette.Swatch swatch : swatches) {
+                out.writeInt(swatch.getRgb());
+                out.writeInt(swatch.getPopulation());
+            }
+            final List<Target> targets = palette.getTargets();
+            out.writeInt(targets.size());
+            for (Target target : targets) {
+                // The selected swatch is one of the swatches of the palette
+                final Palette.Swatch selected = palette.getSwatchForTarget(target);
+                int index = -1;
+                for (int i = 0; i < swatches.size(); i++) {
+                    if (swatches.get(i) == selected) {
+                        index = i;
+                        break;
+                    }
+                }
+                out.writeInt(index);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String fileNameForKey(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * Returns a cheap 64-bit hash of the given pixels.
+     */
+    static long hashPixels(int[] pixels) {
+        long hash = 0xcbf29ce484222325L;
+        for (int pixel : pixels) {
+            hash = (hash ^ pixel) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
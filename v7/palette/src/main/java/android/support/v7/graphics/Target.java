@@ -253,6 +253,31 @@ public final class Target {
         }
     }
 
+    /**
+     * Returns a hash of the values of this target, which is the same for targets which select the
+     * same swatches. Weights are hashed as fractions of their sum, as they are normalized before
+     * they are used.
+     */
+    int getOptionsHash() {
+        float sum = 0;
+        for (int i = 0, z = mWeights.length; i < z; i++) {
+            if (mWeights[i] > 0) {
+                sum += mWeights[i];
+            }
+        }
+        int hash = mIsExclusive ? 1 : 0;
+        for (int i = 0, z = mWeights.length; i < z; i++) {
+            final float weight = mWeights[i] > 0 && sum != 0 ? mWeights[i] / sum : mWeights[i];
+            // Rounded so that normalizing the weights again does not change the hash
+            hash = 31 * hash + Math.round(weight * 10000);
+        }
+        for (int i = 0; i < 3; i++) {
+            hash = 31 * hash + Float.floatToIntBits(mSaturationTargets[i]);
+            hash = 31 * hash + Float.floatToIntBits(mLightnessTargets[i]);
+        }
+        return hash;
+    }
+
     private static void setDefaultDarkLightnessValues(Target target) {
         target.mLightnessTargets[INDEX_TARGET] = TARGET_DARK_LUMA;
         target.mLightnessTargets[INDEX_MAX] = MAX_DARK_LUMA;
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+@RunWith(JUnit4.class)
+@SmallTest
+public class AsyncListDifferTest {
+    private TestExecutor mMainThread;
+    private TestExecutor mBackgroundThread;
+    private ListUpdateCallback mUpdateCallback;
+    private AsyncListDiffer<String> mDiffer;
+
+    private static final AsyncListDiffer.ItemCallback<String> STRING_CALLBACK =
+            new AsyncListDiffer.ItemCallback<String>() {
+                @Override
+                public boolean areItemsTheSame(String oldItem, String newItem) {
+                    return oldItem.equals(newItem);
+                }
+
+                @Override
+                public boolean areContentsTheSame(String oldItem, String newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    @Before
+    public void setup() {
+        mMainThread = new TestExecutor();
+        mBackgroundThread = new TestExecutor();
+        mUpdateCallback = Mockito.mock(ListUpdateCallback.class);
+        mDiffer = new AsyncListDiffer<>(mUpdateCallback, STRING_CALLBACK, mMainThread,
+                mBackgroundThread);
+    }
+
+    @Test
+    public void initialListIsInsertedSynchronously() {
+        List<String> list = Arrays.asList("a", "b");
+        mDiffer.submitList(list);
+        verify(mUpdateCallback).onInserted(0, 2);
+        assertThat(mDiffer.getCurrentList(), is(list));
+        assertThat(mBackgroundThread.hasPendingTasks(), is(false));
+    }
+
+    @Test
+    public void nullListIsRemovedSynchronously() {
+        mDiffer.submitList(Arrays.asList("a", "b"));
+        mDiffer.submitList(null);
+        verify(mUpdateCallback).onRemoved(0, 2);
+        assertThat(mDiffer.getCurrentList().size(), is(0));
+    }
+
+    @Test
+    public void diffIsDispatchedOnMainThread() {
+        mDiffer.submitList(Arrays.asList("a", "b"));
+        Mockito.reset(mUpdateCallback);
+        List<String> newList = Arrays.asList("a", "b", "c");
+        mDiffer.submitList(newList);
+        assertThat(mDiffer.getCurrentList(), is(Arrays.asList("a", "b")));
+
+        mBackgroundThread.executeAll();
+        verifyZeroInteractions(mUpdateCallback);
+        assertThat(mDiffer.getCurrentList(), is(Arrays.asList("a", "b")));
+
+        mMainThread.executeAll();
+        verify(mUpdateCallback).onInserted(2, 1);
+        verifyNoMoreInteractions(mUpdateCallback);
+        assertThat(mDiffer.getCurrentList(), is(newList));
+    }
+
+    @Test
+    public void supersededListIsNotDiffed() {
+        mDiffer.submitList(Arrays.asList("a", "b"));
+        Mockito.reset(mUpdateCallback);
+        mDiffer.submitList(Arrays.asList("a", "b", "c"));
+        mDiffer.submitList(Arrays.asList("b", "c"));
+
+        mBackgroundThread.executeAll();
+        // the first background task is canceled before it runs
+        assertThat(mMainThread.mTasks.size(), is(1));
+        mMainThread.executeAll();
+        // updates are dispatched from the end of the list
+        verify(mUpdateCallback).onInserted(2, 1);
+        verify(mUpdateCallback).onRemoved(0, 1);
+        verifyNoMoreInteractions(mUpdateCallback);
+        assertThat(mDiffer.getCurrentList(), is(Arrays.asList("b", "c")));
+    }
+
+    @Test
+    public void resultOfSupersededListIsDropped() {
+        mDiffer.submitList(Arrays.asList("a", "b"));
+        Mockito.reset(mUpdateCallback);
+        mDiffer.submitList(Arrays.asList("a", "b", "c"));
+        // the diff finishes before the next list is submitted, but is not dispatched yet
+        mBackgroundThread.executeAll();
+        mDiffer.submitList(Arrays.asList("b"));
+        mBackgroundThread.executeAll();
+        mMainThread.executeAll();
+        verify(mUpdateCallback).onRemoved(0, 1);
+        verifyNoMoreInteractions(mUpdateCallback);
+        assertThat(mDiffer.getCurrentList(), is(Arrays.asList("b")));
+    }
+
+    @Test
+    public void clearWhileDiffing() {
+        mDiffer.submitList(Arrays.asList("a", "b"));
+        mDiffer.submitList(Arrays.asList("a", "b", "c"));
+        mDiffer.submitList(null);
+        mBackgroundThread.executeAll();
+        mMainThread.executeAll();
+        assertThat(mDiffer.getCurrentList(), is(Collections.<String>emptyList()));
+    }
+
+    private static class TestExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        boolean hasPendingTasks() {
+            return !mTasks.isEmpty();
+        }
+
+        void executeAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests the order in which an AsyncListUtil loads its tiles in parallel. The callbacks are called
+ * directly instead of on the main and background threads, and the loaders are queued until a
+ * test runs them.
+ * <p>
+ * The android.util sparse arrays do nothing in these tests, so they only check which tiles are
+ * filled and recycled, and not what the list holds. AsyncListUtilParallelTest checks that on a
+ * device.
+ */
+@RunWith(JUnit4.class)
+@SmallTest
+public class AsyncListUtilLoadOrderTest {
+    private static final int TILE_SIZE = 10;
+    private static final int ITEM_COUNT = 100;
+
+    private final List<Runnable> mLoaders = new ArrayList<>();
+    private final Executor mLoadExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mLoaders.add(command);
+        }
+    };
+
+    private TestDataCallback mDataCallback;
+    private TestViewCallback mViewCallback;
+    private AsyncListUtil<String> mAsyncListUtil;
+
+    @Before
+    public void setup() {
+        mDataCallback = new TestDataCallback();
+        mViewCallback = new TestViewCallback();
+    }
+
+    @Test
+    public void tilesLoadClosestToVisibleRangeFirst() {
+        mViewCallback.setRange(40, 49, 20, 69);
+        createAsyncListUtil(1);
+
+        runLoaders();
+
+        assertThat(mDataCallback.mFilledStarts, is(Arrays.asList(40, 30, 50, 20, 60)));
+    }
+
+    @Test
+    public void tilesInScrollDirectionLoadFirst() {
+        mViewCallback.setRange(40, 49, 40, 49);
+        createAsyncListUtil(1);
+
+        // Scroll hints are only given from the second range change on
+        scrollTo(40, 49, 40, 49);
+        scrollTo(45, 54, 20, 79);
+        runLoaders();
+
+        assertThat(mDataCallback.mFilledStarts, is(Arrays.asList(40, 50, 60, 30, 70, 20)));
+    }
+
+    @Test
+    public void tilesLeavingExtendedRangeAreNotLoaded() {
+        mViewCallback.setRange(40, 49, 40, 49);
+        createAsyncListUtil(2);
+        assertThat(mLoaders.size(), is(1));
+
+        // The scroll starts another loader, since one is still free
+        scrollTo(80, 89, 70, 99);
+        assertThat(mLoaders.size(), is(2));
+        runLoaders();
+
+        assertThat(mDataCallback.mFilledStarts, is(Arrays.asList(80, 70, 90)));
+        assertThat(mDataCallback.mRecycledFirstItems.size(), is(0));
+    }
+
+    @Test
+    public void tileLeavingExtendedRangeWhileLoadingIsRecycled() {
+        mViewCallback.setRange(40, 49, 40, 49);
+        mDataCallback.mFillingPosition = 40;
+        mDataCallback.mWhileFilling = new Runnable() {
+            @Override
+            public void run() {
+                scrollTo(80, 89, 70, 99);
+            }
+        };
+        createAsyncListUtil(2);
+
+        runLoaders();
+
+        assertThat(mDataCallback.mFilledStarts, is(Arrays.asList(40, 80, 70, 90)));
+        assertThat(mDataCallback.mRecycledFirstItems, is(Arrays.asList("item #40")));
+    }
+
+    private void createAsyncListUtil(int parallelism) {
+        mAsyncListUtil = new AsyncListUtil<>(String.class, TILE_SIZE, mDataCallback,
+                mViewCallback, mLoadExecutor, parallelism, new DirectThreadUtil<String>());
+    }
+
+    private void scrollTo(int first, int last, int extStart, int extEnd) {
+        mViewCallback.setRange(first, last, extStart, extEnd);
+        mAsyncListUtil.onRangeChanged();
+    }
+
+    private void runLoaders() {
+        while (!mLoaders.isEmpty()) {
+            mLoaders.remove(0).run();
+        }
+    }
+
+    private static class DirectThreadUtil<T> implements ThreadUtil<T> {
+        @Override
+        public MainThreadCallback<T> getMainThreadProxy(MainThreadCallback<T> callback) {
+            return callback;
+        }
+
+        @Override
+        public BackgroundCallback<T> getBackgroundProxy(BackgroundCallback<T> callback) {
+            return callback;
+        }
+    }
+
+    private static class TestDataCallback extends AsyncListUtil.DataCallback<String> {
+        int mFillingPosition = -1;
+        Runnable mWhileFilling;
+
+        final List<Integer> mFilledStarts = new ArrayList<>();
+        final List<String> mRecycledFirstItems = new ArrayList<>();
+
+        @Override
+        public int refreshData() {
+            return ITEM_COUNT;
+        }
+
+        @Override
+        public void fillData(String[] data, int startPosition, int itemCount) {
+            mFilledStarts.add(startPosition);
+            if (startPosition == mFillingPosition) {
+                mWhileFilling.run();
+            }
+            for (int i = 0; i < itemCount; i++) {
+                data[i] = "item #" + (startPosition + i);
+            }
+        }
+
+        @Override
+        public void recycleData(String[] data, int itemCount) {
+            mRecycledFirstItems.add(data[0]);
+        }
+    }
+
+    private static class TestViewCallback extends AsyncListUtil.ViewCallback {
+        private int mFirstVisibleItem;
+        private int mLastVisibleItem;
+        private int mExtendedStart;
+        private int mExtendedEnd;
+
+        void setRange(int first, int last, int extendedStart, int extendedEnd) {
+            mFirstVisibleItem = first;
+            mLastVisibleItem = last;
+            mExtendedStart = extendedStart;
+            mExtendedEnd = extendedEnd;
+        }
+
+        @Override
+        public void getItemRangeInto(int[] outRange) {
+            outRange[0] = mFirstVisibleItem;
+            outRange[1] = mLastVisibleItem;
+        }
+
+        @Override
+        public void extendRangeInto(int[] range, int[] outRange, int scrollHint) {
+            outRange[0] = mExtendedStart;
+            outRange[1] = mExtendedEnd;
+        }
+
+        @Override
+        public void onDataRefresh() {
+        }
+
+        @Override
+        public void onItemLoaded(int position) {
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.v7.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+@SmallTest
+public class DiffUtilItemIdTest {
+    private static Random sRand = new Random(System.nanoTime());
+    private long mIdCounter = 0;
+    private List<Item> mBefore = new ArrayList<>();
+    private List<Item> mAfter = new ArrayList<>();
+
+    private DiffUtil.ItemIdCallback mIdCallback = new DiffUtil.ItemIdCallback() {
+        @Override
+        public long getOldItemId(int oldItemPosition) {
+            return mBefore.get(oldItemPosition).id;
+        }
+
+        @Override
+        public long getNewItemId(int newItemPosition) {
+            return mAfter.get(newItemPosition).id;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mBefore.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mAfter.size();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mBefore.get(oldItemPosition).version == mAfter.get(newItemPosition).version;
+        }
+    };
+
+    private DiffUtil.ContentHashCallback mHashCallback = new DiffUtil.ContentHashCallback() {
+        @Override
+        public long getOldItemContentHash(int oldItemPosition) {
+            return mBefore.get(oldItemPosition).version;
+        }
+
+        @Override
+        public long getNewItemContentHash(int newItemPosition) {
+            return mAfter.get(newItemPosition).version;
+        }
+
+        @Override
+        public long getOldItemId(int oldItemPosition) {
+            return mBefore.get(oldItemPosition).id;
+        }
+
+        @Override
+        public long getNewItemId(int newItemPosition) {
+            return mAfter.get(newItemPosition).id;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mBefore.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mAfter.size();
+        }
+    };
+
+    // same as mIdCallback but goes through the O(N^2) move detection
+    private DiffUtil.Callback mPlainCallback = new DiffUtil.Callback() {
+        @Override
+        public int getOldListSize() {
+            return mBefore.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mAfter.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mBefore.get(oldItemPosition).id == mAfter.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mBefore.get(oldItemPosition).version == mAfter.get(newItemPosition).version;
+        }
+    };
+
+    @Test
+    public void moveToEnd() {
+        initWithSize(5);
+        move(0, 4);
+        check();
+    }
+
+    @Test
+    public void moveAndUpdate() {
+        initWithSize(5);
+        move(4, 0);
+        update(0);
+        update(3);
+        check();
+    }
+
+    @Test
+    public void swapWithAdditions() {
+        initWithSize(4);
+        move(3, 0);
+        move(1, 3);
+        add(2);
+        delete(4);
+        check();
+    }
+
+    @Test
+    public void movesAreDetected() {
+        initWithSize(50);
+        for (int i = 0; i < 20; i++) {
+            move(sRand.nextInt(50), sRand.nextInt(50));
+        }
+        final List<Item> applied = applyUpdates(DiffUtil.calculateDiff(mIdCallback));
+        assertApplied(applied);
+        for (Item item : applied) {
+            assertThat(item.inserted, is(false));
+        }
+    }
+
+    @Test
+    public void duplicateIds() {
+        initWithSize(4);
+        mAfter.add(0, new Item(mAfter.get(3).id));
+        mAfter.add(new Item(mAfter.get(1).id));
+        check();
+    }
+
+    @Test
+    public void append() {
+        initWithSize(100);
+        for (int i = 0; i < 10; i++) {
+            add(mAfter.size());
+        }
+        update(20);
+        ListUpdateCallback callback = mock(ListUpdateCallback.class);
+        DiffUtil.calculateDiff(mHashCallback).dispatchUpdatesTo(callback);
+        verify(callback).onInserted(100, 10);
+        verify(callback).onChanged(20, 1, null);
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    public void prepend() {
+        initWithSize(100);
+        for (int i = 0; i < 10; i++) {
+            add(0);
+        }
+        ListUpdateCallback callback = mock(ListUpdateCallback.class);
+        DiffUtil.calculateDiff(mHashCallback).dispatchUpdatesTo(
+                new BatchingListUpdateCallback(callback));
+        verify(callback).onInserted(0, 10);
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    public void swap() {
+        initWithSize(100);
+        move(30, 60);
+        ListUpdateCallback callback = mock(ListUpdateCallback.class);
+        DiffUtil.calculateDiff(mHashCallback).dispatchUpdatesTo(callback);
+        verify(callback).onMoved(30, 60);
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    @LargeTest
+    public void randomReorder() {
+        for (int i = 0; i < 2000; i++) {
+            initWithSize(sRand.nextInt(50));
+            final int start = mAfter.isEmpty() ? 0 : sRand.nextInt(mAfter.size());
+            Collections.shuffle(mAfter.subList(start, mAfter.size()), sRand);
+            if (!mAfter.isEmpty() && sRand.nextBoolean()) {
+                update(sRand.nextInt(mAfter.size()));
+            }
+            check();
+            assertApplied(applyUpdates(DiffUtil.calculateDiff(mHashCallback)));
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void random() {
+        for (int x = 0; x < 20; x++) {
+            for (int i = 0; i < 100; i++) {
+                for (int j = 2; j < 40; j++) {
+                    random(i, j);
+                }
+            }
+        }
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void canceled() {
+        initWithSize(10);
+        move(2, 5);
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        DiffUtil.calculateDiff(mIdCallback, true, signal, Long.MAX_VALUE);
+    }
+
+    @Test(expected = OperationCanceledException.class)
+    public void deadlinePassed() {
+        initWithSize(10);
+        move(2, 5);
+        DiffUtil.calculateDiff(mIdCallback, true, null, System.nanoTime() - 1);
+    }
+
+    @Test
+    public void noDeadline() {
+        initWithSize(10);
+        move(2, 5);
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(mIdCallback, true,
+                new CancellationSignal(), Long.MAX_VALUE);
+        assertApplied(applyUpdates(result));
+    }
+
+    /**
+     * Compares the O(N) move detection of {@link DiffUtil.ItemIdCallback} with the default
+     * move detection on a large list.
+     */
+    @Test
+    @LargeTest
+    public void benchmarkAgainstCallback() {
+        final int size = 20000;
+        final int moves = 1000;
+        for (int round = 0; round < 3; round++) {
+            initWithSize(size);
+            for (int i = 0; i < moves; i++) {
+                move(sRand.nextInt(size), sRand.nextInt(size));
+                update(sRand.nextInt(size));
+            }
+            // an insertion keeps the lists from being a pure reorder
+            add(sRand.nextInt(size));
+            long start = System.nanoTime();
+            DiffUtil.DiffResult plainResult = DiffUtil.calculateDiff(mPlainCallback);
+            final long plainNs = System.nanoTime() - start;
+            start = System.nanoTime();
+            DiffUtil.DiffResult idResult = DiffUtil.calculateDiff(mIdCallback);
+            final long idNs = System.nanoTime() - start;
+            assertApplied(applyUpdates(plainResult));
+            assertApplied(applyUpdates(idResult));
+            // Reported on stdout, which the JVM test reports keep
+            System.out.println("DiffUtil " + size + " items, " + moves + " moves: Callback "
+                    + (plainNs / 1000000) + " ms, ItemIdCallback " + (idNs / 1000000) + " ms");
+        }
+    }
+
+    private void random(int initialSize, int operationCount) {
+        initWithSize(initialSize);
+        for (int i = 0; i < operationCount; i++) {
+            switch (sRand.nextInt(4)) {
+                case 0:
+                    add(sRand.nextInt(mAfter.size() + 1));
+                    break;
+                case 1:
+                    if (!mAfter.isEmpty()) {
+                        delete(sRand.nextInt(mAfter.size()));
+                    }
+                    break;
+                case 2:
+                    if (!mAfter.isEmpty()) {
+                        move(sRand.nextInt(mAfter.size()), sRand.nextInt(mAfter.size()));
+                    }
+                    break;
+                case 3:
+                    if (!mAfter.isEmpty()) {
+                        update(sRand.nextInt(mAfter.size()));
+                    }
+                    break;
+            }
+        }
+        check();
+    }
+
+    private void check() {
+        assertApplied(applyUpdates(DiffUtil.calculateDiff(mIdCallback)));
+        assertApplied(applyUpdates(DiffUtil.calculateDiff(mIdCallback, false)));
+    }
+
+    private void assertApplied(List<Item> applied) {
+        final String report = "before: " + mBefore + "\nafter: " + mAfter + "\napplied: " + applied;
+        assertThat(report, applied.size(), is(mAfter.size()));
+        for (int i = 0; i < applied.size(); i++) {
+            final Item item = applied.get(i);
+            if (item.inserted) {
+                // without move detection, existing items may be removed and inserted again
+                continue;
+            }
+            final Item expected = mAfter.get(i);
+            assertThat(report, item.id, is(expected.id));
+            if (item.version != expected.version) {
+                assertThat(report, item.changed, is(true));
+            }
+        }
+    }
+
+    private List<Item> applyUpdates(DiffUtil.DiffResult result) {
+        final List<Item> target = new ArrayList<>(mBefore);
+        result.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    Item item = new Item(-1);
+                    item.inserted = true;
+                    target.add(position + i, item);
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    target.remove(position);
+                }
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                target.add(toPosition, target.remove(fromPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                for (int i = position; i < position + count; i++) {
+                    Item changed = new Item(target.get(i).id);
+                    changed.changed = true;
+                    target.set(i, changed);
+                }
+            }
+        });
+        return target;
+    }
+
+    private void initWithSize(int size) {
+        mBefore.clear();
+        mAfter.clear();
+        for (int i = 0; i < size; i++) {
+            mBefore.add(new Item(mIdCounter++));
+        }
+        mAfter.addAll(mBefore);
+    }
+
+    private void add(int index) {
+        mAfter.add(index, new Item(mIdCounter++));
+    }
+
+    private void delete(int index) {
+        mAfter.remove(index);
+    }
+
+    private void update(int index) {
+        Item existing = mAfter.get(index);
+        Item replica = new Item(existing.id);
+        replica.version = existing.version + 1;
+        mAfter.set(index, replica);
+    }
+
+    private void move(int from, int to) {
+        mAfter.add(to, mAfter.remove(from));
+    }
+
+    static class Item {
+        final long id;
+        int version;
+        boolean inserted;
+        boolean changed;
+
+        Item(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return id + (version > 0 ? "v" + version : "");
+        }
+    }
+}
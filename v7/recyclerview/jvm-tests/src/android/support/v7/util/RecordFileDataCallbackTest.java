@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import android.support.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+@RunWith(JUnit4.class)
+@SmallTest
+public class RecordFileDataCallbackTest {
+    private static final int RECORD_SIZE = 12;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFile;
+    private RecordFileDataCallback<Item> mCallback;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mTemporaryFolder.getRoot(), "items");
+        mCallback = new RecordFileDataCallback<>(mFile, new ItemDecoder());
+    }
+
+    @Test
+    public void missingFile() {
+        assertEquals(0, mCallback.refreshData());
+    }
+
+    @Test
+    public void notARecordFile() throws IOException {
+        final FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[64]);
+        out.close();
+        assertEquals(0, mCallback.refreshData());
+    }
+
+    @Test
+    public void fillData() throws IOException {
+        writeItems(1000);
+        assertEquals(1000, mCallback.refreshData());
+
+        final Item[] tile = new Item[10];
+        mCallback.fillData(tile, 990, 10);
+        for (int i = 0; i < 10; i++) {
+            assertItem(990 + i, tile[i]);
+        }
+
+        // Items of recycled tiles are updated
+        final Item reused = tile[3];
+        mCallback.fillData(tile, 20, 5);
+        assertSame(reused, tile[3]);
+        for (int i = 0; i < 5; i++) {
+            assertItem(20 + i, tile[i]);
+        }
+        assertItem(995, tile[5]);
+    }
+
+    @Test
+    public void shortRecordsArePadded() throws IOException {
+        final RecordFileWriter writer = new RecordFileWriter(mFile, RECORD_SIZE);
+        final ByteBuffer record = ByteBuffer.allocate(4);
+        record.putInt(7).flip();
+        writer.write(record);
+        writer.commit();
+
+        assertEquals(1, mCallback.refreshData());
+        final Item[] tile = new Item[1];
+        mCallback.fillData(tile, 0, 1);
+        assertEquals(7, tile[0].mId);
+        assertEquals(0, tile[0].mValue);
+    }
+
+    @Test
+    public void refreshReadsRewrittenFile() throws IOException {
+        writeItems(10);
+        assertEquals(10, mCallback.refreshData());
+        writeItems(300);
+        assertEquals(300, mCallback.refreshData());
+        final Item[] tile = new Item[1];
+        mCallback.fillData(tile, 299, 1);
+        assertItem(299, tile[0]);
+    }
+
+    @Test
+    public void recordTooLarge() throws IOException {
+        writeItems(10);
+        final long length = mFile.length();
+        final RecordFileWriter writer = new RecordFileWriter(mFile, RECORD_SIZE);
+        try {
+            writer.write(ByteBuffer.allocate(RECORD_SIZE));
+            writer.write(ByteBuffer.allocate(RECORD_SIZE + 1));
+            writer.commit();
+            fail("Records larger than the record size should be rejected");
+        } catch (IllegalArgumentException expected) {
+        } finally {
+            writer.close();
+        }
+        // the writer was not committed, so the previous records are kept
+        assertEquals(length, mFile.length());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+        assertEquals(10, mCallback.refreshData());
+        final Item[] tile = new Item[1];
+        mCallback.fillData(tile, 9, 1);
+        assertItem(9, tile[0]);
+    }
+
+    @Test
+    public void closeWithoutCommitKeepsNoFile() throws IOException {
+        final RecordFileWriter writer = new RecordFileWriter(mFile, RECORD_SIZE);
+        writer.write(ByteBuffer.allocate(RECORD_SIZE));
+        writer.close();
+        assertFalse(mFile.exists());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    private void writeItems(int count) throws IOException {
+        final RecordFileWriter writer = new RecordFileWriter(mFile, RECORD_SIZE);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        try {
+            for (int i = 0; i < count; i++) {
+                record.clear();
+                record.putInt(i).putLong(i * 31L);
+                record.flip();
+                writer.write(record);
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        assertEquals(count, writer.getRecordCount());
+    }
+
+    private static void assertItem(int id, Item item) {
+        assertEquals(id, item.mId);
+        assertEquals(id * 31L, item.mValue);
+    }
+
+    static class Item {
+        int mId;
+        long mValue;
+    }
+
+    static class ItemDecoder implements RecordFileDataCallback.RecordDecoder<Item> {
+        @Override
+        public Item decode(ByteBuffer buffer, int offset, int recordSize, Item reuse) {
+            final Item item = reuse != null ? reuse : new Item();
+            item.mId = buffer.getInt(offset);
+            item.mValue = buffer.getLong(offset + 4);
+            return item;
+        }
+    }
+}
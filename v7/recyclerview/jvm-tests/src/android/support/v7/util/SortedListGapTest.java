@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs the {@link SortedListTest} tests on a SortedList which keeps a gap in its backing array,
+ * plus tests of edits around the gap.
+ */
+@RunWith(JUnit4.class)
+@SmallTest
+public class SortedListGapTest extends SortedListTest {
+    @Override
+    SortedList<Item> createList(SortedList.Callback<Item> callback) {
+        return new SortedList<Item>(Item.class, callback, 4, true);
+    }
+
+    @Test
+    public void testRandomEditsAroundGap() {
+        final Random random = new Random(0);
+        final List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 5000; i++) {
+            final int op = random.nextInt(10);
+            if (op < 6 || expected.isEmpty()) {
+                // Mostly edit close to the start, like new messages in a chat
+                final int cmpField = random.nextInt(4) == 0 ? random.nextInt(100000)
+                        : random.nextInt(50);
+                mList.add(new Item(i, cmpField));
+                expected.add(cmpField);
+            } else if (op < 9) {
+                final int index = random.nextInt(mList.size());
+                expected.remove((Integer) mList.removeItemAt(index).cmpField);
+            } else {
+                final int index = random.nextInt(mList.size());
+                final Item item = mList.get(index);
+                final int cmpField = random.nextInt(100000);
+                mList.updateItemAt(index, new Item(item.id, cmpField));
+                expected.remove((Integer) item.cmpField);
+                expected.add(cmpField);
+            }
+        }
+        Collections.sort(expected);
+        assertEquals(expected.size(), mList.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals((int) expected.get(i), mList.get(i).cmpField);
+        }
+    }
+
+    /**
+     * Asserts that the backing array holds as many items as the list, wherever the gap is.
+     */
+    @Override
+    void assertDataLayout() {
+        int count = 0;
+        for (Item item : mList.mData) {
+            if (item != null) {
+                count++;
+            }
+        }
+        assertEquals(mList.size(), count);
+    }
+
+    @Test
+    public void testAddAllAfterGapEdits() {
+        for (int i = 0; i < 20; i++) {
+            mList.add(new Item(i, 100 - i));
+        }
+        mList.removeItemAt(10);
+        mList.addAll(new Item(100, 50), new Item(101, 0), new Item(102, 1000));
+        assertEquals(22, mList.size());
+        for (int i = 1; i < mList.size(); i++) {
+            assertTrue(mList.get(i - 1).cmpField <= mList.get(i).cmpField);
+        }
+        assertEquals(101, mList.get(0).id);
+        assertEquals(102, mList.get(21).id);
+    }
+
+    /**
+     * Compares inserting at the start of a list with and without a gap, for growing list sizes,
+     * checking that both lists end up with the same items in the same order. Without a gap, every
+     * insertion shifts the whole list, while the gap stays at the start.
+     */
+    @Test
+    @LargeTest
+    public void testPerformanceOfInsertionsAtStart() {
+        final SortedList.Callback<Item> callback = new SortedList.Callback<Item>() {
+            @Override
+            public int compare(Item o1, Item o2) {
+                return o2.cmpField - o1.cmpField;
+            }
+
+            @Override
+            public void onInserted(int position, int count) {
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+            }
+
+            @Override
+            public boolean areContentsTheSame(Item oldItem, Item newItem) {
+                return oldItem.data == newItem.data;
+            }
+
+            @Override
+            public boolean areItemsTheSame(Item item1, Item item2) {
+                return item1.id == item2.id;
+            }
+        };
+        for (int count = 100; count <= 100000; count *= 10) {
+            final Item[] items = new Item[count];
+            for (int i = 0; i < count; i++) {
+                // Newest first, like messages
+                items[i] = new Item(i, i);
+            }
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                SortedList<Item> list = new SortedList<Item>(Item.class, callback, 10, false);
+                for (Item item : items) {
+                    list.add(item);
+                }
+                final long arrayNs = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                SortedList<Item> gapList = new SortedList<Item>(Item.class, callback, 10, true);
+                for (Item item : items) {
+                    gapList.add(item);
+                }
+                final long gapNs = System.nanoTime() - start;
+
+                assertEquals(count, list.size());
+                assertEquals(count, gapList.size());
+                for (int i = 0; i < count; i++) {
+                    assertSame(items[count - 1 - i], list.get(i));
+                    assertSame(items[count - 1 - i], gapList.get(i));
+                }
+                // Reported on stdout, which the JVM test reports keep
+                System.out.println(count + " insertions at start: array "
+                        + (arrayNs / 1000) + " us, gap " + (gapNs / 1000) + " us");
+            }
+        }
+    }
+}
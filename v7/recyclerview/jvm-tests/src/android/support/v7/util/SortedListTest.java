@@ -108,7 +108,11 @@ public class SortedListTest extends TestCase {
         };
         mInsertedCallback = null;
         mChangedCallback = null;
-        mList = new SortedList<Item>(Item.class, mCallback);
+        mList = createList(mCallback);
+    }
+
+    SortedList<Item> createList(SortedList.Callback<Item> callback) {
+        return new SortedList<Item>(Item.class, callback);
     }
 
     @Test
@@ -251,12 +255,7 @@ public class SortedListTest extends TestCase {
                     assertTrue(copy.contains(mList.get(index)));
                 }
 
-                for (int index = 0; index < mList.size(); index++) {
-                    assertNotNull(mList.mData[index]);
-                }
-                for (int index = mList.size(); index < mList.mData.length; index++) {
-                    assertNull(mList.mData[index]);
-                }
+                assertDataLayout();
             }
         } catch (Throwable t) {
             Collections.sort(copy, sItemComparator);
@@ -273,6 +272,19 @@ public class SortedListTest extends TestCase {
         }
     }
 
+    /**
+     * Asserts that the items are at the start of the backing array, and that there are no
+     * references left after them.
+     */
+    void assertDataLayout() {
+        for (int index = 0; index < mList.size(); index++) {
+            assertNotNull(mList.mData[index]);
+        }
+        for (int index = mList.size(); index < mList.mData.length; index++) {
+            assertNull(mList.mData[index]);
+        }
+    }
+
     private static Item[] createItems(int idFrom, int idTo, int idStep) {
         final int count = (idTo - idFrom) / idStep + 1;
         Item[] items = new Item[count];
@@ -670,6 +682,117 @@ public class SortedListTest extends TestCase {
         assertIntegrity(5, "Modification from callback");
     }
 
+    @Test
+    public void testReplaceAllEmpty() {
+        mList.replaceAll(createItems(0, 9, 1));
+        assertIntegrity(10, "replaceAll, empty list");
+        assertEquals(1, mAdditions.size());
+        assertTrue(mAdditions.contains(new Pair(0, 10)));
+
+        mList.replaceAll(new Item[0]);
+        assertIntegrity(0, "replaceAll, empty input");
+        assertEquals(1, mRemovals.size());
+        assertTrue(mRemovals.contains(new Pair(0, 10)));
+    }
+
+    @Test
+    public void testReplaceAllSameItems() {
+        mList.addAll(createItems(0, 9, 1));
+        mAdditions.clear();
+
+        Item[] sameItems = createItems(0, 9, 1);
+        mList.replaceAll(shuffle(sameItems.clone()));
+
+        assertIntegrity(10, "replaceAll, same items");
+        assertEquals(0, mAdditions.size());
+        assertEquals(0, mRemovals.size());
+        assertEquals(0, mUpdates.size());
+        assertEquals(0, mMoves.size());
+        for (int i = 0; i < 10; i++) {
+            assertSame(sameItems[i], mList.get(i));
+        }
+    }
+
+    @Test
+    public void testReplaceAllMerge() {
+        mList.addAll(createItems(0, 9, 1));
+        mAdditions.clear();
+
+        // Keep the even items, with new data for 4, and add 10 and 11.
+        Item[] newItems = createItems(0, 12, 2);
+        newItems[2].data = -1;
+        newItems[6] = new Item(11, 11);
+        mList.replaceAll(newItems);
+
+        assertIntegrity(7, "replaceAll, merge");
+        assertEquals(0, mMoves.size());
+        assertEquals(5, mRemovals.size());
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(mRemovals.contains(new Pair(i, 1)));
+        }
+        assertEquals(1, mUpdates.size());
+        assertTrue(mUpdates.contains(new Pair(2, 1)));
+        assertEquals(1, mAdditions.size());
+        assertTrue(mAdditions.contains(new Pair(5, 2)));
+        assertEquals(-1, mList.get(2).data);
+        assertEquals(11, mList.get(6).id);
+    }
+
+    @Test
+    public void testReplaceAllChangedSortOrder() {
+        mList.addAll(createItems(0, 4, 1));
+        mAdditions.clear();
+
+        Item[] newItems = createItems(0, 4, 1);
+        newItems[1].cmpField = 10;
+        mList.replaceAll(newItems, true);
+
+        assertIntegrity(5, "replaceAll, changed sort order");
+        assertEquals(1, mList.get(4).id);
+        assertEquals(0, mMoves.size());
+        assertTrue(mRemovals.contains(new Pair(1, 1)));
+        assertTrue(mAdditions.contains(new Pair(4, 1)));
+    }
+
+    @Test
+    public void testReplaceAllRandom() {
+        Random random = new Random(System.nanoTime());
+        for (int round = 0; round < 20; round++) {
+            mList.clear();
+            List<Item> oldItems = new ArrayList<Item>();
+            List<Item> newItems = new ArrayList<Item>();
+            for (int id = 0; id < 200; id++) {
+                if (random.nextBoolean()) {
+                    oldItems.add(new Item(id, id / 4));
+                }
+                if (random.nextBoolean()) {
+                    Item item = new Item(id, random.nextInt(10) == 0 ? random.nextInt(50) : id / 4);
+                    item.data = random.nextInt(2);
+                    newItems.add(item);
+                }
+            }
+            mList.addAll(oldItems);
+            mAdditions.clear();
+            mRemovals.clear();
+
+            mList.replaceAll(newItems);
+
+            assertIntegrity(newItems.size(), "replaceAll, random round " + round);
+            for (Item item : newItems) {
+                assertSame(item, mList.get(mList.indexOf(item)));
+            }
+            int insertedCount = 0;
+            for (Pair pair : mAdditions) {
+                insertedCount += pair.second;
+            }
+            int removedCount = 0;
+            for (Pair pair : mRemovals) {
+                removedCount += pair.second;
+            }
+            assertEquals(newItems.size() - oldItems.size(), insertedCount - removedCount);
+        }
+    }
+
     @Test
     public void testAddAllOutsideBatchedUpdates() {
         mList.add(new Item(1));
@@ -18,6 +18,7 @@ package android.support.v7.widget;
 
 import static android.support.v7.widget.RecyclerView.ViewHolder;
 
+import android.support.test.filters.LargeTest;
 import android.support.test.filters.SmallTest;
 import android.test.AndroidTestCase;
 import android.util.Log;
@@ -853,6 +854,167 @@ public class AdapterHelperTest extends AndroidTestCase {
         }
     }
 
+    @Test
+    public void testMergeInsertedRanges() {
+        setupBasic(10, 0, 5);
+        assertTrue(mAdapterHelper.onItemRangeInserted(10, 5));
+        assertFalse(mAdapterHelper.onItemRangeInserted(15, 5));
+        assertFalse(mAdapterHelper.onItemRangeInserted(12, 1));
+        assertFalse(mAdapterHelper.onItemRangeInserted(10, 1));
+        assertOps(mAdapterHelper.mPendingUpdates, addOp(10, 12));
+        assertFalse(mAdapterHelper.onItemRangeInserted(23, 1));
+        assertOps(mAdapterHelper.mPendingUpdates, addOp(10, 12), addOp(23, 1));
+    }
+
+    @Test
+    public void testMergeRemovedRanges() {
+        setupBasic(20, 0, 5);
+        assertTrue(mAdapterHelper.onItemRangeRemoved(10, 2));
+        assertFalse(mAdapterHelper.onItemRangeRemoved(10, 2));
+        assertFalse(mAdapterHelper.onItemRangeRemoved(9, 1));
+        assertFalse(mAdapterHelper.onItemRangeRemoved(7, 2));
+        assertOps(mAdapterHelper.mPendingUpdates, rmOp(7, 7));
+        assertFalse(mAdapterHelper.onItemRangeRemoved(8, 1));
+        assertOps(mAdapterHelper.mPendingUpdates, rmOp(7, 7), rmOp(8, 1));
+    }
+
+    @Test
+    public void testMergeChangedRanges() {
+        setupBasic(20, 0, 5);
+        final Object payload = "payload";
+        assertTrue(mAdapterHelper.onItemRangeChanged(5, 2, null));
+        assertFalse(mAdapterHelper.onItemRangeChanged(6, 3, null));
+        assertFalse(mAdapterHelper.onItemRangeChanged(3, 2, null));
+        assertOps(mAdapterHelper.mPendingUpdates, upOp(3, 6, null));
+        assertFalse(mAdapterHelper.onItemRangeChanged(9, 1, payload));
+        assertFalse(mAdapterHelper.onItemRangeChanged(10, 2, payload));
+        // an overlapping change would lose a payload
+        assertFalse(mAdapterHelper.onItemRangeChanged(11, 2, payload));
+        assertOps(mAdapterHelper.mPendingUpdates, upOp(3, 6, null), upOp(9, 3, payload),
+                upOp(11, 2, payload));
+    }
+
+    @Test
+    public void testMergedUpdatesMatchAdapter() throws Throwable {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 50; i++) {
+            cleanState();
+            setupBasic(30, nextInt(random, 10), 10);
+            mTestAdapter.mNotifyRanges = true;
+            int position = nextInt(random, 30);
+            for (int j = 0; j < 10; j++) {
+                if (random.nextBoolean()) {
+                    // like a page being loaded after the last one
+                    add(position, 2);
+                    position += 2;
+                } else if (mTestAdapter.mItems.size() > position + 3) {
+                    rm(position, 2);
+                    position = Math.max(0, position - nextInt(random, 3));
+                }
+            }
+            try {
+                preProcess();
+            } catch (Throwable t) {
+                throw new Throwable("failure at merge test " + i + "\n" + mLog.toString(), t);
+            }
+        }
+    }
+
+    @Test
+    public void testPositionMapMatchesWalk() {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 200; i++) {
+            cleanState();
+            final List<AdapterHelper.UpdateOp> ops = randomOps(random, 1 + nextInt(random, 30));
+            mAdapterHelper.mPostponedList.addAll(ops);
+            final OpPositionMap map = new OpPositionMap();
+            map.build(ops);
+            for (int position = -1; position < 200; position++) {
+                assertEquals("position " + position + " through " + ops,
+                        mAdapterHelper.findPositionOffset(position, 0), map.map(position));
+            }
+        }
+    }
+
+    @Test
+    public void testLookupsAfterChanges() {
+        setupBasic(100, 0, 10);
+        mAdapterHelper.addUpdateOp(addOp(0, 5), rmOp(20, 5));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(15, mAdapterHelper.applyPendingUpdatesToPosition(10));
+        }
+        mAdapterHelper.addUpdateOp(rmOp(0, 10));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(5, mAdapterHelper.applyPendingUpdatesToPosition(10));
+            assertEquals(RecyclerView.NO_POSITION,
+                    mAdapterHelper.applyPendingUpdatesToPosition(17));
+        }
+        mAdapterHelper.reset();
+        assertEquals(15, mAdapterHelper.applyPendingUpdatesToPosition(15));
+    }
+
+    @Test
+    @LargeTest
+    public void testPerformanceOfPositionLookups() {
+        final int opCount = 500;
+        final int childCount = 2000;
+        final List<AdapterHelper.UpdateOp> ops = randomOps(new Random(1), opCount);
+        mAdapterHelper.mPostponedList.addAll(ops);
+        final OpPositionMap map = new OpPositionMap();
+        long checksum = 0;
+        long startNs = System.nanoTime();
+        for (int position = 0; position < childCount; position++) {
+            checksum += mAdapterHelper.findPositionOffset(position, 0);
+        }
+        final long walkNs = System.nanoTime() - startNs;
+        startNs = System.nanoTime();
+        map.build(ops);
+        for (int position = 0; position < childCount; position++) {
+            checksum -= map.map(position);
+        }
+        final long mapNs = System.nanoTime() - startNs;
+        assertEquals(0, checksum);
+        for (int position = 0; position < childCount; position++) {
+            assertEquals(mAdapterHelper.findPositionOffset(position, 0), map.map(position));
+        }
+        // Reported on stdout, which the JVM test reports keep
+        System.out.println("Mapping " + childCount + " positions through " + opCount
+                + " ops took " + walkNs / 1000 + "us walking, " + mapNs / 1000
+                + "us with a position map");
+    }
+
+    private List<AdapterHelper.UpdateOp> randomOps(Random random, int count) {
+        final List<AdapterHelper.UpdateOp> ops = new ArrayList<AdapterHelper.UpdateOp>();
+        int size = 100;
+        for (int i = 0; i < count; i++) {
+            final int start = nextInt(random, size);
+            switch (nextInt(random, 4)) {
+                case 0:
+                    final int added = 1 + nextInt(random, 10);
+                    ops.add(addOp(start, added));
+                    size += added;
+                    break;
+                case 1:
+                    final int removed = Math.max(1, nextInt(random, Math.min(10, size - start)));
+                    if (size - removed > 10) {
+                        ops.add(rmOp(start, removed));
+                        size -= removed;
+                    }
+                    break;
+                case 2:
+                    final int to = nextInt(random, size);
+                    if (to != start) {
+                        ops.add(op(AdapterHelper.UpdateOp.MOVE, start, to));
+                    }
+                    break;
+                case 3:
+                    ops.add(upOp(start, 1, null));
+                    break;
+            }
+        }
+        return ops;
+    }
+
     public void randomTest(Random random, int opCount) {
         cleanState();
         if (DEBUG) {
@@ -1053,6 +1215,9 @@ public class AdapterHelperTest extends AndroidTestCase {
 
         Queue<Item> mPendingAdded;
 
+        // notifies adds and removes like RecyclerView does, so that they can be merged
+        boolean mNotifyRanges;
+
         public TestAdapter(int initialCount, AdapterHelper container) {
             mItems = new ArrayList<Item>();
             mAdapterHelper = container;
@@ -1068,6 +1233,10 @@ public class AdapterHelperTest extends AndroidTestCase {
                 mPendingAdded.add(item);
                 mItems.add(index + i, item);
             }
+            if (mNotifyRanges) {
+                mAdapterHelper.onItemRangeInserted(index, count);
+                return;
+            }
             mAdapterHelper.addUpdateOp(new AdapterHelper.UpdateOp(
                     AdapterHelper.UpdateOp.ADD, index, count, null
             ));
@@ -1084,6 +1253,10 @@ public class AdapterHelperTest extends AndroidTestCase {
             for (int i = 0; i < count; i++) {
                 mItems.remove(index);
             }
+            if (mNotifyRanges) {
+                mAdapterHelper.onItemRangeRemoved(index, count);
+                return;
+            }
             mAdapterHelper.addUpdateOp(new AdapterHelper.UpdateOp(
                     AdapterHelper.UpdateOp.REMOVE, index, count, null
             ));
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+import static android.support.v7.widget.StaggeredGridLayoutManager.LayoutParams.INVALID_SPAN_ID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.filters.SmallTest;
+import android.support.v7.widget.StaggeredGridLayoutManager.LazySpanLookup;
+import android.support.v7.widget.StaggeredGridLayoutManager.LazySpanLookup.FullSpanItem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+@SmallTest
+public class LazySpanLookupTest {
+    private static final int MAX_POSITION = 3000;
+
+    private LazySpanLookup mLookup;
+
+    // A flat array and list which model the lookup
+    private int[] mSpans;
+    private List<Integer> mFullSpans;
+
+    @Before
+    public void setUp() {
+        mLookup = new LazySpanLookup();
+        mSpans = new int[MAX_POSITION * 2];
+        Arrays.fill(mSpans, INVALID_SPAN_ID);
+        mFullSpans = new ArrayList<>();
+    }
+
+    @Test
+    public void farPositionOnlyAllocatesItsPage() {
+        mLookup.setSpan(100000, 3);
+        assertEquals(3, mLookup.getSpan(100000));
+        assertEquals(INVALID_SPAN_ID, mLookup.getSpan(0));
+        assertEquals(INVALID_SPAN_ID, mLookup.getSpan(99999));
+        assertEquals(INVALID_SPAN_ID, mLookup.getSpan(200000));
+        int pages = 0;
+        for (int[] page : mLookup.mPages) {
+            if (page != null) {
+                pages++;
+            }
+        }
+        assertEquals(1, pages);
+    }
+
+    @Test
+    public void offsetsAcrossPages() {
+        final int size = LazySpanLookup.PAGE_SIZE * 3;
+        for (int i = 0; i < size; i++) {
+            mLookup.setSpan(i, i % 5);
+        }
+        mLookup.offsetForAddition(10, LazySpanLookup.PAGE_SIZE + 3);
+        for (int i = 0; i < size + LazySpanLookup.PAGE_SIZE + 3; i++) {
+            final int expected = i < 10 ? i % 5
+                    : i < 10 + LazySpanLookup.PAGE_SIZE + 3 ? INVALID_SPAN_ID
+                    : (i - LazySpanLookup.PAGE_SIZE - 3) % 5;
+            assertEquals("position " + i, expected, mLookup.getSpan(i));
+        }
+        mLookup.offsetForRemoval(10, LazySpanLookup.PAGE_SIZE + 3);
+        for (int i = 0; i < size + LazySpanLookup.PAGE_SIZE + 3; i++) {
+            assertEquals("position " + i, i < size ? i % 5 : INVALID_SPAN_ID,
+                    mLookup.getSpan(i));
+        }
+    }
+
+    @Test
+    public void saveAndRestoreSpans() {
+        mLookup.setSpan(3, 1);
+        mLookup.setSpan(700, 2);
+        final int[] spans = mLookup.getSpans();
+        assertEquals(701, spans.length);
+        final LazySpanLookup restored = new LazySpanLookup();
+        restored.setSpans(spans);
+        for (int i = 0; i < 800; i++) {
+            assertEquals(mLookup.getSpan(i), restored.getSpan(i));
+        }
+    }
+
+    @Test
+    public void fullSpanItemsStaySorted() {
+        final FullSpanItem item = addFullSpanItem(50);
+        addFullSpanItem(10);
+        addFullSpanItem(30);
+        final FullSpanItem replacement = fullSpanItem(30);
+        mLookup.addFullSpanItem(replacement);
+        assertEquals(3, mLookup.mFullSpanItems.size());
+        assertSame(replacement, mLookup.getFullSpanItem(30));
+        assertSame(item, mLookup.getFullSpanItem(50));
+        assertNull(mLookup.getFullSpanItem(40));
+        assertSame(item, mLookup.getFirstFullSpanItemInRange(31, 60, 0, false));
+        assertNull(mLookup.getFirstFullSpanItemInRange(31, 50, 0, false));
+    }
+
+    @Test
+    public void matchesFlatArray() {
+        final Random random = new Random(System.nanoTime());
+        for (int run = 0; run < 50; run++) {
+            setUp();
+            final StringBuilder log = new StringBuilder();
+            try {
+                for (int i = 0; i < 200; i++) {
+                    randomOperation(random, log);
+                    assertSameSpans();
+                }
+            } catch (AssertionError e) {
+                throw new AssertionError(e.getMessage() + "\n" + log, e);
+            }
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void testPerformanceOfFarScrollAndUpdatesNearTheTop() {
+        final int itemCount = 100000;
+        final int iterations = 10000;
+        long startNs = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            // like scrolling to the end of the feed then changing an item near the top
+            mLookup.setSpan(itemCount - 1 - i % 10, 1);
+            mLookup.offsetForAddition(10, 1);
+            mLookup.invalidateAfter(10);
+            mLookup.offsetForRemoval(10, 1);
+        }
+        final long pagedNs = System.nanoTime() - startNs;
+
+        final int[] flat = new int[itemCount];
+        startNs = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            // what a flat array has to do for the same changes
+            flat[itemCount - 1 - i % 10] = 1;
+            System.arraycopy(flat, 10, flat, 11, itemCount - 11);
+            Arrays.fill(flat, 10, itemCount, INVALID_SPAN_ID);
+            System.arraycopy(flat, 11, flat, 10, itemCount - 11);
+        }
+        final long flatNs = System.nanoTime() - startNs;
+        // Reported on stdout, which the JVM test reports keep
+        System.out.println("Far scroll and update near the top of " + itemCount + " items took "
+                + pagedNs / iterations + "ns with pages, " + flatNs / iterations
+                + "ns with a flat array");
+
+        // Replay the first changes on both, checking the spans near the top and at the far
+        // positions after each step
+        mLookup = new LazySpanLookup();
+        Arrays.fill(flat, INVALID_SPAN_ID);
+        for (int i = 0; i < 20; i++) {
+            final int position = itemCount - 1 - i % 10;
+            mLookup.setSpan(position, 1);
+            flat[position] = 1;
+            assertSameSpans(flat, 0, 20);
+            assertSameSpans(flat, itemCount - 20, itemCount);
+            mLookup.offsetForAddition(10, 1);
+            System.arraycopy(flat, 10, flat, 11, itemCount - 11);
+            flat[10] = INVALID_SPAN_ID;
+            assertSameSpans(flat, 0, 20);
+            assertSameSpans(flat, itemCount - 20, itemCount);
+            mLookup.invalidateAfter(10);
+            Arrays.fill(flat, 10, itemCount, INVALID_SPAN_ID);
+            assertSameSpans(flat, 0, 20);
+            assertSameSpans(flat, itemCount - 20, itemCount);
+            mLookup.offsetForRemoval(10, 1);
+            System.arraycopy(flat, 11, flat, 10, itemCount - 11);
+            flat[itemCount - 1] = INVALID_SPAN_ID;
+            assertSameSpans(flat, 0, 20);
+            assertSameSpans(flat, itemCount - 20, itemCount);
+        }
+    }
+
+    private void assertSameSpans(int[] spans, int start, int end) {
+        for (int i = start; i < end; i++) {
+            assertEquals("span of position " + i, spans[i], mLookup.getSpan(i));
+        }
+    }
+
+    private void randomOperation(Random random, StringBuilder log) {
+        final int position = random.nextInt(MAX_POSITION);
+        final int count = 1 + random.nextInt(LazySpanLookup.PAGE_SIZE * 2);
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+            case 2:
+                // spans are assigned in runs
+                final int end = Math.min(position + count, MAX_POSITION);
+                for (int i = position; i < end; i++) {
+                    final int span = random.nextInt(4);
+                    log.append("setSpan(").append(i).append(", ").append(span).append(")\n");
+                    mLookup.setSpan(i, span);
+                    mSpans[i] = span;
+                    if (random.nextInt(20) == 0) {
+                        log.append("addFullSpanItem(").append(i).append(")\n");
+                        addFullSpanItem(i);
+                    }
+                }
+                break;
+            case 3:
+                log.append("invalidateAfter(").append(position).append(")\n");
+                mLookup.invalidateAfter(position);
+                invalidateAfter(position);
+                break;
+            case 4:
+                log.append("forceInvalidateAfter(").append(position).append(")\n");
+                mLookup.forceInvalidateAfter(position);
+                while (!mFullSpans.isEmpty()
+                        && mFullSpans.get(mFullSpans.size() - 1) >= position) {
+                    mFullSpans.remove(mFullSpans.size() - 1);
+                }
+                invalidateAfter(position);
+                break;
+            case 5:
+                log.append("offsetForAddition(").append(position).append(", ").append(count)
+                        .append(")\n");
+                mLookup.offsetForAddition(position, count);
+                System.arraycopy(mSpans, position, mSpans, position + count,
+                        mSpans.length - position - count);
+                Arrays.fill(mSpans, position, position + count, INVALID_SPAN_ID);
+                Arrays.fill(mSpans, MAX_POSITION, mSpans.length, INVALID_SPAN_ID);
+                for (int i = 0; i < mFullSpans.size(); i++) {
+                    if (mFullSpans.get(i) >= position) {
+                        mFullSpans.set(i, mFullSpans.get(i) + count);
+                    }
+                }
+                // keep the positions in the range of the model
+                mLookup.forceInvalidateAfter(MAX_POSITION);
+                while (!mFullSpans.isEmpty()
+                        && mFullSpans.get(mFullSpans.size() - 1) >= MAX_POSITION) {
+                    mFullSpans.remove(mFullSpans.size() - 1);
+                }
+                break;
+            case 6:
+                log.append("offsetForRemoval(").append(position).append(", ").append(count)
+                        .append(")\n");
+                mLookup.offsetForRemoval(position, count);
+                System.arraycopy(mSpans, position + count, mSpans, position,
+                        mSpans.length - position - count);
+                Arrays.fill(mSpans, mSpans.length - count, mSpans.length, INVALID_SPAN_ID);
+                for (int i = mFullSpans.size() - 1; i >= 0; i--) {
+                    final int fullSpan = mFullSpans.get(i);
+                    if (fullSpan >= position + count) {
+                        mFullSpans.set(i, fullSpan - count);
+                    } else if (fullSpan >= position) {
+                        mFullSpans.remove(i);
+                    }
+                }
+                break;
+            case 7:
+                if (random.nextInt(10) == 0) {
+                    log.append("clear()\n");
+                    mLookup.clear();
+                    Arrays.fill(mSpans, INVALID_SPAN_ID);
+                    mFullSpans.clear();
+                }
+                break;
+        }
+    }
+
+    private void invalidateAfter(int position) {
+        int end = MAX_POSITION * 2;
+        int index = 0;
+        while (index < mFullSpans.size() && mFullSpans.get(index) < position) {
+            index++;
+        }
+        if (index < mFullSpans.size() && mFullSpans.get(index) == position) {
+            mFullSpans.remove(index);
+        }
+        if (index < mFullSpans.size()) {
+            end = mFullSpans.remove(index) + 1;
+        }
+        Arrays.fill(mSpans, position, end, INVALID_SPAN_ID);
+    }
+
+    private void assertSameSpans() {
+        for (int i = 0; i < mSpans.length; i++) {
+            assertEquals("span of position " + i, mSpans[i], mLookup.getSpan(i));
+        }
+        final List<Integer> fullSpans = new ArrayList<>();
+        if (mLookup.mFullSpanItems != null) {
+            for (FullSpanItem item : mLookup.mFullSpanItems) {
+                fullSpans.add(item.mPosition);
+            }
+        }
+        assertEquals(mFullSpans, fullSpans);
+        for (int fullSpan : mFullSpans) {
+            assertTrue(mLookup.getFullSpanItem(fullSpan) != null);
+        }
+    }
+
+    private FullSpanItem addFullSpanItem(int position) {
+        final FullSpanItem item = fullSpanItem(position);
+        mLookup.addFullSpanItem(item);
+        int index = 0;
+        while (index < mFullSpans.size() && mFullSpans.get(index) < position) {
+            index++;
+        }
+        if (index < mFullSpans.size() && mFullSpans.get(index) == position) {
+            mFullSpans.set(index, position);
+        } else {
+            mFullSpans.add(index, position);
+        }
+        return item;
+    }
+
+    private static FullSpanItem fullSpanItem(int position) {
+        final FullSpanItem item = new FullSpanItem();
+        item.mPosition = position;
+        return item;
+    }
+}
@@ -234,6 +234,110 @@ public class ViewInfoStoreTest extends TestCase {
         assertSame(mCallback.unused.get(0), vh);
     }
 
+    @Test
+    public void processAppearAndDisappearReturnsInfos() {
+        ViewHolder vh = new MockViewHolder();
+        MockInfo pre = new MockInfo();
+        MockInfo post = new MockInfo();
+        mStore.addToAppearedInPreLayoutHolders(vh, pre);
+        mStore.addToPostLayout(vh, post);
+        mStore.addToDisappearedInLayout(vh);
+        mStore.process(mCallback);
+        assertSame(vh, mCallback.unused.get(0));
+        assertEquals(new Pair<>(pre, post), mCallback.unusedInfos.get(vh));
+    }
+
+    @Test
+    public void popPreLayoutOfDisappearingChangedHolder() {
+        // the old holder of a change which the layout manager also laid out as disappearing
+        ViewHolder oldHolder = new MockViewHolder();
+        MockInfo pre = new MockInfo();
+        MockInfo post = new MockInfo();
+        mStore.addToPreLayout(oldHolder, pre);
+        mStore.addToDisappearedInLayout(oldHolder);
+        mStore.addToPostLayout(oldHolder, post);
+        assertSame(pre, mStore.popFromPreLayout(oldHolder));
+        assertTrue(mStore.isDisappearing(oldHolder));
+        assertFalse(mStore.isInPreLayout(oldHolder));
+        // the popped info may be recycled, so the record must not keep it
+        assertNull(mStore.mLayoutHolderMap.get(oldHolder).preInfo);
+        assertSame(post, find(oldHolder, FLAG_POST));
+        mStore.process(mCallback);
+        assertTrue(mCallback.disappeared.isEmpty());
+        assertEquals(new Pair<>(null, post), mCallback.unusedInfos.get(oldHolder));
+    }
+
+    @Test
+    public void popPreLayoutThenReAddOfDisappearingChangedHolder() {
+        ViewHolder oldHolder = new MockViewHolder();
+        MockInfo pre = new MockInfo();
+        MockInfo post = new MockInfo();
+        mStore.addToPreLayout(oldHolder, pre);
+        mStore.addToDisappearedInLayout(oldHolder);
+        mStore.addToPostLayout(oldHolder, post);
+        assertSame(pre, mStore.popFromPreLayout(oldHolder));
+        // RecyclerView hands the info back when the old holder still has to disappear
+        mStore.addToPreLayout(oldHolder, pre);
+        mStore.process(mCallback);
+        assertEquals(new Pair<>(pre, post), mCallback.disappeared.get(oldHolder));
+        assertTrue(mCallback.unused.isEmpty());
+    }
+
+    @Test
+    public void popPostLayoutClearsInfo() {
+        ViewHolder vh = new MockViewHolder();
+        MockInfo pre = new MockInfo();
+        MockInfo post = new MockInfo();
+        mStore.addToPreLayout(vh, pre);
+        mStore.addToPostLayout(vh, post);
+        assertSame(post, mStore.popFromPostLayout(vh));
+        assertNull(mStore.mLayoutHolderMap.get(vh).postInfo);
+        assertNull(mStore.popFromPostLayout(vh));
+        assertSame(pre, find(vh, FLAG_PRE));
+    }
+
+    @Test
+    public void removeKeepsOtherRecords() {
+        List<ViewHolder> holders = new ArrayList<>();
+        List<MockInfo> infos = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            holders.add(new MockViewHolder());
+            infos.add(new MockInfo());
+            mStore.addToPreLayout(holders.get(i), infos.get(i));
+        }
+        mStore.removeViewHolder(holders.get(1));
+        mStore.removeViewHolder(holders.get(4));
+        assertEquals(3, sizeOf(FLAG_PRE));
+        assertNull(find(holders.get(1), FLAG_PRE));
+        for (int i : new int[]{0, 2, 3}) {
+            assertSame(infos.get(i), find(holders.get(i), FLAG_PRE));
+            assertTrue(mStore.isInPreLayout(holders.get(i)));
+        }
+        assertSame(infos.get(2), mStore.popFromPreLayout(holders.get(2)));
+        assertFalse(mStore.isInPreLayout(holders.get(2)));
+        assertTrue(mStore.isInPreLayout(holders.get(3)));
+    }
+
+    @Test
+    public void recycleHolderInfos() {
+        RecyclerView.ItemAnimator animator = new DefaultItemAnimator();
+        assertTrue(animator.isHolderInfoRecyclingEnabled());
+        ItemHolderInfo info = animator.obtainHolderInfo();
+        info.changeFlags = RecyclerView.ItemAnimator.FLAG_CHANGED;
+        animator.recycleHolderInfo(info);
+        animator.recycleHolderInfo(new MockInfo());
+        assertSame(info, animator.obtainHolderInfo());
+        assertEquals(0, info.changeFlags);
+        assertNotSame(info, animator.obtainHolderInfo());
+
+        // subclasses might keep the infos
+        animator = new DefaultItemAnimator() {
+        };
+        assertFalse(animator.isHolderInfoRecyclingEnabled());
+        animator.recycleHolderInfo(info);
+        assertNotSame(info, animator.obtainHolderInfo());
+    }
+
     static class MockViewHolder extends RecyclerView.ViewHolder {
         public MockViewHolder() {
             super(new View(null));
@@ -279,6 +383,7 @@ public class ViewInfoStoreTest extends TestCase {
         final Map<ViewHolder, Pair<ItemHolderInfo, ItemHolderInfo>> appeared = new HashMap<>();
         final Map<ViewHolder, Pair<ItemHolderInfo, ItemHolderInfo>> persistent = new HashMap<>();
         final List<ViewHolder> unused = new ArrayList<>();
+        final Map<ViewHolder, Pair<ItemHolderInfo, ItemHolderInfo>> unusedInfos = new HashMap<>();
         @Override
         public void processDisappeared(ViewHolder viewHolder,
                 ItemHolderInfo preInfo,
@@ -306,8 +411,10 @@ public class ViewInfoStoreTest extends TestCase {
         }
 
         @Override
-        public void unused(ViewHolder holder) {
+        public void unused(ViewHolder holder, @Nullable ItemHolderInfo preInfo,
+                @Nullable ItemHolderInfo postInfo) {
             unused.add(holder);
+            unusedInfos.put(holder, new Pair<>(preInfo, postInfo));
         }
     }
 
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v4.content.ParallelExecutorCompat;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A helper that calculates the difference between the list it displays and a newly submitted list
+ * on a background thread, then dispatches the updates to a {@link ListUpdateCallback} on the main
+ * thread.
+ * <p>
+ * Lists are submitted with {@link #submitList(List)}. If a new list is submitted before the diff
+ * of a previous one is complete, the previous calculation is canceled and its result is dropped, so
+ * that only the latest list is ever dispatched. The main thread never runs {@link DiffUtil}.
+ * <p>
+ * Submitted lists must not be modified afterwards, since they are read on a background thread.
+ * <pre>
+ *     class UserAdapter extends RecyclerView.Adapter&lt;UserViewHolder> {
+ *         private final AsyncListDiffer&lt;User> mDiffer = new AsyncListDiffer&lt;>(this,
+ *                 new AsyncListDiffer.ItemCallback&lt;User>() {
+ *                     public boolean areItemsTheSame(User oldUser, User newUser) {
+ *                         return oldUser.getId() == newUser.getId();
+ *                     }
+ *                     public boolean areContentsTheSame(User oldUser, User newUser) {
+ *                         return oldUser.equals(newUser);
+ *                     }
+ *                 });
+ *
+ *         public void setUsers(List&lt;User> users) {
+ *             mDiffer.submitList(users);
+ *         }
+ *
+ *         public int getItemCount() {
+ *             return mDiffer.getCurrentList().size();
+ *         }
+ *         ...
+ *     }
+ * </pre>
+ *
+ * @param <T> Type of the list items.
+ */
+public class AsyncListDiffer<T> {
+    private final ListUpdateCallback mUpdateCallback;
+    private final ItemCallback<T> mItemCallback;
+    private final Executor mMainThreadExecutor;
+    private final Executor mBackgroundExecutor;
+
+    @Nullable
+    private List<T> mList;
+
+    @NonNull
+    private List<T> mReadOnlyList = Collections.emptyList();
+
+    // incremented for each submitted list. Diff results of older generations are dropped.
+    int mMaxScheduledGeneration;
+
+    // signal for the diff that is running in the background, if any
+    @Nullable
+    private CancellationSignal mRunningDiffSignal;
+
+    /**
+     * Creates an AsyncListDiffer that dispatches updates to the given adapter and calculates diffs
+     * on a shared background executor.
+     *
+     * @param adapter The adapter which displays the current list.
+     * @param itemCallback The callback to compare items of the lists.
+     */
+    public AsyncListDiffer(@NonNull RecyclerView.Adapter adapter,
+            @NonNull ItemCallback<T> itemCallback) {
+        this(new AdapterListUpdateCallback(adapter), itemCallback,
+                ParallelExecutorCompat.getParallelExecutor());
+    }
+
+    /**
+     * Creates an AsyncListDiffer.
+     *
+     * @param updateCallback The callback to receive the updates on the main thread.
+     * @param itemCallback The callback to compare items of the lists.
+     * @param backgroundExecutor The executor to calculate diffs on.
+     */
+    public AsyncListDiffer(@NonNull ListUpdateCallback updateCallback,
+            @NonNull ItemCallback<T> itemCallback, @NonNull Executor backgroundExecutor) {
+        this(updateCallback, itemCallback, new MainThreadExecutor(), backgroundExecutor);
+    }
+
+    @VisibleForTesting
+    AsyncListDiffer(@NonNull ListUpdateCallback updateCallback,
+            @NonNull ItemCallback<T> itemCallback, @NonNull Executor mainThreadExecutor,
+            @NonNull Executor backgroundExecutor) {
+        mUpdateCallback = updateCallback;
+        mItemCallback = itemCallback;
+        mMainThreadExecutor = mainThreadExecutor;
+        mBackgroundExecutor = backgroundExecutor;
+    }
+
+    /**
+     * Returns the list which was most recently dispatched to the {@link ListUpdateCallback}.
+     * <p>
+     * A list passed to {@link #submitList(List)} is not returned until its diff is dispatched.
+     *
+     * @return A read-only view of the current list, never {@code null}.
+     */
+    @NonNull
+    public List<T> getCurrentList() {
+        return mReadOnlyList;
+    }
+
+    /**
+     * Submits a new list to be diffed and dispatched.
+     * <p>
+     * If a list is already being diffed, that calculation is canceled and only the new list will
+     * be dispatched. If the current list or the new list is {@code null}, the updates are
+     * dispatched synchronously.
+     *
+     * @param newList The new list, or {@code null} to clear the current list.
+     */
+    @MainThread
+    public void submitList(@Nullable final List<T> newList) {
+        final int runGeneration = ++mMaxScheduledGeneration;
+        if (mRunningDiffSignal != null) {
+            mRunningDiffSignal.cancel();
+            mRunningDiffSignal = null;
+        }
+
+        if (newList == mList) {
+            return;
+        }
+
+        if (newList == null) {
+            final int countRemoved = mList.size();
+            mList = null;
+            mReadOnlyList = Collections.emptyList();
+            mUpdateCallback.onRemoved(0, countRemoved);
+            return;
+        }
+
+        if (mList == null) {
+            // nothing to diff against, insert the whole list
+            mList = newList;
+            mReadOnlyList = Collections.unmodifiableList(newList);
+            mUpdateCallback.onInserted(0, newList.size());
+            return;
+        }
+
+        final List<T> oldList = mList;
+        final CancellationSignal signal = new CancellationSignal();
+        mRunningDiffSignal = signal;
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (signal.isCanceled()) {
+                    return; // a newer list was submitted before this one started
+                }
+                final DiffUtil.DiffResult result;
+                try {
+                    result = DiffUtil.calculateDiff(new ListCallback<>(oldList, newList,
+                            mItemCallback), true, signal, Long.MAX_VALUE);
+                } catch (OperationCanceledException e) {
+                    return;
+                }
+                mMainThreadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mMaxScheduledGeneration == runGeneration) {
+                            latchList(newList, result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    void latchList(@NonNull List<T> newList, @NonNull DiffUtil.DiffResult diffResult) {
+        mRunningDiffSignal = null;
+        mList = newList;
+        mReadOnlyList = Collections.unmodifiableList(newList);
+        diffResult.dispatchUpdatesTo(mUpdateCallback);
+    }
+
+    /**
+     * Callback used by AsyncListDiffer to compare two items of the lists it diffs. Its methods are
+     * called on a background thread.
+     *
+     * @param <T> Type of the list items.
+     * @see DiffUtil.Callback
+     */
+    public abstract static class ItemCallback<T> {
+        /**
+         * Called to decide whether two items represent the same object.
+         *
+         * @param oldItem The item in the old list.
+         * @param newItem The item in the new list.
+         * @return True if the two items represent the same object.
+         * @see DiffUtil.Callback#areItemsTheSame(int, int)
+         */
+        public abstract boolean areItemsTheSame(@NonNull T oldItem, @NonNull T newItem);
+
+        /**
+         * Called to decide whether two items have the same data.
+         *
+         * @param oldItem The item in the old list.
+         * @param newItem The item in the new list.
+         * @return True if the contents of the items are the same.
+         * @see DiffUtil.Callback#areContentsTheSame(int, int)
+         */
+        public abstract boolean areContentsTheSame(@NonNull T oldItem, @NonNull T newItem);
+
+        /**
+         * Returns a payload about the change between two items. Default implementation returns
+         * {@code null}.
+         *
+         * @param oldItem The item in the old list.
+         * @param newItem The item in the new list.
+         * @return A payload object that represents the change between the two items.
+         * @see DiffUtil.Callback#getChangePayload(int, int)
+         */
+        @Nullable
+        public Object getChangePayload(@NonNull T oldItem, @NonNull T newItem) {
+            return null;
+        }
+    }
+
+    private static class ListCallback<T> extends DiffUtil.Callback {
+        private final List<T> mOldList;
+        private final List<T> mNewList;
+        private final ItemCallback<T> mItemCallback;
+
+        ListCallback(List<T> oldList, List<T> newList, ItemCallback<T> itemCallback) {
+            mOldList = oldList;
+            mNewList = newList;
+            mItemCallback = itemCallback;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mItemCallback.areItemsTheSame(mOldList.get(oldItemPosition),
+                    mNewList.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mItemCallback.areContentsTheSame(mOldList.get(oldItemPosition),
+                    mNewList.get(newItemPosition));
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return mItemCallback.getChangePayload(mOldList.get(oldItemPosition),
+                    mNewList.get(newItemPosition));
+        }
+    }
+
+    private static class MainThreadExecutor implements Executor {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mHandler.post(command);
+        }
+    }
+}
@@ -16,12 +16,17 @@
 
 package android.support.v7.util;
 
+import android.support.annotation.Nullable;
 import android.support.annotation.UiThread;
+import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.util.Log;
-import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * A utility class that supports asynchronous content loading.
  * <p>
@@ -39,6 +44,13 @@ import android.util.SparseIntArray;
  * Note that this class uses a single thread to load the data, so it suitable to load data from
  * secondary storage such as disk, but not from network.
  * <p>
+ * Alternatively, an AsyncListUtil created with
+ * {@link #AsyncListUtil(Class, int, DataCallback, ViewCallback, Executor, int)} loads several
+ * tiles at once on an {@link Executor}, starting with the tiles closest to the visible range.
+ * Tiles which are no longer in the extended range are not loaded, and the number of items per
+ * tile shrinks when {@link DataCallback#fillData} is slow, so that visible items arrive sooner
+ * during fast scrolls through large data sets.
+ * <p>
  * This class is designed to work with {@link android.support.v7.widget.RecyclerView}, but it does
  * not depend on it and can be used with other list views.
  *
@@ -48,11 +60,20 @@ public class AsyncListUtil<T> {
 
     static final boolean DEBUG = false;
 
+    /**
+     * Time that filling a tile should take when tiles are loaded in parallel. The number of items
+     * per tile is adjusted to it, up to the tile size.
+     */
+    static final long TARGET_FILL_TIME_NS = TimeUnit.MILLISECONDS.toNanos(16);
+
     final Class<T> mTClass;
     final int mTileSize;
     final DataCallback<T> mDataCallback;
     final ViewCallback mViewCallback;
 
+    final Executor mLoadExecutor;
+    final int mLoadParallelism;
+
     final TileList<T> mTileList;
 
     final ThreadUtil.MainThreadCallback<T> mMainThreadProxy;
@@ -86,14 +107,47 @@ public class AsyncListUtil<T> {
      */
     public AsyncListUtil(Class<T> klass, int tileSize, DataCallback<T> dataCallback,
                          ViewCallback viewCallback) {
+        this(klass, tileSize, dataCallback, viewCallback, null, 1);
+    }
+
+    /**
+     * Creates an AsyncListUtil which loads several tiles at once.
+     * <p>
+     * The tiles closest to the visible range are loaded first. Tiles hold fewer items when
+     * {@link DataCallback#fillData} takes longer than about a frame for a whole tile.
+     * {@link DataCallback#fillData} and {@link DataCallback#recycleData} may then be called from
+     * several threads at once, but never at the same time as {@link DataCallback#refreshData()}.
+     *
+     * @param klass Class of the data item.
+     * @param tileSize Maximum number of items per chunk loaded at once.
+     * @param dataCallback Data access callback.
+     * @param viewCallback Callback for querying visible item range and update notifications.
+     * @param loadExecutor The executor to load tiles on, or null to load them one at a time on
+     *                     a single background thread, in request order.
+     * @param parallelism The maximum number of tiles to load at the same time.
+     */
+    public AsyncListUtil(Class<T> klass, int tileSize, DataCallback<T> dataCallback,
+            ViewCallback viewCallback, @Nullable Executor loadExecutor, int parallelism) {
+        // Cancelling tiles relies on range updates reaching the background callback quickly, so
+        // the parallel mode uses the lock-free queues which coalesce them. Its loaders send
+        // tiles to the main thread while holding the background callback lock, one at a time.
+        this(klass, tileSize, dataCallback, viewCallback, loadExecutor, parallelism,
+                loadExecutor != null ? new SpscThreadUtil<T>() : new MessageThreadUtil<T>());
+    }
+
+    @VisibleForTesting
+    AsyncListUtil(Class<T> klass, int tileSize, DataCallback<T> dataCallback,
+            ViewCallback viewCallback, @Nullable Executor loadExecutor, int parallelism,
+            ThreadUtil<T> threadUtil) {
         mTClass = klass;
         mTileSize = tileSize;
         mDataCallback = dataCallback;
         mViewCallback = viewCallback;
+        mLoadExecutor = loadExecutor;
+        mLoadParallelism = Math.max(parallelism, 1);
 
         mTileList = new TileList<T>(mTileSize);
 
-        ThreadUtil<T> threadUtil = new MessageThreadUtil<T>();
         mMainThreadProxy = threadUtil.getMainThreadProxy(mMainThreadCallback);
         mBackgroundProxy = threadUtil.getBackgroundProxy(mBackgroundCallback);
 
@@ -289,9 +343,14 @@ public class AsyncListUtil<T> {
     private final ThreadUtil.BackgroundCallback<T>
             mBackgroundCallback = new ThreadUtil.BackgroundCallback<T>() {
 
+        // Guards the state below when tiles are loaded in parallel.
+        final Object mLock = new Object();
+
         private TileList.Tile<T> mRecycledRoot;
 
-        final SparseBooleanArray mLoadedTiles = new SparseBooleanArray();
+        // Item counts of the loaded tiles, keyed by start position.
+        final SparseIntArray mLoadedTiles = new SparseIntArray();
+        private int mLoadedItemCount;
 
         private int mGeneration;
         private int mItemCount;
@@ -299,12 +358,45 @@ public class AsyncListUtil<T> {
         private int mFirstRequiredTileStart;
         private int mLastRequiredTileStart;
 
+        // Item counts of the tiles being filled in parallel, keyed by start position.
+        final SparseIntArray mLoadingTiles = new SparseIntArray();
+
+        // Tiles to load in parallel. mPendingOrder holds the indices of the tiles in the other
+        // arrays, closest to the visible range first.
+        private int[] mPendingStarts = new int[0];
+        private int[] mPendingCounts = new int[0];
+        private long[] mPendingOrder = new long[0];
+        private int mPendingCount;
+        private int mNextPending;
+
+        private int mRunningLoaders;
+        private int mRequiredRangeStart;
+        private int mRequiredRangeEnd;
+        private int mScrollHint;
+
+        // Running average of the time fillData takes per item, or 0 until measured.
+        private long mFillNsPerItem;
+
+        private final Runnable mTileLoader = new Runnable() {
+            @Override
+            public void run() {
+                loadPendingTiles();
+            }
+        };
+
         @Override
         public void refresh(int generation) {
-            mGeneration = generation;
-            mLoadedTiles.clear();
-            mItemCount = mDataCallback.refreshData();
-            mMainThreadProxy.updateItemCount(mGeneration, mItemCount);
+            synchronized (mLock) {
+                // Let the tiles being filled from the current data finish first. They are
+                // discarded on the main thread, as they are still from the older generation.
+                mPendingCount = 0;
+                waitForLoadingTiles();
+                mGeneration = generation;
+                mLoadedTiles.clear();
+                mLoadedItemCount = 0;
+                mItemCount = mDataCallback.refreshData();
+                mMainThreadProxy.updateItemCount(mGeneration, mItemCount);
+            }
         }
 
         @Override
@@ -319,6 +411,14 @@ public class AsyncListUtil<T> {
                 return;
             }
 
+            if (mLoadExecutor != null) {
+                synchronized (mLock) {
+                    requestTilesByDistance(rangeStart, rangeEnd, extRangeStart, extRangeEnd,
+                            scrollHint);
+                }
+                return;
+            }
+
             final int firstVisibleTileStart = getTileStart(rangeStart);
             final int lastVisibleTileStart = getTileStart(rangeEnd);
 
@@ -357,6 +457,166 @@ public class AsyncListUtil<T> {
             }
         }
 
+        /**
+         * Replaces the tiles waiting to be loaded in parallel with the tiles missing from the
+         * extended range, and starts loading them. Tiles which are loaded or being loaded are
+         * kept, and the extended range is split into tiles of the current load tile size around
+         * them.
+         */
+        private void requestTilesByDistance(int rangeStart, int rangeEnd, int extRangeStart,
+                int extRangeEnd, int scrollHint) {
+            mScrollHint = scrollHint;
+            mRequiredRangeStart = extRangeStart;
+            mRequiredRangeEnd = Math.min(extRangeEnd, mItemCount - 1);
+            mPendingCount = 0;
+            mNextPending = 0;
+
+            final int loadTileSize = getLoadTileSize();
+            int position = mRequiredRangeStart;
+            mFirstRequiredTileStart = position;
+            mLastRequiredTileStart = position;
+            while (position <= mRequiredRangeEnd) {
+                int tileStart = findTileStart(mLoadedTiles, position);
+                int tileCount = tileStart >= 0 ? mLoadedTiles.get(tileStart) : 0;
+                if (tileStart < 0) {
+                    tileStart = findTileStart(mLoadingTiles, position);
+                    tileCount = tileStart >= 0 ? mLoadingTiles.get(tileStart) : 0;
+                }
+                if (tileStart < 0) {
+                    // Stop the new tile where the next loaded or loading tile starts
+                    final int nextTileStart = Math.min(findNextTileStart(mLoadedTiles, position),
+                            findNextTileStart(mLoadingTiles, position));
+                    tileStart = position;
+                    tileCount = Math.min(Math.min(loadTileSize, nextTileStart - position),
+                            mItemCount - position);
+                    addPendingTile(tileStart, tileCount, rangeStart, rangeEnd, scrollHint);
+                }
+                if (position == mRequiredRangeStart) {
+                    mFirstRequiredTileStart = tileStart;
+                }
+                mLastRequiredTileStart = tileStart;
+                position = tileStart + tileCount;
+            }
+            Arrays.sort(mPendingOrder, 0, mPendingCount);
+            if (DEBUG) {
+                log("requesting %d tiles of %d items in %d..%d",
+                        mPendingCount, loadTileSize, mRequiredRangeStart, mRequiredRangeEnd);
+            }
+
+            final int loaders = Math.min(mLoadParallelism - mRunningLoaders, mPendingCount);
+            for (int i = 0; i < loaders; i++) {
+                mRunningLoaders++;
+                try {
+                    mLoadExecutor.execute(mTileLoader);
+                } catch (RuntimeException e) {
+                    mRunningLoaders--;
+                    throw e;
+                }
+            }
+        }
+
+        private void addPendingTile(int tileStart, int tileCount, int rangeStart, int rangeEnd,
+                int scrollHint) {
+            if (mPendingCount == mPendingStarts.length) {
+                final int capacity = Math.max(mPendingCount * 2, 8);
+                mPendingStarts = Arrays.copyOf(mPendingStarts, capacity);
+                mPendingCounts = Arrays.copyOf(mPendingCounts, capacity);
+                mPendingOrder = Arrays.copyOf(mPendingOrder, capacity);
+            }
+            final int tileEnd = tileStart + tileCount - 1;
+            final long distance;
+            final boolean behind;
+            if (tileEnd < rangeStart) {
+                distance = rangeStart - tileEnd;
+                behind = scrollHint == ViewCallback.HINT_SCROLL_ASC;
+            } else if (tileStart > rangeEnd) {
+                distance = tileStart - rangeEnd;
+                behind = scrollHint == ViewCallback.HINT_SCROLL_DESC;
+            } else {
+                distance = 0;
+                behind = false;
+            }
+            // Sort by distance, then tiles in the scroll direction first
+            mPendingOrder[mPendingCount] = (distance << 32) | (behind ? 1L << 31 : 0)
+                    | mPendingCount;
+            mPendingStarts[mPendingCount] = tileStart;
+            mPendingCounts[mPendingCount] = tileCount;
+            mPendingCount++;
+        }
+
+        /**
+         * Runs on the load executor, and loads pending tiles until there are none left.
+         */
+        void loadPendingTiles() {
+            while (true) {
+                final TileList.Tile<T> tile;
+                synchronized (mLock) {
+                    if (mNextPending >= mPendingCount) {
+                        mRunningLoaders--;
+                        return;
+                    }
+                    final int index = (int) (mPendingOrder[mNextPending++] & Integer.MAX_VALUE);
+                    tile = acquireTile(mPendingCounts[index]);
+                    tile.mStartPosition = mPendingStarts[index];
+                    tile.mItemCount = mPendingCounts[index];
+                    mLoadingTiles.put(tile.mStartPosition, tile.mItemCount);
+                }
+
+                final long startNs = System.nanoTime();
+                mDataCallback.fillData(tile.mItems, tile.mStartPosition, tile.mItemCount);
+                final long fillNs = System.nanoTime() - startNs;
+
+                synchronized (mLock) {
+                    mLoadingTiles.delete(tile.mStartPosition);
+                    mLock.notifyAll();
+                    factorInFillTime(fillNs, tile.mItemCount);
+                    if (tile.mStartPosition <= mRequiredRangeEnd
+                            && tile.mStartPosition + tile.mItemCount > mRequiredRangeStart) {
+                        flushTileCache(mScrollHint, tile.mItemCount);
+                        addTile(tile);
+                    } else {
+                        if (DEBUG) {
+                            log("dropping tile @%d outside of the extended range",
+                                    tile.mStartPosition);
+                        }
+                        recycleTile(tile);
+                    }
+                }
+            }
+        }
+
+        private void waitForLoadingTiles() {
+            boolean interrupted = false;
+            while (mLoadingTiles.size() > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    // The tiles are being filled, so they will be done soon
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void factorInFillTime(long fillNs, int itemCount) {
+            final long nsPerItem = fillNs / Math.max(itemCount, 1);
+            mFillNsPerItem = mFillNsPerItem == 0
+                    ? nsPerItem : (mFillNsPerItem / 4 * 3) + (nsPerItem / 4);
+        }
+
+        /**
+         * Returns the number of items per tile loaded in parallel, so that filling a tile takes
+         * about {@link #TARGET_FILL_TIME_NS}.
+         */
+        private int getLoadTileSize() {
+            if (mFillNsPerItem == 0) {
+                return mTileSize;
+            }
+            return (int) Math.max(1, Math.min(mTileSize, TARGET_FILL_TIME_NS / mFillNsPerItem));
+        }
+
         @Override
         public void loadTile(int position, int scrollHint) {
             if (isTileLoaded(position)) {
@@ -365,11 +625,11 @@ public class AsyncListUtil<T> {
                 }
                 return;
             }
-            TileList.Tile<T> tile = acquireTile();
+            TileList.Tile<T> tile = acquireTile(mTileSize);
             tile.mStartPosition = position;
             tile.mItemCount = Math.min(mTileSize, mItemCount - tile.mStartPosition);
             mDataCallback.fillData(tile.mItems, tile.mStartPosition, tile.mItemCount);
-            flushTileCache(scrollHint);
+            flushTileCache(scrollHint, tile.mItemCount);
             addTile(tile);
         }
 
@@ -380,25 +640,35 @@ public class AsyncListUtil<T> {
             }
             mDataCallback.recycleData(tile.mItems, tile.mItemCount);
 
-            tile.mNext = mRecycledRoot;
-            mRecycledRoot = tile;
+            synchronized (mLock) {
+                tile.mNext = mRecycledRoot;
+                mRecycledRoot = tile;
+            }
         }
 
-        private TileList.Tile<T> acquireTile() {
-            if (mRecycledRoot != null) {
+        /**
+         * Returns a tile which can hold the given number of items, but less than twice as many.
+         * Recycled tiles which are too small or too large, left from before the load tile size
+         * changed, are dropped, so that the tiles never hold much more than their items.
+         */
+        private TileList.Tile<T> acquireTile(int capacity) {
+            while (mRecycledRoot != null) {
                 TileList.Tile<T> result = mRecycledRoot;
                 mRecycledRoot = mRecycledRoot.mNext;
-                return result;
+                if (result.mItems.length >= capacity && result.mItems.length / 2 < capacity) {
+                    return result;
+                }
             }
-            return new TileList.Tile<T>(mTClass, mTileSize);
+            return new TileList.Tile<T>(mTClass, capacity);
         }
 
         private boolean isTileLoaded(int position) {
-            return mLoadedTiles.get(position);
+            return mLoadedTiles.indexOfKey(position) >= 0;
         }
 
         private void addTile(TileList.Tile<T> tile) {
-            mLoadedTiles.put(tile.mStartPosition, true);
+            mLoadedTiles.put(tile.mStartPosition, tile.mItemCount);
+            mLoadedItemCount += tile.mItemCount;
             mMainThreadProxy.addTile(mGeneration, tile);
             if (DEBUG) {
                 log("loaded tile @%d, total tiles: %d", tile.mStartPosition, mLoadedTiles.size());
@@ -406,6 +676,7 @@ public class AsyncListUtil<T> {
         }
 
         private void removeTile(int position) {
+            mLoadedItemCount -= mLoadedTiles.get(position);
             mLoadedTiles.delete(position);
             mMainThreadProxy.removeTile(mGeneration, position);
             if (DEBUG) {
@@ -413,9 +684,8 @@ public class AsyncListUtil<T> {
             }
         }
 
-        private void flushTileCache(int scrollHint) {
-            final int cacheSizeLimit = mDataCallback.getMaxCachedTiles();
-            while (mLoadedTiles.size() >= cacheSizeLimit) {
+        private void flushTileCache(int scrollHint, int newItemCount) {
+            while (isTileCacheFull(newItemCount)) {
                 int firstLoadedTileStart = mLoadedTiles.keyAt(0);
                 int lastLoadedTileStart = mLoadedTiles.keyAt(mLoadedTiles.size() - 1);
                 int startMargin = mFirstRequiredTileStart - firstLoadedTileStart;
@@ -433,6 +703,53 @@ public class AsyncListUtil<T> {
             }
         }
 
+        /**
+         * Returns true if a tile of the given item count does not fit in the tile cache.
+         */
+        private boolean isTileCacheFull(int newItemCount) {
+            if (mLoadExecutor == null) {
+                return mLoadedTiles.size() >= mDataCallback.getMaxCachedTiles();
+            }
+            // Tiles loaded in parallel shrink with the load tile size, so their cache holds as
+            // many items as getMaxCachedTiles() full tiles, rather than as many tiles.
+            return mLoadedTiles.size() > 0 && mLoadedItemCount + newItemCount
+                    > mDataCallback.getMaxCachedTiles() * mTileSize;
+        }
+
+        /**
+         * Returns the start position of the tile which contains the given position, or -1.
+         */
+        private int findTileStart(SparseIntArray tiles, int position) {
+            final int index = indexOfFirstTileAfter(tiles, position) - 1;
+            if (index < 0 || tiles.keyAt(index) + tiles.valueAt(index) <= position) {
+                return -1;
+            }
+            return tiles.keyAt(index);
+        }
+
+        /**
+         * Returns the start position of the first tile after the given position, or
+         * {@link Integer#MAX_VALUE}.
+         */
+        private int findNextTileStart(SparseIntArray tiles, int position) {
+            final int index = indexOfFirstTileAfter(tiles, position);
+            return index < tiles.size() ? tiles.keyAt(index) : Integer.MAX_VALUE;
+        }
+
+        private int indexOfFirstTileAfter(SparseIntArray tiles, int position) {
+            int low = 0;
+            int high = tiles.size() - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (tiles.keyAt(middle) <= position) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
         private void log(String s, Object... args) {
             Log.d(TAG, "[BKGR] " + String.format(s, args));
         }
@@ -442,7 +759,8 @@ public class AsyncListUtil<T> {
      * The callback that provides data access for {@link AsyncListUtil}.
      *
      * <p>
-     * All methods are called on the background thread.
+     * All methods are called on the background thread. If tiles are loaded in parallel,
+     * {@link #fillData} and {@link #recycleData} may be called from several threads at once.
      */
     public static abstract class DataCallback<T> {
 
@@ -498,6 +816,9 @@ public class AsyncListUtil<T> {
          * <p>
          * However, if the tile size is 20, then the maximum number of cached tiles will be 10.
          * <p>
+         * If tiles are loaded in parallel, they may hold fewer items than the tile size, and the
+         * cache holds as many items as this number of full tiles would.
+         * <p>
          * The default implementation returns 10.
          *
          * @return Maximum cache size.
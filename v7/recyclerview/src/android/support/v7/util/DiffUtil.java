@@ -18,6 +18,8 @@ package android.support.v7.util;
 
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
 import android.support.v7.widget.RecyclerView;
 
 import java.util.ArrayList;
@@ -46,7 +48,13 @@ import java.util.List;
  * <p>
  * If move detection is enabled, it takes an additional O(N^2) time where N is the total number of
  * added and removed items. If your lists are already sorted by the same constraint (e.g. a created
- * timestamp for a list of posts), you can disable move detection to improve performance.
+ * timestamp for a list of posts), you can disable move detection to improve performance. If your
+ * items have stable ids, you can extend {@link ItemIdCallback} instead of {@link Callback} so that
+ * moves are detected in O(N) time.
+ * <p>
+ * For very large lists, you can use
+ * {@link #calculateDiff(Callback, boolean, CancellationSignal, long)} to abandon a calculation
+ * whose result is no longer needed or which takes longer than a given time budget.
  * <p>
  * The actual runtime of the algorithm significantly depends on the number of changes in the list
  * and the cost of your comparison methods. Below are some average run times for reference:
@@ -106,6 +114,30 @@ public class DiffUtil {
      * old list into the new list.
      */
     public static DiffResult calculateDiff(Callback cb, boolean detectMoves) {
+        return calculateDiff(cb, detectMoves, null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Calculates the list of update operations that can covert one list into the other one, giving
+     * up if the calculation is canceled or does not finish before the given deadline.
+     * <p>
+     * The cancellation signal and the deadline are checked periodically while the diff is being
+     * calculated. This is useful when the diff is calculated on a background thread and a newer
+     * version of the list arrives before the calculation is complete.
+     *
+     * @param cb The callback that acts as a gateway to the backing list data
+     * @param detectMoves True if DiffUtil should try to detect moved items, false otherwise.
+     * @param cancellationSignal A signal to cancel the calculation, or {@code null} if the
+     *                           calculation cannot be canceled.
+     * @param deadlineNs The {@link System#nanoTime()} after which the calculation is abandoned, or
+     *                   {@link Long#MAX_VALUE} if it has no deadline.
+     *
+     * @return A DiffResult that contains the information about the edit sequence to convert the
+     * old list into the new list.
+     * @throws OperationCanceledException if the calculation is canceled or its deadline passes.
+     */
+    public static DiffResult calculateDiff(Callback cb, boolean detectMoves,
+            @Nullable CancellationSignal cancellationSignal, long deadlineNs) {
         final int oldSize = cb.getOldListSize();
         final int newSize = cb.getNewListSize();
 
@@ -115,7 +147,17 @@ public class DiffUtil {
         // overflow exceptions
         final List<Range> stack = new ArrayList<>();
 
-        stack.add(new Range(0, oldSize, 0, newSize));
+        if (cb instanceof ItemIdCallback) {
+            // items with equal ids at the start and the end of the lists are matched in linear
+            // time. If the remaining items were only reordered, they do not need Myers' search.
+            final ItemIdCallback idCallback = (ItemIdCallback) cb;
+            final Range changedRange = trimCommonItemsById(idCallback, snakes);
+            if (!findReorderedItemsById(idCallback, changedRange, snakes)) {
+                stack.add(changedRange);
+            }
+        } else {
+            stack.add(new Range(0, oldSize, 0, newSize));
+        }
 
         final int max = oldSize + newSize + Math.abs(oldSize - newSize);
         // allocate forward and backward k-lines. K lines are diagonal lines in the matrix. (see the
@@ -129,7 +171,8 @@ public class DiffUtil {
         while (!stack.isEmpty()) {
             final Range range = stack.remove(stack.size() - 1);
             final Snake snake = diffPartial(cb, range.oldListStart, range.oldListEnd,
-                    range.newListStart, range.newListEnd, forward, backward, max);
+                    range.newListStart, range.newListEnd, forward, backward, max,
+                    cancellationSignal, deadlineNs);
             if (snake != null) {
                 if (snake.size > 0) {
                     snakes.add(snake);
@@ -181,12 +224,131 @@ public class DiffUtil {
         // sort snakes
         Collections.sort(snakes, SNAKE_COMPARATOR);
 
-        return new DiffResult(cb, snakes, forward, backward, detectMoves);
+        return new DiffResult(cb, snakes, forward, backward, detectMoves, cancellationSignal,
+                deadlineNs);
 
     }
 
+    /**
+     * Adds snakes for the items at the start and the end of the lists which have the same ids and
+     * returns the range between them which still needs to be diffed.
+     */
+    private static Range trimCommonItemsById(ItemIdCallback cb, List<Snake> snakes) {
+        final int oldSize = cb.getOldListSize();
+        final int newSize = cb.getNewListSize();
+        final int minSize = Math.min(oldSize, newSize);
+        int prefix = 0;
+        while (prefix < minSize && cb.getOldItemId(prefix) == cb.getNewItemId(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < minSize - prefix && cb.getOldItemId(oldSize - suffix - 1)
+                == cb.getNewItemId(newSize - suffix - 1)) {
+            suffix++;
+        }
+        if (prefix > 0) {
+            snakes.add(createSnake(0, 0, prefix));
+        }
+        if (suffix > 0) {
+            snakes.add(createSnake(oldSize - suffix, newSize - suffix, suffix));
+        }
+        return new Range(prefix, oldSize - suffix, prefix, newSize - suffix);
+    }
+
+    /**
+     * Checks whether the items in the given range have only been reordered, in which case the
+     * largest set of items that kept their relative order are added as snakes and the rest will
+     * be dispatched as moves. This takes O(N log N) time instead of Myers' O(N + D^2) where D is
+     * about twice the number of moved items.
+     *
+     * @return True if the range is solved, false if it needs to go through Myers' algorithm.
+     */
+    private static boolean findReorderedItemsById(ItemIdCallback cb, Range range,
+            List<Snake> snakes) {
+        final int size = range.oldListEnd - range.oldListStart;
+        if (size != range.newListEnd - range.newListStart) {
+            return false;
+        }
+        if (size == 0) {
+            return true;
+        }
+        final ItemIdTable oldIndices = new ItemIdTable(size);
+        for (int i = 0; i < size; i++) {
+            if (oldIndices.put(cb.getOldItemId(range.oldListStart + i), i)
+                    != ItemIdTable.NOT_FOUND) {
+                return false; // duplicate id
+            }
+        }
+        // for each item in the new range, its index in the old range
+        final int[] moves = new int[size];
+        for (int i = 0; i < size; i++) {
+            final int oldIndex = oldIndices.remove(cb.getNewItemId(range.newListStart + i));
+            if (oldIndex == ItemIdTable.NOT_FOUND) {
+                return false; // added item or duplicate id
+            }
+            moves[i] = oldIndex;
+        }
+        // Find the longest increasing subsequence of old indices. For each length, tails keeps
+        // the new index of the subsequence which ends with the smallest old index.
+        final int[] tails = new int[size];
+        final int[] previous = new int[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (moves[tails[mid]] < moves[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        // walk the subsequence backwards, merging diagonal neighbours into the same snake
+        Snake snake = null;
+        for (int i = tails[length - 1]; i != -1; i = previous[i]) {
+            final int x = range.oldListStart + moves[i];
+            final int y = range.newListStart + i;
+            if (snake != null && snake.x == x + 1 && snake.y == y + 1) {
+                snake.x = x;
+                snake.y = y;
+                snake.size++;
+            } else {
+                snake = createSnake(x, y, 1);
+                snakes.add(snake);
+            }
+        }
+        return true;
+    }
+
+    private static Snake createSnake(int x, int y, int size) {
+        final Snake snake = new Snake();
+        snake.x = x;
+        snake.y = y;
+        snake.size = size;
+        return snake;
+    }
+
+    private static void throwIfCanceled(@Nullable CancellationSignal cancellationSignal,
+            long deadlineNs) {
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+        if (deadlineNs != Long.MAX_VALUE && System.nanoTime() > deadlineNs) {
+            throw new OperationCanceledException("DiffUtil could not calculate the diff before"
+                    + " its deadline.");
+        }
+    }
+
     private static Snake diffPartial(Callback cb, int startOld, int endOld,
-            int startNew, int endNew, int[] forward, int[] backward, int kOffset) {
+            int startNew, int endNew, int[] forward, int[] backward, int kOffset,
+            @Nullable CancellationSignal cancellationSignal, long deadlineNs) {
         final int oldSize = endOld - startOld;
         final int newSize = endNew - startNew;
 
@@ -200,6 +362,7 @@ public class DiffUtil {
         Arrays.fill(backward, kOffset - dLimit - 1 + delta, kOffset + dLimit + 1 + delta, oldSize);
         final boolean checkInFwd = delta % 2 != 0;
         for (int d = 0; d <= dLimit; d++) {
+            throwIfCanceled(cancellationSignal, deadlineNs);
             for (int k = -d; k <= d; k += 2) {
                 // find forward path
                 // we can reach k from k - 1 or k + 1. Check which one is further in the graph
@@ -347,6 +510,96 @@ public class DiffUtil {
         }
     }
 
+    /**
+     * A {@link Callback} for lists whose items can be identified by a stable {@code long} id, such
+     * as the ids reported by {@link RecyclerView.Adapter#getItemId(int)}.
+     * <p>
+     * DiffUtil uses the ids to match the items at the start and the end of the lists in linear
+     * time, so that only the items in between go through Myers' algorithm. This makes appending,
+     * prepending or changing a few items cheap even for large lists. If the items in between are
+     * only reordered, DiffUtil does not run Myers' algorithm at all.
+     * <p>
+     * When DiffUtil detects moves for an ItemIdCallback, it matches added and removed items by
+     * their ids in O(N) time and space instead of comparing every added item with every removed
+     * item, where N is the number of added and removed items.
+     * <p>
+     * Ids must be unique within each list. If two items in the same list share an id, only one of
+     * them can be detected as a move.
+     */
+    public abstract static class ItemIdCallback extends Callback {
+        /**
+         * Returns the stable id of the item at the given position in the old list.
+         *
+         * @param oldItemPosition The position of the item in the old list
+         * @return The stable id of the item.
+         */
+        public abstract long getOldItemId(int oldItemPosition);
+
+        /**
+         * Returns the stable id of the item at the given position in the new list.
+         *
+         * @param newItemPosition The position of the item in the new list
+         * @return The stable id of the item.
+         */
+        public abstract long getNewItemId(int newItemPosition);
+
+        /**
+         * Returns whether the two items have the same stable id.
+         * <p>
+         * If you override this method, it must stay consistent with the ids, otherwise moved
+         * items may be matched differently than the rest of the list.
+         *
+         * @param oldItemPosition The position of the item in the old list
+         * @param newItemPosition The position of the item in the new list
+         * @return True if the two items have the same id.
+         */
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return getOldItemId(oldItemPosition) == getNewItemId(newItemPosition);
+        }
+    }
+
+    /**
+     * An {@link ItemIdCallback} for items which can also report a hash of their contents, which
+     * DiffUtil compares instead of calling {@link #areContentsTheSame(int, int)} on the items.
+     * <p>
+     * For example, if your items are immutable, you can compute the hash once when an item is
+     * created and DiffUtil will not need to look at the item's data at all.
+     * <p>
+     * Items with the same id but different contents must have different hashes, otherwise their
+     * change is not dispatched.
+     */
+    public abstract static class ContentHashCallback extends ItemIdCallback {
+        /**
+         * Returns the hash of the contents of the item at the given position in the old list.
+         *
+         * @param oldItemPosition The position of the item in the old list
+         * @return The hash of the item's contents.
+         */
+        public abstract long getOldItemContentHash(int oldItemPosition);
+
+        /**
+         * Returns the hash of the contents of the item at the given position in the new list.
+         *
+         * @param newItemPosition The position of the item in the new list
+         * @return The hash of the item's contents.
+         */
+        public abstract long getNewItemContentHash(int newItemPosition);
+
+        /**
+         * Returns whether the contents of the two items have the same hash.
+         *
+         * @param oldItemPosition The position of the item in the old list
+         * @param newItemPosition The position of the item in the new list
+         * @return True if the hashes of the items' contents are equal.
+         */
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return getOldItemContentHash(oldItemPosition)
+                    == getNewItemContentHash(newItemPosition);
+        }
+    }
+
     /**
      * Snakes represent a match between two lists. It is optionally prefixed or postfixed with an
      * add or remove operation. See the Myers' paper for details.
@@ -468,9 +721,12 @@ public class DiffUtil {
          * @param oldItemStatuses An int[] that can be re-purposed to keep metadata
          * @param newItemStatuses An int[] that can be re-purposed to keep metadata
          * @param detectMoves True if this DiffResult will try to detect moved items
+         * @param cancellationSignal The signal to cancel move detection or null
+         * @param deadlineNs The deadline for move detection or Long.MAX_VALUE
          */
         DiffResult(Callback callback, List<Snake> snakes, int[] oldItemStatuses,
-                int[] newItemStatuses, boolean detectMoves) {
+                int[] newItemStatuses, boolean detectMoves,
+                @Nullable CancellationSignal cancellationSignal, long deadlineNs) {
             mSnakes = snakes;
             mOldItemStatuses = oldItemStatuses;
             mNewItemStatuses = newItemStatuses;
@@ -481,7 +737,7 @@ public class DiffUtil {
             mNewListSize = callback.getNewListSize();
             mDetectMoves = detectMoves;
             addRootSnake();
-            findMatchingItems();
+            findMatchingItems(cancellationSignal, deadlineNs);
         }
 
         /**
@@ -512,21 +768,36 @@ public class DiffUtil {
          * the statuses maps. DiffResult uses this pre-calculated information while dispatching
          * the updates (which is probably being called on the main thread).
          */
-        private void findMatchingItems() {
+        private void findMatchingItems(@Nullable CancellationSignal cancellationSignal,
+                long deadlineNs) {
+            final ItemIdTable pendingItems = mDetectMoves && mCallback instanceof ItemIdCallback
+                    ? new ItemIdTable(countUnmatchedItems()) : null;
             int posOld = mOldListSize;
             int posNew = mNewListSize;
             // traverse the matrix from right bottom to 0,0.
             for (int i = mSnakes.size() - 1; i >= 0; i--) {
+                throwIfCanceled(cancellationSignal, deadlineNs);
                 final Snake snake = mSnakes.get(i);
                 final int endX = snake.x + snake.size;
                 final int endY = snake.y + snake.size;
-                if (mDetectMoves) {
+                if (pendingItems != null) {
+                    while (posOld > endX) {
+                        matchRemovalById(pendingItems, posOld - 1);
+                        posOld--;
+                    }
+                    while (posNew > endY) {
+                        matchAdditionById(pendingItems, posNew - 1);
+                        posNew--;
+                    }
+                } else if (mDetectMoves) {
                     while (posOld > endX) {
+                        throwIfCanceled(cancellationSignal, deadlineNs);
                         // this is a removal. Check remaining snakes to see if this was added before
                         findAddition(posOld, posNew, i);
                         posOld--;
                     }
                     while (posNew > endY) {
+                        throwIfCanceled(cancellationSignal, deadlineNs);
                         // this is an addition. Check remaining snakes to see if this was removed
                         // before
                         findRemoval(posOld, posNew, i);
@@ -548,6 +819,70 @@ public class DiffUtil {
             }
         }
 
+        private int countUnmatchedItems() {
+            int matched = 0;
+            for (int i = mSnakes.size() - 1; i >= 0; i--) {
+                matched += mSnakes.get(i).size;
+            }
+            return mOldListSize + mNewListSize - 2 * matched;
+        }
+
+        /**
+         * Matches the removed item with an addition that was visited before it, using the item
+         * ids. If there is none, the removal is kept pending until a matching addition is visited.
+         * <p>
+         * Whichever item of a pair is visited first is ignored and the move is dispatched when
+         * the second one is processed, same as {@link #findMatchingItem(int, int, int, boolean)}.
+         */
+        private void matchRemovalById(ItemIdTable pendingItems, int oldItemPos) {
+            final long id = ((ItemIdCallback) mCallback).getOldItemId(oldItemPos);
+            final int newItemPos = matchOrAddPendingItem(pendingItems, id, true, oldItemPos);
+            if (newItemPos != ItemIdTable.NOT_FOUND) {
+                mNewItemStatuses[newItemPos] = (oldItemPos << FLAG_OFFSET) | FLAG_IGNORE;
+                mOldItemStatuses[oldItemPos] = (newItemPos << FLAG_OFFSET)
+                        | getMoveFlag(oldItemPos, newItemPos);
+            }
+        }
+
+        /**
+         * Matches the added item with a removal that was visited before it, using the item ids.
+         * If there is none, the addition is kept pending until a matching removal is visited.
+         */
+        private void matchAdditionById(ItemIdTable pendingItems, int newItemPos) {
+            final long id = ((ItemIdCallback) mCallback).getNewItemId(newItemPos);
+            final int oldItemPos = matchOrAddPendingItem(pendingItems, id, false, newItemPos);
+            if (oldItemPos != ItemIdTable.NOT_FOUND) {
+                mOldItemStatuses[oldItemPos] = (newItemPos << FLAG_OFFSET) | FLAG_IGNORE;
+                mNewItemStatuses[newItemPos] = (oldItemPos << FLAG_OFFSET)
+                        | getMoveFlag(oldItemPos, newItemPos);
+            }
+        }
+
+        /**
+         * Looks for a pending item from the other list with the same id. If one exists, it is
+         * removed from the table and its position is returned. Otherwise, the given item becomes
+         * the pending item for the id.
+         * <p>
+         * Pending items are kept as {@code (position << 1) | (removal ? 1 : 0)}.
+         */
+        private static int matchOrAddPendingItem(ItemIdTable pendingItems, long id,
+                boolean removal, int position) {
+            final int pending = pendingItems.get(id);
+            if (pending != ItemIdTable.NOT_FOUND && (pending & 1) != (removal ? 1 : 0)) {
+                pendingItems.remove(id);
+                return pending >> 1;
+            }
+            // if an item from the same list is pending, the id is duplicate. The previous item
+            // stays a real addition or removal.
+            pendingItems.put(id, (position << 1) | (removal ? 1 : 0));
+            return ItemIdTable.NOT_FOUND;
+        }
+
+        private int getMoveFlag(int oldItemPos, int newItemPos) {
+            return mCallback.areContentsTheSame(oldItemPos, newItemPos) ? FLAG_MOVED_NOT_CHANGED
+                    : FLAG_MOVED_CHANGED;
+        }
+
         private void findAddition(int x, int y, int snakeIndex) {
             if (mOldItemStatuses[x - 1] != 0) {
                 return; // already set by a latter item
@@ -656,27 +991,7 @@ public class DiffUtil {
          *                displaying the new list.
          */
         public void dispatchUpdatesTo(final RecyclerView.Adapter adapter) {
-            dispatchUpdatesTo(new ListUpdateCallback() {
-                @Override
-                public void onInserted(int position, int count) {
-                    adapter.notifyItemRangeInserted(position, count);
-                }
-
-                @Override
-                public void onRemoved(int position, int count) {
-                    adapter.notifyItemRangeRemoved(position, count);
-                }
-
-                @Override
-                public void onMoved(int fromPosition, int toPosition) {
-                    adapter.notifyItemMoved(fromPosition, toPosition);
-                }
-
-                @Override
-                public void onChanged(int position, int count, Object payload) {
-                    adapter.notifyItemRangeChanged(position, count, payload);
-                }
-            });
+            dispatchUpdatesTo(new AdapterListUpdateCallback(adapter));
         }
 
         /**
@@ -832,6 +1147,70 @@ public class DiffUtil {
         }
     }
 
+    /**
+     * An open addressing hash table from item ids to non-negative ints. Used to match items of
+     * {@link ItemIdCallback}s by their ids without boxing them.
+     */
+    private static class ItemIdTable {
+        static final int NOT_FOUND = -1;
+
+        // values are stored with an offset of 1 so that 0 can mark an empty slot
+        private static final int EMPTY = 0;
+        // a removed id. The slot is kept so that the probe sequences that pass through it stay
+        // intact.
+        private static final int REMOVED = -1;
+
+        private final long[] mIds;
+        private final int[] mValues;
+        private final int mMask;
+
+        ItemIdTable(int maxSize) {
+            // keep the load factor at or below 0.5
+            final int capacity = Integer.highestOneBit(Math.max(maxSize * 2 - 1, 4)) << 1;
+            mIds = new long[capacity];
+            mValues = new int[capacity];
+            mMask = capacity - 1;
+        }
+
+        private int indexOf(long id) {
+            final long hash = id * 0x9E3779B97F4A7C15L;
+            int index = (int) (hash ^ (hash >>> 32)) & mMask;
+            while (mValues[index] != EMPTY && mIds[index] != id) {
+                index = (index + 1) & mMask;
+            }
+            return index;
+        }
+
+        int get(long id) {
+            final int value = mValues[indexOf(id)];
+            return value > 0 ? value - 1 : NOT_FOUND;
+        }
+
+        /**
+         * @return The previous value for the id or {@link #NOT_FOUND}.
+         */
+        int put(long id, int value) {
+            final int index = indexOf(id);
+            final int previous = mValues[index];
+            mIds[index] = id;
+            mValues[index] = value + 1;
+            return previous > 0 ? previous - 1 : NOT_FOUND;
+        }
+
+        /**
+         * @return The removed value for the id or {@link #NOT_FOUND}.
+         */
+        int remove(long id) {
+            final int index = indexOf(id);
+            final int previous = mValues[index];
+            if (previous > 0) {
+                mValues[index] = REMOVED;
+                return previous - 1;
+            }
+            return NOT_FOUND;
+        }
+    }
+
     /**
      * Represents an update that we skipped because it was a move.
      * <p>
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link AsyncListUtil.DataCallback} which reads the items from a memory-mapped file of fixed
+ * size records, written by {@link RecordFileWriter}.
+ * <p>
+ * {@link #refreshData()} maps the file, and {@link #fillData} decodes each item straight from
+ * the mapped pages with a {@link RecordDecoder}, without copying the records or going through a
+ * {@link android.database.Cursor}. Decoders receive the items of recycled tiles, so that they can
+ * update them instead of allocating new ones.
+ * <p>
+ * This class is thread safe, so it can be used by an AsyncListUtil which loads tiles in
+ * parallel.
+ *
+ * @param <T> Type of the items.
+ */
+public class RecordFileDataCallback<T> extends AsyncListUtil.DataCallback<T> {
+    private static final String TAG = "RecordFileDataCallback";
+
+    private final File mFile;
+    private final RecordDecoder<T> mDecoder;
+
+    // Replaced together by refreshData
+    private volatile Records mRecords = Records.EMPTY;
+
+    /**
+     * Creates a callback.
+     *
+     * @param file The file written by a {@link RecordFileWriter}. It is read on the next call
+     *             to {@link #refreshData()}.
+     * @param decoder The decoder of the records.
+     */
+    public RecordFileDataCallback(@NonNull File file, @NonNull RecordDecoder<T> decoder) {
+        mFile = file;
+        mDecoder = decoder;
+    }
+
+    /**
+     * Maps the file again, and returns its number of records. Returns 0 if the file can't be
+     * read.
+     */
+    @Override
+    @WorkerThread
+    public int refreshData() {
+        Records records = Records.EMPTY;
+        try {
+            records = map(mFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not map " + mFile, e);
+        }
+        mRecords = records;
+        return records.mCount;
+    }
+
+    @Override
+    @WorkerThread
+    public void fillData(T[] data, int startPosition, int itemCount) {
+        final Records records = mRecords;
+        final int recordSize = records.mRecordSize;
+        int offset = RecordFileWriter.HEADER_SIZE + startPosition * recordSize;
+        for (int i = 0; i < itemCount; i++) {
+            data[i] = mDecoder.decode(records.mBuffer, offset, recordSize, data[i]);
+            offset += recordSize;
+        }
+    }
+
+    private static Records map(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            final long size = channel.size();
+            if (size < RecordFileWriter.HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Unexpected file size " + size);
+            }
+            // The mapping stays valid after the channel is closed
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != RecordFileWriter.MAGIC) {
+                throw new IOException("Not a record file");
+            }
+            final int recordSize = buffer.getInt(4);
+            final int count = buffer.getInt(8);
+            if (recordSize <= 0 || count < 0
+                    || RecordFileWriter.HEADER_SIZE + (long) recordSize * count > size) {
+                throw new IOException("Truncated record file");
+            }
+            return new Records(buffer.asReadOnlyBuffer(), recordSize, count);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static class Records {
+        static final Records EMPTY = new Records(ByteBuffer.allocate(0), 1, 0);
+
+        final ByteBuffer mBuffer;
+        final int mRecordSize;
+        final int mCount;
+
+        Records(ByteBuffer buffer, int recordSize, int count) {
+            mBuffer = buffer;
+            mRecordSize = recordSize;
+            mCount = count;
+        }
+    }
+
+    /**
+     * Decodes the items of a {@link RecordFileDataCallback}.
+     * <p>
+     * Decoders may be called from several threads at once, with the same buffer.
+     *
+     * @param <T> Type of the items.
+     */
+    public interface RecordDecoder<T> {
+        /**
+         * Decodes a record.
+         *
+         * @param buffer The read-only mapped file. The record must be read with the absolute get
+         *               methods of the buffer, such as {@link ByteBuffer#getInt(int)}, since the
+         *               buffer is shared. Use a {@link ByteBuffer#duplicate()} to read it
+         *               relatively.
+         * @param offset The offset of the record in the buffer.
+         * @param recordSize The size of the record, in bytes.
+         * @param reuse The item previously at this index of the tile, or null. It can be
+         *              updated and returned instead of creating a new item.
+         * @return The item.
+         */
+        T decode(@NonNull ByteBuffer buffer, int offset, int recordSize, @Nullable T reuse);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a file of fixed size records, which {@link RecordFileDataCallback} reads.
+ * <p>
+ * The file starts with a header of {@link #HEADER_SIZE} bytes, followed by the records in the
+ * order they are written. Records are written to a temporary file next to the given one, which
+ * replaces it only when the writer is committed, so that readers never see a partially written
+ * file. Closing a writer which was not committed deletes the temporary file and leaves the given
+ * file as it was, so that a failure while writing keeps the previous records.
+ *
+ * <pre>
+ * RecordFileWriter writer = new RecordFileWriter(file, 16);
+ * ByteBuffer record = ByteBuffer.allocate(16);
+ * try {
+ *     for (Product product : products) {
+ *         record.clear();
+ *         record.putLong(product.id).putInt(product.priceCents).putInt(product.stock);
+ *         record.flip();
+ *         writer.write(record);
+ *     }
+ *     writer.commit();
+ * } finally {
+ *     writer.close();
+ * }
+ * </pre>
+ */
+public final class RecordFileWriter implements Closeable {
+    static final int MAGIC = 0x52454331; // "REC1"
+
+    /**
+     * The size of the header at the start of the file, in bytes.
+     */
+    public static final int HEADER_SIZE = 16;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Number of records written to the file at once
+    private static final int RECORDS_PER_WRITE = 256;
+
+    private final File mFile;
+    private final File mTempFile;
+    private final int mRecordSize;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private int mRecordCount;
+    private boolean mClosed;
+
+    /**
+     * Creates a writer, and the temporary file it writes to.
+     *
+     * @param file The file to write. It is replaced when the writer is committed.
+     * @param recordSize The size of each record, in bytes.
+     */
+    public RecordFileWriter(@NonNull File file, int recordSize) throws IOException {
+        if (recordSize <= 0) {
+            throw new IllegalArgumentException("recordSize must be positive");
+        }
+        mFile = file;
+        mTempFile = new File(file.getPath() + TEMP_SUFFIX);
+        mRecordSize = recordSize;
+        mRandomAccessFile = new RandomAccessFile(mTempFile, "rw");
+        mRandomAccessFile.setLength(0);
+        mChannel = mRandomAccessFile.getChannel();
+        mBuffer = ByteBuffer.allocate(recordSize * RECORDS_PER_WRITE);
+        // The header is written on close, when the number of records is known
+        mChannel.position(HEADER_SIZE);
+    }
+
+    /**
+     * Returns the size of each record, in bytes.
+     */
+    public int getRecordSize() {
+        return mRecordSize;
+    }
+
+    /**
+     * Returns the number of records written so far.
+     */
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Appends a record with the remaining bytes of the given buffer, followed by zeros up to the
+     * record size.
+     *
+     * @param record The record to write. Its position is moved to its limit.
+     */
+    public void write(@NonNull ByteBuffer record) throws IOException {
+        if (mClosed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+        if (record.remaining() > mRecordSize) {
+            throw new IllegalArgumentException("The record has " + record.remaining()
+                    + " bytes, more than the record size " + mRecordSize);
+        }
+        if (mBuffer.remaining() < mRecordSize) {
+            flush();
+        }
+        final int end = mBuffer.position() + mRecordSize;
+        mBuffer.put(record);
+        while (mBuffer.position() < end) {
+            mBuffer.put((byte) 0);
+        }
+        mRecordCount++;
+    }
+
+    /**
+     * Writes the header, then replaces the file with the records written and closes the writer.
+     *
+     * @throws IllegalStateException if the writer is closed.
+     */
+    public void commit() throws IOException {
+        if (mClosed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+        mClosed = true;
+        try {
+            flush();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(mRecordSize).putInt(mRecordCount).putInt(0);
+            header.flip();
+            mChannel.position(0);
+            writeFully(header);
+            mChannel.force(false);
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+        mRandomAccessFile.close();
+        if (!mTempFile.renameTo(mFile)) {
+            mTempFile.delete();
+            throw new IOException("Could not rename " + mTempFile + " to " + mFile);
+        }
+    }
+
+    /**
+     * Closes the writer. If it was not committed, the records written are discarded and the file
+     * is left unchanged. Does nothing if the writer is already closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        discard();
+    }
+
+    private void discard() throws IOException {
+        try {
+            mRandomAccessFile.close();
+        } finally {
+            mTempFile.delete();
+        }
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        writeFully(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
@@ -32,6 +32,15 @@ import java.util.Comparator;
  * call appropriate methods while editing them to avoid data inconsistencies.
  * <p>
  * You can control the order of items and change notifications via the {@link Callback} parameter.
+ * <p>
+ * By default, items are kept in an array and adding or removing an item shifts all of the items
+ * after it. For large lists which receive many single item edits close to each other, such as a
+ * chat list where new messages arrive at the top, a SortedList can keep a gap in its array at
+ * the last edit position instead, with
+ * {@link #SortedList(Class, Callback, int, boolean)}. Only the items between the gap and the
+ * next edit position are shifted then, so an edit costs time proportional to its distance from
+ * the previous edit: cheap for edits next to each other, but still linear in the list size for
+ * edits at opposite ends. {@link #get(int)} stays a constant time array access.
  */
 @SuppressWarnings("unchecked")
 public class SortedList<T> {
@@ -46,17 +55,35 @@ public class SortedList<T> {
     private static final int INSERTION = 1;
     private static final int DELETION = 1 << 1;
     private static final int LOOKUP = 1 << 2;
+
+    /**
+     * Value of mGapStart when the items are contiguous at the start of mData.
+     */
+    private static final int NO_GAP = Integer.MAX_VALUE;
+
     T[] mData;
 
     /**
-     * A copy of the previous list contents used during the merge phase of addAll.
+     * Whether single item edits move a gap in mData to the edit position, rather than shifting
+     * the items after it.
+     */
+    private final boolean mUseGap;
+
+    /**
+     * The index in mData at which the unused slots of mData start, or {@link #NO_GAP} if they
+     * are at the end. Items at or after this index in the list are stored after the gap.
+     */
+    private int mGapStart = NO_GAP;
+
+    /**
+     * A copy of the previous list contents used during the merge phase of addAll and replaceAll.
      */
     private T[] mOldData;
     private int mOldDataStart;
     private int mOldDataSize;
 
     /**
-     * The size of the valid portion of mData during the merge phase of addAll.
+     * The size of the valid portion of mData during the merge phase of addAll and replaceAll.
      */
     private int mMergedSize;
 
@@ -90,10 +117,26 @@ public class SortedList<T> {
      * @param initialCapacity The initial capacity to hold items.
      */
     public SortedList(Class<T> klass, Callback<T> callback, int initialCapacity) {
+        this(klass, callback, initialCapacity, false);
+    }
+
+    /**
+     * Creates a new SortedList of type T.
+     *
+     * @param klass           The class of the contents of the SortedList.
+     * @param callback        The callback that controls the behavior of SortedList.
+     * @param initialCapacity The initial capacity to hold items.
+     * @param useGap          True to keep a gap in the backing array at the position of the last
+     *                        added or removed item, so that edits near it don't shift the rest of
+     *                        the list. This also grows the array geometrically.
+     */
+    public SortedList(Class<T> klass, Callback<T> callback, int initialCapacity,
+            boolean useGap) {
         mTClass = klass;
         mData = (T[]) Array.newInstance(klass, initialCapacity);
         mCallback = callback;
         mSize = 0;
+        mUseGap = useGap;
     }
 
     /**
@@ -191,6 +234,8 @@ public class SortedList<T> {
             beginBatchedUpdates();
         }
 
+        closeGap();
+
         mOldData = mData;
         mOldDataStart = 0;
         mOldDataSize = mSize;
@@ -214,6 +259,136 @@ public class SortedList<T> {
         }
     }
 
+    /**
+     * Replaces the contents of the list with the given items, as if the items which are not in
+     * the given ones were removed and the given ones were added with {@link #addAll(Object[])},
+     * but in a single pass over the list.
+     * <p>
+     * The current items and the sorted new items are merged in order: an item which is in both
+     * is kept in place, and SortedList calls {@link Callback#onChanged(int, int)} for it if
+     * {@link Callback#areContentsTheSame(Object, Object)} returns false, while the other items
+     * are removed or inserted with {@link Callback#onRemoved(int, int)} and
+     * {@link Callback#onInserted(int, int)}. These events are batched like those of
+     * {@link #addAll(Object[])}, so replacing a list with a similar snapshot of it only notifies
+     * about the items which actually changed. An item whose sorting criteria changed is removed
+     * from its old position and inserted at its new one.
+     * <p>
+     * If allowed, may modify the input array and even take the ownership over it in order
+     * to avoid extra memory allocation during sorting and deduplication.
+     *
+     * @param items Array of items to replace the contents of the list with.
+     * @param mayModifyInput If true, SortedList is allowed to modify the input.
+     * @see SortedList#replaceAll(Object[] items)
+     */
+    public void replaceAll(T[] items, boolean mayModifyInput) {
+        throwIfMerging();
+        if (mayModifyInput) {
+            replaceAllInternal(items);
+        } else {
+            T[] copy = (T[]) Array.newInstance(mTClass, items.length);
+            System.arraycopy(items, 0, copy, 0, items.length);
+            replaceAllInternal(copy);
+        }
+    }
+
+    /**
+     * Replaces the contents of the list with the given items. Does not modify the input.
+     *
+     * @see SortedList#replaceAll(T[] items, boolean mayModifyInput)
+     *
+     * @param items Array of items to replace the contents of the list with.
+     */
+    public void replaceAll(T... items) {
+        replaceAll(items, false);
+    }
+
+    /**
+     * Replaces the contents of the list with the given items. Does not modify the input.
+     *
+     * @see SortedList#replaceAll(T[] items, boolean mayModifyInput)
+     *
+     * @param items Collection of items to replace the contents of the list with.
+     */
+    public void replaceAll(Collection<T> items) {
+        T[] copy = (T[]) Array.newInstance(mTClass, items.size());
+        replaceAll(items.toArray(copy), true);
+    }
+
+    private void replaceAllInternal(T[] newData) {
+        final boolean forceBatchedUpdates = !(mCallback instanceof BatchedCallback);
+        if (forceBatchedUpdates) {
+            beginBatchedUpdates();
+        }
+
+        closeGap();
+
+        mOldData = mData;
+        mOldDataStart = 0;
+        mOldDataSize = mSize;
+
+        Arrays.sort(newData, mCallback);  // Arrays.sort is stable.
+
+        final int newDataSize = newData.length == 0 ? 0 : deduplicate(newData);
+
+        // Every item of the output is a new item, and the output never gets ahead of the new
+        // items being read, so the new array can hold the output.
+        mData = newData;
+        mMergedSize = 0;
+
+        int newDataStart = 0;
+        while (mOldDataStart < mOldDataSize || newDataStart < newDataSize) {
+            if (mOldDataStart == mOldDataSize) {
+                // No more old items, insert the remaining new items.
+                int itemCount = newDataSize - newDataStart;
+                mMergedSize += itemCount;
+                mSize += itemCount;
+                mCallback.onInserted(mMergedSize - itemCount, itemCount);
+                break;
+            }
+
+            if (newDataStart == newDataSize) {
+                // No more new items, remove the remaining old items.
+                int itemCount = mOldDataSize - mOldDataStart;
+                mOldDataStart = mOldDataSize;
+                mSize -= itemCount;
+                mCallback.onRemoved(mMergedSize, itemCount);
+                break;
+            }
+
+            T oldItem = mOldData[mOldDataStart];
+            T newItem = newData[newDataStart];
+            int compare = mCallback.compare(oldItem, newItem);
+            if (compare < 0) {
+                // Old item is lower, so it is not in the new items. Remove it.
+                mOldDataStart++;
+                mSize--;
+                mCallback.onRemoved(mMergedSize, 1);
+            } else if (compare == 0 && mCallback.areItemsTheSame(oldItem, newItem)) {
+                // Items are the same. Output the new item, but consume both.
+                mMergedSize++;
+                newDataStart++;
+                mOldDataStart++;
+                if (!mCallback.areContentsTheSame(oldItem, newItem)) {
+                    mCallback.onChanged(mMergedSize - 1, 1);
+                }
+            } else {
+                // New item is lower than, or equal to but not the same as the old one. Insert
+                // it. An old item with the same sort order which is not in the new items is
+                // removed later.
+                mMergedSize++;
+                mSize++;
+                newDataStart++;
+                mCallback.onInserted(mMergedSize - 1, 1);
+            }
+        }
+
+        mOldData = null;
+
+        if (forceBatchedUpdates) {
+            endBatchedUpdates();
+        }
+    }
+
     /**
      * Remove duplicate items, leaving only the last item from each group of "same" items.
      * Move the remaining items to the beginning of the array.
@@ -328,7 +503,8 @@ public class SortedList<T> {
 
     private void throwIfMerging() {
         if (mOldData != null) {
-            throw new IllegalStateException("Cannot call this method from within addAll");
+            throw new IllegalStateException(
+                    "Cannot call this method from within addAll or replaceAll");
         }
     }
 
@@ -393,14 +569,15 @@ public class SortedList<T> {
         if (index == INVALID_POSITION) {
             index = 0;
         } else if (index < mSize) {
-            T existing = mData[index];
+            final int dataIndex = dataIndex(index);
+            T existing = mData[dataIndex];
             if (mCallback.areItemsTheSame(existing, item)) {
                 if (mCallback.areContentsTheSame(existing, item)) {
                     //no change but still replace the item
-                    mData[index] = item;
+                    mData[dataIndex] = item;
                     return index;
                 } else {
-                    mData[index] = item;
+                    mData[dataIndex] = item;
                     mCallback.onChanged(index, 1);
                     return index;
                 }
@@ -449,9 +626,16 @@ public class SortedList<T> {
     }
 
     private void removeItemAtIndex(int index, boolean notify) {
-        System.arraycopy(mData, index + 1, mData, index, mSize - index - 1);
-        mSize--;
-        mData[mSize] = null;
+        if (mUseGap) {
+            // Move the gap right before the item, then extend it over the item
+            moveGap(index);
+            mData[index + mData.length - mSize] = null;
+            mSize--;
+        } else {
+            System.arraycopy(mData, index + 1, mData, index, mSize - index - 1);
+            mSize--;
+            mData[mSize] = null;
+        }
         if (notify) {
             mCallback.onRemoved(index, 1);
         }
@@ -486,7 +670,7 @@ public class SortedList<T> {
             // different items, we can use comparison and may avoid lookup
             final int cmp = mCallback.compare(existing, item);
             if (cmp == 0) {
-                mData[index] = item;
+                mData[dataIndex(index)] = item;
                 if (contentsChanged) {
                     mCallback.onChanged(index, 1);
                 }
@@ -563,7 +747,7 @@ public class SortedList<T> {
                 return mOldData[index - mMergedSize + mOldDataStart];
             }
         }
-        return mData[index];
+        return mData[dataIndex(index)];
     }
 
     /**
@@ -592,7 +776,7 @@ public class SortedList<T> {
     private int findIndexOf(T item, T[] mData, int left, int right, int reason) {
         while (left < right) {
             final int middle = (left + right) / 2;
-            T myItem = mData[middle];
+            T myItem = mData[dataIndex(middle)];
             final int cmp = mCallback.compare(myItem, item);
             if (cmp < 0) {
                 left = middle + 1;
@@ -617,7 +801,7 @@ public class SortedList<T> {
     private int linearEqualitySearch(T item, int middle, int left, int right) {
         // go left
         for (int next = middle - 1; next >= left; next--) {
-            T nextItem = mData[next];
+            T nextItem = mData[dataIndex(next)];
             int cmp = mCallback.compare(nextItem, item);
             if (cmp != 0) {
                 break;
@@ -627,7 +811,7 @@ public class SortedList<T> {
             }
         }
         for (int next = middle + 1; next < right; next++) {
-            T nextItem = mData[next];
+            T nextItem = mData[dataIndex(next)];
             int cmp = mCallback.compare(nextItem, item);
             if (cmp != 0) {
                 break;
@@ -644,6 +828,16 @@ public class SortedList<T> {
             throw new IndexOutOfBoundsException(
                     "cannot add item to " + index + " because size is " + mSize);
         }
+        if (mUseGap) {
+            if (mSize == mData.length) {
+                growWithGapAt(index);
+            } else {
+                moveGap(index);
+            }
+            mData[mGapStart++] = item;
+            mSize++;
+            return;
+        }
         if (mSize == mData.length) {
             // we are at the limit enlarge
             T[] newData = (T[]) Array.newInstance(mTClass, mData.length + CAPACITY_GROWTH);
@@ -668,11 +862,73 @@ public class SortedList<T> {
             return;
         }
         final int prevSize = mSize;
-        Arrays.fill(mData, 0, prevSize, null);
+        if (mGapStart != NO_GAP) {
+            Arrays.fill(mData, null);
+            mGapStart = NO_GAP;
+        } else {
+            Arrays.fill(mData, 0, prevSize, null);
+        }
         mSize = 0;
         mCallback.onRemoved(0, prevSize);
     }
 
+    /**
+     * Returns the index in mData of the item at the given index in the list.
+     * <p>
+     * The gap is always closed while addAll or replaceAll merge items, so this is also the
+     * identity on mOldData.
+     */
+    private int dataIndex(int index) {
+        return index < mGapStart ? index : index + mData.length - mSize;
+    }
+
+    /**
+     * Moves the gap so that it starts at the given index in the list, shifting only the items
+     * between the current and the new gap position.
+     */
+    private void moveGap(int index) {
+        if (mGapStart == NO_GAP) {
+            mGapStart = mSize;
+        }
+        final int gapLength = mData.length - mSize;
+        if (index < mGapStart) {
+            final int count = mGapStart - index;
+            System.arraycopy(mData, index, mData, index + gapLength, count);
+            // Don't keep references to the items in the gap
+            Arrays.fill(mData, index, index + Math.min(count, gapLength), null);
+        } else if (index > mGapStart) {
+            final int count = index - mGapStart;
+            System.arraycopy(mData, mGapStart + gapLength, mData, mGapStart, count);
+            Arrays.fill(mData, Math.max(index, mGapStart + gapLength), index + gapLength, null);
+        }
+        mGapStart = index;
+    }
+
+    /**
+     * Replaces the full backing array with a larger one, whose gap starts at the given index.
+     */
+    private void growWithGapAt(int index) {
+        // A full array has no gap, so the items are contiguous
+        final int newLength = Math.max(mData.length + (mData.length >> 1),
+                mData.length + CAPACITY_GROWTH);
+        T[] newData = (T[]) Array.newInstance(mTClass, newLength);
+        final int after = mSize - index;
+        System.arraycopy(mData, 0, newData, 0, index);
+        System.arraycopy(mData, index, newData, newLength - after, after);
+        mData = newData;
+        mGapStart = index;
+    }
+
+    /**
+     * Moves the gap to the end of mData, so that the items are contiguous at its start.
+     */
+    private void closeGap() {
+        if (mGapStart != NO_GAP) {
+            moveGap(mSize);
+            mGapStart = NO_GAP;
+        }
+    }
+
     /**
      * The class that controls the behavior of the {@link SortedList}.
      * <p>
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded queue of messages which is written by a single thread at a time and read by a
+ * single thread at a time, without locking.
+ * <p>
+ * Messages are stored in linked chunks of arrays. The producer publishes each message by
+ * incrementing the sent count, and the consumer hands the chunks it is done with back to the
+ * producer, so that sending a message doesn't allocate once the queue is warm.
+ */
+class SpscMessageQueue {
+    static final int CHUNK_SIZE = 128;
+
+    // what, arg1, arg2, arg3, arg4 and arg5
+    private static final int INT_FIELDS = 6;
+
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final AtomicLong mReceivedCount = new AtomicLong();
+    private final AtomicReference<Chunk> mSpareChunk = new AtomicReference<>();
+
+    // Producer state
+    private Chunk mProducerChunk;
+    private int mProducerIndex;
+
+    // Consumer state
+    private Chunk mConsumerChunk;
+    private int mConsumerIndex;
+    private long mAvailableCount;
+
+    SpscMessageQueue() {
+        mProducerChunk = mConsumerChunk = new Chunk();
+    }
+
+    /**
+     * Returns true if all of the sent messages were received. Can be called from any thread.
+     */
+    boolean isEmpty() {
+        return mReceivedCount.get() == mSentCount.get();
+    }
+
+    /**
+     * Sends a message. Must only be called by the producer.
+     */
+    void send(int what, int arg1, int arg2, int arg3, int arg4, int arg5, Object data) {
+        if (mProducerIndex == CHUNK_SIZE) {
+            Chunk chunk = mSpareChunk.getAndSet(null);
+            if (chunk == null) {
+                chunk = new Chunk();
+            }
+            mProducerChunk.mNext = chunk;
+            mProducerChunk = chunk;
+            mProducerIndex = 0;
+        }
+        final int[] ints = mProducerChunk.mInts;
+        final int offset = mProducerIndex * INT_FIELDS;
+        ints[offset] = what;
+        ints[offset + 1] = arg1;
+        ints[offset + 2] = arg2;
+        ints[offset + 3] = arg3;
+        ints[offset + 4] = arg4;
+        ints[offset + 5] = arg5;
+        mProducerChunk.mData[mProducerIndex] = data;
+        mProducerIndex++;
+        // Only the producer writes the sent count, so this publishes the message above
+        mSentCount.lazySet(mSentCount.get() + 1);
+    }
+
+    void send(int what, int arg1, int arg2) {
+        send(what, arg1, arg2, 0, 0, 0, null);
+    }
+
+    void send(int what, int arg1, Object data) {
+        send(what, arg1, 0, 0, 0, 0, data);
+    }
+
+    /**
+     * Copies the oldest message into the given one and removes it from the queue. Must only be
+     * called by the consumer.
+     *
+     * @return False if there is no message.
+     */
+    boolean next(Message message) {
+        final long received = mReceivedCount.get();
+        if (received == mAvailableCount) {
+            mAvailableCount = mSentCount.get();
+            if (received == mAvailableCount) {
+                return false;
+            }
+        }
+        if (mConsumerIndex == CHUNK_SIZE) {
+            final Chunk done = mConsumerChunk;
+            mConsumerChunk = done.mNext;
+            mConsumerIndex = 0;
+            done.mNext = null;
+            mSpareChunk.set(done);
+        }
+        final int[] ints = mConsumerChunk.mInts;
+        final int offset = mConsumerIndex * INT_FIELDS;
+        message.what = ints[offset];
+        message.arg1 = ints[offset + 1];
+        message.arg2 = ints[offset + 2];
+        message.arg3 = ints[offset + 3];
+        message.arg4 = ints[offset + 4];
+        message.arg5 = ints[offset + 5];
+        message.data = mConsumerChunk.mData[mConsumerIndex];
+        mConsumerChunk.mData[mConsumerIndex] = null;
+        mConsumerIndex++;
+        mReceivedCount.lazySet(received + 1);
+        return true;
+    }
+
+    /**
+     * A message read from the queue, which the consumer reuses from one message to the next.
+     */
+    static class Message {
+        public int what;
+        public int arg1;
+        public int arg2;
+        public int arg3;
+        public int arg4;
+        public int arg5;
+        public Object data;
+    }
+
+    private static class Chunk {
+        final int[] mInts = new int[CHUNK_SIZE * INT_FIELDS];
+        final Object[] mData = new Object[CHUNK_SIZE];
+        volatile Chunk mNext;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.ParallelExecutorCompat;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link ThreadUtil} which passes messages through {@link SpscMessageQueue}s instead of
+ * synchronized queues, and handles all of the messages available at once.
+ * <p>
+ * Each proxy must only be called from one thread at a time, except that the background callback
+ * may also call the background proxy while it handles a message. The main thread handles all of
+ * the messages sent since it last ran in a single Handler callback, and the background side runs
+ * on any {@link Executor}. The background side only handles the most recent refresh and range
+ * update, and a range update drops the tile loads that the background callback requested before
+ * it.
+ */
+class SpscThreadUtil<T> implements ThreadUtil<T> {
+    private final Executor mBackgroundExecutor;
+
+    SpscThreadUtil() {
+        this(ParallelExecutorCompat.getParallelExecutor());
+    }
+
+    SpscThreadUtil(Executor backgroundExecutor) {
+        mBackgroundExecutor = backgroundExecutor;
+    }
+
+    @Override
+    public MainThreadCallback<T> getMainThreadProxy(final MainThreadCallback<T> callback) {
+        return new MainThreadCallback<T>() {
+            final SpscMessageQueue mQueue = new SpscMessageQueue();
+            final SpscMessageQueue.Message mMessage = new SpscMessageQueue.Message();
+            final private Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+            final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+            static final int UPDATE_ITEM_COUNT = 1;
+            static final int ADD_TILE = 2;
+            static final int REMOVE_TILE = 3;
+
+            @Override
+            public void updateItemCount(int generation, int itemCount) {
+                mQueue.send(UPDATE_ITEM_COUNT, generation, itemCount);
+                schedule();
+            }
+
+            @Override
+            public void addTile(int generation, TileList.Tile<T> tile) {
+                mQueue.send(ADD_TILE, generation, tile);
+                schedule();
+            }
+
+            @Override
+            public void removeTile(int generation, int position) {
+                mQueue.send(REMOVE_TILE, generation, position);
+                schedule();
+            }
+
+            private void schedule() {
+                if (mScheduled.compareAndSet(false, true)) {
+                    mMainThreadHandler.post(mMainThreadRunnable);
+                }
+            }
+
+            private Runnable mMainThreadRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    // Messages sent from now on post again, so none of them is left behind
+                    mScheduled.set(false);
+                    final SpscMessageQueue.Message msg = mMessage;
+                    while (mQueue.next(msg)) {
+                        switch (msg.what) {
+                            case UPDATE_ITEM_COUNT:
+                                callback.updateItemCount(msg.arg1, msg.arg2);
+                                break;
+                            case ADD_TILE:
+                                //noinspection unchecked
+                                callback.addTile(msg.arg1, (TileList.Tile<T>) msg.data);
+                                break;
+                            case REMOVE_TILE:
+                                callback.removeTile(msg.arg1, msg.arg2);
+                                break;
+                            default:
+                                Log.e("ThreadUtil", "Unsupported message, what=" + msg.what);
+                        }
+                        msg.data = null;
+                    }
+                }
+            };
+        };
+    }
+
+    @Override
+    public BackgroundCallback<T> getBackgroundProxy(final BackgroundCallback<T> callback) {
+        return new BackgroundCallback<T>() {
+            // Messages from other threads
+            final SpscMessageQueue mQueue = new SpscMessageQueue();
+            // Tile loads from other threads, and messages from the background callback itself
+            final SpscMessageQueue mLoadQueue = new SpscMessageQueue();
+            final SpscMessageQueue.Message mMessage = new SpscMessageQueue.Message();
+            final AtomicBoolean mBackgroundRunning = new AtomicBoolean(false);
+            volatile Thread mBackgroundThread;
+
+            static final int REFRESH = 1;
+            static final int UPDATE_RANGE = 2;
+            static final int LOAD_TILE = 3;
+            static final int RECYCLE_TILE = 4;
+
+            // The most recent refresh and range update that were received but not handled
+            boolean mRefreshPending;
+            int mRefreshGeneration;
+            boolean mUpdateRangePending;
+            final int[] mUpdateRangeArgs = new int[5];
+
+            @Override
+            public void refresh(int generation) {
+                sendMessage(REFRESH, generation, 0, 0, 0, 0, null);
+            }
+
+            @Override
+            public void updateRange(int rangeStart, int rangeEnd,
+                                    int extRangeStart, int extRangeEnd, int scrollHint) {
+                sendMessage(UPDATE_RANGE, rangeStart, rangeEnd, extRangeStart, extRangeEnd,
+                        scrollHint, null);
+            }
+
+            @Override
+            public void loadTile(int position, int scrollHint) {
+                sendMessage(LOAD_TILE, position, scrollHint, 0, 0, 0, null);
+            }
+
+            @Override
+            public void recycleTile(TileList.Tile<T> tile) {
+                sendMessage(RECYCLE_TILE, 0, 0, 0, 0, 0, tile);
+            }
+
+            private void sendMessage(int what, int arg1, int arg2, int arg3, int arg4, int arg5,
+                    Object data) {
+                if (Thread.currentThread() == mBackgroundThread) {
+                    // Handled after the messages which are already received
+                    mLoadQueue.send(what, arg1, arg2, arg3, arg4, arg5, data);
+                    return;
+                }
+                mQueue.send(what, arg1, arg2, arg3, arg4, arg5, data);
+                if (mBackgroundRunning.compareAndSet(false, true)) {
+                    mBackgroundExecutor.execute(mBackgroundRunnable);
+                }
+            }
+
+            /**
+             * Takes all of the messages from other threads. Tiles are recycled right away,
+             * while refreshes, range updates and tile loads are kept for later.
+             */
+            private void receiveMessages() {
+                final SpscMessageQueue.Message msg = mMessage;
+                while (mQueue.next(msg)) {
+                    switch (msg.what) {
+                        case REFRESH:
+                            mRefreshPending = true;
+                            mRefreshGeneration = msg.arg1;
+                            break;
+                        case UPDATE_RANGE:
+                            mUpdateRangePending = true;
+                            mUpdateRangeArgs[0] = msg.arg1;
+                            mUpdateRangeArgs[1] = msg.arg2;
+                            mUpdateRangeArgs[2] = msg.arg3;
+                            mUpdateRangeArgs[3] = msg.arg4;
+                            mUpdateRangeArgs[4] = msg.arg5;
+                            break;
+                        case LOAD_TILE:
+                            mLoadQueue.send(LOAD_TILE, msg.arg1, msg.arg2);
+                            break;
+                        case RECYCLE_TILE:
+                            //noinspection unchecked
+                            callback.recycleTile((TileList.Tile<T>) msg.data);
+                            break;
+                        default:
+                            Log.e("ThreadUtil", "Unsupported message, what=" + msg.what);
+                    }
+                    msg.data = null;
+                }
+            }
+
+            /**
+             * Handles one message, and returns false if there was none.
+             */
+            private boolean handleNextMessage() {
+                if (mRefreshPending) {
+                    mRefreshPending = false;
+                    callback.refresh(mRefreshGeneration);
+                    return true;
+                }
+                final SpscMessageQueue.Message msg = mMessage;
+                if (mUpdateRangePending) {
+                    mUpdateRangePending = false;
+                    // The range update requests the tiles that are still needed again
+                    while (mLoadQueue.next(msg)) {
+                        if (msg.what != LOAD_TILE) {
+                            handleLocalMessage(msg);
+                        }
+                        msg.data = null;
+                    }
+                    final int[] args = mUpdateRangeArgs;
+                    callback.updateRange(args[0], args[1], args[2], args[3], args[4]);
+                    return true;
+                }
+                if (mLoadQueue.next(msg)) {
+                    handleLocalMessage(msg);
+                    msg.data = null;
+                    return true;
+                }
+                return false;
+            }
+
+            private void handleLocalMessage(SpscMessageQueue.Message msg) {
+                switch (msg.what) {
+                    case REFRESH:
+                        callback.refresh(msg.arg1);
+                        break;
+                    case UPDATE_RANGE:
+                        callback.updateRange(msg.arg1, msg.arg2, msg.arg3, msg.arg4, msg.arg5);
+                        break;
+                    case LOAD_TILE:
+                        callback.loadTile(msg.arg1, msg.arg2);
+                        break;
+                    case RECYCLE_TILE:
+                        //noinspection unchecked
+                        callback.recycleTile((TileList.Tile<T>) msg.data);
+                        break;
+                    default:
+                        Log.e("ThreadUtil", "Unsupported message, what=" + msg.what);
+                }
+            }
+
+            private Runnable mBackgroundRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    mBackgroundThread = Thread.currentThread();
+                    while (true) {
+                        receiveMessages();
+                        if (handleNextMessage()) {
+                            continue;
+                        }
+                        mBackgroundThread = null;
+                        mBackgroundRunning.set(false);
+                        // A message may have been sent before the flag was cleared
+                        if (mQueue.isEmpty() || !mBackgroundRunning.compareAndSet(false, true)) {
+                            return;
+                        }
+                        mBackgroundThread = Thread.currentThread();
+                    }
+                }
+            };
+        };
+    }
+}
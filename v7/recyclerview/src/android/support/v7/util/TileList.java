@@ -22,6 +22,9 @@ import java.lang.reflect.Array;
 
 /**
  * A sparse collection of tiles sorted for efficient access.
+ * <p>
+ * Tiles usually start at multiples of the tile size, but they may start at any position and
+ * hold fewer items, as long as they don't overlap.
  */
 class TileList<T> {
 
@@ -39,15 +42,39 @@ class TileList<T> {
     public T getItemAt(int pos) {
         if (mLastAccessedTile == null || !mLastAccessedTile.containsPosition(pos)) {
             final int startPosition = pos - (pos % mTileSize);
-            final int index = mTiles.indexOfKey(startPosition);
-            if (index < 0) {
-                return null;
+            int index = mTiles.indexOfKey(startPosition);
+            if (index < 0 || !mTiles.valueAt(index).containsPosition(pos)) {
+                index = findTileIndex(pos);
+                if (index < 0) {
+                    return null;
+                }
             }
             mLastAccessedTile = mTiles.valueAt(index);
         }
         return mLastAccessedTile.getByPosition(pos);
     }
 
+    /**
+     * Returns the index of the tile which contains the given position, or -1.
+     */
+    private int findTileIndex(int pos) {
+        // Find the last tile which starts at or before the position
+        int low = 0;
+        int high = mTiles.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (mTiles.keyAt(middle) <= pos) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (high < 0 || !mTiles.valueAt(high).containsPosition(pos)) {
+            return -1;
+        }
+        return high;
+    }
+
     public int size() {
         return mTiles.size();
     }
@@ -57,6 +57,12 @@ class AdapterHelper implements OpReorderer.Callback {
 
     final ArrayList<UpdateOp> mPostponedList = new ArrayList<UpdateOp>();
 
+    // Position lookups through the pending and postponed ops, used once a layout asks for more
+    // positions than there are ops
+    private final OpPositionMap mPendingPositionMap = new OpPositionMap();
+
+    private final OpPositionMap mPostponedPositionMap = new OpPositionMap();
+
     final Callback mCallback;
 
     Runnable mOnItemProcessedCallback;
@@ -79,6 +85,7 @@ class AdapterHelper implements OpReorderer.Callback {
 
     AdapterHelper addUpdateOp(UpdateOp... ops) {
         Collections.addAll(mPendingUpdates, ops);
+        mPendingPositionMap.invalidate();
         return this;
     }
 
@@ -89,6 +96,7 @@ class AdapterHelper implements OpReorderer.Callback {
     }
 
     void preProcess() {
+        mPendingPositionMap.invalidate();
         mOpReorderer.reorderOps(mPendingUpdates);
         final int count = mPendingUpdates.size();
         for (int i = 0; i < count; i++) {
@@ -112,6 +120,7 @@ class AdapterHelper implements OpReorderer.Callback {
             }
         }
         mPendingUpdates.clear();
+        mPendingPositionMap.invalidate();
     }
 
     void consumePostponedUpdates() {
@@ -326,6 +335,7 @@ class AdapterHelper implements OpReorderer.Callback {
     }
 
     private int updatePositionWithPostponed(int pos, int cmd) {
+        mPostponedPositionMap.invalidate();
         final int count = mPostponedList.size();
         for (int i = count - 1; i >= 0; i--) {
             UpdateOp postponed = mPostponedList.get(i);
@@ -436,6 +446,7 @@ class AdapterHelper implements OpReorderer.Callback {
             Log.d(TAG, "postponing " + op);
         }
         mPostponedList.add(op);
+        mPostponedPositionMap.invalidate();
         switch (op.cmd) {
             case UpdateOp.ADD:
                 mCallback.offsetPositionsForAdd(op.positionStart, op.itemCount);
@@ -464,6 +475,9 @@ class AdapterHelper implements OpReorderer.Callback {
     }
 
     int findPositionOffset(int position) {
+        if (mPostponedPositionMap.prepare(mPostponedList)) {
+            return mPostponedPositionMap.map(position);
+        }
         return findPositionOffset(position, 0);
     }
 
@@ -503,6 +517,10 @@ class AdapterHelper implements OpReorderer.Callback {
         if (itemCount < 1) {
             return false;
         }
+        mPendingPositionMap.invalidate();
+        if (mergeWithLastPendingUpdate(UpdateOp.UPDATE, positionStart, itemCount, payload)) {
+            return false;
+        }
         mPendingUpdates.add(obtainUpdateOp(UpdateOp.UPDATE, positionStart, itemCount, payload));
         mExistingUpdateTypes |= UpdateOp.UPDATE;
         return mPendingUpdates.size() == 1;
@@ -515,6 +533,10 @@ class AdapterHelper implements OpReorderer.Callback {
         if (itemCount < 1) {
             return false;
         }
+        mPendingPositionMap.invalidate();
+        if (mergeWithLastPendingUpdate(UpdateOp.ADD, positionStart, itemCount, null)) {
+            return false;
+        }
         mPendingUpdates.add(obtainUpdateOp(UpdateOp.ADD, positionStart, itemCount, null));
         mExistingUpdateTypes |= UpdateOp.ADD;
         return mPendingUpdates.size() == 1;
@@ -527,6 +549,10 @@ class AdapterHelper implements OpReorderer.Callback {
         if (itemCount < 1) {
             return false;
         }
+        mPendingPositionMap.invalidate();
+        if (mergeWithLastPendingUpdate(UpdateOp.REMOVE, positionStart, itemCount, null)) {
+            return false;
+        }
         mPendingUpdates.add(obtainUpdateOp(UpdateOp.REMOVE, positionStart, itemCount, null));
         mExistingUpdateTypes |= UpdateOp.REMOVE;
         return mPendingUpdates.size() == 1;
@@ -542,11 +568,64 @@ class AdapterHelper implements OpReorderer.Callback {
         if (itemCount != 1) {
             throw new IllegalArgumentException("Moving more than 1 item is not supported yet");
         }
+        mPendingPositionMap.invalidate();
         mPendingUpdates.add(obtainUpdateOp(UpdateOp.MOVE, from, to, null));
         mExistingUpdateTypes |= UpdateOp.MOVE;
         return mPendingUpdates.size() == 1;
     }
 
+    /**
+     * Merges a change into the last pending op if both are the same kind of change to one range
+     * of items, so that bursts of notifications such as a list being loaded page by page, or
+     * items being removed one by one, are processed as a single op.
+     *
+     * @return True if the change was merged.
+     */
+    private boolean mergeWithLastPendingUpdate(int cmd, int positionStart, int itemCount,
+            Object payload) {
+        final int size = mPendingUpdates.size();
+        if (size == 0) {
+            return false;
+        }
+        final UpdateOp last = mPendingUpdates.get(size - 1);
+        if (last.cmd != cmd) {
+            return false;
+        }
+        final int lastEnd = last.positionStart + last.itemCount;
+        switch (cmd) {
+            case UpdateOp.ADD:
+                // inserted inside or at either end of the items inserted last
+                if (positionStart < last.positionStart || positionStart > lastEnd) {
+                    return false;
+                }
+                last.itemCount += itemCount;
+                return true;
+            case UpdateOp.REMOVE:
+                // the removed items surround the position of the items removed last
+                if (last.positionStart < positionStart
+                        || last.positionStart > positionStart + itemCount) {
+                    return false;
+                }
+                last.positionStart = positionStart;
+                last.itemCount += itemCount;
+                return true;
+            case UpdateOp.UPDATE:
+                final int end = positionStart + itemCount;
+                if (last.payload != payload || positionStart > lastEnd
+                        || end < last.positionStart) {
+                    return false;
+                }
+                if (payload != null && positionStart < lastEnd && end > last.positionStart) {
+                    // overlapping items would only get the payload once
+                    return false;
+                }
+                last.positionStart = Math.min(last.positionStart, positionStart);
+                last.itemCount = Math.max(lastEnd, end) - last.positionStart;
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Skips pre-processing and applies all updates in one pass.
      */
@@ -584,6 +663,9 @@ class AdapterHelper implements OpReorderer.Callback {
     }
 
     public int applyPendingUpdatesToPosition(int position) {
+        if (mPendingPositionMap.prepare(mPendingUpdates)) {
+            return mPendingPositionMap.map(position);
+        }
         final int size = mPendingUpdates.size();
         for (int i = 0; i < size; i ++) {
             UpdateOp op = mPendingUpdates.get(i);
@@ -749,6 +831,8 @@ class AdapterHelper implements OpReorderer.Callback {
             recycleUpdateOp(ops.get(i));
         }
         ops.clear();
+        mPendingPositionMap.invalidate();
+        mPostponedPositionMap.invalidate();
     }
 
     /**
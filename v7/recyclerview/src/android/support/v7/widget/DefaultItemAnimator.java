@@ -50,6 +50,11 @@ public class DefaultItemAnimator extends SimpleItemAnimator {
     ArrayList<ViewHolder> mRemoveAnimations = new ArrayList<>();
     ArrayList<ViewHolder> mChangeAnimations = new ArrayList<>();
 
+    public DefaultItemAnimator() {
+        // Subclasses might keep the infos passed to their animate methods
+        setHolderInfoRecyclingEnabled(getClass() == DefaultItemAnimator.class);
+    }
+
     private static class MoveInfo {
         public ViewHolder holder;
         public int fromX, fromY, toX, toY;
@@ -15,6 +15,7 @@
  */
 package android.support.v7.widget;
 
+import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.support.v4.os.TraceCompat;
 import android.view.View;
@@ -33,6 +34,12 @@ final class GapWorker implements Runnable {
     long mPostTimeNs;
     long mFrameIntervalNs;
 
+    /**
+     * Maximum number of frames a budgeted prefetch task is carried to, before it is considered
+     * stale and dropped.
+     */
+    static final int MAX_CARRIED_FRAMES = 3;
+
     static class Task {
         public boolean immediate;
         public int viewVelocity;
@@ -40,12 +47,43 @@ final class GapWorker implements Runnable {
         public RecyclerView view;
         public int position;
 
+        /**
+         * Budgeted scheduling only: the number of tasks of the same view which go before this
+         * one, used to take tasks from each view in turn.
+         */
+        public int rank;
+
+        /**
+         * Budgeted scheduling only: the number of frames this task was carried to because it
+         * didn't fit in the budget of the previous ones.
+         */
+        public int age;
+
+        /**
+         * Budgeted scheduling only: the expected time to create and bind the item.
+         */
+        public long costNs;
+
         public void clear() {
             immediate = false;
             viewVelocity = 0;
             distanceToItem = 0;
             view = null;
             position = 0;
+            rank = 0;
+            age = 0;
+            costNs = 0;
+        }
+
+        void set(Task other) {
+            immediate = other.immediate;
+            viewVelocity = other.viewVelocity;
+            distanceToItem = other.distanceToItem;
+            view = other.view;
+            position = other.position;
+            rank = other.rank;
+            age = other.age;
+            costNs = other.costNs;
         }
     }
 
@@ -56,6 +94,39 @@ final class GapWorker implements Runnable {
      */
     private ArrayList<Task> mTasks = new ArrayList<>();
 
+    /**
+     * Budgeted scheduling only: tasks which didn't fit in the budget of the last frame, and are
+     * added to the task list of the next one. Task objects are recycled through mSpareTasks.
+     */
+    ArrayList<Task> mCarriedTasks = new ArrayList<>();
+    private ArrayList<Task> mSpareTasks = new ArrayList<>();
+
+    /**
+     * Budgeted scheduling only: nested RecyclerViews whose prefetch is deferred until the
+     * tasks of the registered RecyclerViews are done.
+     */
+    private ArrayList<RecyclerView> mDeferredNestedViews = new ArrayList<>();
+
+    /**
+     * Runs carried tasks in a later frame if no traversal posts the worker before.
+     */
+    private final Runnable mCarriedTasksRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mCarriedTasksPosted = false;
+            if (mPostTimeNs == 0 && !mCarriedTasks.isEmpty()) {
+                GapWorker.this.run();
+            }
+        }
+    };
+    private boolean mCarriedTasksPosted;
+
+    /**
+     * Posts {@link #mCarriedTasksRunnable}. It belongs to the worker rather than to one of its
+     * RecyclerViews, so the runnable isn't dropped with the view which happened to post it.
+     */
+    private Handler mHandler;
+
     /**
      * Prefetch information associated with a specific RecyclerView.
      */
@@ -67,6 +138,11 @@ final class GapWorker implements Runnable {
 
         int mCount;
 
+        /**
+         * Budgeted scheduling only: the number of tasks of this view ranked so far.
+         */
+        int mRankedTaskCount;
+
         void setPrefetchVector(int dx, int dy) {
             mPrefetchDx = dx;
             mPrefetchDy = dy;
@@ -160,6 +236,24 @@ final class GapWorker implements Runnable {
         if (RecyclerView.DEBUG && !removeSuccess) {
             throw new IllegalStateException("RecyclerView removal failed!");
         }
+        for (int i = mCarriedTasks.size() - 1; i >= 0; i--) {
+            if (mCarriedTasks.get(i).view == recyclerView) {
+                releaseTask(mCarriedTasks.remove(i));
+            }
+        }
+        if (mCarriedTasks.isEmpty() && mCarriedTasksPosted) {
+            mHandler.removeCallbacks(mCarriedTasksRunnable);
+            mCarriedTasksPosted = false;
+        }
+    }
+
+    private Task obtainTask() {
+        return mSpareTasks.isEmpty() ? new Task() : mSpareTasks.remove(mSpareTasks.size() - 1);
+    }
+
+    private void releaseTask(Task task) {
+        task.clear();
+        mSpareTasks.add(task);
     }
 
     /**
@@ -204,6 +298,52 @@ final class GapWorker implements Runnable {
         }
     };
 
+    /**
+     * Task order for budgeted scheduling. Immediate tasks still go first, then views take turns
+     * so that a view with many prefetch positions can't starve the others, and the tasks carried
+     * for the longest go first within each turn.
+     */
+    static Comparator<Task> sBudgetedTaskComparator = new Comparator<Task>() {
+        @Override
+        public int compare(Task lhs, Task rhs) {
+            // first, prioritize non-cleared tasks
+            if ((lhs.view == null) != (rhs.view == null)) {
+                return lhs.view == null ? 1 : -1;
+            }
+
+            // then prioritize immediate
+            if (lhs.immediate != rhs.immediate) {
+                return lhs.immediate ? -1 : 1;
+            }
+
+            // then prioritize _lowest_ rank within the view, to take turns between views
+            int deltaRank = lhs.rank - rhs.rank;
+            if (deltaRank != 0) return deltaRank;
+
+            // then prioritize _oldest_ carried task
+            int deltaAge = rhs.age - lhs.age;
+            if (deltaAge != 0) return deltaAge;
+
+            return sTaskComparator.compare(lhs, rhs);
+        }
+    };
+
+    /**
+     * Returns true if budgeted scheduling is enabled on any visible RecyclerView. All of the
+     * RecyclerViews of this worker are then scheduled together.
+     */
+    boolean isBudgeted() {
+        final int viewCount = mRecyclerViews.size();
+        for (int i = 0; i < viewCount; i++) {
+            RecyclerView view = mRecyclerViews.get(i);
+            if (view.mBudgetedPrefetchEnabled
+                    && view.getWindowVisibility() == View.VISIBLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void buildTaskList() {
         // Update PrefetchRegistry in each view
         final int viewCount = mRecyclerViews.size();
@@ -248,6 +388,118 @@ final class GapWorker implements Runnable {
         Collections.sort(mTasks, sTaskComparator);
     }
 
+    private void buildBudgetedTaskList() {
+        buildTaskList();
+
+        int taskCount = 0;
+        while (taskCount < mTasks.size() && mTasks.get(taskCount).view != null) {
+            taskCount++;
+        }
+
+        // Tasks of a view are sorted by priority, so each task's rank is the number of tasks of
+        // the same view before it
+        for (int i = 0; i < mRecyclerViews.size(); i++) {
+            mRecyclerViews.get(i).mPrefetchRegistry.mRankedTaskCount = 0;
+        }
+        for (int i = 0; i < taskCount; i++) {
+            final Task task = mTasks.get(i);
+            task.rank = task.view.mPrefetchRegistry.mRankedTaskCount++;
+        }
+
+        // Add the tasks carried from the last frame, in front of the new ones of their view. A
+        // carried task which the view asked for again is merged into the new task, so that the
+        // position is prefetched, or counted as missed, only once per frame.
+        final int builtTaskCount = taskCount;
+        for (int i = 0; i < mCarriedTasks.size(); i++) {
+            final Task carried = mCarriedTasks.get(i);
+            if (isCarriedTaskValid(carried)) {
+                final Task built = findTask(carried.view, carried.position, builtTaskCount);
+                if (built != null) {
+                    built.age = Math.max(built.age, carried.age);
+                    built.rank = 0;
+                } else {
+                    final Task task;
+                    if (taskCount >= mTasks.size()) {
+                        task = new Task();
+                        mTasks.add(task);
+                    } else {
+                        task = mTasks.get(taskCount);
+                    }
+                    task.set(carried);
+                    task.rank = 0;
+                    taskCount++;
+                }
+            }
+            releaseTask(carried);
+        }
+        mCarriedTasks.clear();
+
+        for (int i = 0; i < taskCount; i++) {
+            final Task task = mTasks.get(i);
+            task.costNs = estimateCostNs(task.view, task.position);
+        }
+
+        Collections.sort(mTasks, sBudgetedTaskComparator);
+    }
+
+    private Task findTask(RecyclerView view, int position, int taskCount) {
+        for (int i = 0; i < taskCount; i++) {
+            final Task task = mTasks.get(i);
+            if (task.view == view && task.position == position) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCarriedTaskValid(Task task) {
+        final RecyclerView view = task.view;
+        return task.age <= MAX_CARRIED_FRAMES
+                && view.getWindowVisibility() == View.VISIBLE
+                && view.mAdapter != null
+                && !view.hasPendingAdapterUpdates()
+                && task.position < view.mState.getItemCount();
+    }
+
+    /**
+     * Returns the expected time to prefetch the item at the given position, from the create and
+     * bind running averages of its view type.
+     */
+    static long estimateCostNs(RecyclerView view, int position) {
+        if (view.mAdapter == null || position >= view.mAdapter.getItemCount()) {
+            return 0;
+        }
+        final int viewType = view.mAdapter.getItemViewType(position);
+        final RecyclerView.RecycledViewPool pool = view.getRecycledViewPool();
+        long costNs = pool.getScrapDataForType(viewType).mBindRunningAverageNs;
+        if (pool.getRecycledViewCount(viewType) == 0) {
+            costNs += pool.getCreateRunningAverageNs(viewType);
+        }
+        return costNs;
+    }
+
+    private void carryTask(Task task) {
+        if (task.age >= MAX_CARRIED_FRAMES) {
+            return;
+        }
+        final Task carried = obtainTask();
+        carried.set(task);
+        carried.age++;
+        mCarriedTasks.add(carried);
+    }
+
+    static boolean isPrefetchPositionCached(RecyclerView view, int position) {
+        final ArrayList<RecyclerView.ViewHolder> cachedViews = view.mRecycler.mCachedViews;
+        final int cachedCount = cachedViews.size();
+        for (int i = 0; i < cachedCount; i++) {
+            RecyclerView.ViewHolder holder = cachedViews.get(i);
+            if (holder.mPosition == position && !holder.isInvalid()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     static boolean isPrefetchPositionAttached(RecyclerView view, int position) {
         final int childCount = view.mChildHelper.getUnfilteredChildCount();
         for (int i = 0; i < childCount; i++) {
@@ -268,16 +520,30 @@ final class GapWorker implements Runnable {
             return null;
         }
 
+        // A cached item was already prefetched or scrolled off, so it's not prefetched again
+        final boolean wasCached = isPrefetchPositionCached(view, position);
+        if (!wasCached && deadlineNs != RecyclerView.FOREVER_NS
+                && view.createViewHolderOffMainThread(position)) {
+            // The ViewHolder is handed to the pool once created, and bound by a later pass
+            return null;
+        }
         RecyclerView.Recycler recycler = view.mRecycler;
         RecyclerView.ViewHolder holder = recycler.tryGetViewHolderForPositionByDeadline(
                 position, false, deadlineNs);
 
-        if (holder != null) {
+        if (holder == null) {
+            view.mPrefetchDeadlineMissCount++;
+        } else {
             if (holder.isBound()) {
+                if (!wasCached) {
+                    holder.addFlags(RecyclerView.ViewHolder.FLAG_PREFETCHED);
+                    view.mPrefetchedCount++;
+                }
                 // Only give the view a chance to go into the cache if binding succeeded
                 // Note that we must use public method, since item may need cleanup
                 recycler.recycleView(holder.itemView);
             } else {
+                view.mPrefetchDeadlineMissCount++;
                 // Didn't bind, so we can't cache the view, but it will stay in the pool until
                 // next prefetch/traversal. If a View fails to bind, it means we didn't have
                 // enough time prior to the deadline (and won't for other instances of this
@@ -341,11 +607,77 @@ final class GapWorker implements Runnable {
         }
     }
 
+    /**
+     * Flushes the tasks in budgeted order. A task which isn't expected to finish before the
+     * deadline is carried to the next frame, and the tasks after it still get a chance if they
+     * are cheaper. Nested RecyclerViews are prefetched once the tasks are done.
+     */
+    private void flushBudgetedTasksWithDeadline(long deadlineNs) {
+        for (int i = 0; i < mTasks.size(); i++) {
+            final Task task = mTasks.get(i);
+            if (task.view == null) {
+                break; // done with populated tasks
+            }
+            if (!task.immediate
+                    && task.view.getNanoTime() + task.costNs > deadlineNs) {
+                task.view.mPrefetchDeadlineMissCount++;
+                carryTask(task);
+            } else {
+                RecyclerView.ViewHolder holder = prefetchPositionWithDeadline(task.view,
+                        task.position, task.immediate ? RecyclerView.FOREVER_NS : deadlineNs);
+                if (holder == null && !task.immediate
+                        && !isPrefetchPositionAttached(task.view, task.position)) {
+                    // Aborted, or waiting for a ViewHolder created off the main thread
+                    carryTask(task);
+                }
+                if (holder != null && holder.mNestedRecyclerView != null) {
+                    RecyclerView innerView = holder.mNestedRecyclerView.get();
+                    if (innerView != null && !mDeferredNestedViews.contains(innerView)) {
+                        mDeferredNestedViews.add(innerView);
+                    }
+                }
+            }
+            task.clear();
+        }
+
+        for (int i = 0; i < mDeferredNestedViews.size(); i++) {
+            final RecyclerView innerView = mDeferredNestedViews.get(i);
+            if (innerView.getNanoTime() < deadlineNs) {
+                prefetchInnerRecyclerViewWithDeadline(innerView, deadlineNs);
+            }
+        }
+        mDeferredNestedViews.clear();
+    }
+
     void prefetch(long deadlineNs) {
         buildTaskList();
         flushTasksWithDeadline(deadlineNs);
     }
 
+    void prefetchBudgeted(long deadlineNs) {
+        buildBudgetedTaskList();
+        flushBudgetedTasksWithDeadline(deadlineNs);
+    }
+
+    private void dispatchPrefetchMetrics() {
+        for (int i = 0; i < mRecyclerViews.size(); i++) {
+            mRecyclerViews.get(i).dispatchPrefetchMetrics();
+        }
+    }
+
+    private void postCarriedTasks() {
+        if (mCarriedTasks.isEmpty() || mCarriedTasksPosted) {
+            return;
+        }
+        // Run in the gap of the next frame, unless a traversal posts the worker before
+        if (mHandler == null) {
+            mHandler = new Handler();
+        }
+        mCarriedTasksPosted = true;
+        mHandler.postDelayed(mCarriedTasksRunnable,
+                TimeUnit.NANOSECONDS.toMillis(mFrameIntervalNs));
+    }
+
     @Override
     public void run() {
         try {
@@ -374,9 +706,20 @@ final class GapWorker implements Runnable {
 
             long nextFrameNs = TimeUnit.MILLISECONDS.toNanos(latestFrameVsyncMs) + mFrameIntervalNs;
 
-            prefetch(nextFrameNs);
-
-            // TODO: consider rescheduling self, if there's more work to do
+            if (isBudgeted()) {
+                // When no frame was drawn since the last vsync we know of, such as when running
+                // carried tasks, the next frame is the next vsync after now
+                final long nowNs = mRecyclerViews.get(0).getNanoTime();
+                if (nextFrameNs < nowNs) {
+                    nextFrameNs += (nowNs - nextFrameNs + mFrameIntervalNs - 1)
+                            / mFrameIntervalNs * mFrameIntervalNs;
+                }
+                prefetchBudgeted(nextFrameNs);
+                postCarriedTasks();
+            } else {
+                prefetch(nextFrameNs);
+            }
+            dispatchPrefetchMetrics();
         } finally {
             mPostTimeNs = 0;
             TraceCompat.endSection();
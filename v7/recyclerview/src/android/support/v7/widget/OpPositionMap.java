@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+import android.support.v7.widget.AdapterHelper.UpdateOp;
+
+import java.util.List;
+
+/**
+ * Maps positions through a list of {@link UpdateOp}s in O(log n) time, where n is the number of
+ * ops, instead of walking the list for every position.
+ * <p>
+ * The ops are composed into sorted segments of positions which are either offset by the same
+ * amount or removed. The map is only built once it has been asked for as many positions as there
+ * are ops, so a list which is only looked up a few times before it changes is still walked.
+ */
+class OpPositionMap {
+
+    static final int REMOVED = Integer.MIN_VALUE;
+
+    // Segment i covers the positions in [mStarts[i], mStarts[i + 1]), the last one is unbounded.
+    private int[] mStarts = new int[8];
+
+    private int[] mOffsets = new int[8];
+
+    private int mCount;
+
+    // Scratch segments which the next op is applied into
+    private int[] mNextStarts = new int[8];
+
+    private int[] mNextOffsets = new int[8];
+
+    private int mNextCount;
+
+    private final long[] mBreakpoints = new long[4];
+
+    private boolean mValid;
+
+    private int mLookupCount;
+
+    /**
+     * Drops the map, must be called whenever the ops it was built from change.
+     */
+    void invalidate() {
+        mValid = false;
+        mLookupCount = 0;
+    }
+
+    /**
+     * Returns true if {@link #map(int)} can be used for the given ops, building the map if it is
+     * worth it. Returns false if the caller should walk the ops instead.
+     */
+    boolean prepare(List<UpdateOp> ops) {
+        if (mValid) {
+            return true;
+        }
+        if (++mLookupCount < ops.size()) {
+            return false;
+        }
+        build(ops);
+        mValid = true;
+        return true;
+    }
+
+    /**
+     * Returns the position after the ops, or {@link RecyclerView#NO_POSITION} if it was removed.
+     */
+    int map(int position) {
+        if (position < 0) {
+            return position;
+        }
+        int lo = 0;
+        int hi = mCount - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (mStarts[mid] <= position) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        final int offset = mOffsets[lo];
+        return offset == REMOVED ? RecyclerView.NO_POSITION : position + offset;
+    }
+
+    void build(List<UpdateOp> ops) {
+        mStarts[0] = 0;
+        mOffsets[0] = 0;
+        mCount = 1;
+        final int size = ops.size();
+        for (int i = 0; i < size; i++) {
+            final UpdateOp op = ops.get(i);
+            if (op.cmd != UpdateOp.UPDATE) {
+                apply(op);
+            }
+        }
+    }
+
+    /**
+     * Applies the op to the outputs of the segments, splitting them where the op changes their
+     * offset by different amounts.
+     */
+    private void apply(UpdateOp op) {
+        final int breakpointCount = findBreakpoints(op);
+        // Every breakpoint splits at most one segment since the outputs don't overlap
+        ensureNextCapacity(mCount + breakpointCount + 1);
+        mNextCount = 0;
+        for (int i = 0; i < mCount; i++) {
+            final int start = mStarts[i];
+            final int offset = mOffsets[i];
+            if (offset == REMOVED) {
+                append(start, REMOVED);
+                continue;
+            }
+            long pieceStart = (long) start + offset;
+            final long outputEnd = i + 1 < mCount
+                    ? (long) mStarts[i + 1] + offset : Long.MAX_VALUE;
+            for (int b = 0; b < breakpointCount; b++) {
+                final long breakpoint = mBreakpoints[b];
+                if (breakpoint > pieceStart && breakpoint < outputEnd) {
+                    appendPiece(op, pieceStart, offset);
+                    pieceStart = breakpoint;
+                }
+            }
+            appendPiece(op, pieceStart, offset);
+        }
+        int[] tmp = mStarts;
+        mStarts = mNextStarts;
+        mNextStarts = tmp;
+        tmp = mOffsets;
+        mOffsets = mNextOffsets;
+        mNextOffsets = tmp;
+        mCount = mNextCount;
+    }
+
+    private int findBreakpoints(UpdateOp op) {
+        final long[] breakpoints = mBreakpoints;
+        switch (op.cmd) {
+            case UpdateOp.ADD:
+                breakpoints[0] = op.positionStart;
+                return 1;
+            case UpdateOp.REMOVE:
+                breakpoints[0] = op.positionStart;
+                breakpoints[1] = (long) op.positionStart + op.itemCount;
+                return 2;
+            case UpdateOp.MOVE:
+                final long low = Math.min(op.positionStart, op.itemCount);
+                final long high = Math.max(op.positionStart, op.itemCount);
+                breakpoints[0] = low;
+                breakpoints[1] = low + 1;
+                breakpoints[2] = high;
+                breakpoints[3] = high + 1;
+                return 4;
+        }
+        return 0;
+    }
+
+    private void appendPiece(UpdateOp op, long outputStart, int offset) {
+        final int start = (int) (outputStart - offset);
+        final long mapped = mapThroughOp(op, outputStart);
+        append(start, mapped < 0 ? REMOVED : (int) (offset + mapped - outputStart));
+    }
+
+    private void append(int start, int offset) {
+        if (mNextCount > 0 && mNextOffsets[mNextCount - 1] == offset) {
+            return; // same offset as the previous segment
+        }
+        mNextStarts[mNextCount] = start;
+        mNextOffsets[mNextCount] = offset;
+        mNextCount++;
+    }
+
+    private void ensureNextCapacity(int capacity) {
+        if (mNextStarts.length < capacity) {
+            final int length = Math.max(capacity, mNextStarts.length * 2);
+            mNextStarts = new int[length];
+            mNextOffsets = new int[length];
+        }
+    }
+
+    /**
+     * Same as the walk in {@link AdapterHelper#findPositionOffset(int, int)}, for a single op.
+     */
+    private static long mapThroughOp(UpdateOp op, long position) {
+        switch (op.cmd) {
+            case UpdateOp.MOVE:
+                if (op.positionStart == position) {
+                    return op.itemCount;
+                }
+                if (op.positionStart < position) {
+                    position--;
+                }
+                if (op.itemCount <= position) {
+                    position++;
+                }
+                return position;
+            case UpdateOp.REMOVE:
+                if (op.positionStart <= position) {
+                    if (position < (long) op.positionStart + op.itemCount) {
+                        return -1;
+                    }
+                    position -= op.itemCount;
+                }
+                return position;
+            case UpdateOp.ADD:
+                if (op.positionStart <= position) {
+                    position += op.itemCount;
+                }
+                return position;
+        }
+        return position;
+    }
+}
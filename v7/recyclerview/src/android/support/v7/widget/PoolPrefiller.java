@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills the {@link RecyclerView.RecycledViewPool} of a RecyclerView with new ViewHolders while
+ * the main thread is idle.
+ * <p>
+ * Each idle callback creates ViewHolders until its time budget is spent, starting with the view
+ * type whose missing ViewHolders are the most expensive to create, and stays registered until
+ * the pool holds the requested number of ViewHolders of every type. ViewHolders of types the
+ * adapter allows are instead created on the RecyclerView's creation executor, and handed to the
+ * pool on the main thread.
+ * <p>
+ * {@link GapWorker} also uses the creation executor through
+ * {@link #createOffMainThread(int)}, so that prefetch only has to bind.
+ */
+final class PoolPrefiller implements MessageQueue.IdleHandler {
+    private static final String TAG = "PoolPrefiller";
+
+    private static final String TRACE_PREFILL_TAG = "RV Prefill";
+
+    /**
+     * Time an idle callback may spend creating ViewHolders, so that a message or frame
+     * arriving meanwhile is not delayed noticeably.
+     */
+    static final long IDLE_BUDGET_NS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    private final RecyclerView mRecyclerView;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Number of ViewHolders the pool should hold, per view type.
+     */
+    final SparseIntArray mTargets = new SparseIntArray();
+
+    /**
+     * Number of ViewHolders being created on the creation executor, per view type.
+     */
+    final SparseIntArray mPending = new SparseIntArray();
+
+    /**
+     * View types which failed to be created on the creation executor, and are only created on
+     * the main thread from then on.
+     */
+    final SparseBooleanArray mFailedOffMainThread = new SparseBooleanArray();
+
+    private boolean mScheduled;
+
+    PoolPrefiller(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+    }
+
+    void prefill(int viewType, int count) {
+        if (count > mTargets.get(viewType)) {
+            mTargets.put(viewType, count);
+        }
+        schedule();
+    }
+
+    /**
+     * Drops the remaining work. ViewHolders being created on the creation executor are still
+     * handed to the pool.
+     */
+    void cancel() {
+        mTargets.clear();
+        if (mScheduled) {
+            Looper.myQueue().removeIdleHandler(this);
+            mScheduled = false;
+        }
+    }
+
+    /**
+     * Starts creating a ViewHolder of the given type on the creation executor, unless one is
+     * already being created.
+     *
+     * @return True if a ViewHolder of this type is being created off the main thread, false if
+     * the adapter doesn't allow it.
+     */
+    boolean createOffMainThread(int viewType) {
+        final RecyclerView.Adapter adapter = mRecyclerView.mAdapter;
+        final Executor executor = mRecyclerView.mViewHolderCreationExecutor;
+        if (adapter == null || executor == null || mFailedOffMainThread.get(viewType)
+                || !adapter.canCreateViewHolderOffMainThread(viewType)) {
+            return false;
+        }
+        if (mPending.get(viewType) == 0) {
+            execute(executor, adapter, mRecyclerView.getRecycledViewPool(), viewType);
+        }
+        return true;
+    }
+
+    private void execute(Executor executor, RecyclerView.Adapter adapter,
+            RecyclerView.RecycledViewPool pool, int viewType) {
+        mPending.put(viewType, mPending.get(viewType) + 1);
+        executor.execute(new CreateTask(adapter, pool, viewType));
+    }
+
+    private void schedule() {
+        if (!mScheduled && mTargets.size() > 0) {
+            Looper.myQueue().addIdleHandler(this);
+            mScheduled = true;
+        }
+    }
+
+    /**
+     * Returns the index in the targets of the view type whose missing ViewHolders take the
+     * longest to create, or -1 if there is none. Types whose target is reached are removed, and
+     * ViewHolders being created on the creation executor are not missing.
+     */
+    private int findMostExpensiveIndex(RecyclerView.RecycledViewPool pool) {
+        int bestIndex = -1;
+        long bestCostNs = -1;
+        for (int i = mTargets.size() - 1; i >= 0; i--) {
+            final int viewType = mTargets.keyAt(i);
+            final int target = Math.min(mTargets.valueAt(i),
+                    pool.getScrapDataForType(viewType).mMaxScrap);
+            final int notInPool = target - pool.getRecycledViewCount(viewType);
+            if (notInPool <= 0) {
+                mTargets.removeAt(i);
+                if (bestIndex > i) {
+                    bestIndex--;
+                }
+                continue;
+            }
+            final int missing = notInPool - mPending.get(viewType);
+            if (missing <= 0) {
+                continue;
+            }
+            // Types which were never created cost at least one nanosecond per ViewHolder
+            final long createNs = Math.max(pool.getCreateRunningAverageNs(viewType), 1);
+            final long costNs = missing * createNs;
+            if (costNs > bestCostNs) {
+                bestIndex = i;
+                bestCostNs = costNs;
+            }
+        }
+        return bestIndex;
+    }
+
+    @Override
+    public boolean queueIdle() {
+        final RecyclerView.Adapter adapter = mRecyclerView.mAdapter;
+        if (adapter == null) {
+            mTargets.clear();
+        }
+        final RecyclerView.RecycledViewPool pool = mRecyclerView.getRecycledViewPool();
+        final long startNs = System.nanoTime();
+        final long deadlineNs = startNs + IDLE_BUDGET_NS;
+        boolean created = false;
+        TraceCompat.beginSection(TRACE_PREFILL_TAG);
+        try {
+            int index;
+            while ((index = findMostExpensiveIndex(pool)) >= 0) {
+                final int viewType = mTargets.keyAt(index);
+                final Executor executor = mRecyclerView.mViewHolderCreationExecutor;
+                if (executor != null && !mFailedOffMainThread.get(viewType)
+                        && adapter.canCreateViewHolderOffMainThread(viewType)) {
+                    execute(executor, adapter, pool, viewType);
+                    continue;
+                }
+                final long nowNs = System.nanoTime();
+                if (created && !pool.willCreateInTime(viewType, nowNs, deadlineNs)) {
+                    // Always create at least one ViewHolder, so that types which take longer
+                    // than the budget still make progress.
+                    return true;
+                }
+                final RecyclerView.ViewHolder holder =
+                        adapter.createViewHolder(mRecyclerView, viewType);
+                mRecyclerView.mRecycler.onViewHolderCreated(holder);
+                pool.factorInCreateTime(viewType, System.nanoTime() - nowNs);
+                pool.putRecycledView(holder);
+                created = true;
+            }
+            mScheduled = false;
+            return false;
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    /**
+     * Creates a ViewHolder on the creation executor, then puts it in the pool on the main
+     * thread unless the adapter or the pool of the RecyclerView changed meanwhile.
+     */
+    private class CreateTask implements Runnable {
+        private final RecyclerView.Adapter mAdapter;
+        private final RecyclerView.RecycledViewPool mPool;
+        private final int mViewType;
+
+        private boolean mDone;
+        private RecyclerView.ViewHolder mHolder;
+        private long mCreateTimeNs;
+
+        CreateTask(RecyclerView.Adapter adapter, RecyclerView.RecycledViewPool pool,
+                int viewType) {
+            mAdapter = adapter;
+            mPool = pool;
+            mViewType = viewType;
+        }
+
+        @Override
+        public void run() {
+            if (!mDone) {
+                createOnExecutor();
+            } else {
+                deliverOnMainThread();
+            }
+        }
+
+        private void createOnExecutor() {
+            final long startNs = System.nanoTime();
+            try {
+                mHolder = mAdapter.createViewHolder(mRecyclerView, mViewType);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Exception thrown creating a ViewHolder of type " + mViewType
+                        + " off the main thread", e);
+            }
+            mCreateTimeNs = System.nanoTime() - startNs;
+            mDone = true;
+            mHandler.post(this);
+        }
+
+        private void deliverOnMainThread() {
+            final int pending = mPending.get(mViewType) - 1;
+            if (pending > 0) {
+                mPending.put(mViewType, pending);
+            } else {
+                mPending.delete(mViewType);
+            }
+            if (mHolder == null) {
+                // Don't retry an adapter which can't create this type off the main thread
+                mFailedOffMainThread.put(mViewType, true);
+                schedule();
+                return;
+            }
+            if (mRecyclerView.mAdapter == mAdapter
+                    && mRecyclerView.getRecycledViewPool() == mPool) {
+                mRecyclerView.mRecycler.onViewHolderCreated(mHolder);
+                mPool.factorInCreateTime(mViewType, mCreateTimeNs);
+                mPool.putRecycledView(mHolder);
+            }
+            // The idle callback stops while ViewHolders are pending, so check the targets again
+            schedule();
+        }
+    }
+}
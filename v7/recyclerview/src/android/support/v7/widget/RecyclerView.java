@@ -80,6 +80,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * A flexible view for providing a limited window into a large data set.
@@ -350,6 +351,7 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
     Adapter mAdapter;
     @VisibleForTesting LayoutManager mLayout;
     RecyclerListener mRecyclerListener;
+    PrefetchMetricsListener mPrefetchMetricsListener;
     final ArrayList<ItemDecoration> mItemDecorations = new ArrayList<>();
     private final ArrayList<OnItemTouchListener> mOnItemTouchListeners =
             new ArrayList<>();
@@ -452,6 +454,13 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
     final ViewFlinger mViewFlinger = new ViewFlinger();
 
     GapWorker mGapWorker;
+    boolean mBudgetedPrefetchEnabled;
+    // Prefetch metrics since they were last dispatched
+    int mPrefetchedCount;
+    int mPrefetchDeadlineMissCount;
+    int mWastedPrefetchCount;
+    PoolPrefiller mPoolPrefiller;
+    Executor mViewHolderCreationExecutor;
     GapWorker.LayoutPrefetchRegistryImpl mPrefetchRegistry =
             ALLOW_THREAD_GAP_WORK ? new GapWorker.LayoutPrefetchRegistryImpl() : null;
 
@@ -514,11 +523,13 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                         @Nullable ItemHolderInfo postInfo) {
                     mRecycler.unscrapView(viewHolder);
                     animateDisappearance(viewHolder, info, postInfo);
+                    recycleHolderInfos(info, postInfo);
                 }
                 @Override
                 public void processAppeared(ViewHolder viewHolder,
                         ItemHolderInfo preInfo, ItemHolderInfo info) {
                     animateAppearance(viewHolder, preInfo, info);
+                    recycleHolderInfos(preInfo, info);
                 }
 
                 @Override
@@ -536,10 +547,13 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                     } else if (mItemAnimator.animatePersistence(viewHolder, preInfo, postInfo)) {
                         postAnimationRunner();
                     }
+                    recycleHolderInfos(preInfo, postInfo);
                 }
                 @Override
-                public void unused(ViewHolder viewHolder) {
+                public void unused(ViewHolder viewHolder, @Nullable ItemHolderInfo preInfo,
+                        @Nullable ItemHolderInfo postInfo) {
                     mLayout.removeAndRecycleView(viewHolder.itemView, mRecycler);
+                    recycleHolderInfos(preInfo, postInfo);
                 }
             };
 
@@ -1081,6 +1095,84 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
         mRecyclerListener = listener;
     }
 
+    /**
+     * Register a listener that will be notified of the items prefetched for this RecyclerView
+     * after each prefetch pass between frames.
+     *
+     * @param listener Listener to register, or null to clear
+     * @see PrefetchMetricsListener
+     */
+    public void setPrefetchMetricsListener(@Nullable PrefetchMetricsListener listener) {
+        mPrefetchMetricsListener = listener;
+    }
+
+    /**
+     * Enables the budgeted scheduling of item prefetch.
+     * <p>
+     * By default, prefetch work is done between frames, nearest items first, until the next frame
+     * is due. With budgeted scheduling, the expected cost of each item is taken from the
+     * running averages of the time to create and bind Views of its type. Items which don't fit
+     * in the time left before the next frame are carried to the next frames instead of being
+     * started and abandoned, RecyclerViews in the same window take turns so that one with many
+     * items to prefetch doesn't starve the others, and items of nested RecyclerViews are only
+     * prefetched once the items of the outer RecyclerViews are.
+     * <p>
+     * RecyclerViews in the same window share their prefetch work, so budgeted scheduling is
+     * used for all of them as long as it is enabled on one of them. Prefetch must be enabled on
+     * the {@link LayoutManager} for this to have any effect.
+     *
+     * @param enabled True to enable budgeted scheduling of item prefetch.
+     * @see LayoutManager#setItemPrefetchEnabled(boolean)
+     * @see #setPrefetchMetricsListener(PrefetchMetricsListener)
+     */
+    public void setBudgetedPrefetchEnabled(boolean enabled) {
+        mBudgetedPrefetchEnabled = enabled;
+    }
+
+    /**
+     * Returns whether budgeted scheduling of item prefetch is enabled.
+     *
+     * @see #setBudgetedPrefetchEnabled(boolean)
+     */
+    public boolean isBudgetedPrefetchEnabled() {
+        return mBudgetedPrefetchEnabled;
+    }
+
+    /**
+     * Starts creating the ViewHolder for the given position off the main thread if the pool has
+     * none of its type and the adapter allows it.
+     *
+     * @return True if the ViewHolder is being created off the main thread.
+     */
+    boolean createViewHolderOffMainThread(int position) {
+        if (mViewHolderCreationExecutor == null || mAdapter == null
+                || position >= mAdapter.getItemCount()) {
+            return false;
+        }
+        final int viewType = mAdapter.getItemViewType(position);
+        if (getRecycledViewPool().getRecycledViewCount(viewType) > 0) {
+            return false;
+        }
+        if (mPoolPrefiller == null) {
+            mPoolPrefiller = new PoolPrefiller(this);
+        }
+        return mPoolPrefiller.createOffMainThread(viewType);
+    }
+
+    void dispatchPrefetchMetrics() {
+        if (mPrefetchedCount == 0 && mPrefetchDeadlineMissCount == 0
+                && mWastedPrefetchCount == 0) {
+            return;
+        }
+        if (mPrefetchMetricsListener != null) {
+            mPrefetchMetricsListener.onPrefetchMetrics(this, mPrefetchedCount,
+                    mPrefetchDeadlineMissCount, mWastedPrefetchCount);
+        }
+        mPrefetchedCount = 0;
+        mPrefetchDeadlineMissCount = 0;
+        mWastedPrefetchCount = 0;
+    }
+
     /**
      * <p>Return the offset of the RecyclerView's text baseline from the its top
      * boundary. If the LayoutManager of this RecyclerView does not support baseline alignment,
@@ -1335,6 +1427,86 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
         mRecycler.setRecycledViewPool(pool);
     }
 
+    /**
+     * Fills the {@link RecycledViewPool} with new Views of the given type while the main thread
+     * is idle, until it holds <code>count</code> of them, so that they don't need to be created
+     * while scrolling.
+     * <p>
+     * Views are created a few at a time between messages of the main thread, and the most
+     * expensive view types to create are created first. The pool never holds more Views than
+     * {@link RecycledViewPool#setMaxRecycledViews(int, int)} allows. If an executor was set with
+     * {@link #setViewHolderCreationExecutor(Executor)}, Views of types for which
+     * {@link Adapter#canCreateViewHolderOffMainThread(int)} returns true are created on it
+     * instead.
+     * <p>
+     * This method must be called on the main thread, and does nothing if no adapter is set.
+     * Pending work is dropped when the RecyclerView is detached from its window.
+     *
+     * @param viewType The view type of the Views to create.
+     * @param count The number of Views of the given type the pool should hold.
+     * @see #prefillRecycledViewPool()
+     */
+    public void prefillRecycledViewPool(int viewType, int count) {
+        if (mAdapter == null) {
+            return;
+        }
+        if (mPoolPrefiller == null) {
+            mPoolPrefiller = new PoolPrefiller(this);
+        }
+        mPoolPrefiller.prefill(viewType, count);
+    }
+
+    /**
+     * Fills the {@link RecycledViewPool} with new Views while the main thread is idle, based
+     * on the demand observed so far.
+     * <p>
+     * For each view type, the pool is filled with as many Views as the longest run of Views of
+     * that type which had to be created because the pool had none, such as when the first
+     * screen of a new view type scrolls in. Calling this when scrolling stops, or after the
+     * first layout, lets the next scroll reuse these Views instead of creating them.
+     *
+     * @see #prefillRecycledViewPool(int, int)
+     * @see RecycledViewPool#getCreateMissCount(int)
+     */
+    public void prefillRecycledViewPool() {
+        final RecycledViewPool pool = getRecycledViewPool();
+        for (int i = 0; i < pool.mScrap.size(); i++) {
+            final int viewType = pool.mScrap.keyAt(i);
+            final int count = pool.getPrefillCount(viewType);
+            if (count > 0) {
+                prefillRecycledViewPool(viewType, count);
+            }
+        }
+    }
+
+    /**
+     * Sets the executor on which ViewHolders are created ahead of time, for the view types
+     * whose {@link Adapter#canCreateViewHolderOffMainThread(int)} returns true. The created
+     * ViewHolders are handed to the {@link RecycledViewPool} on the main thread, and are always
+     * bound on the main thread.
+     * <p>
+     * This applies to {@link #prefillRecycledViewPool(int, int)}, and to item prefetch between
+     * frames: when the pool has no View of the type of an item to prefetch, one is created on
+     * the executor and the item is bound by a later prefetch pass, so that only binding takes
+     * time from the main thread. Items needed by the next frame are still created on the main
+     * thread if needed.
+     *
+     * @param executor The executor to create ViewHolders on, or null to create all of them on
+     *                 the main thread.
+     * @see #prefillRecycledViewPool(int, int)
+     */
+    public void setViewHolderCreationExecutor(@Nullable Executor executor) {
+        mViewHolderCreationExecutor = executor;
+    }
+
+    /**
+     * Returns the executor set with {@link #setViewHolderCreationExecutor(Executor)}, or null.
+     */
+    @Nullable
+    public Executor getViewHolderCreationExecutor() {
+        return mViewHolderCreationExecutor;
+    }
+
     /**
      * Sets a new {@link ViewCacheExtension} to be used by the Recycler.
      *
@@ -2534,6 +2706,9 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             mGapWorker.remove(this);
             mGapWorker = null;
         }
+        if (mPoolPrefiller != null) {
+            mPoolPrefiller.cancel();
+        }
     }
 
     /**
@@ -3642,6 +3817,14 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                         } else {
                             animateChange(oldChangeViewHolder, holder, preInfo, postInfo,
                                     oldDisappearing, newDisappearing);
+                            if (mViewInfoStore.isDisappearing(oldChangeViewHolder)) {
+                                // The old holder was laid out as disappearing too, so it still
+                                // runs its disappear animation from its pre-layout info.
+                                mViewInfoStore.addToPreLayout(oldChangeViewHolder, preInfo);
+                                recycleHolderInfos(null, postInfo);
+                            } else {
+                                recycleHolderInfos(preInfo, postInfo);
+                            }
                         }
                     }
                 } else {
@@ -3798,6 +3981,21 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
         return mAdapter.hasStableIds() ? holder.getItemId() : holder.mPosition;
     }
 
+    /**
+     * Hands infos which were passed to an <code>animate**</code> method back to the ItemAnimator.
+     */
+    void recycleHolderInfos(@Nullable ItemHolderInfo preInfo, @Nullable ItemHolderInfo postInfo) {
+        if (mItemAnimator == null || !mItemAnimator.isHolderInfoRecyclingEnabled()) {
+            return;
+        }
+        if (preInfo != null) {
+            mItemAnimator.recycleHolderInfo(preInfo);
+        }
+        if (postInfo != null && postInfo != preInfo) {
+            mItemAnimator.recycleHolderInfo(postInfo);
+        }
+    }
+
     void animateAppearance(@NonNull ViewHolder itemHolder,
             @Nullable ItemHolderInfo preLayoutInfo, @NonNull ItemHolderInfo postLayoutInfo) {
         itemHolder.setIsRecyclable(false);
@@ -5011,6 +5209,10 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             int mMaxScrap = DEFAULT_MAX_SCRAP;
             long mCreateRunningAverageNs = 0;
             long mBindRunningAverageNs = 0;
+            int mRequestCount = 0;
+            int mMissCount = 0;
+            int mMissStreak = 0;
+            int mMaxMissStreak = 0;
         }
         SparseArray<ScrapData> mScrap = new SparseArray<>();
 
@@ -5041,6 +5243,30 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             return getScrapDataForType(viewType).mScrapHeap.size();
         }
 
+        /**
+         * Returns the number of times a RecyclerView using this pool looked for a View of the
+         * given view type in the pool.
+         *
+         * @see #getCreateMissCount(int)
+         */
+        public int getRequestCount(int viewType) {
+            return getScrapDataForType(viewType).mRequestCount;
+        }
+
+        /**
+         * Returns the number of times a RecyclerView using this pool did not find a View of the
+         * given view type in the pool, and had to create a new one.
+         * <p>
+         * Frequent misses for a view type suggest raising its maximum with
+         * {@link #setMaxRecycledViews(int, int)}, or filling the pool ahead of time with
+         * {@link RecyclerView#prefillRecycledViewPool()}.
+         *
+         * @see #getRequestCount(int)
+         */
+        public int getCreateMissCount(int viewType) {
+            return getScrapDataForType(viewType).mMissCount;
+        }
+
         public ViewHolder getRecycledView(int viewType) {
             final ScrapData scrapData = mScrap.get(viewType);
             if (scrapData != null && !scrapData.mScrapHeap.isEmpty()) {
@@ -5081,6 +5307,32 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             return (oldAverage / 4 * 3) + (newValue / 4);
         }
 
+        void factorInRequest(int viewType, boolean hit) {
+            ScrapData scrapData = getScrapDataForType(viewType);
+            scrapData.mRequestCount++;
+            if (hit) {
+                scrapData.mMissStreak = 0;
+            } else {
+                scrapData.mMissCount++;
+                scrapData.mMissStreak++;
+                scrapData.mMaxMissStreak = Math.max(scrapData.mMaxMissStreak,
+                        scrapData.mMissStreak);
+            }
+        }
+
+        /**
+         * Returns the number of Views of the given type the pool should hold so that the longest
+         * run of consecutive misses observed so far would have been served from the pool.
+         */
+        int getPrefillCount(int viewType) {
+            ScrapData scrapData = getScrapDataForType(viewType);
+            return Math.min(scrapData.mMaxMissStreak, scrapData.mMaxScrap);
+        }
+
+        long getCreateRunningAverageNs(int viewType) {
+            return getScrapDataForType(viewType).mCreateRunningAverageNs;
+        }
+
         void factorInCreateTime(int viewType, long createTimeNs) {
             ScrapData scrapData = getScrapDataForType(viewType);
             scrapData.mCreateRunningAverageNs = runningAverage(
@@ -5136,7 +5388,7 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             }
         }
 
-        private ScrapData getScrapDataForType(int viewType) {
+        ScrapData getScrapDataForType(int viewType) {
             ScrapData scrapData = mScrap.get(viewType);
             if (scrapData == null) {
                 scrapData = new ScrapData();
@@ -5437,7 +5689,10 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
         }
 
         View getViewForPosition(int position, boolean dryRun) {
-            return tryGetViewHolderForPositionByDeadline(position, dryRun, FOREVER_NS).itemView;
+            final ViewHolder holder = tryGetViewHolderForPositionByDeadline(position, dryRun,
+                    FOREVER_NS);
+            holder.setFlags(0, ViewHolder.FLAG_PREFETCHED);
+            return holder.itemView;
         }
 
         /**
@@ -5538,6 +5793,7 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                                 + position + ") fetching from shared pool");
                     }
                     holder = getRecycledViewPool().getRecycledView(type);
+                    mRecyclerPool.factorInRequest(type, holder != null);
                     if (holder != null) {
                         holder.resetInternal();
                         if (FORCE_INVALIDATE_DISPLAY_LIST) {
@@ -5553,13 +5809,7 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
                         return null;
                     }
                     holder = mAdapter.createViewHolder(RecyclerView.this, type);
-                    if (ALLOW_THREAD_GAP_WORK) {
-                        // only bother finding nested RV if prefetching
-                        RecyclerView innerView = findNestedRecyclerView(holder.itemView);
-                        if (innerView != null) {
-                            holder.mNestedRecyclerView = new WeakReference<>(innerView);
-                        }
-                    }
+                    onViewHolderCreated(holder);
 
                     long end = getNanoTime();
                     mRecyclerPool.factorInCreateTime(type, end - start);
@@ -5655,6 +5905,19 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             }
         }
 
+        /**
+         * Sets up the internal fields of a ViewHolder created by the adapter, on the main thread.
+         */
+        void onViewHolderCreated(ViewHolder holder) {
+            if (ALLOW_THREAD_GAP_WORK) {
+                // only bother finding nested RV if prefetching
+                RecyclerView innerView = findNestedRecyclerView(holder.itemView);
+                if (innerView != null) {
+                    holder.mNestedRecyclerView = new WeakReference<>(innerView);
+                }
+            }
+        }
+
         /**
          * Recycle a detached view. The specified view will be added to a pool of views
          * for later rebinding and reuse.
@@ -5821,6 +6084,9 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
          * @param dispatchRecycled True to dispatch View recycled callbacks.
          */
         void addViewHolderToRecycledViewPool(ViewHolder holder, boolean dispatchRecycled) {
+            if (holder.hasAnyOfTheFlags(ViewHolder.FLAG_PREFETCHED)) {
+                mWastedPrefetchCount++;
+            }
             clearNestedRecyclerViewIfNotNested(holder);
             ViewCompat.setAccessibilityDelegate(holder.itemView, null);
             if (dispatchRecycled) {
@@ -6370,6 +6636,28 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
             return holder;
         }
 
+        /**
+         * Returns true if {@link #onCreateViewHolder(ViewGroup, int)} can be called for the
+         * given view type on a background thread, while the main thread uses the RecyclerView.
+         * <p>
+         * The ViewHolders RecyclerView creates ahead of time with
+         * {@link RecyclerView#prefillRecycledViewPool(int, int)} or for item prefetch are then
+         * created on the executor set with
+         * {@link RecyclerView#setViewHolderCreationExecutor(Executor)}. To
+         * allow this, creating a ViewHolder of this type must only inflate or construct its
+         * Views, and must not read or change the state of the parent RecyclerView, of the
+         * adapter's data set, or of any other View attached to a window. Binding always
+         * happens on the main thread.
+         * <p>
+         * The default implementation returns false.
+         *
+         * @param viewType The view type of the ViewHolder to create.
+         * @return True if ViewHolders of this type can be created on a background thread.
+         */
+        public boolean canCreateViewHolderOffMainThread(int viewType) {
+            return false;
+        }
+
         /**
          * This method internally calls {@link #onBindViewHolder(ViewHolder, int)} to update the
          * {@link ViewHolder} contents with the item at the given position and also sets up some
@@ -10139,6 +10427,31 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
         public void onViewRecycled(ViewHolder holder);
     }
 
+    /**
+     * A PrefetchMetricsListener can be set on a RecyclerView to measure how well items are
+     * prefetched between frames, such as to tune
+     * {@link LayoutManager#setItemPrefetchEnabled(boolean)} or
+     * {@link RecyclerView#setBudgetedPrefetchEnabled(boolean)}.
+     *
+     * @see RecyclerView#setPrefetchMetricsListener(PrefetchMetricsListener)
+     */
+    public interface PrefetchMetricsListener {
+
+        /**
+         * Called on the main thread after a prefetch pass between frames, if anything happened
+         * to the items of the RecyclerView since the last call.
+         *
+         * @param recyclerView The RecyclerView whose items were prefetched.
+         * @param prefetchedCount The number of items which were created and bound ahead of use.
+         * @param deadlineMissCount The number of items which could not be prefetched before the
+         *                          next frame was due.
+         * @param wastedCount The number of prefetched items which were recycled without being
+         *                    laid out.
+         */
+        void onPrefetchMetrics(RecyclerView recyclerView, int prefetchedCount,
+                int deadlineMissCount, int wastedCount);
+    }
+
     /**
      * A Listener interface that can be attached to a RecylcerView to get notified
      * whenever a ViewHolder is attached to or detached from RecyclerView.
@@ -10186,6 +10499,8 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
         ViewHolder mShadowedHolder = null;
         // The item that is shadowing this holder during an item change event/animation
         ViewHolder mShadowingHolder = null;
+        // Index of the entry of this holder in the ViewInfoStore, if it has one
+        int mInfoStoreIndex = -1;
 
         /**
          * This ViewHolder has been bound to a position; mPosition, mItemId and mItemViewType
@@ -10280,6 +10595,12 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
          */
         static final int FLAG_BOUNCED_FROM_HIDDEN_LIST = 1 << 13;
 
+        /**
+         * Set when the ViewHolder was bound by {@link GapWorker} prefetch, and cleared when it is
+         * laid out. A ViewHolder which is recycled with this flag was prefetched for nothing.
+         */
+        static final int FLAG_PREFETCHED = 1 << 14;
+
         private int mFlags;
 
         private static final List<Object> FULLUPDATE_PAYLOADS = Collections.EMPTY_LIST;
@@ -11864,6 +12185,10 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
         private ArrayList<ItemAnimatorFinishedListener> mFinishedListeners =
                 new ArrayList<ItemAnimatorFinishedListener>();
 
+        private boolean mRecycleHolderInfos;
+        // Plain infos which RecyclerView handed back, for obtainHolderInfo to reuse
+        private final ArrayList<ItemHolderInfo> mHolderInfoPool = new ArrayList<ItemHolderInfo>();
+
         private long mAddDuration = 120;
         private long mRemoveDuration = 120;
         private long mMoveDuration = 250;
@@ -12433,9 +12758,61 @@ public class RecyclerView extends ViewGroup implements ScrollingView, NestedScro
          * @return A new {@link ItemHolderInfo}.
          */
         public ItemHolderInfo obtainHolderInfo() {
+            final int size = mHolderInfoPool.size();
+            if (size > 0) {
+                return mHolderInfoPool.remove(size - 1);
+            }
             return new ItemHolderInfo();
         }
 
+        /**
+         * Sets whether the {@link ItemHolderInfo}s recorded for this ItemAnimator are reused.
+         * <p>
+         * When enabled, RecyclerView hands each ItemHolderInfo back to
+         * {@link #recycleHolderInfo(ItemHolderInfo)} once the <code>animate**</code> method it
+         * was passed to returns, and {@link #obtainHolderInfo()} returns them again instead of
+         * allocating new ones on every animated layout. Only enable it if this ItemAnimator does
+         * not keep references to ItemHolderInfos after <code>animate**</code> methods return.
+         * <p>
+         * It is disabled by default, except for {@link DefaultItemAnimator} itself.
+         *
+         * @param enabled True to reuse ItemHolderInfos.
+         */
+        public void setHolderInfoRecyclingEnabled(boolean enabled) {
+            mRecycleHolderInfos = enabled;
+            if (!enabled) {
+                mHolderInfoPool.clear();
+            }
+        }
+
+        /**
+         * Returns whether the {@link ItemHolderInfo}s recorded for this ItemAnimator are reused.
+         *
+         * @return True if ItemHolderInfos are reused.
+         * @see #setHolderInfoRecyclingEnabled(boolean)
+         */
+        public boolean isHolderInfoRecyclingEnabled() {
+            return mRecycleHolderInfos;
+        }
+
+        /**
+         * Called by the RecyclerView when it no longer needs an ItemHolderInfo returned by
+         * {@link #recordPreLayoutInformation(State, ViewHolder, int, List)} or
+         * {@link #recordPostLayoutInformation(State, ViewHolder)}, if
+         * {@link #isHolderInfoRecyclingEnabled()} returns true.
+         * <p>
+         * The default implementation keeps the plain {@link ItemHolderInfo}s for
+         * {@link #obtainHolderInfo()}. You can override it to reuse your own instances.
+         *
+         * @param info The ItemHolderInfo which is not used anymore.
+         */
+        public void recycleHolderInfo(@NonNull ItemHolderInfo info) {
+            if (mRecycleHolderInfos && info.getClass() == ItemHolderInfo.class) {
+                info.changeFlags = 0;
+                mHolderInfoPool.add(info);
+            }
+        }
+
         /**
          * The interface to be implemented by listeners to animation events from this
          * ItemAnimator. This is used internally and is not intended for developers to
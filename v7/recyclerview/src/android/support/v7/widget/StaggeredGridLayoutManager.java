@@ -814,7 +814,7 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             anchorInfo.mLayoutFromEnd = mShouldReverseLayout;
         }
         if (mPendingSavedState.mSpanLookupSize > 1) {
-            mLazySpanLookup.mData = mPendingSavedState.mSpanLookup;
+            mLazySpanLookup.setSpans(mPendingSavedState.mSpanLookup);
             mLazySpanLookup.mFullSpanItems = mPendingSavedState.mFullSpanItems;
         }
     }
@@ -1200,8 +1200,8 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
         state.mAnchorLayoutFromEnd = mLastLayoutFromEnd;
         state.mLastLayoutRTL = mLastLayoutRTL;
 
-        if (mLazySpanLookup != null && mLazySpanLookup.mData != null) {
-            state.mSpanLookup = mLazySpanLookup.mData;
+        if (mLazySpanLookup != null && mLazySpanLookup.mPages != null) {
+            state.mSpanLookup = mLazySpanLookup.getSpans();
             state.mSpanLookupSize = state.mSpanLookup.length;
             state.mFullSpanItems = mLazySpanLookup.mFullSpanItems;
         } else {
@@ -2797,13 +2797,24 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
     }
 
     /**
-     * An array of mappings from adapter position to span.
-     * This only grows when a write happens and it grows up to the size of the adapter.
+     * Mappings from adapter position to span, and the full span items which may create gaps.
+     * <p>
+     * Spans are stored in pages of {@link #PAGE_SIZE} positions, which are only allocated once a
+     * position in them is assigned a span, so that laying out a far position doesn't touch the
+     * positions before it. No position at or after {@link #mEnd} has a span, so invalidations and
+     * adapter changes stop there. Full span items are sorted by position and found with a binary
+     * search.
      */
     static class LazySpanLookup {
 
-        private static final int MIN_SIZE = 10;
-        int[] mData;
+        private static final int PAGE_SHIFT = 8;
+        static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+        private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+        // A null page has no span for any of its positions
+        int[][] mPages;
+        // Every position at or after this one has no span
+        int mEnd;
         List<FullSpanItem> mFullSpanItems;
 
 
@@ -2812,12 +2823,8 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
          */
         int forceInvalidateAfter(int position) {
             if (mFullSpanItems != null) {
-                for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                    FullSpanItem fsi = mFullSpanItems.get(i);
-                    if (fsi.mPosition >= position) {
-                        mFullSpanItems.remove(i);
-                    }
-                }
+                final int index = indexOfFirstFullSpanItem(position);
+                mFullSpanItems.subList(index, mFullSpanItems.size()).clear();
             }
             return invalidateAfter(position);
         }
@@ -2826,72 +2833,173 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
          * returns end position for invalidation.
          */
         int invalidateAfter(int position) {
-            if (mData == null) {
-                return RecyclerView.NO_POSITION;
-            }
-            if (position >= mData.length) {
+            if (mPages == null || position >= mEnd) {
                 return RecyclerView.NO_POSITION;
             }
             int endPosition = invalidateFullSpansAfter(position);
             if (endPosition == RecyclerView.NO_POSITION) {
-                Arrays.fill(mData, position, mData.length, LayoutParams.INVALID_SPAN_ID);
-                return mData.length;
+                final int end = mEnd;
+                invalidate(position, end);
+                return end;
             } else {
                 // just invalidate items in between
-                Arrays.fill(mData, position, endPosition + 1, LayoutParams.INVALID_SPAN_ID);
+                invalidate(position, endPosition + 1);
                 return endPosition + 1;
             }
         }
 
         int getSpan(int position) {
-            if (mData == null || position >= mData.length) {
+            if (position < 0 || position >= mEnd) {
                 return LayoutParams.INVALID_SPAN_ID;
-            } else {
-                return mData[position];
             }
+            final int[] page = mPages[position >> PAGE_SHIFT];
+            return page == null ? LayoutParams.INVALID_SPAN_ID : page[position & PAGE_MASK];
         }
 
         void setSpan(int position, Span span) {
-            ensureSize(position);
-            mData[position] = span.mIndex;
+            setSpan(position, span.mIndex);
         }
 
-        int sizeForPosition(int position) {
-            int len = mData.length;
-            while (len <= position) {
-                len *= 2;
+        void setSpan(int position, int spanIndex) {
+            ensurePage(position >> PAGE_SHIFT)[position & PAGE_MASK] = spanIndex;
+            if (position >= mEnd) {
+                mEnd = position + 1;
             }
-            return len;
         }
 
-        void ensureSize(int position) {
-            if (mData == null) {
-                mData = new int[Math.max(position, MIN_SIZE) + 1];
-                Arrays.fill(mData, LayoutParams.INVALID_SPAN_ID);
-            } else if (position >= mData.length) {
-                int[] old = mData;
-                mData = new int[sizeForPosition(position)];
-                System.arraycopy(old, 0, mData, 0, old.length);
-                Arrays.fill(mData, old.length, mData.length, LayoutParams.INVALID_SPAN_ID);
+        private int[] ensurePage(int pageIndex) {
+            if (mPages == null) {
+                mPages = new int[Math.max(pageIndex + 1, 4)][];
+            } else if (pageIndex >= mPages.length) {
+                mPages = Arrays.copyOf(mPages, Math.max(pageIndex + 1, mPages.length * 2));
+            }
+            int[] page = mPages[pageIndex];
+            if (page == null) {
+                page = new int[PAGE_SIZE];
+                Arrays.fill(page, LayoutParams.INVALID_SPAN_ID);
+                mPages[pageIndex] = page;
+            }
+            return page;
+        }
+
+        /**
+         * Removes the spans of the positions in the given range. Pages which are entirely in the
+         * range are dropped.
+         */
+        private void invalidate(int start, int end) {
+            end = Math.min(end, mEnd);
+            if (start >= end) {
+                return;
+            }
+            if (end == mEnd) {
+                mEnd = start;
+            }
+            for (int pageIndex = start >> PAGE_SHIFT; pageIndex <= (end - 1) >> PAGE_SHIFT;
+                    pageIndex++) {
+                final int[] page = mPages[pageIndex];
+                if (page == null) {
+                    continue;
+                }
+                final int pageStart = pageIndex << PAGE_SHIFT;
+                final int from = Math.max(start, pageStart) - pageStart;
+                final int to = Math.min(end, pageStart + PAGE_SIZE) - pageStart;
+                if (from == 0 && to == PAGE_SIZE) {
+                    mPages[pageIndex] = null;
+                } else {
+                    Arrays.fill(page, from, to, LayoutParams.INVALID_SPAN_ID);
+                }
+            }
+        }
+
+        /**
+         * Copies the spans of a range of positions to another position, one page at a time.
+         * Pages without spans are only read to clear the positions they are copied to.
+         */
+        private void move(int from, int to, int length) {
+            if (to < from) {
+                int done = 0;
+                while (done < length) {
+                    final int chunk = chunkAfter(from + done, to + done, length - done);
+                    moveChunk(from + done, to + done, chunk);
+                    done += chunk;
+                }
+            } else {
+                int remaining = length;
+                while (remaining > 0) {
+                    final int chunk = chunkBefore(from + remaining, to + remaining, remaining);
+                    remaining -= chunk;
+                    moveChunk(from + remaining, to + remaining, chunk);
+                }
+            }
+        }
+
+        // Length of the chunk starting at both positions which doesn't cross a page
+        private static int chunkAfter(int from, int to, int max) {
+            return Math.min(max, PAGE_SIZE - Math.max(from & PAGE_MASK, to & PAGE_MASK));
+        }
+
+        // Length of the chunk ending before both positions which doesn't cross a page
+        private static int chunkBefore(int fromEnd, int toEnd, int max) {
+            return Math.min(max,
+                    Math.min(((fromEnd - 1) & PAGE_MASK) + 1, ((toEnd - 1) & PAGE_MASK) + 1));
+        }
+
+        private void moveChunk(int from, int to, int length) {
+            final int fromPage = from >> PAGE_SHIFT;
+            final int[] source = fromPage < mPages.length ? mPages[fromPage] : null;
+            if (source != null) {
+                System.arraycopy(source, from & PAGE_MASK, ensurePage(to >> PAGE_SHIFT),
+                        to & PAGE_MASK, length);
+                return;
+            }
+            final int toPage = to >> PAGE_SHIFT;
+            final int[] target = toPage < mPages.length ? mPages[toPage] : null;
+            if (target != null) {
+                Arrays.fill(target, to & PAGE_MASK, (to & PAGE_MASK) + length,
+                        LayoutParams.INVALID_SPAN_ID);
+            }
+        }
+
+        /**
+         * Returns the spans of the positions up to the last one which has a span, for
+         * {@link SavedState}.
+         */
+        int[] getSpans() {
+            final int[] spans = new int[mEnd];
+            for (int position = 0; position < mEnd; position++) {
+                spans[position] = getSpan(position);
+            }
+            return spans;
+        }
+
+        void setSpans(int[] spans) {
+            clear();
+            for (int position = spans.length - 1; position >= 0; position--) {
+                if (spans[position] != LayoutParams.INVALID_SPAN_ID) {
+                    setSpan(position, spans[position]);
+                }
             }
         }
 
         void clear() {
-            if (mData != null) {
-                Arrays.fill(mData, LayoutParams.INVALID_SPAN_ID);
+            if (mPages != null) {
+                Arrays.fill(mPages, null);
             }
+            mEnd = 0;
             mFullSpanItems = null;
         }
 
         void offsetForRemoval(int positionStart, int itemCount) {
-            if (mData == null || positionStart >= mData.length) {
+            if (mPages == null || positionStart >= mEnd) {
                 return;
             }
-            ensureSize(positionStart + itemCount);
-            System.arraycopy(mData, positionStart + itemCount, mData, positionStart,
-                    mData.length - positionStart - itemCount);
-            Arrays.fill(mData, mData.length - itemCount, mData.length,
-                    LayoutParams.INVALID_SPAN_ID);
+            final int end = mEnd;
+            if (positionStart + itemCount < end) {
+                move(positionStart + itemCount, positionStart, end - positionStart - itemCount);
+                invalidate(end - itemCount, end);
+            } else {
+                invalidate(positionStart, end);
+            }
             offsetFullSpansForRemoval(positionStart, itemCount);
         }
 
@@ -2900,11 +3008,9 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
                 return;
             }
             final int end = positionStart + itemCount;
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
+            final int first = indexOfFirstFullSpanItem(positionStart);
+            for (int i = mFullSpanItems.size() - 1; i >= first; i--) {
                 FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition < positionStart) {
-                    continue;
-                }
                 if (fsi.mPosition < end) {
                     mFullSpanItems.remove(i);
                 } else {
@@ -2914,14 +3020,13 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
         }
 
         void offsetForAddition(int positionStart, int itemCount) {
-            if (mData == null || positionStart >= mData.length) {
+            if (mPages == null || positionStart >= mEnd) {
                 return;
             }
-            ensureSize(positionStart + itemCount);
-            System.arraycopy(mData, positionStart, mData, positionStart + itemCount,
-                    mData.length - positionStart - itemCount);
-            Arrays.fill(mData, positionStart, positionStart + itemCount,
-                    LayoutParams.INVALID_SPAN_ID);
+            final int end = mEnd;
+            move(positionStart, positionStart + itemCount, end - positionStart);
+            mEnd = end + itemCount;
+            invalidate(positionStart, positionStart + itemCount);
             offsetFullSpansForAddition(positionStart, itemCount);
         }
 
@@ -2929,12 +3034,9 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 return;
             }
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition < positionStart) {
-                    continue;
-                }
-                fsi.mPosition += itemCount;
+            final int first = indexOfFirstFullSpanItem(positionStart);
+            for (int i = mFullSpanItems.size() - 1; i >= first; i--) {
+                mFullSpanItems.get(i).mPosition += itemCount;
             }
         }
 
@@ -2946,57 +3048,59 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
             if (mFullSpanItems == null) {
                 return RecyclerView.NO_POSITION;
             }
-            final FullSpanItem item = getFullSpanItem(position);
+            final int index = indexOfFirstFullSpanItem(position);
             // if there is an fsi at this position, get rid of it.
-            if (item != null) {
-                mFullSpanItems.remove(item);
-            }
-            int nextFsiIndex = -1;
-            final int count = mFullSpanItems.size();
-            for (int i = 0; i < count; i++) {
-                FullSpanItem fsi = mFullSpanItems.get(i);
-                if (fsi.mPosition >= position) {
-                    nextFsiIndex = i;
-                    break;
-                }
+            if (index < mFullSpanItems.size()
+                    && mFullSpanItems.get(index).mPosition == position) {
+                mFullSpanItems.remove(index);
             }
-            if (nextFsiIndex != -1) {
-                FullSpanItem fsi = mFullSpanItems.get(nextFsiIndex);
-                mFullSpanItems.remove(nextFsiIndex);
-                return fsi.mPosition;
+            if (index < mFullSpanItems.size()) {
+                return mFullSpanItems.remove(index).mPosition;
             }
             return RecyclerView.NO_POSITION;
         }
 
+        /**
+         * Returns the index of the first full span item at or after the given position, or the
+         * number of full span items if there is none.
+         */
+        private int indexOfFirstFullSpanItem(int position) {
+            int low = 0;
+            int high = mFullSpanItems.size();
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mFullSpanItems.get(mid).mPosition < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
         public void addFullSpanItem(FullSpanItem fullSpanItem) {
             if (mFullSpanItems == null) {
                 mFullSpanItems = new ArrayList<>();
             }
-            final int size = mFullSpanItems.size();
-            for (int i = 0; i < size; i++) {
-                FullSpanItem other = mFullSpanItems.get(i);
-                if (other.mPosition == fullSpanItem.mPosition) {
-                    if (DEBUG) {
-                        throw new IllegalStateException("two fsis for same position");
-                    } else {
-                        mFullSpanItems.remove(i);
-                    }
-                }
-                if (other.mPosition >= fullSpanItem.mPosition) {
-                    mFullSpanItems.add(i, fullSpanItem);
-                    return;
+            final int index = indexOfFirstFullSpanItem(fullSpanItem.mPosition);
+            if (index < mFullSpanItems.size()
+                    && mFullSpanItems.get(index).mPosition == fullSpanItem.mPosition) {
+                if (DEBUG) {
+                    throw new IllegalStateException("two fsis for same position");
                 }
+                mFullSpanItems.set(index, fullSpanItem);
+            } else {
+                mFullSpanItems.add(index, fullSpanItem);
             }
-            // if it is not added to a position.
-            mFullSpanItems.add(fullSpanItem);
         }
 
         public FullSpanItem getFullSpanItem(int position) {
             if (mFullSpanItems == null) {
                 return null;
             }
-            for (int i = mFullSpanItems.size() - 1; i >= 0; i--) {
-                final FullSpanItem fsi = mFullSpanItems.get(i);
+            final int index = indexOfFirstFullSpanItem(position);
+            if (index < mFullSpanItems.size()) {
+                final FullSpanItem fsi = mFullSpanItems.get(index);
                 if (fsi.mPosition == position) {
                     return fsi;
                 }
@@ -3017,7 +3121,7 @@ public class StaggeredGridLayoutManager extends RecyclerView.LayoutManager imple
                 return null;
             }
             final int limit = mFullSpanItems.size();
-            for (int i = 0; i < limit; i++) {
+            for (int i = indexOfFirstFullSpanItem(minPos); i < limit; i++) {
                 FullSpanItem fsi = mFullSpanItems.get(i);
                 if (fsi.mPosition >= maxPos) {
                     return null;
@@ -18,11 +18,11 @@ package android.support.v7.widget;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
-import android.support.v4.util.ArrayMap;
 import android.support.v4.util.LongSparseArray;
-import android.support.v4.util.Pools;
 import android.view.View;
 
+import java.util.Arrays;
+
 import static android.support.v7.widget.RecyclerView.ViewHolder;
 import static android.support.v7.widget.RecyclerView.ItemAnimator.ItemHolderInfo;
 
@@ -35,6 +35,9 @@ import static android.support.v7.widget.ViewInfoStore.InfoRecord.FLAG_PRE;
 import static android.support.v7.widget.ViewInfoStore.InfoRecord.FLAG_POST;
 /**
  * This class abstracts all tracking for Views to run animations.
+ * <p>
+ * Records are pooled by the store and the arrays which hold them are kept across layouts, so
+ * that tracking an animated layout does not allocate once the store has seen as many ViewHolders.
  */
 class ViewInfoStore {
 
@@ -44,15 +47,23 @@ class ViewInfoStore {
      * View data records for pre-layout
      */
     @VisibleForTesting
-    final ArrayMap<ViewHolder, InfoRecord> mLayoutHolderMap = new ArrayMap<>();
+    final HolderRecordMap mLayoutHolderMap = new HolderRecordMap();
 
     @VisibleForTesting
     final LongSparseArray<ViewHolder> mOldChangedHolders = new LongSparseArray<>();
 
+    // Records which are not in use, up to mRecordPoolSize of them
+    private InfoRecord[] mRecordPool = new InfoRecord[16];
+
+    private int mRecordPoolSize;
+
     /**
      * Clears the state and all existing tracking data
      */
     void clear() {
+        for (int i = mLayoutHolderMap.size() - 1; i >= 0; i--) {
+            recycleRecord(mLayoutHolderMap.valueAt(i));
+        }
         mLayoutHolderMap.clear();
         mOldChangedHolders.clear();
     }
@@ -65,7 +76,7 @@ class ViewInfoStore {
     void addToPreLayout(ViewHolder holder, ItemHolderInfo info) {
         InfoRecord record = mLayoutHolderMap.get(holder);
         if (record == null) {
-            record = InfoRecord.obtain();
+            record = obtainRecord();
             mLayoutHolderMap.put(holder, record);
         }
         record.preInfo = info;
@@ -108,17 +119,21 @@ class ViewInfoStore {
         if (record != null && (record.flags & flag) != 0) {
             record.flags &= ~flag;
             final ItemHolderInfo info;
+            // The caller owns the info from now on and may recycle it, so the record must not
+            // hand it out again even if it stays in the map for its other flags.
             if (flag == FLAG_PRE) {
                 info = record.preInfo;
+                record.preInfo = null;
             } else if (flag == FLAG_POST) {
                 info = record.postInfo;
+                record.postInfo = null;
             } else {
                 throw new IllegalArgumentException("Must provide flag PRE or POST");
             }
             // if not pre-post flag is left, clear.
             if ((record.flags & (FLAG_PRE | FLAG_POST)) == 0) {
                 mLayoutHolderMap.removeAt(index);
-                InfoRecord.recycle(record);
+                recycleRecord(record);
             }
             return info;
         }
@@ -146,7 +161,7 @@ class ViewInfoStore {
     void addToAppearedInPreLayoutHolders(ViewHolder holder, ItemHolderInfo info) {
         InfoRecord record = mLayoutHolderMap.get(holder);
         if (record == null) {
-            record = InfoRecord.obtain();
+            record = obtainRecord();
             mLayoutHolderMap.put(holder, record);
         }
         record.flags |= FLAG_APPEAR;
@@ -183,7 +198,7 @@ class ViewInfoStore {
     void addToPostLayout(ViewHolder holder, ItemHolderInfo info) {
         InfoRecord record = mLayoutHolderMap.get(holder);
         if (record == null) {
-            record = InfoRecord.obtain();
+            record = obtainRecord();
             mLayoutHolderMap.put(holder, record);
         }
         record.postInfo = info;
@@ -199,7 +214,7 @@ class ViewInfoStore {
     void addToDisappearedInLayout(ViewHolder holder) {
         InfoRecord record = mLayoutHolderMap.get(holder);
         if (record == null) {
-            record = InfoRecord.obtain();
+            record = obtainRecord();
             mLayoutHolderMap.put(holder, record);
         }
         record.flags |= FLAG_DISAPPEARED;
@@ -223,13 +238,13 @@ class ViewInfoStore {
             final InfoRecord record = mLayoutHolderMap.removeAt(index);
             if ((record.flags & FLAG_APPEAR_AND_DISAPPEAR) == FLAG_APPEAR_AND_DISAPPEAR) {
                 // Appeared then disappeared. Not useful for animations.
-                callback.unused(viewHolder);
+                callback.unused(viewHolder, record.preInfo, record.postInfo);
             } else if ((record.flags & FLAG_DISAPPEARED) != 0) {
                 // Set as "disappeared" by the LayoutManager (addDisappearingView)
                 if (record.preInfo == null) {
                     // similar to appear disappear but happened between different layout passes.
                     // this can happen when the layout manager is using auto-measure
-                    callback.unused(viewHolder);
+                    callback.unused(viewHolder, null, record.postInfo);
                 } else {
                     callback.processDisappeared(viewHolder, record.preInfo, record.postInfo);
                 }
@@ -250,7 +265,7 @@ class ViewInfoStore {
             } else if (DEBUG) {
                 throw new IllegalStateException("record without any reasonable flag combination:/");
             }
-            InfoRecord.recycle(record);
+            recycleRecord(record);
         }
     }
 
@@ -267,12 +282,32 @@ class ViewInfoStore {
         }
         final InfoRecord info = mLayoutHolderMap.remove(holder);
         if (info != null) {
-            InfoRecord.recycle(info);
+            recycleRecord(info);
         }
     }
 
     void onDetach() {
-        InfoRecord.drainCache();
+        Arrays.fill(mRecordPool, 0, mRecordPoolSize, null);
+        mRecordPoolSize = 0;
+    }
+
+    private InfoRecord obtainRecord() {
+        if (mRecordPoolSize == 0) {
+            return new InfoRecord();
+        }
+        final InfoRecord record = mRecordPool[--mRecordPoolSize];
+        mRecordPool[mRecordPoolSize] = null;
+        return record;
+    }
+
+    private void recycleRecord(InfoRecord record) {
+        record.flags = 0;
+        record.preInfo = null;
+        record.postInfo = null;
+        if (mRecordPoolSize == mRecordPool.length) {
+            mRecordPool = Arrays.copyOf(mRecordPool, mRecordPoolSize * 2);
+        }
+        mRecordPool[mRecordPoolSize++] = record;
     }
 
     public void onViewDetached(ViewHolder viewHolder) {
@@ -286,7 +321,8 @@ class ViewInfoStore {
                 ItemHolderInfo postInfo);
         void processPersistent(ViewHolder viewHolder, @NonNull ItemHolderInfo preInfo,
                 @NonNull ItemHolderInfo postInfo);
-        void unused(ViewHolder holder);
+        void unused(ViewHolder holder, @Nullable ItemHolderInfo preInfo,
+                @Nullable ItemHolderInfo postInfo);
     }
 
     static class InfoRecord {
@@ -304,26 +340,87 @@ class ViewInfoStore {
         int flags;
         @Nullable ItemHolderInfo preInfo;
         @Nullable ItemHolderInfo postInfo;
-        static Pools.Pool<InfoRecord> sPool = new Pools.SimplePool<>(20);
 
-        private InfoRecord() {
+        InfoRecord() {
         }
+    }
 
-        static InfoRecord obtain() {
-            InfoRecord record = sPool.acquire();
-            return record == null ? new InfoRecord() : record;
+    /**
+     * Map from the tracked ViewHolders to their records. Instead of being hashed, each ViewHolder
+     * keeps the index of its entry, so lookups take constant time and removals swap the last
+     * entry in. A ViewHolder can only be tracked by one store at a time.
+     */
+    static class HolderRecordMap {
+        private ViewHolder[] mKeys = new ViewHolder[16];
+        private InfoRecord[] mValues = new InfoRecord[16];
+        private int mSize;
+
+        int size() {
+            return mSize;
         }
 
-        static void recycle(InfoRecord record) {
-            record.flags = 0;
-            record.preInfo = null;
-            record.postInfo = null;
-            sPool.release(record);
+        ViewHolder keyAt(int index) {
+            return mKeys[index];
         }
 
-        static void drainCache() {
-            //noinspection StatementWithEmptyBody
-            while (sPool.acquire() != null);
+        InfoRecord valueAt(int index) {
+            return mValues[index];
+        }
+
+        int indexOfKey(ViewHolder holder) {
+            final int index = holder.mInfoStoreIndex;
+            return index >= 0 && index < mSize && mKeys[index] == holder ? index : -1;
+        }
+
+        @Nullable
+        InfoRecord get(ViewHolder holder) {
+            final int index = indexOfKey(holder);
+            return index < 0 ? null : mValues[index];
+        }
+
+        void put(ViewHolder holder, InfoRecord record) {
+            final int index = indexOfKey(holder);
+            if (index >= 0) {
+                mValues[index] = record;
+                return;
+            }
+            if (mSize == mKeys.length) {
+                mKeys = Arrays.copyOf(mKeys, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mKeys[mSize] = holder;
+            mValues[mSize] = record;
+            holder.mInfoStoreIndex = mSize;
+            mSize++;
+        }
+
+        InfoRecord removeAt(int index) {
+            final InfoRecord record = mValues[index];
+            mKeys[index].mInfoStoreIndex = -1;
+            final int last = --mSize;
+            if (index != last) {
+                mKeys[index] = mKeys[last];
+                mValues[index] = mValues[last];
+                mKeys[index].mInfoStoreIndex = index;
+            }
+            mKeys[last] = null;
+            mValues[last] = null;
+            return record;
+        }
+
+        @Nullable
+        InfoRecord remove(ViewHolder holder) {
+            final int index = indexOfKey(holder);
+            return index < 0 ? null : removeAt(index);
+        }
+
+        void clear() {
+            for (int i = 0; i < mSize; i++) {
+                mKeys[i].mInfoStoreIndex = -1;
+            }
+            Arrays.fill(mKeys, 0, mSize, null);
+            Arrays.fill(mValues, 0, mSize, null);
+            mSize = 0;
         }
     }
 }
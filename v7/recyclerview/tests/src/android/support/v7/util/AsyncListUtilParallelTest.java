@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for an AsyncListUtil which loads its tiles in parallel. The loaders are queued instead of
+ * being run, so that each test decides when and on which thread they run. The order in which
+ * tiles are loaded is tested on the JVM, by AsyncListUtilLoadOrderTest.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class AsyncListUtilParallelTest {
+    private static final int TILE_SIZE = 10;
+    private static final int ITEM_COUNT = 100;
+
+    private final LinkedBlockingQueue<Runnable> mLoaders = new LinkedBlockingQueue<>();
+    private final Executor mLoadExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mLoaders.add(command);
+        }
+    };
+
+    private TestDataCallback mDataCallback;
+    private TestViewCallback mViewCallback;
+    private Thread mLoaderThread;
+
+    AsyncListUtil<String> mAsyncListUtil;
+
+    @Before
+    public void setup() {
+        mDataCallback = new TestDataCallback();
+        mViewCallback = new TestViewCallback();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDataCallback.mFillReleased.countDown();
+        if (mLoaderThread != null) {
+            mLoaderThread.join(TimeUnit.SECONDS.toMillis(2));
+        }
+    }
+
+    @Test
+    public void tileLeavingExtendedRangeWhileLoadingIsRecycled() throws Throwable {
+        mViewCallback.setRange(40, 49, 40, 49);
+        mDataCallback.mBlockedPosition = 40;
+        createAsyncListUtil(2);
+        startLoaderThread(takeLoader());
+        waitForLatch("fill @40", mDataCallback.mFillStarted);
+
+        scrollTo(80, 89, 70, 99);
+        takeLoader();
+        mDataCallback.mFillReleased.countDown();
+        mLoaderThread.join(TimeUnit.SECONDS.toMillis(2));
+        assertFalse("loader did not finish", mLoaderThread.isAlive());
+
+        assertEquals(Arrays.asList(40, 80, 70, 90), mDataCallback.getFilledStarts());
+        assertEquals(Arrays.asList("item #40"), mDataCallback.getRecycledFirstItems());
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertNull(mAsyncListUtil.getItem(40));
+                assertEquals("item #80", mAsyncListUtil.getItem(80));
+            }
+        });
+    }
+
+    @Test
+    public void tilesShrinkWhenFillDataIsSlow() throws Throwable {
+        mViewCallback.setRange(0, 9, 0, 9);
+        // 4ms per item takes a whole frame for 4 items, and the cache holds a single full tile
+        mDataCallback.mFillMsPerItem = 4;
+        mDataCallback.mMaxCachedTiles = 1;
+        createAsyncListUtil(1);
+        takeLoader().run();
+
+        scrollTo(50, 59, 50, 59);
+        takeLoader().run();
+
+        final List<int[]> fills = mDataCallback.getFills();
+        assertEquals(TILE_SIZE, fills.get(0)[1]);
+        int position = 50;
+        for (int i = 1; i < fills.size(); i++) {
+            final int[] fill = fills.get(i);
+            assertEquals("tile start", position, fill[0]);
+            assertTrue("tile of " + fill[1] + " items", fill[1] <= 4);
+            assertTrue("array of " + fill[2] + " for " + fill[1] + " items",
+                    fill[2] < fill[1] * 2);
+            position += fill[1];
+        }
+        assertEquals(60, position);
+
+        // The shrunk tiles fill the cache, so the first tile makes room for them
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertNull(mAsyncListUtil.getItem(0));
+                for (int i = 50; i < 60; i++) {
+                    assertEquals("item #" + i, mAsyncListUtil.getItem(i));
+                }
+            }
+        });
+    }
+
+    @Test
+    public void refreshWaitsForLoadingTiles() throws Throwable {
+        mViewCallback.setRange(40, 49, 40, 49);
+        mDataCallback.mBlockedPosition = 40;
+        createAsyncListUtil(1);
+        startLoaderThread(takeLoader());
+        waitForLatch("fill @40", mDataCallback.mFillStarted);
+
+        mDataCallback.mRefreshLatch = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAsyncListUtil.refresh();
+            }
+        });
+        assertFalse("refreshData ran while a tile was being filled",
+                mDataCallback.mRefreshLatch.await(500, TimeUnit.MILLISECONDS));
+
+        mDataCallback.mFillReleased.countDown();
+        waitForLatch("refreshData", mDataCallback.mRefreshLatch);
+        assertEquals(2, mDataCallback.mRefreshCount.get());
+        assertFalse("refreshData ran while a tile was being filled",
+                mDataCallback.mRefreshedWhileFilling);
+    }
+
+    private void createAsyncListUtil(final int parallelism) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAsyncListUtil = new AsyncListUtil<>(String.class, TILE_SIZE, mDataCallback,
+                        mViewCallback, mLoadExecutor, parallelism);
+            }
+        });
+    }
+
+    private void scrollTo(final int first, final int last, final int extStart,
+            final int extEnd) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mViewCallback.setRange(first, last, extStart, extEnd);
+                mAsyncListUtil.onRangeChanged();
+            }
+        });
+    }
+
+    private Runnable takeLoader() throws InterruptedException {
+        final Runnable loader = mLoaders.poll(2, TimeUnit.SECONDS);
+        assertNotNull("timed out waiting for a loader", loader);
+        return loader;
+    }
+
+    private void startLoaderThread(Runnable loader) {
+        mLoaderThread = new Thread(loader);
+        mLoaderThread.start();
+    }
+
+    private static void waitForLatch(String context, CountDownLatch latch)
+            throws InterruptedException {
+        assertTrue("timed out waiting for " + context, latch.await(2, TimeUnit.SECONDS));
+    }
+
+    private static class TestDataCallback extends AsyncListUtil.DataCallback<String> {
+        volatile int mFillMsPerItem;
+        volatile int mMaxCachedTiles = 10;
+        volatile int mBlockedPosition = -1;
+        final CountDownLatch mFillStarted = new CountDownLatch(1);
+        final CountDownLatch mFillReleased = new CountDownLatch(1);
+
+        volatile CountDownLatch mRefreshLatch;
+        final AtomicInteger mRefreshCount = new AtomicInteger();
+        volatile boolean mRefreshedWhileFilling;
+
+        private final AtomicInteger mFilling = new AtomicInteger();
+        // Start position, item count and array length of each fillData call
+        private final List<int[]> mFills = new ArrayList<>();
+        private final List<String> mRecycledFirstItems = new ArrayList<>();
+
+        @Override
+        public int refreshData() {
+            if (mFilling.get() > 0) {
+                mRefreshedWhileFilling = true;
+            }
+            mRefreshCount.incrementAndGet();
+            if (mRefreshLatch != null) {
+                mRefreshLatch.countDown();
+            }
+            return ITEM_COUNT;
+        }
+
+        @Override
+        public void fillData(String[] data, int startPosition, int itemCount) {
+            mFilling.incrementAndGet();
+            synchronized (mFills) {
+                mFills.add(new int[] {startPosition, itemCount, data.length});
+            }
+            if (startPosition == mBlockedPosition) {
+                mFillStarted.countDown();
+                try {
+                    mFillReleased.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (mFillMsPerItem > 0) {
+                SystemClock.sleep(mFillMsPerItem * itemCount);
+            }
+            for (int i = 0; i < itemCount; i++) {
+                data[i] = "item #" + (startPosition + i);
+            }
+            mFilling.decrementAndGet();
+        }
+
+        @Override
+        public void recycleData(String[] data, int itemCount) {
+            synchronized (mRecycledFirstItems) {
+                mRecycledFirstItems.add(data[0]);
+            }
+        }
+
+        @Override
+        public int getMaxCachedTiles() {
+            return mMaxCachedTiles;
+        }
+
+        List<int[]> getFills() {
+            synchronized (mFills) {
+                return new ArrayList<>(mFills);
+            }
+        }
+
+        List<Integer> getFilledStarts() {
+            final List<Integer> starts = new ArrayList<>();
+            for (int[] fill : getFills()) {
+                starts.add(fill[0]);
+            }
+            return starts;
+        }
+
+        List<String> getRecycledFirstItems() {
+            synchronized (mRecycledFirstItems) {
+                return new ArrayList<>(mRecycledFirstItems);
+            }
+        }
+    }
+
+    private static class TestViewCallback extends AsyncListUtil.ViewCallback {
+        private int mFirstVisibleItem;
+        private int mLastVisibleItem;
+        private int mExtendedStart;
+        private int mExtendedEnd;
+
+        void setRange(int first, int last, int extendedStart, int extendedEnd) {
+            mFirstVisibleItem = first;
+            mLastVisibleItem = last;
+            mExtendedStart = extendedStart;
+            mExtendedEnd = extendedEnd;
+        }
+
+        @Override
+        public void getItemRangeInto(int[] outRange) {
+            outRange[0] = mFirstVisibleItem;
+            outRange[1] = mLastVisibleItem;
+        }
+
+        @Override
+        public void extendRangeInto(int[] range, int[] outRange, int scrollHint) {
+            outRange[0] = mExtendedStart;
+            outRange[1] = mExtendedEnd;
+        }
+
+        @Override
+        public void onDataRefresh() {
+        }
+
+        @Override
+        public void onItemLoaded(int position) {
+        }
+    }
+}
@@ -55,7 +55,7 @@ public class ThreadUtilTest {
         mActivityRule.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                ThreadUtil<Integer> threadUtil = new MessageThreadUtil<>();
+                ThreadUtil<Integer> threadUtil = createThreadUtil();
 
                 mMainThreadProxy = threadUtil.getMainThreadProxy(
                         new ThreadUtil.MainThreadCallback<Integer>() {
@@ -110,6 +110,10 @@ public class ThreadUtilTest {
         });
     }
 
+    ThreadUtil<Integer> createThreadUtil() {
+        return new MessageThreadUtil<>();
+    }
+
     @Test
     public void updateItemCount() throws InterruptedException {
         initWait("updateItemCount");
@@ -120,6 +120,21 @@ public class TileListTest {
         assertThat(mTileList.getItemAt(mTileSize + 2), is(9));
     }
 
+    @Test
+    public void addUnalignedTilesAndGet() {
+        mTileList.addOrReplace(createTile(0, 1, 2));
+        mTileList.addOrReplace(createTile(2, 3));
+        mTileList.addOrReplace(createTile(5, 6, 7, 8));
+        assertThat(mTileList.getItemAt(1), is(2));
+        assertThat(mTileList.getItemAt(2), is(3));
+        assertThat(mTileList.getItemAt(3), nullValue());
+        assertThat(mTileList.getItemAt(4), nullValue());
+        assertThat(mTileList.getItemAt(5), is(6));
+        assertThat(mTileList.getItemAt(6), is(7));
+        assertThat(mTileList.getItemAt(7), is(8));
+        assertThat(mTileList.getItemAt(8), nullValue());
+    }
+
     @Test
     public void remove() {
         mTileList.addOrReplace(createTile(0, 1, 2, 3));
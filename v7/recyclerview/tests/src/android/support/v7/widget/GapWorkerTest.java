@@ -132,6 +132,67 @@ public class GapWorkerTest {
         assertEquals(900, list.get(3).distanceToItem);
     }
 
+    @Test
+    public void budgetedTaskOrderTakesTurns() {
+        RecyclerView outer = new RecyclerView(getContext());
+        RecyclerView other = new RecyclerView(getContext());
+        ArrayList<GapWorker.Task> list = new ArrayList<>();
+        list.add(new GapWorker.Task());
+        list.add(new GapWorker.Task());
+        list.add(new GapWorker.Task());
+        list.add(new GapWorker.Task());
+
+        list.get(0).view = outer;
+        list.get(0).rank = 1;
+        list.get(0).distanceToItem = 200;
+
+        list.get(1).view = outer;
+        list.get(1).rank = 0;
+        list.get(1).distanceToItem = 100;
+
+        list.get(2).view = other;
+        list.get(2).rank = 0;
+        list.get(2).distanceToItem = 900;
+
+        list.get(3).view = other;
+        list.get(3).immediate = true;
+        list.get(3).rank = 1;
+        list.get(3).distanceToItem = 1000;
+
+        Collections.sort(list, GapWorker.sBudgetedTaskComparator);
+
+        assertEquals(1000, list.get(0).distanceToItem);
+        assertEquals(100, list.get(1).distanceToItem);
+        assertEquals(900, list.get(2).distanceToItem);
+        assertEquals(200, list.get(3).distanceToItem);
+    }
+
+    @Test
+    public void budgetedTaskOrderCarriedFirst() {
+        RecyclerView recyclerView = new RecyclerView(getContext());
+        ArrayList<GapWorker.Task> list = new ArrayList<>();
+        list.add(new GapWorker.Task());
+        list.add(new GapWorker.Task());
+        list.add(new GapWorker.Task());
+
+        list.get(0).view = recyclerView;
+        list.get(0).distanceToItem = 100;
+
+        list.get(1).view = recyclerView;
+        list.get(1).age = 2;
+        list.get(1).distanceToItem = 300;
+
+        list.get(2).view = recyclerView;
+        list.get(2).age = 1;
+        list.get(2).distanceToItem = 200;
+
+        Collections.sort(list, GapWorker.sBudgetedTaskComparator);
+
+        assertEquals(300, list.get(0).distanceToItem);
+        assertEquals(200, list.get(1).distanceToItem);
+        assertEquals(100, list.get(2).distanceToItem);
+    }
+
     @SdkSuppress(minSdkVersion = Build.VERSION_CODES.LOLLIPOP)
     @Test
     public void gapWorkerWithoutLayout() {
@@ -39,9 +39,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -360,6 +363,54 @@ public class ItemAnimatorV2ApiTest extends BaseRecyclerViewAnimationsTest {
         checkForMainThreadException();
     }
 
+    @Test
+    public void changeWithDisappearingOldHolder() throws Throwable {
+        setupBasic(10);
+        mAnimator.setHolderInfoRecyclingEnabled(true);
+        mAnimator.canReUseCallback = new CanReUseCallback() {
+            @Override
+            public boolean canReUse(RecyclerView.ViewHolder viewHolder, List<Object> payloads) {
+                return false;
+            }
+        };
+        final RecyclerView.ViewHolder oldTarget = mRecyclerView.findViewHolderForAdapterPosition(0);
+        mLayoutManager.expectLayouts(2);
+        mLayoutManager.mOnLayoutCallbacks = new OnLayoutCallbacks() {
+            @Override
+            void onLayoutChildren(RecyclerView.Recycler recycler,
+                    AnimationLayoutManager lm, RecyclerView.State state) {
+                super.onLayoutChildren(recycler, lm, state);
+                if (!state.isPreLayout()) {
+                    // lay out the old version of the changed item as disappearing as well
+                    mLayoutManager.addDisappearingView(oldTarget.itemView);
+                }
+            }
+        };
+        mTestAdapter.changeAndNotify(0, 1);
+        mLayoutManager.waitForLayout(2);
+        checkForMainThreadException();
+        final RecyclerView.ViewHolder newTarget = mRecyclerView.findViewHolderForAdapterPosition(0);
+        assertNotSame("test sanity", oldTarget, newTarget);
+        LoggingInfo pre = mAnimator.preLayoutInfoMap.get(oldTarget);
+        assertNotNull("test sanity", pre);
+        LoggingInfo oldPost = mAnimator.postLayoutInfoMap.get(oldTarget);
+        assertNotNull("test sanity", oldPost);
+
+        assertEquals(1, mAnimator.animateChangeList.size());
+        AnimateChange change = mAnimator.animateChangeList.get(0);
+        assertSame(oldTarget, change.viewHolder);
+        assertSame(newTarget, change.newHolder);
+        assertSame(pre, change.preInfo);
+        // the old holder still disappears from the same pre-layout info, which must not have
+        // been recycled in between
+        assertEquals(1, mAnimator.animateDisappearanceList.size());
+        AnimateDisappearance disappearance = mAnimator.animateDisappearanceList.get(0);
+        assertSame(oldTarget, disappearance.viewHolder);
+        assertSame(pre, disappearance.preInfo);
+        assertSame(oldPost, disappearance.postInfo);
+        assertTrue(mAnimator.recycledInfos.contains(pre));
+    }
+
     @Test
     public void changeToDisappear() throws Throwable {
         setupBasic(10);
@@ -607,6 +658,9 @@ public class ItemAnimatorV2ApiTest extends BaseRecyclerViewAnimationsTest {
         List<AnimatePersistence> animatePersistenceList = new ArrayList<>();
         List<AnimateChange> animateChangeList = new ArrayList<>();
 
+        Set<ItemHolderInfo> recycledInfos =
+                Collections.newSetFromMap(new IdentityHashMap<ItemHolderInfo, Boolean>());
+
         @Override
         public boolean canReuseUpdatedViewHolder(RecyclerView.ViewHolder viewHolder,
                 List<Object> payloads) {
@@ -632,10 +686,23 @@ public class ItemAnimatorV2ApiTest extends BaseRecyclerViewAnimationsTest {
             return loggingInfo;
         }
 
+        @Override
+        public void recycleHolderInfo(@NonNull ItemHolderInfo info) {
+            assertTrue("info should be recycled once", recycledInfos.add(info));
+        }
+
+        private void assertNotRecycled(ItemHolderInfo... infos) {
+            for (ItemHolderInfo info : infos) {
+                assertFalse("info should not be used after it is recycled",
+                        info != null && recycledInfos.contains(info));
+            }
+        }
+
         @Override
         public boolean animateDisappearance(@NonNull RecyclerView.ViewHolder viewHolder,
                 @NonNull ItemHolderInfo preLayoutInfo,
                 @Nullable ItemHolderInfo postLayoutInfo) {
+            assertNotRecycled(preLayoutInfo, postLayoutInfo);
             animateDisappearanceList.add(new AnimateDisappearance(viewHolder,
                     (LoggingInfo) preLayoutInfo, (LoggingInfo) postLayoutInfo));
             assertSame(preLayoutInfoMap.get(viewHolder), preLayoutInfo);
@@ -648,6 +715,7 @@ public class ItemAnimatorV2ApiTest extends BaseRecyclerViewAnimationsTest {
         @Override
         public boolean animateAppearance(@NonNull RecyclerView.ViewHolder viewHolder,
                 ItemHolderInfo preInfo, @NonNull ItemHolderInfo postInfo) {
+            assertNotRecycled(preInfo, postInfo);
             animateAppearanceList.add(
                     new AnimateAppearance(viewHolder, (LoggingInfo) preInfo, (LoggingInfo) postInfo));
             assertSame(preLayoutInfoMap.get(viewHolder), preInfo);
@@ -659,6 +727,7 @@ public class ItemAnimatorV2ApiTest extends BaseRecyclerViewAnimationsTest {
         @Override
         public boolean animatePersistence(@NonNull RecyclerView.ViewHolder viewHolder,
                 @NonNull ItemHolderInfo preInfo, @NonNull ItemHolderInfo postInfo) {
+            assertNotRecycled(preInfo, postInfo);
             animatePersistenceList.add(new AnimatePersistence(viewHolder, (LoggingInfo) preInfo,
                     (LoggingInfo) postInfo));
             dispatchAnimationFinished(viewHolder);
@@ -671,6 +740,7 @@ public class ItemAnimatorV2ApiTest extends BaseRecyclerViewAnimationsTest {
         public boolean animateChange(@NonNull RecyclerView.ViewHolder oldHolder,
                 @NonNull RecyclerView.ViewHolder newHolder, @NonNull ItemHolderInfo preInfo,
                 @NonNull ItemHolderInfo postInfo) {
+            assertNotRecycled(preInfo, postInfo);
             animateChangeList.add(new AnimateChange(oldHolder, newHolder, (LoggingInfo) preInfo,
                     (LoggingInfo) postInfo));
             if (oldHolder != null) {
@@ -17,18 +17,28 @@
 package android.support.v7.widget;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import android.content.Context;
+import android.os.Looper;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 import android.view.View;
+import android.view.ViewGroup;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class RecycledViewPoolTest {
@@ -92,4 +102,164 @@ public class RecycledViewPoolTest {
         assertEquals(0, pool.size());
         assertEquals(0, pool.getRecycledViewCount(3));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void requestStats() {
+        RecyclerView.RecycledViewPool pool = new RecyclerView.RecycledViewPool();
+        pool.factorInRequest(1, false);
+        pool.factorInRequest(1, false);
+        pool.factorInRequest(1, false);
+        pool.factorInRequest(1, true);
+        pool.factorInRequest(1, false);
+
+        assertEquals(5, pool.getRequestCount(1));
+        assertEquals(4, pool.getCreateMissCount(1));
+        assertEquals(0, pool.getRequestCount(2));
+        assertEquals(0, pool.getCreateMissCount(2));
+
+        // longest run of misses
+        assertEquals(3, pool.getPrefillCount(1));
+        pool.setMaxRecycledViews(1, 2);
+        assertEquals(2, pool.getPrefillCount(1));
+    }
+
+    static class PrefillAdapter extends RecyclerView.Adapter<MockViewHolder> {
+        final boolean mOffMainThread;
+        volatile int mCreateCount;
+        volatile Thread mCreateThread;
+
+        PrefillAdapter(boolean offMainThread) {
+            mOffMainThread = offMainThread;
+        }
+
+        @Override
+        public MockViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            mCreateCount++;
+            mCreateThread = Thread.currentThread();
+            return new MockViewHolder(parent.getContext());
+        }
+
+        @Override
+        public void onBindViewHolder(MockViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return 10;
+        }
+
+        @Override
+        public boolean canCreateViewHolderOffMainThread(int viewType) {
+            return mOffMainThread;
+        }
+    }
+
+    @Test
+    public void prefill() {
+        final RecyclerView[] recyclerView = new RecyclerView[1];
+        final PrefillAdapter adapter = new PrefillAdapter(false);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView[0] = new RecyclerView(getContext());
+                recyclerView[0].setAdapter(adapter);
+                recyclerView[0].getRecycledViewPool().setMaxRecycledViews(0, 3);
+                recyclerView[0].prefillRecycledViewPool(0, 4);
+                while (recyclerView[0].mPoolPrefiller.queueIdle()) {
+                    // time budget spent, keep going
+                }
+            }
+        });
+
+        // capped by max recycled views
+        assertEquals(3, recyclerView[0].getRecycledViewPool().getRecycledViewCount(0));
+        assertEquals(3, adapter.mCreateCount);
+        assertSame(Looper.getMainLooper().getThread(), adapter.mCreateThread);
+    }
+
+    @Test
+    public void prefillFromObservedMisses() {
+        final RecyclerView[] recyclerView = new RecyclerView[1];
+        final PrefillAdapter adapter = new PrefillAdapter(false);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView[0] = new RecyclerView(getContext());
+                recyclerView[0].setAdapter(adapter);
+                RecyclerView.RecycledViewPool pool = recyclerView[0].getRecycledViewPool();
+                pool.factorInRequest(0, false);
+                pool.factorInRequest(0, false);
+                pool.factorInRequest(1, true);
+                recyclerView[0].prefillRecycledViewPool();
+                while (recyclerView[0].mPoolPrefiller.queueIdle()) {
+                    // time budget spent, keep going
+                }
+            }
+        });
+
+        assertEquals(2, recyclerView[0].getRecycledViewPool().getRecycledViewCount(0));
+        assertEquals(0, recyclerView[0].getRecycledViewPool().getRecycledViewCount(1));
+    }
+
+    @Test
+    public void prefillOffMainThread() throws InterruptedException {
+        final RecyclerView[] recyclerView = new RecyclerView[1];
+        final PrefillAdapter adapter = new PrefillAdapter(true);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView[0] = new RecyclerView(getContext());
+                recyclerView[0].setAdapter(adapter);
+                recyclerView[0].setViewHolderCreationExecutor(executor);
+                recyclerView[0].prefillRecycledViewPool(0, 2);
+                recyclerView[0].mPoolPrefiller.queueIdle();
+            }
+        });
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        // ViewHolders are handed to the pool on the main thread
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        assertEquals(2, recyclerView[0].getRecycledViewPool().getRecycledViewCount(0));
+        assertEquals(2, adapter.mCreateCount);
+        assertNotSame(Looper.getMainLooper().getThread(), adapter.mCreateThread);
+    }
+
+    @Test
+    public void prefetchCreatesOffMainThread() throws InterruptedException {
+        final RecyclerView[] recyclerView = new RecyclerView[1];
+        final PrefillAdapter adapter = new PrefillAdapter(true);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final boolean[] creating = new boolean[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView[0] = new RecyclerView(getContext());
+                recyclerView[0].setAdapter(adapter);
+                recyclerView[0].setViewHolderCreationExecutor(executor);
+                creating[0] = recyclerView[0].createViewHolderOffMainThread(3);
+                // already being created
+                creating[1] = recyclerView[0].createViewHolderOffMainThread(4);
+            }
+        });
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        assertTrue(creating[0]);
+        assertTrue(creating[1]);
+        assertEquals(1, adapter.mCreateCount);
+        assertEquals(1, recyclerView[0].getRecycledViewPool().getRecycledViewCount(0));
+        assertNotSame(Looper.getMainLooper().getThread(), adapter.mCreateThread);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // the pool has one, so prefetch only needs to bind
+                creating[0] = recyclerView[0].createViewHolderOffMainThread(3);
+            }
+        });
+        assertFalse(creating[0]);
+    }
+}
@@ -37,6 +37,7 @@ import java.util.concurrent.TimeUnit;
 public class RecyclerViewPrefetchTest extends BaseRecyclerViewInstrumentationTest {
     private class PrefetchLayoutManager extends TestLayoutManager {
         CountDownLatch prefetchLatch = new CountDownLatch(1);
+        int prefetchDistance = 0;
 
         @Override
         public boolean canScrollVertically() {
@@ -60,7 +61,7 @@ public class RecyclerViewPrefetchTest extends BaseRecyclerViewInstrumentationTes
         public void collectAdjacentPrefetchPositions(int dx, int dy, RecyclerView.State state,
                 LayoutPrefetchRegistry layoutPrefetchRegistry) {
             prefetchLatch.countDown();
-            layoutPrefetchRegistry.addPosition(6, 0);
+            layoutPrefetchRegistry.addPosition(6, prefetchDistance);
         }
 
         void waitForPrefetch(int time) throws InterruptedException {
@@ -99,4 +100,75 @@ public class RecyclerViewPrefetchTest extends BaseRecyclerViewInstrumentationTes
         assertThat(cachedViews().size(), is(1));
         assertThat(cachedViews().get(0).getAdapterPosition(), is(6));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void prefetchMetricsTest() throws Throwable {
+        RecyclerView recyclerView = new RecyclerView(getActivity());
+        recyclerView.setAdapter(new TestAdapter(50));
+        PrefetchLayoutManager layout = new PrefetchLayoutManager();
+        recyclerView.setLayoutManager(layout);
+        recyclerView.setBudgetedPrefetchEnabled(true);
+        final int[] prefetchedCount = new int[1];
+        recyclerView.setPrefetchMetricsListener(new RecyclerView.PrefetchMetricsListener() {
+            @Override
+            public void onPrefetchMetrics(RecyclerView recyclerView, int prefetched,
+                    int deadlineMissCount, int wastedCount) {
+                prefetchedCount[0] += prefetched;
+            }
+        });
+
+        {
+            layout.expectLayouts(1);
+            setRecyclerView(recyclerView);
+            layout.waitForLayout(10);
+        }
+
+        smoothScrollBy(50);
+
+        layout.waitForPrefetch(10);
+        assertThat(cachedViews().size(), is(1));
+        assertThat(cachedViews().get(0).getAdapterPosition(), is(6));
+        assertThat(prefetchedCount[0], is(1));
+    }
+
+    @Test
+    public void carriedTaskIsPrefetchedAndCountedOnce() throws Throwable {
+        final RecyclerView recyclerView = new RecyclerView(getActivity());
+        recyclerView.setAdapter(new TestAdapter(50));
+        PrefetchLayoutManager layout = new PrefetchLayoutManager();
+        // farther than the view moves in a frame, so that the task is not immediate
+        layout.prefetchDistance = 100;
+        recyclerView.setLayoutManager(layout);
+        recyclerView.setBudgetedPrefetchEnabled(true);
+
+        {
+            layout.expectLayouts(1);
+            setRecyclerView(recyclerView);
+            layout.waitForLayout(10);
+        }
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final GapWorker gapWorker = recyclerView.mGapWorker;
+                // a deadline in the past carries the task to the next frame, up to 3 times,
+                // while the layout manager keeps asking for the same position
+                for (int frame = 0; frame < GapWorker.MAX_CARRIED_FRAMES; frame++) {
+                    gapWorker.prefetchBudgeted(0);
+                    assertThat(gapWorker.mCarriedTasks.size(), is(1));
+                    assertThat(gapWorker.mCarriedTasks.get(0).age, is(frame + 1));
+                }
+                assertThat(recyclerView.mPrefetchDeadlineMissCount,
+                        is(GapWorker.MAX_CARRIED_FRAMES));
+
+                gapWorker.prefetchBudgeted(RecyclerView.FOREVER_NS);
+                assertThat(gapWorker.mCarriedTasks.size(), is(0));
+                assertThat(recyclerView.mPrefetchedCount, is(1));
+                assertThat(recyclerView.mPrefetchDeadlineMissCount,
+                        is(GapWorker.MAX_CARRIED_FRAMES));
+            }
+        });
+        assertThat(cachedViews().size(), is(1));
+        assertThat(cachedViews().get(0).getAdapterPosition(), is(6));
+    }
+}
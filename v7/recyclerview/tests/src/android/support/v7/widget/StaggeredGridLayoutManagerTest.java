@@ -1097,20 +1097,20 @@ public class StaggeredGridLayoutManagerTest extends BaseStaggeredGridLayoutManag
         }
         waitFirstLayout();
         smoothScrollToPosition(50);
-        int prevSpanId = mLayoutManager.mLazySpanLookup.mData[30];
+        int prevSpanId = mLayoutManager.mLazySpanLookup.getSpan(30);
         mAdapter.changeAndNotify(15, 2);
         Thread.sleep(200);
         assertEquals("Invalidation should happen within full span item boundaries", prevSpanId,
-                mLayoutManager.mLazySpanLookup.mData[30]);
+                mLayoutManager.mLazySpanLookup.getSpan(30));
         assertEquals("item in invalidated range should have clear span id",
-                LayoutParams.INVALID_SPAN_ID, mLayoutManager.mLazySpanLookup.mData[16]);
+                LayoutParams.INVALID_SPAN_ID, mLayoutManager.mLazySpanLookup.getSpan(16));
         smoothScrollToPosition(85);
-        int[] prevSpans = copyOfRange(mLayoutManager.mLazySpanLookup.mData, 62, 85);
+        int[] prevSpans = copyOfRange(mLayoutManager.mLazySpanLookup.getSpans(), 62, 85);
         mAdapter.deleteAndNotify(55, 2);
         Thread.sleep(200);
         assertEquals("item in invalidated range should have clear span id",
-                LayoutParams.INVALID_SPAN_ID, mLayoutManager.mLazySpanLookup.mData[16]);
-        int[] newSpans = copyOfRange(mLayoutManager.mLazySpanLookup.mData, 60, 83);
+                LayoutParams.INVALID_SPAN_ID, mLayoutManager.mLazySpanLookup.getSpan(16));
+        int[] newSpans = copyOfRange(mLayoutManager.mLazySpanLookup.getSpans(), 60, 83);
         assertSpanAssignmentEquality("valid spans should be shifted for deleted item", prevSpans,
                 newSpans, 0, 0, newSpans.length);
     }
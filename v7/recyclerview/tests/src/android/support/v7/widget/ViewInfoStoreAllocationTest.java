@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.v7.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that tracking ViewHolders for item animations does not allocate once RecyclerView has
+ * run a few animated layouts.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class ViewInfoStoreAllocationTest {
+    private static final int ITEM_COUNT = 100;
+    private static final int WARM_UP_LAYOUTS = 20;
+    private static final int LAYOUT_COUNT = 50;
+
+    private RecyclerView mRecyclerView;
+    private Object[] mSink;
+
+    @Before
+    public void setup() throws Exception {
+        final Context context = InstrumentationRegistry.getContext();
+        mRecyclerView = new RecyclerView(context);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(context));
+        mRecyclerView.setAdapter(new RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+            @Override
+            public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                View view = new View(parent.getContext());
+                view.setMinimumHeight(10);
+                return new RecyclerView.ViewHolder(view) {};
+            }
+
+            @Override
+            public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            }
+
+            @Override
+            public int getItemCount() {
+                return ITEM_COUNT;
+            }
+        });
+        final DefaultItemAnimator animator = new DefaultItemAnimator();
+        assertTrue(animator.isHolderInfoRecyclingEnabled());
+        mRecyclerView.setItemAnimator(animator);
+        mRecyclerView.onAttachedToWindow();
+        layout(false);
+        assertEquals("test sanity", ITEM_COUNT, mRecyclerView.getChildCount());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (mRecyclerView.isAttachedToWindow()) {
+            mRecyclerView.onDetachedFromWindow();
+        }
+    }
+
+    private void layout(boolean animated) {
+        if (animated) {
+            mRecyclerView.getLayoutManager().requestSimpleAnimationsInNextLayout();
+        }
+        mRecyclerView.requestLayout();
+        mRecyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(200, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(ITEM_COUNT * 10, View.MeasureSpec.EXACTLY));
+        mRecyclerView.layout(0, 0, 200, ITEM_COUNT * 10);
+    }
+
+    @SuppressWarnings("deprecation")
+    private long countAllocations(boolean animated) {
+        for (int i = 0; i < WARM_UP_LAYOUTS; i++) {
+            layout(animated);
+        }
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < LAYOUT_COUNT; i++) {
+                layout(animated);
+            }
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean canCountAllocations() {
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            mSink = new Object[] {new Object(), new Object()};
+            return Debug.getThreadAllocCount() > 0;
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    @Test
+    public void animatedLayoutDoesNotAllocateAfterWarmUp() throws Throwable {
+        assumeTrue("this VM does not count allocations", canCountAllocations());
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Compare against the same layouts without animations, so only the objects
+                // allocated to record, diff and recycle ItemHolderInfos are counted.
+                final long plain = countAllocations(false);
+                final long animated = countAllocations(true);
+                assertTrue("animated layouts allocated " + animated + " objects, plain layouts "
+                        + plain + " in " + LAYOUT_COUNT + " layouts of " + ITEM_COUNT + " items",
+                        animated - plain < LAYOUT_COUNT);
+            }
+        });
+    }
+}